@@ -0,0 +1,175 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.batch;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.research.bleth.simulator.AbstractSimulation;
+import com.google.research.bleth.simulator.AwakenessStrategyFactory;
+import com.google.research.bleth.simulator.MovementStrategyFactory;
+import com.google.research.bleth.simulator.TracingSimulation;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The configuration of a batch of simulations, read from a JSON file of the form:
+ * <pre>
+ * {
+ *   "sink": "FILE",
+ *   "outputDirectory": "simulations",
+ *   "simulations": [
+ *     {"description": "large board", "roundsNum": 1000, "rowsNum": 500, "colsNum": 500, "beaconsNum": 100,
+ *      "observersNum": 5000, "awakenessCycle": 10, "awakenessDuration": 2, "transmissionThresholdRadius": 3,
+ *      "repetitions": 3, "seed": 42, "parallelism": 8}
+ *   ]
+ * }
+ * </pre>
+ * Simulation parameters are named as the properties of the simulation metadata, and may additionally set the
+ * beacons' and observers' movement strategies, the observers' awakeness strategy, the run mode, the number of
+ * threads running each simulation ('parallelism') and the keyframe interval. Unset optional parameters use the
+ * defaults of the simulation builder, and strategies default to random movement and fixed awakeness.
+ */
+final class BatchConfig {
+
+    /** An enum representing the sink receiving the data of every simulation of the batch. */
+    enum SinkType {
+        MEMORY, // keep each simulation's data in memory until it completes, without writing it.
+        FILE, // write each simulation's data to the output directory.
+        DATASTORE // write each simulation's data to the db.
+    }
+
+    private SinkType sink = SinkType.MEMORY;
+    private String outputDirectory = "simulations";
+    private List<SimulationConfig> simulations = new ArrayList<>();
+
+    /** The configuration of the simulations of a single set of parameters. */
+    static final class SimulationConfig {
+        private String description = "Batch simulation";
+        private int roundsNum;
+        private int rowsNum;
+        private int colsNum;
+        private int beaconsNum;
+        private int observersNum;
+        private MovementStrategyFactory.Type beaconMovementStrategy = MovementStrategyFactory.Type.RANDOM;
+        private MovementStrategyFactory.Type observerMovementStrategy = MovementStrategyFactory.Type.RANDOM;
+        private AwakenessStrategyFactory.Type observerAwakenessStrategy = AwakenessStrategyFactory.Type.FIXED;
+        private int awakenessCycle;
+        private int awakenessDuration;
+        private double transmissionThresholdRadius;
+        private AbstractSimulation.RunMode runMode = AbstractSimulation.RunMode.FULL;
+        private int repetitions = 1;
+        private Integer parallelism; // null for the builder's default.
+        private Integer keyframeInterval; // null for the builder's default.
+        private Long seed; // null for a random seed of every repetition.
+
+        /** Returns the description of the simulations. */
+        String getDescription() {
+            return description;
+        }
+
+        /** Returns the number of independent simulations of the parameters. */
+        int getRepetitions() {
+            return repetitions;
+        }
+
+        /**
+         * Create a builder of a repetition of the simulation, without a sink.
+         * @param repetition is the index of the repetition, whose seed is offset by its index if a seed is set.
+         * @return a simulation builder set with the parameters.
+         */
+        AbstractSimulation.Builder toSimulationBuilder(int repetition) {
+            AbstractSimulation.Builder builder = new TracingSimulation.Builder()
+                    .setDescription(description)
+                    .setMaxNumberOfRounds(roundsNum)
+                    .setRowNum(rowsNum)
+                    .setColNum(colsNum)
+                    .setBeaconsNum(beaconsNum)
+                    .setObserversNum(observersNum)
+                    .setBeaconMovementStrategyType(beaconMovementStrategy)
+                    .setObserverMovementStrategyType(observerMovementStrategy)
+                    .setAwakenessStrategyType(observerAwakenessStrategy)
+                    .setAwakenessCycle(awakenessCycle)
+                    .setAwakenessDuration(awakenessDuration)
+                    .setTransmissionThresholdRadius(transmissionThresholdRadius)
+                    .setRunMode(runMode);
+            if (parallelism != null) {
+                builder.setParallelism(parallelism);
+            }
+            if (keyframeInterval != null) {
+                builder.setKeyframeInterval(keyframeInterval);
+            }
+            if (seed != null) {
+                builder.setSeed(seed + repetition);
+            }
+            return builder;
+        }
+    }
+
+    /**
+     * Read a batch configuration from a JSON file.
+     * @param configFile is the path of the file.
+     * @return the batch configuration.
+     * @throws IOException if the file can't be read.
+     * @throws IllegalArgumentException if the file isn't a legal batch configuration.
+     */
+    static BatchConfig read(Path configFile) throws IOException {
+        return parse(new String(Files.readAllBytes(configFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse a batch configuration.
+     * @param json is the configuration as a JSON string.
+     * @return the batch configuration.
+     * @throws IllegalArgumentException if the string isn't a legal batch configuration.
+     */
+    static BatchConfig parse(String json) {
+        BatchConfig config;
+        try {
+            config = new Gson().fromJson(json, BatchConfig.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Batch configuration is not legal JSON.", e);
+        }
+        checkArgument(config != null, "Batch configuration is empty.");
+        checkArgument(config.sink != null, "Sink type is not legal.");
+        checkArgument(config.simulations != null && !config.simulations.isEmpty(), "No simulations are configured.");
+        for (SimulationConfig simulation : config.simulations) {
+            checkArgument(simulation.repetitions > 0, "Number of repetitions must be positive.");
+            simulation.toSimulationBuilder(/* repetition= */ 0).validateArguments();
+        }
+        return config;
+    }
+
+    /** Returns the type of the sink of every simulation. */
+    SinkType getSink() {
+        return sink;
+    }
+
+    /** Returns the directory simulations are written to by a file sink. */
+    String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /** Returns the configurations of the simulations of the batch, in the order they run. */
+    ImmutableList<SimulationConfig> getSimulations() {
+        return ImmutableList.copyOf(simulations);
+    }
+}
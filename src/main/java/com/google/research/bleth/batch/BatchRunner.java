@@ -0,0 +1,107 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.batch;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.research.bleth.simulator.AbstractSimulation;
+import com.google.research.bleth.simulator.DatastoreStateStore;
+import com.google.research.bleth.simulator.ISimulationSink;
+import com.google.research.bleth.simulator.InMemorySink;
+import com.google.research.bleth.simulator.LocalFileSink;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * A command line entry point for running a batch of simulations outside of the servlet container, such as on a
+ * compute machine or when profiling the simulation engine. The single argument is the path of a batch configuration
+ * file, as described by {@link BatchConfig}. Simulations run one after the other, each on its own sink, and the
+ * duration of every phase of each simulation and of the whole batch is printed.
+ * When the sink is the db, the App Engine API environment must be installed on the running thread, as for
+ * {@link com.google.research.bleth.experiments.ExperimentRunner}.
+ */
+public class BatchRunner {
+
+    public static void main(String[] args) throws IOException {
+        checkArgument(args.length == 1, "Usage: BatchRunner <batch configuration file>");
+        run(BatchConfig.read(Paths.get(args[0])));
+    }
+
+    /**
+     * Run every simulation of a batch and print its phases' durations.
+     * @param config is the configuration of the batch.
+     * @return the durations of the phases summed over all simulations of the batch.
+     */
+    static Map<AbstractSimulation.Phase, Duration> run(BatchConfig config) {
+        if (config.getSink() == BatchConfig.SinkType.DATASTORE) {
+            checkState(ApiProxy.getCurrentEnvironment() != null && ApiProxy.getDelegate() != null,
+                    "No App Engine API environment is installed, so the db can't be accessed.");
+        }
+        Map<AbstractSimulation.Phase, Duration> batchDurations = new EnumMap<>(AbstractSimulation.Phase.class);
+        for (AbstractSimulation.Phase phase : AbstractSimulation.Phase.values()) {
+            batchDurations.put(phase, Duration.ZERO);
+        }
+
+        long batchStart = System.nanoTime();
+        int simulationsNum = 0;
+        for (BatchConfig.SimulationConfig simulationConfig : config.getSimulations()) {
+            for (int repetition = 0; repetition < simulationConfig.getRepetitions(); repetition++) {
+                long start = System.nanoTime();
+                AbstractSimulation.Builder builder = simulationConfig.toSimulationBuilder(repetition);
+                AbstractSimulation simulation = builder
+                        .setSink(createSink(config, builder.getKeyframeInterval()))
+                        .build();
+                Duration buildDuration = Duration.ofNanos(System.nanoTime() - start);
+                simulation.run();
+                Duration totalDuration = Duration.ofNanos(System.nanoTime() - start);
+
+                Map<AbstractSimulation.Phase, Duration> durations = simulation.getPhasesDurations();
+                durations.forEach((phase, duration) -> batchDurations.merge(phase, duration, Duration::plus));
+                System.out.println("Simulation " + simulation.getId() + " (" + simulationConfig.getDescription() +
+                        ", repetition " + (repetition + 1) + "/" + simulationConfig.getRepetitions() + ") ran in " +
+                        totalDuration.toMillis() + " ms, build " + buildDuration.toMillis() + " ms, " + format(durations));
+                simulationsNum++;
+            }
+        }
+        System.out.println(simulationsNum + " simulations ran in " +
+                Duration.ofNanos(System.nanoTime() - batchStart).toMillis() + " ms, " + format(batchDurations));
+        return batchDurations;
+    }
+
+    private static ISimulationSink createSink(BatchConfig config, int keyframeInterval) {
+        switch (config.getSink()) {
+            case MEMORY:
+                return new InMemorySink();
+            case FILE:
+                return new LocalFileSink(Paths.get(config.getOutputDirectory()));
+            case DATASTORE:
+                return new DatastoreStateStore().createSink(keyframeInterval);
+            default:
+                throw new IllegalArgumentException("Unknown sink type: " + config.getSink());
+        }
+    }
+
+    private static String format(Map<AbstractSimulation.Phase, Duration> durations) {
+        StringJoiner formatted = new StringJoiner(", ");
+        durations.forEach((phase, duration) -> formatted.add(phase + " " + duration.toMillis() + " ms"));
+        return formatted.toString();
+    }
+}
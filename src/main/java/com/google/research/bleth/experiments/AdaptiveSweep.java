@@ -0,0 +1,408 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.StateStores;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * An adaptive sweep of the parameter space of an experiment, as an alternative to running every configuration of the
+ * experiment's ranges. The sweep first runs a coarse grid, made of the endpoints and middle of every range, and then
+ * repeatedly refines the grid between neighbouring configurations whose statistic differs by much, until no such
+ * neighbours remain or the budget of simulations is exhausted.
+ * Rather than a fixed number of times, each configuration is replicated until the confidence interval of the mean of
+ * its statistic is narrow enough. Since each round of simulations depends on the statistics of the previous ones,
+ * a sweep runs in the current process, using an experiment executor.
+ */
+public final class AdaptiveSweep {
+    private static final Logger log = Logger.getLogger(AdaptiveSweep.class.getName());
+    private static final Gson gson = new Gson(); // Used for json serialization.
+    private static final int COARSE_VALUES_NUM = 3; // the endpoints and middle of every range.
+
+    private final ExperimentExecutor executor;
+    private final String statistic;
+    private final int minReplicasNum;
+    private final int maxReplicasNum;
+    private final double tolerance;
+    private final double refinementThreshold;
+    private final int maxSimulationsNum;
+
+    /** A builder of adaptive sweeps. */
+    public static class Builder {
+        private final ExperimentExecutor executor;
+        private String statistic = Schema.StatisticsState.observedPercent;
+        private int minReplicasNum = 2;
+        private int maxReplicasNum = 16;
+        private double tolerance = 0.05;
+        private double refinementThreshold = 0.1;
+        private int maxSimulationsNum = Integer.MAX_VALUE;
+
+        /**
+         * Create a new builder of adaptive sweeps.
+         * @param executor is the executor running the simulations of the sweep.
+         */
+        public Builder(ExperimentExecutor executor) {
+            this.executor = checkNotNull(executor);
+        }
+
+        /**
+         * Set the statistic whose mean drives the sweep, named as in {@link ConfigurationStatistics}.
+         * @param statistic is the name of the statistic (the observed percent by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setStatistic(String statistic) {
+            this.statistic = statistic;
+            return this;
+        }
+
+        /**
+         * Set the number of replicas every configuration runs before its confidence interval is checked.
+         * @param minReplicasNum is the minimal number of replicas of a configuration (2 by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setMinReplicasNum(int minReplicasNum) {
+            this.minReplicasNum = minReplicasNum;
+            return this;
+        }
+
+        /**
+         * Set the number of replicas after which a configuration stops, even if its confidence interval is wide.
+         * @param maxReplicasNum is the maximal number of replicas of a configuration (16 by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setMaxReplicasNum(int maxReplicasNum) {
+            this.maxReplicasNum = maxReplicasNum;
+            return this;
+        }
+
+        /**
+         * Set the relative width at which the replicas of a configuration stop.
+         * @param tolerance is the maximal half width of the 95% confidence interval of a converged configuration,
+         * relative to the absolute value of its mean (0.05 by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * Set the difference of the statistic between neighbouring configurations above which the grid is refined.
+         * @param refinementThreshold is the minimal difference of neighbours refined, relative to the range of means
+         * observed so far (0.1 by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setRefinementThreshold(double refinementThreshold) {
+            this.refinementThreshold = refinementThreshold;
+            return this;
+        }
+
+        /**
+         * Set the budget of the sweep, after which no more simulations are run.
+         * @param maxSimulationsNum is the maximal number of simulations of the sweep (unbounded by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setMaxSimulationsNum(int maxSimulationsNum) {
+            this.maxSimulationsNum = maxSimulationsNum;
+            return this;
+        }
+
+        public AdaptiveSweep build() {
+            checkNotNull(statistic);
+            checkArgument(minReplicasNum > 0, "Minimal number of replicas must be positive.");
+            checkArgument(maxReplicasNum >= minReplicasNum,
+                    "Maximal number of replicas must not be smaller than the minimal number of replicas.");
+            checkArgument(tolerance >= 0, "Tolerance must not be negative.");
+            checkArgument(refinementThreshold >= 0, "Refinement threshold must not be negative.");
+            checkArgument(maxSimulationsNum > 0, "Maximal number of simulations must be positive.");
+            return new AdaptiveSweep(this);
+        }
+    }
+
+    /**
+     * Create an adaptive sweep whose settings are read from optional parameters named as the builder's settings:
+     * 'statistic', 'minReplicasNum', 'maxReplicasNum', 'tolerance', 'refinementThreshold' and 'maxSimulationsNum'.
+     * @param executor is the executor running the simulations of the sweep.
+     * @param parameters maps a parameter name to its value as a string, or to null if it isn't set.
+     * @return an adaptive sweep, using the default of every setting whose parameter isn't set.
+     */
+    public static AdaptiveSweep create(ExperimentExecutor executor, Function<String, String> parameters) {
+        Builder builder = new Builder(executor);
+        Optional.ofNullable(parameters.apply("statistic")).ifPresent(builder::setStatistic);
+        Optional.ofNullable(parameters.apply("minReplicasNum")).map(Integer::parseInt).ifPresent(builder::setMinReplicasNum);
+        Optional.ofNullable(parameters.apply("maxReplicasNum")).map(Integer::parseInt).ifPresent(builder::setMaxReplicasNum);
+        Optional.ofNullable(parameters.apply("tolerance")).map(Double::parseDouble).ifPresent(builder::setTolerance);
+        Optional.ofNullable(parameters.apply("refinementThreshold")).map(Double::parseDouble)
+                .ifPresent(builder::setRefinementThreshold);
+        Optional.ofNullable(parameters.apply("maxSimulationsNum")).map(Integer::parseInt)
+                .ifPresent(builder::setMaxSimulationsNum);
+        return builder.build();
+    }
+
+    /**
+     * Write a new open experiment to the db, sweep the parameter space and close the experiment once the sweep completes.
+     * Blocks until all simulations complete.
+     * @param experimentTitle is the title of the experiment.
+     * @param beaconsNum is the number of beacons of every simulation.
+     * @param parametersValues are the values of every ranged parameter in ascending order, as created by
+     * {@link ExperimentConfigurations#createParametersValues}.
+     * @param listener is notified after each simulation completes, with the number of simulations scheduled so far.
+     * @return the unique Id assigned to the experiment as a string.
+     */
+    public String execute(String experimentTitle, int beaconsNum, List<List<PropertyWrapper>> parametersValues,
+                          ExperimentExecutor.ProgressListener listener) {
+        checkNotNull(listener);
+        String experimentId = StateStores.get().createOpenExperiment(experimentTitle);
+        Run run = new Run(experimentId, experimentTitle, beaconsNum, parametersValues, listener);
+
+        List<Integer> valuesNums = parametersValues.stream().map(List::size).collect(Collectors.toList());
+        Set<List<Integer>> points = run.legal(coarseGrid(valuesNums));
+        while (!points.isEmpty() && run.simulationsNum < maxSimulationsNum) {
+            run.replicateUntilConverged(points);
+            points = run.legal(refine(run.means(), refinementThreshold));
+            // Points whose replicas all failed have no statistics, but are attempted points which aren't run again.
+            points.removeAll(run.attemptsNums.keySet());
+        }
+        log.info("Adaptive sweep of experiment " + experimentId + " ran " + run.simulationsNum + " simulations of " +
+                run.statistics.size() + " configurations.");
+
+        try {
+            StateStores.get().closeExperiment(experimentId, run.failedNum);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Experiment " + experimentId + " was deleted while running.", e);
+        }
+        return experimentId;
+    }
+
+    /**
+     * Returns the points of the coarse grid, where a point stores an index into the values of every parameter.
+     * The coarse grid stores the endpoints and middle of every parameter's values.
+     */
+    static Set<List<Integer>> coarseGrid(List<Integer> valuesNums) {
+        List<List<Integer>> coarseIndices = new ArrayList<>();
+        for (int valuesNum : valuesNums) {
+            checkArgument(valuesNum > 0, "Every parameter must have a value.");
+            coarseIndices.add(valuesNum <= COARSE_VALUES_NUM
+                    ? indices(valuesNum)
+                    : ImmutableList.of(0, (valuesNum - 1) / 2, valuesNum - 1));
+        }
+        return new LinkedHashSet<>(Lists.cartesianProduct(coarseIndices));
+    }
+
+    /**
+     * Returns the points refining the grid, which are the middle points between neighbours whose means differ by more than
+     * the threshold, where neighbours differ only in the value of a single parameter and no point between them is known.
+     * @param means maps every known point of the grid to the mean of its statistic.
+     * @param refinementThreshold is the minimal difference of refined neighbours, relative to the range of the means.
+     * @return the points to add to the grid, which may include known points.
+     */
+    static Set<List<Integer>> refine(Map<List<Integer>, Double> means, double refinementThreshold) {
+        double minMean = means.values().stream().filter(Double::isFinite).mapToDouble(Double::doubleValue)
+                .min().orElse(0);
+        double maxMean = means.values().stream().filter(Double::isFinite).mapToDouble(Double::doubleValue)
+                .max().orElse(0);
+        double threshold = refinementThreshold * (maxMean - minMean);
+        Set<List<Integer>> points = new LinkedHashSet<>();
+        if (maxMean == minMean) {
+            return points;
+        }
+
+        for (List<Integer> point : means.keySet()) {
+            for (int parameter = 0; parameter < point.size(); parameter++) {
+                List<Integer> neighbour = nextNeighbour(means.keySet(), point, parameter);
+                if (neighbour == null || neighbour.get(parameter) - point.get(parameter) < 2) {
+                    continue;
+                }
+                double difference = Math.abs(means.get(neighbour) - means.get(point));
+                if (difference > threshold) { // false if either mean is NaN.
+                    List<Integer> middle = new ArrayList<>(point);
+                    middle.set(parameter, (point.get(parameter) + neighbour.get(parameter)) / 2);
+                    points.add(ImmutableList.copyOf(middle));
+                }
+            }
+        }
+        return points;
+    }
+
+    /** Returns the closest point above a point which differs from it only in a single parameter, or null if none. */
+    private static List<Integer> nextNeighbour(Set<List<Integer>> points, List<Integer> point, int parameter) {
+        List<Integer> nextNeighbour = null;
+        for (List<Integer> other : points) {
+            if (other.get(parameter) <= point.get(parameter)
+                    || (nextNeighbour != null && other.get(parameter) >= nextNeighbour.get(parameter))) {
+                continue;
+            }
+            boolean isNeighbour = true;
+            for (int i = 0; i < point.size() && isNeighbour; i++) {
+                isNeighbour = i == parameter || other.get(i).equals(point.get(i));
+            }
+            if (isNeighbour) {
+                nextNeighbour = other;
+            }
+        }
+        return nextNeighbour;
+    }
+
+    private static List<Integer> indices(int valuesNum) {
+        List<Integer> indices = new ArrayList<>(valuesNum);
+        for (int i = 0; i < valuesNum; i++) {
+            indices.add(i);
+        }
+        return ImmutableList.copyOf(indices);
+    }
+
+    /** The state of a single execution of the sweep. */
+    private final class Run {
+        private final String experimentId;
+        private final String experimentTitle;
+        private final int beaconsNum;
+        private final List<List<PropertyWrapper>> parametersValues;
+        private final ExperimentExecutor.ProgressListener listener;
+        private final Map<List<Integer>, ConfigurationStatistics> statistics = new HashMap<>(); // of every run point.
+        private final Map<List<Integer>, Integer> attemptsNums = new HashMap<>(); // including failed simulations.
+        private int simulationsNum = 0;
+        private int succeededNum = 0;
+        private int failedNum = 0;
+
+        private Run(String experimentId, String experimentTitle, int beaconsNum,
+                    List<List<PropertyWrapper>> parametersValues, ExperimentExecutor.ProgressListener listener) {
+            this.experimentId = experimentId;
+            this.experimentTitle = experimentTitle;
+            this.beaconsNum = beaconsNum;
+            this.parametersValues = parametersValues;
+            this.listener = listener;
+        }
+
+        /**
+         * Run rounds of replicas of the points, until every point's confidence interval converges, it reaches the maximal
+         * number of replicas, or the budget is exhausted. Each round doubles the replicas of the unconverged points.
+         */
+        private void replicateUntilConverged(Set<List<Integer>> points) {
+            List<List<Integer>> pending = new ArrayList<>(points);
+            while (!pending.isEmpty() && simulationsNum < maxSimulationsNum) {
+                List<List<PropertyWrapper>> round = new ArrayList<>();
+                for (List<Integer> point : pending) {
+                    int attemptsNum = attemptsNums.getOrDefault(point, 0);
+                    int replicasNum = attemptsNum < minReplicasNum
+                            ? minReplicasNum - attemptsNum
+                            : Math.min(attemptsNum, maxReplicasNum - attemptsNum);
+                    replicasNum = Math.min(replicasNum, maxSimulationsNum - simulationsNum - round.size());
+                    attemptsNums.put(point, attemptsNum + replicasNum);
+                    round.addAll(ExperimentConfigurations.replicate(ImmutableList.of(toConfiguration(point)), replicasNum));
+                    if (simulationsNum + round.size() == maxSimulationsNum) {
+                        break;
+                    }
+                }
+                runRound(round);
+                readStatistics(pending);
+                pending.removeIf(point -> isConverged(statistics.get(point))
+                        || attemptsNums.getOrDefault(point, 0) >= maxReplicasNum);
+            }
+        }
+
+        private void runRound(List<List<PropertyWrapper>> round) {
+            int previousSimulationsNum = simulationsNum;
+            int previousSucceededNum = succeededNum;
+            int previousFailedNum = failedNum;
+            simulationsNum += round.size();
+            executor.executeSimulations(experimentId, experimentTitle, beaconsNum, round,
+                    (roundSucceededNum, roundFailedNum, roundSimulationsNum) -> {
+                        succeededNum = previousSucceededNum + roundSucceededNum;
+                        failedNum = previousFailedNum + roundFailedNum;
+                        listener.onProgress(succeededNum, failedNum, previousSimulationsNum + roundSimulationsNum);
+                    });
+        }
+
+        /** Read the aggregates of the experiment, and update the statistics of the points. */
+        private void readStatistics(List<List<Integer>> points) {
+            Map<JsonElement, ConfigurationStatistics> statisticsByConfiguration = new HashMap<>();
+            for (ConfigurationStatistics configurationStatistics : ConfigurationStatistics.read(experimentId)) {
+                statisticsByConfiguration.put(configurationStatistics.getConfiguration(), configurationStatistics);
+            }
+            for (List<Integer> point : points) {
+                ConfigurationStatistics configurationStatistics = statisticsByConfiguration.get(aggregatedConfiguration(point));
+                if (configurationStatistics != null) {
+                    statistics.put(point, configurationStatistics);
+                }
+            }
+        }
+
+        /** Returns true if the mean of a point's statistic is known within the tolerance, or if the point has no statistic. */
+        private boolean isConverged(ConfigurationStatistics configurationStatistics) {
+            if (configurationStatistics == null || configurationStatistics.getReplicasNum() < minReplicasNum) {
+                return false;
+            }
+            double mean = configurationStatistics.getMean(statistic);
+            double halfWidth = configurationStatistics.getConfidenceIntervalHalfWidth(statistic);
+            return Double.isNaN(mean) || halfWidth <= tolerance * Math.abs(mean);
+        }
+
+        private Map<List<Integer>, Double> means() {
+            Map<List<Integer>, Double> means = new HashMap<>();
+            statistics.forEach((point, configurationStatistics) -> means.put(point, configurationStatistics.getMean(statistic)));
+            return means;
+        }
+
+        private Set<List<Integer>> legal(Set<List<Integer>> points) {
+            return points.stream()
+                    .filter(point -> ExperimentConfigurations.isLegal(toConfiguration(point)))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+        }
+
+        private List<PropertyWrapper> toConfiguration(List<Integer> point) {
+            List<PropertyWrapper> configuration = new ArrayList<>(point.size());
+            for (int parameter = 0; parameter < point.size(); parameter++) {
+                configuration.add(parametersValues.get(parameter).get(point.get(parameter)));
+            }
+            return configuration;
+        }
+
+        /** Returns the configuration of a point as stored by its aggregates. */
+        private JsonElement aggregatedConfiguration(List<Integer> point) {
+            SimulationMetadata metadata = new SimulationMetadata(
+                    ExperimentConfigurations.toSimulationBuilder(toConfiguration(point), beaconsNum, experimentTitle));
+            return JsonParser.parseString(gson.toJson(ConfigurationStatistics.extractConfiguration(metadata)));
+        }
+    }
+
+    private AdaptiveSweep(Builder builder) {
+        this.executor = builder.executor;
+        this.statistic = builder.statistic;
+        this.minReplicasNum = builder.minReplicasNum;
+        this.maxReplicasNum = builder.maxReplicasNum;
+        this.tolerance = builder.tolerance;
+        this.refinementThreshold = builder.refinementThreshold;
+        this.maxSimulationsNum = builder.maxSimulationsNum;
+    }
+}
@@ -0,0 +1,354 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.research.bleth.simulator.IStateStore;
+import com.google.research.bleth.simulator.ObservedInterval;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.StateStores;
+import com.google.research.bleth.simulator.StatisticsState;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates of the statistics of the replicas of an experiment's configuration, which are simulations run with the
+ * same configuration and different seeds. Aggregates are updated incrementally as replicas complete, by keeping the
+ * running mean and sum of squared deviations of every statistic (Welford's algorithm), from which the variance and
+ * the 95% confidence interval of the mean are derived. The aggregates of a configuration are stored split between
+ * shards, each updated by the replicas which pick it, so concurrent replicas rarely contend, and the shards are merged
+ * when the aggregates are read.
+ */
+public final class ConfigurationStatistics {
+    private static final Gson gson = new Gson(); // Used for json serialization.
+    // Two-sided 95% quantiles of Student's t distribution, by degrees of freedom from 1 to 30.
+    private static final double[] T_QUANTILES = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+    private static final double NORMAL_QUANTILE = 1.960; // used for more than 30 degrees of freedom.
+
+    private final JsonObject configuration;
+    private int replicasNum;
+    private final Map<String, RunningStatistic> statistics;
+
+    /**
+     * Read the aggregates of all configurations of an experiment from the db, merging the shards of every configuration.
+     * If the state store isn't the db, which doesn't keep running aggregates, they are computed from the statistics of
+     * the experiment's simulations.
+     * @param experimentId is the experiment id.
+     * @return a list of the aggregates of every configuration with at least one completed replica.
+     */
+    public static List<ConfigurationStatistics> read(String experimentId) {
+        if (!StateStores.isDatastore()) {
+            return compute(experimentId);
+        }
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Query.Filter filterByExperimentId = new Query.FilterPredicate(Schema.ConfigurationStatistics.experimentId,
+                Query.FilterOperator.EQUAL, experimentId);
+        Query statisticsQuery = new Query(Schema.ConfigurationStatistics.entityKind).setFilter(filterByExperimentId);
+        Map<JsonObject, ConfigurationStatistics> configurationsStatistics = new LinkedHashMap<>();
+        for (Entity entity : datastore.prepare(statisticsQuery).asIterable()) {
+            ConfigurationStatistics shard = new ConfigurationStatistics(entity);
+            configurationsStatistics.merge(shard.configuration, shard, ConfigurationStatistics::merge);
+        }
+        return new ArrayList<>(configurationsStatistics.values());
+    }
+
+    /** Compute the aggregates of all configurations of an experiment from its simulations in the state store. */
+    private static List<ConfigurationStatistics> compute(String experimentId) {
+        IStateStore store = StateStores.get();
+        List<String> simulationIds = store.listExperimentSimulations(experimentId);
+        Map<String, ImmutableMultimap<Integer, ObservedInterval>> simulationsIntervalsStats =
+                store.readIntervalStats(simulationIds);
+        Map<Map<String, Object>, ConfigurationStatistics> configurationsStatistics = new LinkedHashMap<>();
+        for (String simulationId : simulationIds) {
+            Replica replica = createReplica(store.readMetadata(simulationId), store.readDistancesStats(simulationId),
+                    simulationsIntervalsStats.get(simulationId));
+            configurationsStatistics.computeIfAbsent(replica.configuration, ConfigurationStatistics::create)
+                    .add(replica.statistics);
+        }
+        return new ArrayList<>(configurationsStatistics.values());
+    }
+
+    /** Returns the configuration whose replicas are aggregated. */
+    public JsonObject getConfiguration() {
+        return configuration.deepCopy();
+    }
+
+    /** Returns the number of aggregated replicas. */
+    public int getReplicasNum() {
+        return replicasNum;
+    }
+
+    /** Returns the mean of a statistic over all replicas, or NaN if no replica has the statistic. */
+    public double getMean(String statistic) {
+        RunningStatistic runningStatistic = statistics.get(statistic);
+        return runningStatistic == null ? Double.NaN : runningStatistic.mean;
+    }
+
+    /** Returns the sample variance of a statistic over all replicas, or NaN if less than two replicas have it. */
+    public double getVariance(String statistic) {
+        RunningStatistic runningStatistic = statistics.get(statistic);
+        return runningStatistic == null || runningStatistic.count < 2
+                ? Double.NaN : runningStatistic.m2 / (runningStatistic.count - 1);
+    }
+
+    /**
+     * Returns the half width of the 95% confidence interval of the mean of a statistic, or NaN if less than two
+     * replicas have the statistic.
+     */
+    public double getConfidenceIntervalHalfWidth(String statistic) {
+        RunningStatistic runningStatistic = statistics.get(statistic);
+        if (runningStatistic == null || runningStatistic.count < 2) {
+            return Double.NaN;
+        }
+        long degreesOfFreedom = runningStatistic.count - 1;
+        double quantile = degreesOfFreedom <= T_QUANTILES.length
+                ? T_QUANTILES[(int) degreesOfFreedom - 1] : NORMAL_QUANTILE;
+        return quantile * Math.sqrt(getVariance(statistic) / runningStatistic.count);
+    }
+
+    /**
+     * Returns a JSON representation of the aggregates: the configuration, the number of replicas, and the mean of every
+     * statistic along with its variance and confidence interval if at least two replicas have the statistic.
+     */
+    public JsonElement toJson() {
+        Map<String, Map<String, Object>> statisticsJson = new LinkedHashMap<>();
+        for (String statistic : statistics.keySet()) {
+            Map<String, Object> statisticJson = new LinkedHashMap<>();
+            double mean = getMean(statistic);
+            statisticJson.put("mean", mean);
+            if (statistics.get(statistic).count >= 2) {
+                double halfWidth = getConfidenceIntervalHalfWidth(statistic);
+                statisticJson.put("variance", getVariance(statistic));
+                statisticJson.put("confidenceInterval", new double[] {mean - halfWidth, mean + halfWidth});
+            }
+            statisticsJson.put(statistic, statisticJson);
+        }
+        ImmutableMap.Builder<String, JsonElement> res = ImmutableMap.builder();
+        res.put("configuration", getConfiguration());
+        res.put("replicasNum", gson.toJsonTree(replicasNum));
+        res.put("statistics", gson.toJsonTree(statisticsJson));
+        return gson.toJsonTree(res.build());
+    }
+
+    /**
+     * Create empty aggregates of a configuration. The configuration is parsed from its JSON string as when read from the
+     * db, since parsed numbers don't hash as the numbers of a serialized tree, so equal configurations hash equally.
+     */
+    static ConfigurationStatistics create(Map<String, Object> configuration) {
+        return new ConfigurationStatistics(JsonParser.parseString(gson.toJson(configuration)).getAsJsonObject(), 0,
+                new LinkedHashMap<>());
+    }
+
+    /** Add the statistics of a replica to the aggregates. */
+    void add(Map<String, Double> replicaStatistics) {
+        replicasNum++;
+        replicaStatistics.forEach((statistic, value) ->
+                statistics.computeIfAbsent(statistic, name -> new RunningStatistic()).add(value));
+    }
+
+    /** Merge other aggregates of the same configuration into these aggregates, and return these aggregates. */
+    ConfigurationStatistics merge(ConfigurationStatistics other) {
+        replicasNum += other.replicasNum;
+        other.statistics.forEach((statistic, runningStatistic) ->
+                statistics.computeIfAbsent(statistic, name -> new RunningStatistic()).merge(runningStatistic));
+        return this;
+    }
+
+    /**
+     * Read the statistics of a completed simulation, which are aggregated with the other replicas of its configuration.
+     * @param simulationId is the simulation id.
+     * @return the configuration of the simulation and its statistics.
+     * @throws IllegalArgumentException if the simulation doesn't exist.
+     */
+    static Replica readReplica(String simulationId) {
+        SimulationMetadata metadata = SimulationMetadata.read(simulationId);
+        return createReplica(metadata, StatisticsState.readDistancesStats(simulationId),
+                StatisticsState.readIntervalStats(simulationId));
+    }
+
+    /**
+     * Create the replica of a simulation: its configuration and its statistics, which are the distance statistics, the
+     * percent of rounds beacons were observed in, and the average lengths of observed and unobserved intervals.
+     */
+    static Replica createReplica(SimulationMetadata metadata, Map<String, Double> distancesStats,
+                                 ImmutableMultimap<Integer, ObservedInterval> observedIntervals) {
+        Map<String, Double> statistics = new LinkedHashMap<>();
+        distancesStats.forEach((statistic, value) ->
+                statistics.put(Schema.StatisticsState.entityKindDistance + "." + statistic, value));
+
+        long observedRoundsNum = 0;
+        long roundsNum = 0;
+        long observedIntervalsNum = 0;
+        long unobservedIntervalsNum = 0;
+        for (ObservedInterval interval : observedIntervals.values()) {
+            roundsNum += interval.duration();
+            if (interval.observed()) {
+                observedRoundsNum += interval.duration();
+                observedIntervalsNum++;
+            } else {
+                unobservedIntervalsNum++;
+            }
+        }
+        if (roundsNum > 0) {
+            statistics.put(Schema.StatisticsState.observedPercent, 100.0 * observedRoundsNum / roundsNum);
+        }
+        if (observedIntervalsNum > 0) {
+            statistics.put(Schema.StatisticsState.averageLengthObservedInterval,
+                    (double) observedRoundsNum / observedIntervalsNum);
+        }
+        if (unobservedIntervalsNum > 0) {
+            statistics.put(Schema.StatisticsState.averageLengthUnobservedInterval,
+                    (double) (roundsNum - observedRoundsNum) / unobservedIntervalsNum);
+        }
+        return new Replica(extractConfiguration(metadata), statistics);
+    }
+
+    /**
+     * Add the statistics of a replica to a shard of the aggregates of its configuration stored in the db.
+     * @param datastore is the datastore service.
+     * @param transaction is the transaction the aggregates are updated in.
+     * @param experimentId is the id of the experiment of the replica.
+     * @param replica is the replica.
+     * @param shard is the index of the shard the replica is added to.
+     */
+    static void addReplica(DatastoreService datastore, Transaction transaction, String experimentId, Replica replica,
+                           int shard) {
+        Key key = KeyFactory.createKey(Schema.ConfigurationStatistics.entityKind,
+                experimentId + ":" + configurationHash(replica.configuration) + ":" + shard);
+        ConfigurationStatistics configurationStatistics;
+        try {
+            configurationStatistics = new ConfigurationStatistics(datastore.get(transaction, key));
+        } catch (EntityNotFoundException e) {
+            configurationStatistics = create(replica.configuration);
+        }
+        configurationStatistics.add(replica.statistics);
+
+        Entity entity = new Entity(key);
+        entity.setProperty(Schema.ConfigurationStatistics.experimentId, experimentId);
+        entity.setUnindexedProperty(Schema.ConfigurationStatistics.configuration,
+                new Text(configurationStatistics.configuration.toString()));
+        entity.setUnindexedProperty(Schema.ConfigurationStatistics.replicasNum, configurationStatistics.replicasNum);
+        entity.setUnindexedProperty(Schema.ConfigurationStatistics.statistics,
+                new Text(gson.toJson(configurationStatistics.statistics)));
+        datastore.put(transaction, entity);
+    }
+
+    /** Returns the parameters of a simulation which determine its configuration, excluding its description and seed. */
+    static Map<String, Object> extractConfiguration(SimulationMetadata metadata) {
+        return ImmutableMap.<String, Object>builder()
+                .put(Schema.SimulationMetadata.roundsNum, metadata.roundsNum)
+                .put(Schema.SimulationMetadata.rowsNum, metadata.rowsNum)
+                .put(Schema.SimulationMetadata.colsNum, metadata.colsNum)
+                .put(Schema.SimulationMetadata.beaconsNum, metadata.beaconsNum)
+                .put(Schema.SimulationMetadata.observersNum, metadata.observersNum)
+                .put(Schema.SimulationMetadata.beaconMovementStrategy, metadata.beaconMovementStrategy)
+                .put(Schema.SimulationMetadata.observerMovementStrategy, metadata.observerMovementStrategy)
+                .put(Schema.SimulationMetadata.observerAwakenessStrategy, metadata.observerAwakenessStrategy)
+                .put(Schema.SimulationMetadata.awakenessCycle, metadata.awakenessCycle)
+                .put(Schema.SimulationMetadata.awakenessDuration, metadata.awakenessDuration)
+                .put(Schema.SimulationMetadata.transmissionThresholdRadius, metadata.transmissionThresholdRadius)
+                .put(Schema.SimulationMetadata.observersDensity, metadata.observersDensity)
+                .put(Schema.SimulationMetadata.awakenessRatio, metadata.awakenessRatio)
+                .build();
+    }
+
+    private static String configurationHash(Map<String, Object> configuration) {
+        return Hashing.sha256().hashString(gson.toJson(configuration), StandardCharsets.UTF_8).toString();
+    }
+
+    private ConfigurationStatistics(JsonObject configuration, int replicasNum, Map<String, RunningStatistic> statistics) {
+        this.configuration = configuration;
+        this.replicasNum = replicasNum;
+        this.statistics = statistics;
+    }
+
+    private ConfigurationStatistics(Entity entity) {
+        this(JsonParser.parseString(((Text) entity.getProperty(Schema.ConfigurationStatistics.configuration)).getValue())
+                        .getAsJsonObject(),
+                ((Long) entity.getProperty(Schema.ConfigurationStatistics.replicasNum)).intValue(),
+                gson.fromJson(((Text) entity.getProperty(Schema.ConfigurationStatistics.statistics)).getValue(),
+                        new TypeToken<LinkedHashMap<String, RunningStatistic>>(){}.getType()));
+    }
+
+    /** The configuration and statistics of a single completed simulation. */
+    static final class Replica {
+        private final Map<String, Object> configuration;
+        private final Map<String, Double> statistics;
+
+        private Replica(Map<String, Object> configuration, Map<String, Double> statistics) {
+            this.configuration = configuration;
+            this.statistics = statistics;
+        }
+
+        /** Returns the configuration of the replica. */
+        Map<String, Object> getConfiguration() {
+            return configuration;
+        }
+
+        /** Returns the statistics of the replica. */
+        Map<String, Double> getStatistics() {
+            return statistics;
+        }
+    }
+
+    /** The running number of values, mean and sum of squared deviations from the mean of a statistic. */
+    private static final class RunningStatistic {
+        private long count;
+        private double mean;
+        private double m2;
+
+        private void add(double value) {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        /** Merge the values of another statistic (Chan et al.'s parallel algorithm). */
+        private void merge(RunningStatistic other) {
+            if (other.count == 0) {
+                return;
+            }
+            long mergedCount = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / mergedCount;
+            m2 += other.m2 + delta * delta * count * other.count / mergedCount;
+            count = mergedCount;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.research.bleth.simulator.Schema;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * A utility class for writing experiments to the db and associating simulations to them.
+ * The progress of an experiment is counted by several shard entities, so simulations completing concurrently rarely
+ * update the same entity.
+ */
+public final class Experiment {
+    private static final Logger log = Logger.getLogger(Experiment.class.getName());
+    private static final int MAX_SHARDS_NUM = 20; // the number of concurrent progress updates which rarely contend.
+    private static final int MAX_SHARD_UPDATE_ATTEMPTS = 5;
+
+    /**
+     * Create a new experiment entity and write it to db.
+     * @param experimentTitle is the title of the experiment.
+     * @param simulationsNum is the number of simulations of the experiment.
+     * @return the unique Id assigned to the experiment entity as a string.
+     */
+    public static String create(String experimentTitle, int simulationsNum) {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity experiment = new Entity(Schema.Experiment.entityKind);
+        experiment.setProperty(Schema.Experiment.experimentTitle, experimentTitle);
+        experiment.setProperty(Schema.Experiment.simulationsLeft, simulationsNum);
+        experiment.setProperty(Schema.Experiment.simulationsNum, simulationsNum);
+        experiment.setProperty(Schema.Experiment.shardsNum, Math.max(1, Math.min(simulationsNum, MAX_SHARDS_NUM)));
+        Key experimentId = datastore.put(experiment);
+        log.info("A new experiment entity with id " + KeyFactory.keyToString(experimentId) +
+                " was created and written to db.");
+        return KeyFactory.keyToString(experimentId);
+    }
+
+    /**
+     * Create a new open experiment entity and write it to db, whose number of simulations is determined while it runs,
+     * such as an adaptive sweep. An open experiment completes only once it is closed.
+     * @param experimentTitle is the title of the experiment.
+     * @return the unique Id assigned to the experiment entity as a string.
+     */
+    public static String createOpen(String experimentTitle) {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity experiment = new Entity(Schema.Experiment.entityKind);
+        experiment.setProperty(Schema.Experiment.experimentTitle, experimentTitle);
+        experiment.setProperty(Schema.Experiment.simulationsLeft, null);
+        experiment.setProperty(Schema.Experiment.simulationsNum, null);
+        experiment.setProperty(Schema.Experiment.shardsNum, MAX_SHARDS_NUM);
+        Key experimentId = datastore.put(experiment);
+        log.info("A new open experiment entity with id " + KeyFactory.keyToString(experimentId) +
+                " was created and written to db.");
+        return KeyFactory.keyToString(experimentId);
+    }
+
+    /**
+     * Close an experiment after all of its simulations have been added, or have failed, setting its number of
+     * simulations to the number of completed simulations, then mark it completed and materialize its summary.
+     * Closing a completed experiment has no effect.
+     * @param experimentId is the id of the experiment.
+     * @param simulationsFailed is the number of the experiment's simulations which have failed.
+     * @throws EntityNotFoundException if the experiment doesn't exist.
+     */
+    public static void close(String experimentId, int simulationsFailed) throws EntityNotFoundException {
+        int simulationsCompleted = readSimulationsCompleted(experimentId);
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Transaction transaction = datastore.beginTransaction();
+        try {
+            Entity experiment = datastore.get(transaction, KeyFactory.stringToKey(experimentId));
+            Long simulationsLeft = (Long) experiment.getProperty(Schema.Experiment.simulationsLeft); // null if open.
+            if (simulationsLeft != null && simulationsLeft <= 0) {
+                return;
+            }
+            experiment.setProperty(Schema.Experiment.simulationsNum, simulationsCompleted);
+            experiment.setProperty(Schema.Experiment.simulationsFailed, simulationsFailed);
+            experiment.setProperty(Schema.Experiment.simulationsLeft, 0);
+            datastore.put(transaction, experiment);
+            transaction.commit();
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+        materializeSummary(experimentId);
+    }
+
+    /** Returns the description of a simulation attached to an experiment. */
+    public static String describeSimulation(String experimentTitle) {
+        return "Simulation attached to experiment: " + experimentTitle;
+    }
+
+    /**
+     * Check whether all simulations of an experiment have been completed.
+     * @param experimentId is the id of the experiment.
+     * @return true if the experiment exists and has no simulations left, false otherwise.
+     */
+    public static boolean isCompleted(String experimentId) {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        try {
+            Entity experiment = datastore.get(KeyFactory.stringToKey(experimentId));
+            Long simulationsLeft = (Long) experiment.getProperty(Schema.Experiment.simulationsLeft);
+            return simulationsLeft != null && simulationsLeft <= 0;
+        } catch (EntityNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Associate a completed simulation to an experiment, count it in a random shard of the experiment's progress, and
+     * add its statistics to the aggregates of its configuration.
+     * Once all simulations of the experiment are completed, the experiment is marked completed and its summary is
+     * materialized, exactly once.
+     * @param experimentId is the id of the experiment.
+     * @param simulationId is the id of the completed simulation.
+     * @throws EntityNotFoundException if the experiment doesn't exist.
+     */
+    public static void addSimulation(String experimentId, String simulationId) throws EntityNotFoundException {
+        addMember(experimentId, /* memberId= */ null, simulationId);
+    }
+
+    /**
+     * Associate a completed simulation to an experiment as one of its members, as done by {@link #addSimulation},
+     * unless the member has already been associated.
+     * @param experimentId is the id of the experiment.
+     * @param memberId is the id of the member which the simulation completes, unique within the experiment, or null
+     *                 if the simulation isn't a member.
+     * @param simulationId is the id of the completed simulation.
+     * @return true if the simulation was associated, false if the member had already been associated.
+     * @throws EntityNotFoundException if the experiment doesn't exist.
+     */
+    public static boolean addMember(String experimentId, String memberId, String simulationId)
+            throws EntityNotFoundException {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity experiment = datastore.get(KeyFactory.stringToKey(experimentId));
+        ConfigurationStatistics.Replica replica = readReplica(simulationId);
+        if (!experiment.hasProperty(Schema.Experiment.shardsNum)) {
+            // Experiments created before progress was sharded don't run in batches, so their simulations aren't members.
+            addSimulationToUnshardedExperiment(experimentId, simulationId, replica);
+            return true;
+        }
+
+        int shardsNum = ((Long) experiment.getProperty(Schema.Experiment.shardsNum)).intValue();
+        Long simulationsNum = (Long) experiment.getProperty(Schema.Experiment.simulationsNum); // null if open.
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (!incrementRandomShard(datastore, experimentId, memberId, simulationId, replica, shardsNum)) {
+                    return false;
+                }
+                break;
+            } catch (ConcurrentModificationException e) {
+                // Another simulation updated the same shard or configuration aggregates, so retry with another random shard.
+                if (attempt == MAX_SHARD_UPDATE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+
+        // Shards are read by key, so the sum includes every completion committed before this read. At least the last
+        // simulation to complete observes all completions, and marking the experiment completed is transactional.
+        if (simulationsNum != null && readSimulationsCompleted(experimentId, shardsNum) >= simulationsNum
+                && markCompleted(experimentId)) {
+            materializeSummary(experimentId);
+        }
+        return true;
+    }
+
+    /**
+     * Read which members of an experiment have been associated to it, in a single batch lookup.
+     * @param experimentId is the id of the experiment.
+     * @param memberIds are the ids of the members.
+     * @return the ids of the given members which have been associated.
+     */
+    public static Set<String> readMembers(String experimentId, Collection<String> memberIds) {
+        Map<Key, String> membersKeys = new HashMap<>();
+        memberIds.forEach(memberId -> membersKeys.put(memberKey(experimentId, memberId), memberId));
+        Set<String> members = new HashSet<>();
+        DatastoreServiceFactory.getDatastoreService().get(membersKeys.keySet())
+                .keySet().forEach(key -> members.add(membersKeys.get(key)));
+        return members;
+    }
+
+    /**
+     * Read the number of completed simulations of an experiment, by summing the shards of the experiment's progress.
+     * @param experimentId is the id of the experiment.
+     * @return the number of simulations associated to the experiment.
+     * @throws EntityNotFoundException if the experiment doesn't exist.
+     */
+    public static int readSimulationsCompleted(String experimentId) throws EntityNotFoundException {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity experiment = datastore.get(KeyFactory.stringToKey(experimentId));
+        if (!experiment.hasProperty(Schema.Experiment.shardsNum)) {
+            Query.Filter filterByExperimentId = new Query.FilterPredicate(
+                    Schema.ExperimentsToSimulations.experimentId, Query.FilterOperator.EQUAL, experimentId);
+            return datastore.prepare(new Query(Schema.ExperimentsToSimulations.entityKind)
+                    .setFilter(filterByExperimentId)
+                    .setKeysOnly())
+                    .countEntities(FetchOptions.Builder.withDefaults());
+        }
+        return readSimulationsCompleted(experimentId, ((Long) experiment.getProperty(Schema.Experiment.shardsNum)).intValue());
+    }
+
+    /**
+     * Read the ids of the simulations associated to an experiment from the db.
+     * @param experimentId is the experiment id.
+     * @return an immutable list of the ids of the experiment's completed simulations.
+     */
+    public static ImmutableList<String> listSimulations(String experimentId) {
+        Query.Filter filterByExperimentId = new Query.FilterPredicate(Schema.ExperimentsToSimulations.experimentId,
+                Query.FilterOperator.EQUAL, experimentId);
+        Query simulationsQuery = new Query(Schema.ExperimentsToSimulations.entityKind).setFilter(filterByExperimentId);
+        ImmutableList.Builder<String> simulationIds = ImmutableList.builder();
+        for (Entity entity : DatastoreServiceFactory.getDatastoreService().prepare(simulationsQuery).asIterable()) {
+            simulationIds.add((String) entity.getProperty(Schema.ExperimentsToSimulations.simulationId));
+        }
+        return simulationIds.build();
+    }
+
+    /** Returns an immutable map which maps the id of every experiment in the db to its title. */
+    public static ImmutableMap<String, String> list() {
+        ImmutableMap.Builder<String, String> experiments = new ImmutableMap.Builder<>();
+        Query experimentsQuery = new Query(Schema.Experiment.entityKind);
+        PreparedQuery experimentsPreparedQuery = DatastoreServiceFactory.getDatastoreService().prepare(experimentsQuery);
+        for (Entity entity : experimentsPreparedQuery.asIterable()) {
+            experiments.put(KeyFactory.keyToString(entity.getKey()),
+                    (String) entity.getProperty(Schema.Experiment.experimentTitle));
+        }
+        return experiments.build();
+    }
+
+    /** Returns false, without updating the experiment, if the member has already been associated. */
+    private static boolean incrementRandomShard(DatastoreService datastore, String experimentId, String memberId,
+                                                String simulationId, ConfigurationStatistics.Replica replica,
+                                                int shardsNum) {
+        int shardIndex = ThreadLocalRandom.current().nextInt(shardsNum);
+        Key shardKey = shardKey(experimentId, shardIndex);
+        Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+        try {
+            // update simulationsToExperiments
+            Entity experimentToSimulation;
+            if (memberId == null) {
+                experimentToSimulation = new Entity((Schema.ExperimentsToSimulations.entityKind));
+            } else {
+                Key memberKey = memberKey(experimentId, memberId);
+                try {
+                    datastore.get(transaction, memberKey);
+                    return false;
+                } catch (EntityNotFoundException e) {
+                    experimentToSimulation = new Entity(memberKey);
+                }
+            }
+            experimentToSimulation.setProperty(Schema.ExperimentsToSimulations.experimentId, experimentId);
+            experimentToSimulation.setProperty(Schema.ExperimentsToSimulations.simulationId, simulationId);
+            datastore.put(transaction, experimentToSimulation);
+
+            // increase shard counter
+            Entity shard;
+            try {
+                shard = datastore.get(transaction, shardKey);
+            } catch (EntityNotFoundException e) {
+                shard = new Entity(shardKey);
+                shard.setUnindexedProperty(Schema.ExperimentProgressShard.simulationsCompleted, 0L);
+            }
+            long simulationsCompleted = (Long) shard.getProperty(Schema.ExperimentProgressShard.simulationsCompleted);
+            shard.setUnindexedProperty(Schema.ExperimentProgressShard.simulationsCompleted, simulationsCompleted + 1);
+            datastore.put(transaction, shard);
+
+            if (replica != null) {
+                // The aggregates are sharded like the progress, so replicas updating a shard rarely contend.
+                ConfigurationStatistics.addReplica(datastore, transaction, experimentId, replica, shardIndex);
+            }
+            transaction.commit();
+            return true;
+        } finally {
+            if (transaction.isActive()) {
+                log.info("Transaction has been rolled back.");
+                transaction.rollback();
+            }
+        }
+    }
+
+    private static int readSimulationsCompleted(String experimentId, int shardsNum) {
+        List<Key> shardsKeys = new ArrayList<>(shardsNum);
+        for (int shard = 0; shard < shardsNum; shard++) {
+            shardsKeys.add(shardKey(experimentId, shard));
+        }
+        return DatastoreServiceFactory.getDatastoreService().get(shardsKeys).values().stream()
+                .mapToInt(shard -> ((Long) shard.getProperty(Schema.ExperimentProgressShard.simulationsCompleted)).intValue())
+                .sum();
+    }
+
+    /** Set the number of simulations left to an experiment to zero, and return true iff it was not already zero. */
+    private static boolean markCompleted(String experimentId) throws EntityNotFoundException {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Transaction transaction = datastore.beginTransaction();
+        try {
+            Entity experiment = datastore.get(transaction, KeyFactory.stringToKey(experimentId));
+            Long simulationsLeft = (Long) experiment.getProperty(Schema.Experiment.simulationsLeft);
+            if (simulationsLeft == null || simulationsLeft <= 0) {
+                return false;
+            }
+            experiment.setProperty(Schema.Experiment.simulationsLeft, 0);
+            datastore.put(transaction, experiment);
+            transaction.commit();
+            return true;
+        } catch (ConcurrentModificationException e) {
+            // Another simulation has marked the experiment completed.
+            return false;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    /** Associate a simulation to an experiment created before experiments' progress was sharded. */
+    private static void addSimulationToUnshardedExperiment(String experimentId, String simulationId,
+                                                           ConfigurationStatistics.Replica replica)
+            throws EntityNotFoundException {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        int simulationsLeft;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                simulationsLeft = decrementSimulationsLeft(datastore, experimentId, simulationId, replica);
+                break;
+            } catch (ConcurrentModificationException e) {
+                // Another simulation updated the experiment's counter concurrently, so retry with its updated value.
+                if (attempt == MAX_SHARD_UPDATE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+
+        // The counter is trusted only after the transaction commits, so a single simulation completes the experiment.
+        if (simulationsLeft == 0) {
+            materializeSummary(experimentId);
+        }
+    }
+
+    /** Returns the number of simulations left to complete an unsharded experiment, once the transaction commits. */
+    private static int decrementSimulationsLeft(DatastoreService datastore, String experimentId, String simulationId,
+                                                ConfigurationStatistics.Replica replica)
+            throws EntityNotFoundException {
+        Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+        try {
+            // update simulationsToExperiments
+            Entity experimentToSimulation = new Entity((Schema.ExperimentsToSimulations.entityKind));
+            experimentToSimulation.setProperty(Schema.ExperimentsToSimulations.experimentId, experimentId);
+            experimentToSimulation.setProperty(Schema.ExperimentsToSimulations.simulationId, simulationId);
+            datastore.put(transaction, experimentToSimulation);
+
+            // decrease experiment counter
+            Entity experiment = datastore.get(transaction, KeyFactory.stringToKey(experimentId));
+            int simulationsLeft = ((Long) experiment.getProperty(Schema.Experiment.simulationsLeft)).intValue() - 1;
+            experiment.setProperty(Schema.Experiment.simulationsLeft, simulationsLeft);
+            datastore.put(transaction, experiment);
+
+            if (replica != null) {
+                ConfigurationStatistics.addReplica(datastore, transaction, experimentId, replica, /* shard= */ 0);
+            }
+            transaction.commit();
+            return simulationsLeft;
+        } finally {
+            if (transaction.isActive()) {
+                log.info("Transaction has been rolled back.");
+                transaction.rollback();
+            }
+        }
+    }
+
+    /** Returns the statistics of a simulation to aggregate with its configuration, or null if they can't be read. */
+    private static ConfigurationStatistics.Replica readReplica(String simulationId) {
+        try {
+            return ConfigurationStatistics.readReplica(simulationId);
+        } catch (IllegalArgumentException e) {
+            log.warning("The statistics of simulation " + simulationId + " can't be aggregated: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void materializeSummary(String experimentId) {
+        try {
+            ExperimentSummary.materialize(experimentId);
+        } catch (RuntimeException e) {
+            // The summary is materialized again when it is first read.
+            log.warning("Failed to materialize the summary of experiment " + experimentId + ": " + e.getMessage());
+        }
+    }
+
+    private static Key shardKey(String experimentId, int shard) {
+        return KeyFactory.createKey(Schema.ExperimentProgressShard.entityKind, experimentId + ":" + shard);
+    }
+
+    private static Key memberKey(String experimentId, String memberId) {
+        return KeyFactory.createKey(Schema.ExperimentsToSimulations.entityKind, experimentId + ":" + memberId);
+    }
+
+    private Experiment() {}
+}
@@ -0,0 +1,240 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.base.Ascii;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.research.bleth.simulator.AbstractSimulation;
+import com.google.research.bleth.simulator.AwakenessStrategyFactory;
+import com.google.research.bleth.simulator.MovementStrategyFactory;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.TracingSimulation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * A utility class for creating the configurations of an experiment's simulations, where an experiment runs a simulation
+ * for every combination of values of the simulation parameters within the experiment's ranges.
+ */
+public final class ExperimentConfigurations {
+    public static final MovementStrategyFactory.Type defaultMovementStrategy = MovementStrategyFactory.Type.RANDOM;
+    public static final AwakenessStrategyFactory.Type defaultAwakenessStrategy = AwakenessStrategyFactory.Type.RANDOM;
+    private static final Gson gson = new Gson(); // Used for json serialization.
+
+    /**
+     * Create the legal configurations of an experiment, as the cartesian product of the values of all ranged parameters.
+     * The range of each parameter is set by the parameters 'lower', 'upper' and 'step' followed by the parameter name,
+     * such as 'lowerRoundsNum', 'upperRoundsNum' and 'stepRoundsNum'.
+     * @param parameters maps a parameter name to its value as a string, such as an http request's parameters.
+     * @return a set of configurations, each is a list storing a value of every ranged parameter.
+     */
+    public static Set<List<PropertyWrapper>> create(Function<String, String> parameters) {
+        return Lists.cartesianProduct(createParametersValues(parameters)).stream()
+                .filter(ExperimentConfigurations::isLegal)
+                .collect(toImmutableSet());
+    }
+
+    /**
+     * Create the values of every ranged parameter, whose cartesian product contains the configurations of an experiment.
+     * @param parameters maps a parameter name to its value as a string, as in {@link #create(Function)}.
+     * @return a list storing the values of every ranged parameter in ascending order, in the order of the properties of a
+     * configuration.
+     */
+    public static List<List<PropertyWrapper>> createParametersValues(Function<String, String> parameters) {
+        return ImmutableList.of(
+                createIntValues(parameters, Schema.SimulationMetadata.roundsNum),
+                createIntValues(parameters, Schema.SimulationMetadata.rowsNum),
+                createIntValues(parameters, Schema.SimulationMetadata.colsNum),
+                createIntValues(parameters, Schema.SimulationMetadata.observersNum),
+                createIntValues(parameters, Schema.SimulationMetadata.awakenessCycle),
+                createIntValues(parameters, Schema.SimulationMetadata.awakenessDuration),
+                createDoubleValues(parameters, Schema.SimulationMetadata.transmissionThresholdRadius));
+    }
+
+    /**
+     * Create a builder of the simulation of a configuration, using the default strategies.
+     * @param configuration is the configuration of the simulation.
+     * @param beaconsNum is the number of beacons, which is the same for all simulations of an experiment.
+     * @param description is the description of the simulation.
+     * @return a simulation builder set with the configuration's parameters.
+     */
+    public static AbstractSimulation.Builder toSimulationBuilder(List<PropertyWrapper> configuration, int beaconsNum,
+                                                                 String description) {
+        Map<String, Number> properties = configuration.stream()
+                .collect(Collectors.toMap(PropertyWrapper::property, PropertyWrapper::value));
+
+        return new TracingSimulation.Builder()
+                .setDescription(description)
+                .setMaxNumberOfRounds(properties.get(Schema.SimulationMetadata.roundsNum).intValue())
+                .setRowNum(properties.get(Schema.SimulationMetadata.rowsNum).intValue())
+                .setColNum(properties.get(Schema.SimulationMetadata.colsNum).intValue())
+                .setBeaconsNum(beaconsNum)
+                .setObserversNum(properties.get(Schema.SimulationMetadata.observersNum).intValue())
+                .setBeaconMovementStrategyType(defaultMovementStrategy)
+                .setObserverMovementStrategyType(defaultMovementStrategy)
+                .setAwakenessStrategyType(defaultAwakenessStrategy)
+                .setAwakenessCycle(properties.get(Schema.SimulationMetadata.awakenessCycle).intValue())
+                .setAwakenessDuration(properties.get(Schema.SimulationMetadata.awakenessDuration).intValue())
+                .setTransmissionThresholdRadius(properties.get(Schema.SimulationMetadata.transmissionThresholdRadius)
+                        .doubleValue());
+    }
+
+    /**
+     * Repeat every configuration, so that each configuration is run by several independent simulations.
+     * @param configurations are the configurations to repeat.
+     * @param repetitions is the number of simulations of every configuration.
+     * @return a list storing each configuration the given number of times, where repetitions are adjacent.
+     */
+    public static List<List<PropertyWrapper>> replicate(Collection<List<PropertyWrapper>> configurations, int repetitions) {
+        checkArgument(repetitions > 0, "Number of repetitions must be positive.");
+        List<List<PropertyWrapper>> replicas = new ArrayList<>(configurations.size() * repetitions);
+        for (List<PropertyWrapper> configuration : configurations) {
+            for (int repetition = 0; repetition < repetitions; repetition++) {
+                replicas.add(configuration);
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * Order configurations by their estimated cost, largest first, so that the most expensive simulations don't start
+     * last and delay the completion of an experiment. Configurations of equal cost keep their relative order.
+     * @param configurations are the configurations to order.
+     * @param cost maps a configuration to its estimated cost.
+     * @return a list of the configurations, ordered by decreasing cost.
+     */
+    public static List<List<PropertyWrapper>> orderByCost(Collection<List<PropertyWrapper>> configurations,
+                                                          ToDoubleFunction<List<PropertyWrapper>> cost) {
+        Map<List<PropertyWrapper>, Double> costs = new HashMap<>();
+        configurations.forEach(configuration -> costs.put(configuration, cost.applyAsDouble(configuration)));
+        List<List<PropertyWrapper>> orderedConfigurations = new ArrayList<>(configurations);
+        orderedConfigurations.sort(Comparator.comparingDouble(costs::get).reversed());
+        return orderedConfigurations;
+    }
+
+    /**
+     * Pack configurations into batches, in their iteration order, such that the estimated cost of each batch doesn't
+     * exceed a maximal cost unless the batch stores a single configuration.
+     * @param configurations are the configurations to pack.
+     * @param cost maps a configuration to its estimated cost.
+     * @param maxBatchCost is the maximal estimated cost of a batch.
+     * @param maxBatchSize is the maximal number of configurations in a batch.
+     * @return a list of batches, which together store all configurations.
+     */
+    public static List<List<List<PropertyWrapper>>> batch(Collection<List<PropertyWrapper>> configurations,
+                                                           ToDoubleFunction<List<PropertyWrapper>> cost,
+                                                           double maxBatchCost, int maxBatchSize) {
+        checkArgument(maxBatchCost > 0, "Maximal batch cost must be positive.");
+        checkArgument(maxBatchSize > 0, "Maximal batch size must be positive.");
+        List<List<List<PropertyWrapper>>> batches = new ArrayList<>();
+        List<List<PropertyWrapper>> batch = new ArrayList<>();
+        double batchCost = 0;
+        for (List<PropertyWrapper> configuration : configurations) {
+            double configurationCost = cost.applyAsDouble(configuration);
+            if (!batch.isEmpty() && (batchCost + configurationCost > maxBatchCost || batch.size() == maxBatchSize)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchCost = 0;
+            }
+            batch.add(configuration);
+            batchCost += configurationCost;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Serialize configurations as a JSON array, storing each configuration as an object mapping properties to values.
+     * @param configurations are the configurations to serialize.
+     * @return a JSON string representing the configurations.
+     */
+    public static String toJson(Collection<List<PropertyWrapper>> configurations) {
+        List<Map<String, Number>> serializedConfigurations = configurations.stream()
+                .map(configuration -> configuration.stream()
+                        .collect(Collectors.toMap(PropertyWrapper::property, PropertyWrapper::value)))
+                .collect(Collectors.toList());
+        return gson.toJson(serializedConfigurations);
+    }
+
+    /**
+     * Deserialize configurations serialized by {@link #toJson(Collection)}.
+     * @param json is a JSON string representing configurations.
+     * @return the configurations, in their serialization order.
+     */
+    public static List<List<PropertyWrapper>> fromJson(String json) {
+        List<Map<String, Double>> serializedConfigurations =
+                gson.fromJson(json, new TypeToken<List<Map<String, Double>>>(){}.getType());
+        return serializedConfigurations.stream()
+                .map(configuration -> configuration.entrySet().stream()
+                        .map(entry -> PropertyWrapper.create(entry.getKey(), entry.getValue()))
+                        .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    private static List<PropertyWrapper> createIntValues(Function<String, String> parameters, String parameter) {
+        int lower = Integer.parseInt(parameters.apply("lower" + capitalizeFirstChar(parameter)));
+        int upper = Integer.parseInt(parameters.apply("upper" + capitalizeFirstChar(parameter)));
+        int step = Integer.parseInt(parameters.apply("step" + capitalizeFirstChar(parameter)));
+        List<PropertyWrapper> values = new ArrayList<>();
+        for (int value = lower; value <= upper; value += step) {
+            values.add(PropertyWrapper.create(parameter, value));
+        }
+        return ImmutableList.copyOf(values);
+    }
+
+    private static List<PropertyWrapper> createDoubleValues(Function<String, String> parameters, String parameter) {
+        double lower = Double.parseDouble(parameters.apply("lower" + capitalizeFirstChar(parameter)));
+        double upper = Double.parseDouble(parameters.apply("upper" + capitalizeFirstChar(parameter)));
+        double step = Double.parseDouble(parameters.apply("step" + capitalizeFirstChar(parameter)));
+        List<PropertyWrapper> values = new ArrayList<>();
+        for (double value = lower; value <= upper; value += step) {
+            values.add(PropertyWrapper.create(parameter, value));
+        }
+        return ImmutableList.copyOf(values);
+    }
+
+    private static String capitalizeFirstChar(String s) {
+        return Ascii.toUpperCase(s.substring(0, 1)) + s.substring(1);
+    }
+
+    /** Returns true if a configuration's parameters are legal, such as an awakeness duration not exceeding the cycle. */
+    static boolean isLegal(List<PropertyWrapper> configuration) {
+        try {
+            toSimulationBuilder(configuration, /* beaconsNum= */ 1, /* description= */ null) // dummy beacons number.
+                    .validateArguments();
+        } catch (Exception e) {
+            return false;
+        }
+        return true;
+    }
+
+    private ExperimentConfigurations() {}
+}
@@ -0,0 +1,282 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.apphosting.api.ApiProxy;
+import com.google.research.bleth.simulator.AbstractSimulation;
+import com.google.research.bleth.simulator.StateStores;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An executor running all simulations of an experiment in the current process, on a bounded pool of threads,
+ * as an alternative to enqueuing a task per simulation. Used for running experiments locally and on a single machine.
+ */
+public final class ExperimentExecutor {
+    private static final Logger log = Logger.getLogger(ExperimentExecutor.class.getName());
+    private static final int MAX_SIMULATION_ATTEMPTS = 3; // the number of runs of a configuration before it fails.
+
+    /** A listener notified of the progress of an experiment. */
+    public interface ProgressListener {
+        /**
+         * Called on the thread executing the experiment whenever one of its simulations completes.
+         * @param succeededNum is the number of simulations which have completed successfully so far.
+         * @param failedNum is the number of simulations which have failed so far, after all their attempts.
+         * @param simulationsNum is the number of simulations of the experiment.
+         */
+        void onProgress(int succeededNum, int failedNum, int simulationsNum);
+    }
+
+    private final int threadsNum;
+
+    /**
+     * Create a new experiment executor.
+     * @param threadsNum is the maximal number of simulations running concurrently.
+     */
+    public ExperimentExecutor(int threadsNum) {
+        checkArgument(threadsNum > 0, "Number of threads must be positive.");
+        this.threadsNum = threadsNum;
+    }
+
+    /**
+     * Write a new experiment to the db, run its simulations and associate each of them to the experiment when it completes,
+     * which updates the progress of the experiment. Simulations run in statistics only mode, since experiments read
+     * only their statistics. Blocks until all simulations complete. If some simulations fail, the experiment is
+     * closed once the others complete, so it completes with the simulations which succeeded.
+     * @param experimentTitle is the title of the experiment.
+     * @param beaconsNum is the number of beacons of every simulation.
+     * @param configurations are the configurations of the experiment's simulations.
+     * @param repetitions is the number of independent simulations of every configuration.
+     * @param listener is notified after each simulation completes.
+     * @return the unique Id assigned to the experiment as a string.
+     */
+    public String execute(String experimentTitle, int beaconsNum, Set<List<PropertyWrapper>> configurations,
+                          int repetitions, ProgressListener listener) {
+        checkNotNull(listener);
+        List<List<PropertyWrapper>> replicas = ExperimentConfigurations.replicate(configurations, repetitions);
+        String experimentId = StateStores.get().createExperiment(experimentTitle, replicas.size());
+        int failedNum = executeSimulations(experimentId, experimentTitle, beaconsNum, replicas, listener);
+        if (failedNum > 0) {
+            log.warning(failedNum + " simulations of experiment " + experimentId + " have failed, so it is closed " +
+                    "with the simulations which succeeded.");
+            StateStores.get().closeExperiment(experimentId, failedNum);
+        }
+        return experimentId;
+    }
+
+    /**
+     * Run some of the simulations of an existing experiment, such as a batch of a task, and associate each of them to
+     * the experiment when it completes. A simulation which throws is deleted and run again, up to a few attempts, and
+     * then counted as failed. Blocks until all simulations complete.
+     * @param experimentId is the id of the experiment.
+     * @param experimentTitle is the title of the experiment.
+     * @param beaconsNum is the number of beacons of every simulation.
+     * @param configurations are the configurations of the simulations to run.
+     * @param listener is notified after each simulation completes.
+     * @return the number of simulations which have failed, and were not associated to the experiment.
+     */
+    public int executeSimulations(String experimentId, String experimentTitle, int beaconsNum,
+                                  Collection<List<PropertyWrapper>> configurations, ProgressListener listener) {
+        return execute(experimentId, experimentTitle, beaconsNum, new ArrayList<>(configurations), null, listener);
+    }
+
+    /**
+     * Run the members of an existing experiment which haven't been associated to it, such as a batch of a task which
+     * may run again after it failed, and associate each of them to the experiment when it completes. A member is
+     * associated at most once, even if it is run concurrently. Blocks until all simulations complete.
+     * @param experimentId is the id of the experiment.
+     * @param experimentTitle is the title of the experiment.
+     * @param beaconsNum is the number of beacons of every simulation.
+     * @param members maps the ids of the members, unique within the experiment, to their configurations.
+     * @param listener is notified after each simulation completes, with the number of members which weren't associated.
+     * @return the number of members which have failed, and were not associated to the experiment.
+     */
+    public int executeMembers(String experimentId, String experimentTitle, int beaconsNum,
+                              Map<String, List<PropertyWrapper>> members, ProgressListener listener) {
+        Set<String> associatedMemberIds = StateStores.get().readExperimentMembers(experimentId, members.keySet());
+        List<String> memberIds = new ArrayList<>();
+        List<List<PropertyWrapper>> configurations = new ArrayList<>();
+        members.forEach((memberId, configuration) -> {
+            if (!associatedMemberIds.contains(memberId)) {
+                memberIds.add(memberId);
+                configurations.add(configuration);
+            }
+        });
+        if (!associatedMemberIds.isEmpty()) {
+            log.info(associatedMemberIds.size() + " members of experiment " + experimentId +
+                    " have already been associated, so they are skipped.");
+        }
+        return execute(experimentId, experimentTitle, beaconsNum, configurations, memberIds, listener);
+    }
+
+    /** Run simulations of an experiment, which are members of the experiment if their member ids are given. */
+    private int execute(String experimentId, String experimentTitle, int beaconsNum,
+                        List<List<PropertyWrapper>> configurations, List<String> memberIds, ProgressListener listener) {
+        checkNotNull(listener);
+        SimulationCostEstimator estimator = SimulationCostEstimator.create();
+        double[] costs = configurations.stream()
+                .mapToDouble(configuration -> estimator.estimate(configuration, beaconsNum))
+                .toArray();
+        List<Integer> orderedIndices = IntStream.range(0, configurations.size()).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> costs[i]).reversed())
+                .collect(Collectors.toList());
+
+        // On App Engine, workers are request threads, which access the db within the request. Elsewhere, db access is
+        // bound to the environment of the calling thread, so workers share it.
+        int poolSize = Math.max(1, Math.min(threadsNum, configurations.size()));
+        boolean isAppEngine = SystemProperty.environment.value() != null;
+        ApiProxy.Environment environment = isAppEngine ? null : ApiProxy.getCurrentEnvironment();
+        ExecutorService pool = isAppEngine
+                ? Executors.newFixedThreadPool(poolSize, ThreadManager.currentRequestThreadFactory())
+                : Executors.newFixedThreadPool(poolSize);
+        CompletionService<String> completionService = new ExecutorCompletionService<>(pool);
+        Map<Future<String>, Integer> runningIndices = new HashMap<>(); // the configuration of each running simulation.
+        Map<Future<String>, Integer> attemptsNums = new HashMap<>(); // the attempt of each running simulation.
+        try {
+            // Simulations are submitted largest first, so the pool's threads complete at about the same time.
+            for (int index : orderedIndices) {
+                Future<String> simulationId =
+                        submit(completionService, environment, configurations.get(index), experimentTitle, beaconsNum);
+                runningIndices.put(simulationId, index);
+                attemptsNums.put(simulationId, 1);
+            }
+
+            // Experiment updates are applied on this thread only, so they don't contend with each other.
+            int succeededNum = 0;
+            int failedNum = 0;
+            while (!runningIndices.isEmpty()) {
+                Future<String> simulationId = completionService.take();
+                int index = runningIndices.remove(simulationId);
+                int attemptsNum = attemptsNums.remove(simulationId);
+                String completedSimulationId = null;
+                try {
+                    completedSimulationId = simulationId.get();
+                    if (memberIds == null) {
+                        StateStores.get().addSimulationToExperiment(experimentId, completedSimulationId);
+                    } else if (!StateStores.get().addMemberToExperiment(experimentId, memberIds.get(index),
+                            completedSimulationId)) {
+                        log.info("Member " + memberIds.get(index) + " of experiment " + experimentId +
+                                " has been associated by another run, so simulation " + completedSimulationId +
+                                " is deleted.");
+                        deleteSimulation(completedSimulationId);
+                    }
+                    succeededNum++;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SimulationAttemptException) {
+                        deleteSimulation(((SimulationAttemptException) e.getCause()).simulationId);
+                    }
+                    if (attemptsNum < MAX_SIMULATION_ATTEMPTS) {
+                        log.log(Level.WARNING, "A simulation of experiment " + experimentId + " has failed, " +
+                                "so it is run again.", e.getCause());
+                        Future<String> retriedSimulationId = submit(
+                                completionService, environment, configurations.get(index), experimentTitle, beaconsNum);
+                        runningIndices.put(retriedSimulationId, index);
+                        attemptsNums.put(retriedSimulationId, attemptsNum + 1);
+                        continue;
+                    }
+                    log.log(Level.WARNING, "A simulation of experiment " + experimentId + " has failed " +
+                            attemptsNum + " times.", e.getCause());
+                    failedNum++;
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "A simulation of experiment " + experimentId + " can't be associated to it.", e);
+                    deleteSimulation(completedSimulationId);
+                    failedNum++;
+                }
+                listener.onProgress(succeededNum, failedNum, configurations.size());
+            }
+            return failedNum;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Submit a simulation of a configuration, run on the API environment shared by the workers, or on the workers' own
+     * environment if none is shared. A simulation which fails once it has been built throws a
+     * {@link SimulationAttemptException}, so that it can be deleted.
+     */
+    private static Future<String> submit(CompletionService<String> completionService, ApiProxy.Environment environment,
+                                         List<PropertyWrapper> configuration, String experimentTitle, int beaconsNum) {
+        return completionService.submit(() -> {
+            if (environment != null) {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+            }
+            try {
+                AbstractSimulation simulation = ExperimentConfigurations
+                        .toSimulationBuilder(configuration, beaconsNum, Experiment.describeSimulation(experimentTitle))
+                        .setRunMode(AbstractSimulation.RunMode.STATISTICS_ONLY)
+                        .build();
+                try {
+                    long start = System.currentTimeMillis();
+                    simulation.run();
+                    SimulationCostEstimator.recordRunTime(StateStores.get().readMetadata(simulation.getId()),
+                            System.currentTimeMillis() - start);
+                } catch (RuntimeException e) {
+                    throw new SimulationAttemptException(simulation.getId(), e);
+                }
+                return simulation.getId();
+            } finally {
+                if (environment != null) {
+                    ApiProxy.clearEnvironmentForCurrentThread();
+                }
+            }
+        });
+    }
+
+    /** Delete a simulation which won't be associated to the experiment, so it isn't left in the state store. */
+    private static void deleteSimulation(String simulationId) {
+        if (simulationId == null) {
+            return;
+        }
+        try {
+            StateStores.get().deleteSimulation(simulationId);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Simulation " + simulationId + " which isn't associated can't be deleted.", e);
+        }
+    }
+
+    /** Thrown by an attempt whose simulation has been built, and written to the state store, and then failed. */
+    private static final class SimulationAttemptException extends Exception {
+        private final String simulationId;
+
+        private SimulationAttemptException(String simulationId, Throwable cause) {
+            super("Simulation " + simulationId + " has failed.", cause);
+            this.simulationId = simulationId;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.research.bleth.simulator.StateStores;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A command line entry point for running an experiment on a single machine, using an in-process experiment executor.
+ * Arguments are pairs of the form 'name=value', named as the parameters of '/enqueue-experiment' ('experimentTitle',
+ * 'beaconsNum' and the ranges of the simulation parameters), with an optional 'repetitions' which defaults to 1 and an
+ * optional 'threadsNum' which defaults to the number of available processors.
+ * If 'sweep' is 'adaptive', the parameter space is swept adaptively instead of running every configuration, as set by
+ * the optional parameters of {@link AdaptiveSweep#create}.
+ * The state store is chosen by the 'bleth.stateStore' system property (see {@link StateStores}), so an experiment runs
+ * on a plain JVM with '-Dbleth.stateStore=memory' or '-Dbleth.stateStore=file:&lt;directory&gt;'. The db is accessed
+ * through the App Engine API environment, which the runner doesn't install, so running against the db requires a
+ * process where the environment is already installed, such as the development server, where '/enqueue-experiment'
+ * with 'runInProcess=true' runs the same executor.
+ */
+public class ExperimentRunner {
+
+    public static void main(String[] args) {
+        String experimentId = run(parseArguments(args));
+        System.out.println("Experiment " + experimentId + " has completed.");
+    }
+
+    /**
+     * Run an experiment and print its progress.
+     * @param parameters maps the name of each experiment parameter to its value.
+     * @return the unique Id assigned to the experiment as a string.
+     */
+    public static String run(Map<String, String> parameters) {
+        checkState(!StateStores.isDatastore() ||
+                        (ApiProxy.getCurrentEnvironment() != null && ApiProxy.getDelegate() != null),
+                "No App Engine API environment is installed, so the db can't be accessed. " +
+                        "Use another state store by setting the 'bleth.stateStore' system property.");
+        String experimentTitle = parameters.get("experimentTitle");
+        int beaconsNum = Integer.parseInt(parameters.get("beaconsNum"));
+        int threadsNum = parameters.containsKey("threadsNum")
+                ? Integer.parseInt(parameters.get("threadsNum"))
+                : Runtime.getRuntime().availableProcessors();
+        ExperimentExecutor executor = new ExperimentExecutor(threadsNum);
+        ExperimentExecutor.ProgressListener listener = (succeededNum, failedNum, simulationsNum) -> System.out.println(
+                (succeededNum + failedNum) + "/" + simulationsNum + " simulations completed (" + failedNum + " failed).");
+        if ("adaptive".equals(parameters.get("sweep"))) {
+            System.out.println("Sweeping adaptively on " + threadsNum + " threads.");
+            return AdaptiveSweep.create(executor, parameters::get).execute(experimentTitle, beaconsNum,
+                    ExperimentConfigurations.createParametersValues(parameters::get), listener);
+        }
+
+        int repetitions = parameters.containsKey("repetitions") ? Integer.parseInt(parameters.get("repetitions")) : 1;
+        Set<List<PropertyWrapper>> configurations = ExperimentConfigurations.create(parameters::get);
+
+        System.out.println("Running " + configurations.size() * repetitions + " simulations on " + threadsNum + " threads.");
+        return executor.execute(experimentTitle, beaconsNum, configurations, repetitions, listener);
+    }
+
+    private static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> parameters = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            checkArgument(separator > 0, "Argument %s is not of the form name=value.", arg);
+            parameters.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return parameters;
+    }
+}
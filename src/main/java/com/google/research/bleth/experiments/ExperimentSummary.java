@@ -0,0 +1,252 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.research.bleth.simulator.IStateStore;
+import com.google.research.bleth.simulator.ObservedInterval;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.StateStores;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A summary of an experiment's statistics: the metadata and statistics of every simulation of the experiment, and
+ * aggregates of the statistics of all replicas of each configuration, serialized as gzip compressed JSON.
+ * The summary of a completed experiment never changes, so it is materialized once when the experiment completes and
+ * read with a single key lookup afterwards. Summaries are materialized only when the state store is the db, and
+ * are computed whenever they are read otherwise.
+ */
+public final class ExperimentSummary {
+    private static final Logger log = Logger.getLogger(ExperimentSummary.class.getName());
+    private static final Gson gson = new Gson(); // Used for json serialization.
+    private static final int MAX_PART_SIZE = 900_000; // the maximal size in bytes of a blob, below the datastore entity size limit.
+
+    private final byte[] compressedJson;
+    private final String etag;
+    private final Date lastModified;
+
+    /**
+     * Compute the summary of an experiment from its simulations' statistics in the state store, without writing it.
+     * @param experimentId is the experiment id.
+     * @return the summary of the simulations associated to the experiment so far.
+     */
+    public static ExperimentSummary compute(String experimentId) {
+        IStateStore store = StateStores.get();
+        List<String> simulationIds = store.listExperimentSimulations(experimentId);
+        Map<String, ImmutableMultimap<Integer, ObservedInterval>> simulationsIntervalsStats =
+                store.readIntervalStats(simulationIds);
+
+        ImmutableMap.Builder<String, JsonElement> simulationsJson = ImmutableMap.builder();
+        Map<Map<String, Object>, ConfigurationStatistics> configurationsStatistics = new LinkedHashMap<>();
+        for (String simulationId : simulationIds) {
+            ImmutableMap.Builder<String, JsonElement> simulationJson = ImmutableMap.builder(); // Stores metadata and stats.
+            SimulationMetadata metadata = store.readMetadata(simulationId);
+            simulationJson.put(Schema.SimulationMetadata.entityKind, gson.toJsonTree(metadata));
+            Map<String, Double> distancesStats = store.readDistancesStats(simulationId);
+            simulationJson.put(Schema.StatisticsState.entityKindDistance, gson.toJsonTree(distancesStats));
+            ImmutableMultimap<Integer, ObservedInterval> observedIntervalsStats = simulationsIntervalsStats.get(simulationId);
+            simulationJson.put(Schema.StatisticsState.entityKindBeaconsObservedIntervals, serializeObservedIntervalsMap(observedIntervalsStats));
+            simulationsJson.put(simulationId, gson.toJsonTree(simulationJson.build()));
+
+            ConfigurationStatistics.Replica replica =
+                    ConfigurationStatistics.createReplica(metadata, distancesStats, observedIntervalsStats);
+            configurationsStatistics.computeIfAbsent(replica.getConfiguration(), ConfigurationStatistics::create)
+                    .add(replica.getStatistics());
+        }
+
+        List<JsonElement> configurationsJson = configurationsStatistics.values().stream()
+                .map(ConfigurationStatistics::toJson)
+                .collect(Collectors.toList());
+        String json = gson.toJson(ImmutableMap.of(
+                "configurations", gson.toJsonTree(configurationsJson),
+                "simulations", gson.toJsonTree(simulationsJson.build())));
+        return new ExperimentSummary(compress(json.getBytes(StandardCharsets.UTF_8)), new Date());
+    }
+
+    /**
+     * Compute the summary of an experiment and write it to the db, replacing a summary previously written. If the
+     * state store isn't the db, the summary is only computed.
+     * @param experimentId is the experiment id.
+     * @return the computed summary.
+     */
+    public static ExperimentSummary materialize(String experimentId) {
+        ExperimentSummary summary = compute(experimentId);
+        if (!StateStores.isDatastore()) {
+            return summary;
+        }
+        summary.write(experimentId);
+        log.info("The summary of experiment " + experimentId + " was materialized.");
+        return summary;
+    }
+
+    /**
+     * Read the materialized summary of an experiment from the db.
+     * @param experimentId is the experiment id.
+     * @return the materialized summary, or an empty optional if the summary has not been materialized, which is always
+     * the case if the state store isn't the db.
+     */
+    public static Optional<ExperimentSummary> read(String experimentId) {
+        if (!StateStores.isDatastore()) {
+            return Optional.empty();
+        }
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity entity;
+        try {
+            entity = datastore.get(partKey(experimentId, 0));
+        } catch (EntityNotFoundException notMaterialized) {
+            return Optional.empty();
+        }
+
+        ByteArrayOutputStream compressedJson = new ByteArrayOutputStream();
+        byte[] firstPart = ((Blob) entity.getProperty(Schema.ExperimentSummary.summary)).getBytes();
+        compressedJson.write(firstPart, 0, firstPart.length);
+        int partsNum = ((Long) entity.getProperty(Schema.ExperimentSummary.partsNum)).intValue();
+        if (partsNum > 1) {
+            List<Key> partsKeys = new ArrayList<>(partsNum - 1);
+            for (int part = 1; part < partsNum; part++) {
+                partsKeys.add(partKey(experimentId, part));
+            }
+            Map<Key, Entity> parts = datastore.get(partsKeys);
+            for (Key partKey : partsKeys) {
+                Entity part = parts.get(partKey);
+                if (part == null) {
+                    throw new IllegalStateException("Missing part " + partKey.getName() + " of experiment summary.");
+                }
+                byte[] partBytes = ((Blob) part.getProperty(Schema.ExperimentSummary.summary)).getBytes();
+                compressedJson.write(partBytes, 0, partBytes.length);
+            }
+        }
+        return Optional.of(new ExperimentSummary(compressedJson.toByteArray(),
+                (String) entity.getProperty(Schema.ExperimentSummary.etag),
+                (Date) entity.getProperty(Schema.ExperimentSummary.lastModified)));
+    }
+
+    /** Returns the summary as gzip compressed JSON. */
+    public byte[] getCompressedJson() {
+        return compressedJson.clone();
+    }
+
+    /** Returns the summary as a JSON string. */
+    public String toJson() {
+        try {
+            byte[] json = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressedJson)));
+            return new String(json, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns an entity tag identifying the content of the summary. */
+    public String getEtag() {
+        return etag;
+    }
+
+    /** Returns the time the summary was computed. */
+    public Date getLastModified() {
+        return new Date(lastModified.getTime());
+    }
+
+    private ExperimentSummary(byte[] compressedJson, Date lastModified) {
+        this(compressedJson, Hashing.sha256().hashBytes(compressedJson).toString(), lastModified);
+    }
+
+    private ExperimentSummary(byte[] compressedJson, String etag, Date lastModified) {
+        this.compressedJson = compressedJson;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    private void write(String experimentId) {
+        int partsNum = Math.max(1, (compressedJson.length + MAX_PART_SIZE - 1) / MAX_PART_SIZE);
+        List<Entity> entities = new ArrayList<>(partsNum);
+        for (int part = 0; part < partsNum; part++) {
+            Entity entity = new Entity(partKey(experimentId, part));
+            entity.setUnindexedProperty(Schema.ExperimentSummary.summary, new Blob(Arrays.copyOfRange(compressedJson,
+                    part * MAX_PART_SIZE, Math.min(compressedJson.length, (part + 1) * MAX_PART_SIZE))));
+            if (part == 0) {
+                entity.setUnindexedProperty(Schema.ExperimentSummary.partsNum, partsNum);
+                entity.setUnindexedProperty(Schema.ExperimentSummary.etag, etag);
+                entity.setUnindexedProperty(Schema.ExperimentSummary.lastModified, lastModified);
+            }
+            entities.add(entity);
+        }
+        DatastoreServiceFactory.getDatastoreService().put(entities);
+    }
+
+    private static Key partKey(String experimentId, int part) {
+        return KeyFactory.createKey(Schema.ExperimentSummary.entityKind,
+                part == 0 ? experimentId : experimentId + ":" + part);
+    }
+
+    private static JsonElement serializeObservedIntervalsMap(ImmutableMultimap<Integer, ObservedInterval> observedIntervalsMap) {
+        ImmutableMap.Builder<Integer, JsonArray> res = ImmutableMap.builder();
+        for (Integer beaconId : observedIntervalsMap.keySet()) {
+            List<JsonElement> serializedBeaconIntervals = observedIntervalsMap.get(beaconId).stream()
+                    .map(ExperimentSummary::serializeObservedInterval)
+                    .collect(ImmutableList.toImmutableList());
+            res.put(beaconId, gson.toJsonTree(serializedBeaconIntervals).getAsJsonArray());
+        }
+        return gson.toJsonTree(res.build());
+    }
+
+    private static JsonElement serializeObservedInterval(ObservedInterval interval) {
+        ImmutableMap.Builder<String, Integer> res = ImmutableMap.builder();
+        int observed = interval.observed() ? 1 : -1;
+        res.put("start", interval.start());
+        res.put("end", interval.end());
+        res.put("duration", observed * interval.duration()); // positive duration iff observed.
+        return gson.toJsonTree(res.build());
+    }
+
+    private static byte[] compress(byte[] bytes) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * A class designated for storing numerical simulation parameters.
+ * PropertyWrapper stores the property name and value as an atomic unit.
+ */
+@AutoValue
+public abstract class PropertyWrapper {
+    public static PropertyWrapper create(String property, Number value) {
+        return new AutoValue_PropertyWrapper(property, value);
+    }
+    public abstract String property();
+    public abstract Number value();
+}
@@ -0,0 +1,241 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.StateStores;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * An estimator of the run time of a simulation, as a linear function of the board's size (rows * cols, for creating
+ * boards), of rounds * beacons * observers (for resolving transmissions) and of rounds * agents (for moving agents).
+ * The coefficients are fitted by least squares to the most recently recorded run times of simulations, and fall back
+ * to defaults until enough run times are recorded. Run times are recorded in the db, so estimators use the defaults
+ * if the state store isn't the db.
+ */
+public final class SimulationCostEstimator {
+    private static final Logger log = Logger.getLogger(SimulationCostEstimator.class.getName());
+    private static final int FEATURES_NUM = 4;
+    // The intercept and the coefficients of the features, in milliseconds. Defaults are conservative.
+    private static final double[] DEFAULT_COEFFICIENTS = {50, 1e-3, 1e-4, 1e-3};
+    private static final int MIN_SAMPLES_NUM = 20;
+    private static final int MAX_SAMPLES_NUM = 500;
+    private static final double SINGULARITY_TOLERANCE = 1e-12;
+
+    private final double[] coefficients;
+
+    /**
+     * Create an estimator fitted to the most recently recorded run times.
+     * @return a new estimator.
+     */
+    public static SimulationCostEstimator create() {
+        if (!StateStores.isDatastore()) {
+            return createDefault();
+        }
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Query runTimesQuery = new Query(Schema.SimulationRunTime.entityKind)
+                .addSort(Schema.SimulationRunTime.recordedAt, Query.SortDirection.DESCENDING);
+        List<double[]> samplesFeatures = new ArrayList<>();
+        List<Double> runTimesMillis = new ArrayList<>();
+        for (Entity entity : datastore.prepare(runTimesQuery).asIterable(FetchOptions.Builder.withLimit(MAX_SAMPLES_NUM))) {
+            samplesFeatures.add(features(
+                    ((Long) entity.getProperty(Schema.SimulationRunTime.rowsNum)).intValue(),
+                    ((Long) entity.getProperty(Schema.SimulationRunTime.colsNum)).intValue(),
+                    ((Long) entity.getProperty(Schema.SimulationRunTime.roundsNum)).intValue(),
+                    ((Long) entity.getProperty(Schema.SimulationRunTime.beaconsNum)).intValue(),
+                    ((Long) entity.getProperty(Schema.SimulationRunTime.observersNum)).intValue()));
+            runTimesMillis.add(((Long) entity.getProperty(Schema.SimulationRunTime.runTimeMillis)).doubleValue());
+        }
+        return fit(samplesFeatures, runTimesMillis);
+    }
+
+    /** Returns an estimator using the default coefficients. */
+    public static SimulationCostEstimator createDefault() {
+        return new SimulationCostEstimator(DEFAULT_COEFFICIENTS.clone());
+    }
+
+    /**
+     * Record the run time of a simulation, to be used for fitting future estimators. Recording is best effort, so a
+     * failure to write the run time is logged and ignored. Run times are recorded only if the state store is the db.
+     * @param metadata is the metadata of the simulation.
+     * @param runTimeMillis is the run time of the simulation, in milliseconds.
+     */
+    public static void recordRunTime(SimulationMetadata metadata, long runTimeMillis) {
+        checkArgument(runTimeMillis >= 0, "Run time can't be negative.");
+        if (!StateStores.isDatastore()) {
+            return;
+        }
+        Entity entity = new Entity(Schema.SimulationRunTime.entityKind);
+        entity.setUnindexedProperty(Schema.SimulationRunTime.roundsNum, metadata.roundsNum);
+        entity.setUnindexedProperty(Schema.SimulationRunTime.beaconsNum, metadata.beaconsNum);
+        entity.setUnindexedProperty(Schema.SimulationRunTime.observersNum, metadata.observersNum);
+        entity.setUnindexedProperty(Schema.SimulationRunTime.rowsNum, metadata.rowsNum);
+        entity.setUnindexedProperty(Schema.SimulationRunTime.colsNum, metadata.colsNum);
+        entity.setUnindexedProperty(Schema.SimulationRunTime.runTimeMillis, runTimeMillis);
+        entity.setProperty(Schema.SimulationRunTime.recordedAt, new Date());
+        try {
+            DatastoreServiceFactory.getDatastoreService().put(entity);
+        } catch (RuntimeException e) {
+            log.warning("Failed to record the run time of a simulation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Estimate the run time of a simulation.
+     * @param metadata is the metadata of the simulation.
+     * @return the estimated run time of the simulation, in milliseconds.
+     */
+    public double estimate(SimulationMetadata metadata) {
+        double[] features = features(metadata.rowsNum, metadata.colsNum, metadata.roundsNum,
+                metadata.beaconsNum, metadata.observersNum);
+        double estimate = 0;
+        for (int feature = 0; feature < FEATURES_NUM; feature++) {
+            estimate += coefficients[feature] * features[feature];
+        }
+        return estimate;
+    }
+
+    /**
+     * Estimate the run time of the simulation of an experiment's configuration.
+     * @param configuration is the configuration of the simulation.
+     * @param beaconsNum is the number of beacons, which is the same for all simulations of an experiment.
+     * @return the estimated run time of the simulation, in milliseconds.
+     */
+    public double estimate(List<PropertyWrapper> configuration, int beaconsNum) {
+        return estimate(new SimulationMetadata(
+                ExperimentConfigurations.toSimulationBuilder(configuration, beaconsNum, /* description= */ null)));
+    }
+
+    /**
+     * Fit an estimator to recorded run times, by non-negative least squares. A coefficient which is negative in the
+     * least squares solution is fixed to zero, and the remaining coefficients are fitted again.
+     */
+    static SimulationCostEstimator fit(List<double[]> samplesFeatures, List<Double> runTimesMillis) {
+        checkArgument(samplesFeatures.size() == runTimesMillis.size());
+        if (samplesFeatures.size() < MIN_SAMPLES_NUM) {
+            return createDefault();
+        }
+
+        boolean[] active = new boolean[FEATURES_NUM];
+        Arrays.fill(active, true);
+        for (int iteration = 0; iteration < FEATURES_NUM; iteration++) {
+            double[] coefficients = solveLeastSquares(samplesFeatures, runTimesMillis, active);
+            if (coefficients == null) {
+                break;
+            }
+            boolean nonNegative = true;
+            for (int feature = 0; feature < FEATURES_NUM; feature++) {
+                if (coefficients[feature] < 0) {
+                    active[feature] = false;
+                    nonNegative = false;
+                }
+            }
+            if (nonNegative) {
+                return new SimulationCostEstimator(coefficients);
+            }
+        }
+        log.warning("Recorded run times can't be fitted, so default coefficients are used.");
+        return createDefault();
+    }
+
+    /** Returns the intercept and features of a simulation, in the order of the coefficients. */
+    static double[] features(int rowsNum, int colsNum, int roundsNum, int beaconsNum, int observersNum) {
+        return new double[] {
+                1,
+                (double) rowsNum * colsNum,
+                (double) roundsNum * beaconsNum * observersNum,
+                (double) roundsNum * (beaconsNum + observersNum)
+        };
+    }
+
+    /**
+     * Solve the normal equations of the active features by gaussian elimination, and return the coefficients, where
+     * coefficients of inactive features are zero, or null if the equations are singular.
+     */
+    private static double[] solveLeastSquares(List<double[]> samplesFeatures, List<Double> runTimesMillis,
+                                              boolean[] active) {
+        double[][] equations = new double[FEATURES_NUM][FEATURES_NUM + 1];
+        for (int sample = 0; sample < samplesFeatures.size(); sample++) {
+            double[] features = samplesFeatures.get(sample);
+            for (int row = 0; row < FEATURES_NUM; row++) {
+                for (int col = 0; col < FEATURES_NUM; col++) {
+                    equations[row][col] += features[row] * features[col];
+                }
+                equations[row][FEATURES_NUM] += features[row] * runTimesMillis.get(sample);
+            }
+        }
+        for (int feature = 0; feature < FEATURES_NUM; feature++) {
+            if (!active[feature]) {
+                // Replace the equation of an inactive feature with 'coefficient = 0'.
+                Arrays.fill(equations[feature], 0);
+                equations[feature][feature] = 1;
+                for (int row = 0; row < FEATURES_NUM; row++) {
+                    if (row != feature) {
+                        equations[row][feature] = 0;
+                    }
+                }
+            }
+        }
+
+        double scale = 0;
+        for (int feature = 0; feature < FEATURES_NUM; feature++) {
+            scale = Math.max(scale, Math.abs(equations[feature][feature]));
+        }
+        for (int pivot = 0; pivot < FEATURES_NUM; pivot++) {
+            int maxRow = pivot;
+            for (int row = pivot + 1; row < FEATURES_NUM; row++) {
+                if (Math.abs(equations[row][pivot]) > Math.abs(equations[maxRow][pivot])) {
+                    maxRow = row;
+                }
+            }
+            double[] swapped = equations[pivot];
+            equations[pivot] = equations[maxRow];
+            equations[maxRow] = swapped;
+            if (Math.abs(equations[pivot][pivot]) <= scale * SINGULARITY_TOLERANCE) {
+                return null;
+            }
+            for (int row = 0; row < FEATURES_NUM; row++) {
+                if (row != pivot) {
+                    double factor = equations[row][pivot] / equations[pivot][pivot];
+                    for (int col = pivot; col <= FEATURES_NUM; col++) {
+                        equations[row][col] -= factor * equations[pivot][col];
+                    }
+                }
+            }
+        }
+
+        double[] coefficients = new double[FEATURES_NUM];
+        for (int feature = 0; feature < FEATURES_NUM; feature++) {
+            coefficients[feature] = equations[feature][FEATURES_NUM] / equations[feature][feature];
+        }
+        return coefficients;
+    }
+
+    private SimulationCostEstimator(double[] coefficients) {
+        this.coefficients = coefficients;
+    }
+}
@@ -0,0 +1,177 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.research.bleth.servlets;
+
+import com.google.research.bleth.simulator.BoardState;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes a board state to a response in the encoding negotiated by the request's Accept header: the sparse binary
+ * encoding, the sparse JSON encoding, or the dense JSON 2D array by default. The response is gzip-compressed if the
+ * request's Accept-Encoding header allows it.
+ * Board states of completed simulations never change, so their responses are marked immutable and carry a strong
+ * entity tag, identifying the board state and its negotiated encoding, to which conditional requests are answered.
+ */
+final class BoardStateResponses {
+    static final String SPARSE_JSON_CONTENT_TYPE = "application/vnd.bleth.board-state+json";
+    static final String SPARSE_BINARY_CONTENT_TYPE = "application/vnd.bleth.board-state";
+    private static final String DENSE_JSON_CONTENT_TYPE = "application/json";
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable"; // a year.
+
+    private BoardStateResponses() {}
+
+    /**
+     * Mark the response of an immutable board state with its entity tag, and answer a conditional request whose
+     * entity tag matches it, so the board state needn't be read.
+     * @param request is the request of the board state.
+     * @param response is the response to mark.
+     * @param simulationId is the id of the board state's completed simulation.
+     * @param round is the round of the board state.
+     * @param entityKind is the kind of the board state.
+     * @return true if the request's entity tag matches and a 'not modified' response was sent, false otherwise.
+     */
+    static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String simulationId,
+                                    int round, String entityKind) {
+        String entityTag = "\"" + simulationId + "/" + round + "/" + entityKind + "/" + negotiateContentType(request)
+                + (acceptsGzip(request) ? "/" + GZIP_ENCODING : "") + "\"";
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        return checkNotModified(request, response, entityTag);
+    }
+
+    /**
+     * Mark the event stream of a range of immutable board states with its entity tag, and answer a conditional request
+     * whose entity tag matches it. The stream isn't negotiated, so its entity tag identifies the requested range and
+     * its boards and format.
+     * @param request is the request of the board states.
+     * @param response is the response to mark.
+     * @param simulationId is the id of the board states' completed simulation.
+     * @param fromRound is the first round of the range.
+     * @param toRound is the round following the last round of the range.
+     * @param board is the requested board, or null if both boards are requested.
+     * @param format is the requested format, or null for the default format.
+     * @return true if the request's entity tag matches and a 'not modified' response was sent, false otherwise.
+     */
+    static boolean checkRangeNotModified(HttpServletRequest request, HttpServletResponse response, String simulationId,
+                                         int fromRound, int toRound, String board, String format) {
+        String entityTag = "\"" + simulationId + "/" + fromRound + "-" + toRound + "/" + board + "/" + format + "\"";
+        return checkNotModified(request, response, entityTag);
+    }
+
+    /**
+     * Check whether a request's If-None-Match header lists an entity tag, or any entity tag.
+     * @param request is the conditional request.
+     * @param entityTag is the quoted entity tag of the requested representation.
+     * @return true if the request has an If-None-Match header which matches the entity tag, false otherwise.
+     */
+    static boolean matchesIfNoneMatch(HttpServletRequest request, String entityTag) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String requestedTag : ifNoneMatch.split(",")) {
+            requestedTag = requestedTag.trim();
+            if (requestedTag.equals("*") || requestedTag.equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns whether a request's Accept-Encoding header allows a gzip-compressed response. */
+    static boolean acceptsGzip(HttpServletRequest request) {
+        return accepts(request.getHeader("Accept-Encoding"), GZIP_ENCODING);
+    }
+
+    /**
+     * Write a board state to a response.
+     * @param request is the request of the board state, whose headers determine the encoding.
+     * @param response is the response to write the board state to.
+     * @param boardState is the board state.
+     */
+    static void write(HttpServletRequest request, HttpServletResponse response, BoardState boardState)
+            throws IOException {
+        String contentType = negotiateContentType(request);
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        boolean isCompressed = acceptsGzip(request);
+        if (isCompressed) {
+            response.setHeader("Content-Encoding", GZIP_ENCODING);
+        }
+
+        try (OutputStream out = isCompressed
+                ? new GZIPOutputStream(response.getOutputStream()) : response.getOutputStream()) {
+            if (contentType.equals(SPARSE_BINARY_CONTENT_TYPE)) {
+                response.setContentType(SPARSE_BINARY_CONTENT_TYPE);
+                boardState.writeSparse(out);
+            } else if (contentType.equals(SPARSE_JSON_CONTENT_TYPE)) {
+                response.setContentType(SPARSE_JSON_CONTENT_TYPE + ";charset=UTF-8");
+                out.write(boardState.toSparseJson().getBytes(StandardCharsets.UTF_8));
+            } else {
+                response.setContentType(DENSE_JSON_CONTENT_TYPE + ";charset=UTF-8");
+                out.write(boardState.toJson().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    // Sets an immutable board state's validator and caching headers, and answers 304 if the client's copy is current.
+    private static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String entityTag) {
+        response.setHeader("ETag", entityTag);
+        response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+        if (matchesIfNoneMatch(request, entityTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    // Returns the content type of the encoding requested by the request's Accept header.
+    private static String negotiateContentType(HttpServletRequest request) {
+        String accept = request.getHeader("Accept");
+        if (accepts(accept, SPARSE_BINARY_CONTENT_TYPE)) {
+            return SPARSE_BINARY_CONTENT_TYPE;
+        }
+        if (accepts(accept, SPARSE_JSON_CONTENT_TYPE)) {
+            return SPARSE_JSON_CONTENT_TYPE;
+        }
+        return DENSE_JSON_CONTENT_TYPE;
+    }
+
+    // Returns whether a comma separated header lists a value, ignoring its parameters, unless its quality is zero.
+    private static boolean accepts(String header, String value) {
+        if (header == null) {
+            return false;
+        }
+        for (String element : header.split(",")) {
+            String[] parts = element.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(value)) {
+                continue;
+            }
+            boolean isRejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                isRejected |= parts[i].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+            if (!isRejected) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
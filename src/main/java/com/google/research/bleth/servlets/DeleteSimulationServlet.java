@@ -14,7 +14,7 @@
 
 package com.google.research.bleth.servlets;
 
-import com.google.research.bleth.utils.Queries;
+import com.google.research.bleth.simulator.StateStores;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -30,7 +30,7 @@ public class DeleteSimulationServlet extends HttpServlet {
         String simulationId = request.getParameter("simulationId");
         String responseText = "Simulation has been deleted successfully.";
         try {
-            Queries.delete(simulationId);
+            StateStores.get().deleteSimulation(simulationId);
         } catch (Exception e) {
             responseText = "Something went wrong: " + e.getMessage();
         }
@@ -14,39 +14,34 @@
 
 package com.google.research.bleth.servlets;
 
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
-
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.auto.value.AutoValue;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.tasks.v2.AppEngineHttpRequest;
 import com.google.cloud.tasks.v2.CloudTasksClient;
+import com.google.cloud.tasks.v2.CreateTaskRequest;
 import com.google.cloud.tasks.v2.HttpMethod;
 import com.google.cloud.tasks.v2.QueueName;
 import com.google.cloud.tasks.v2.Task;
-import com.google.common.base.Ascii;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
 import com.google.protobuf.ByteString;
-import com.google.research.bleth.simulator.AwakenessStrategyFactory;
-import com.google.research.bleth.simulator.MovementStrategyFactory;
+import com.google.research.bleth.experiments.AdaptiveSweep;
+import com.google.research.bleth.experiments.ExperimentConfigurations;
+import com.google.research.bleth.experiments.ExperimentExecutor;
+import com.google.research.bleth.experiments.PropertyWrapper;
+import com.google.research.bleth.experiments.SimulationCostEstimator;
 import com.google.research.bleth.simulator.Schema;
-import com.google.research.bleth.simulator.TracingSimulation;
+import com.google.research.bleth.simulator.StateStores;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.ToDoubleFunction;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -54,125 +49,98 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * A servlet used for enqueuing multiple tasks targeted at endpoint '/new-experiment-simulation',
- * in order to create and run a new experiment.
+ * in order to create and run a new experiment. Each task runs a batch of simulations, whose estimated run time is bounded.
+ * Each configuration is run by 'repetitions' independent simulations (defaults to 1).
+ * On localhost, or if requested by the 'runInProcess' parameter, the experiment's simulations run in the handling
+ * instance instead, on a pool of 'threadsNum' threads (defaults to the number of available processors).
+ * If the 'sweep' parameter is 'adaptive', the parameter space is swept adaptively in the handling instance instead of
+ * running every configuration, since each round of the sweep depends on the statistics of the previous rounds.
  */
 @WebServlet("/enqueue-experiment")
 public class EnqueueExperimentServlet extends HttpServlet {
-    private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    private static final MovementStrategyFactory.Type defaultMovementStrategy = MovementStrategyFactory.Type.RANDOM;
-    private static final AwakenessStrategyFactory.Type defaultAwakenessStrategy = AwakenessStrategyFactory.Type.RANDOM;
     private static final String PROJECT_ID = "bleth-2020";
     private static final String LOCATION_ID = "europe-west1";
     private static final String QUEUE_ID = "simulations-queue";
     private static final String queueName = QueueName.of(PROJECT_ID, LOCATION_ID, QUEUE_ID).toString();
     private static final Logger log = Logger.getLogger(EnqueueExperimentServlet.class.getName());
-    private static final TracingSimulation.Builder validator = new TracingSimulation.Builder();
+    private static final double MAX_BATCH_RUN_TIME_MILLIS = 60_000; // the maximal estimated run time of a task's simulations.
+    private static final int MAX_BATCH_SIZE = 50; // the maximal number of simulations of a task.
+    private static CloudTasksClient client; // created lazily, and shared by all requests.
 
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
-        if (request.getServerName().equals("localhost") && request.getServerPort() == 8080) {
-            response.setContentType("text/plain;");
-            response.getWriter().println("Experiments are not yet supported on localhost.");
-            return;
-        }
-
         String experimentTitle = request.getParameter("experimentTitle");
         int beaconsNum = Integer.parseInt(request.getParameter("beaconsNum"));
-        Set<List<PropertyWrapper>> configurations = createConfigurations(request);
-
-        Entity experiment = new Entity(Schema.Experiment.entityKind);
-        experiment.setProperty(Schema.Experiment.experimentTitle, experimentTitle);
-        experiment.setProperty(Schema.Experiment.simulationsLeft, configurations.size());
-        Key experimentId = datastore.put(experiment);
-        log.info("A new experiment entity with id " + KeyFactory.keyToString(experimentId) +
-                " was created and written to db.");
-
-        for (List<PropertyWrapper> configuration : configurations) {
-            AppEngineHttpRequest httpRequest = toHttpRequest(configuration, beaconsNum, experimentId, experimentTitle);
-            log.info("A new AppEngineHttpRequest was created: " + httpRequest.toString());
-            enqueueTask(httpRequest);
-            log.info("A new Task was created and enqueued.");
-        }
-
-        response.setContentType("text/plain;");
-        response.getWriter().println(configurations.size() + " tasks have been added to queue.");
-    }
-
-    /**
-     * A class designated for storing numerical simulation parameters.
-     * PropertyWrapper stores the property name and value as an atomic unit.
-     */
-    @AutoValue
-    public static abstract class PropertyWrapper {
-        public static PropertyWrapper create(String property, Number value) {
-            return new AutoValue_EnqueueExperimentServlet_PropertyWrapper(property, value);
-        }
-        public abstract String property();
-        public abstract Number value();
-    }
+        Set<List<PropertyWrapper>> configurations = ExperimentConfigurations.create(request::getParameter);
+        String repetitionsParameter = request.getParameter("repetitions");
+        int repetitions = repetitionsParameter == null ? 1 : Integer.parseInt(repetitionsParameter);
+
+        boolean isLocalhost = request.getServerName().equals("localhost") && request.getServerPort() == 8080;
+        boolean isAdaptive = "adaptive".equals(request.getParameter("sweep"));
+        if (isLocalhost || isAdaptive || Boolean.parseBoolean(request.getParameter("runInProcess"))) {
+            String threadsNum = request.getParameter("threadsNum");
+            ExperimentExecutor executor = new ExperimentExecutor(threadsNum == null
+                    ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(threadsNum));
+            ExperimentExecutor.ProgressListener listener = (succeededNum, failedNum, simulationsNum) ->
+                    log.info((succeededNum + failedNum) + "/" + simulationsNum + " simulations of experiment " +
+                            experimentTitle + " have completed, " + failedNum + " of them failed.");
+            if (isAdaptive) {
+                int[] simulationsRun = new int[1];
+                AdaptiveSweep.create(executor, request::getParameter).execute(experimentTitle, beaconsNum,
+                        ExperimentConfigurations.createParametersValues(request::getParameter),
+                        (succeededNum, failedNum, simulationsNum) -> {
+                            simulationsRun[0] = simulationsNum;
+                            listener.onProgress(succeededNum, failedNum, simulationsNum);
+                        });
+
+                response.setContentType("text/plain;");
+                response.getWriter().println(simulationsRun[0] + " simulations of " + configurations.size() +
+                        " configurations have been run by an adaptive sweep.");
+                return;
+            }
+            executor.execute(experimentTitle, beaconsNum, configurations, repetitions, listener);
 
-    private Set<List<PropertyWrapper>> createConfigurations(HttpServletRequest request) {
-        Set<PropertyWrapper> roundsNumValues = createIntValues(request, "roundsNum");
-        Set<PropertyWrapper> rowsNumValues = createIntValues(request, "rowsNum");
-        Set<PropertyWrapper> colsNumValues = createIntValues(request, "colsNum");
-        Set<PropertyWrapper> observersNumValues = createIntValues(request, "observersNum");
-        Set<PropertyWrapper> awakenessCycleValues = createIntValues(request, "awakenessCycle");
-        Set<PropertyWrapper> awakenessDurationValues = createIntValues(request, "awakenessDuration");
-        Set<PropertyWrapper> transmissionThresholdRadiusValues = createDoubleValues(request, "transmissionThresholdRadius");
-
-        Set<List<PropertyWrapper>> configurations = Sets.cartesianProduct(
-                roundsNumValues,
-                rowsNumValues,
-                colsNumValues,
-                observersNumValues,
-                awakenessCycleValues,
-                awakenessDurationValues,
-                transmissionThresholdRadiusValues
-        );
-
-        return configurations.stream().filter(this::validateArguments).collect(toImmutableSet());
-    }
-
-    private Set<PropertyWrapper> createIntValues(HttpServletRequest request, String parameter) {
-        int lower = Integer.parseInt(request.getParameter("lower" + capitalizeFirstChar(parameter)));
-        int upper = Integer.parseInt(request.getParameter("upper" + capitalizeFirstChar(parameter)));
-        int step = Integer.parseInt(request.getParameter("step" + capitalizeFirstChar(parameter)));
-        Set<PropertyWrapper> values = new HashSet<>();
-        for (int value = lower; value <= upper; value += step) {
-            values.add(PropertyWrapper.create(parameter, value));
+            response.setContentType("text/plain;");
+            response.getWriter().println(configurations.size() * repetitions + " simulations have been run.");
+            return;
         }
-        return ImmutableSet.copyOf(values);
-    }
 
-    private Set<PropertyWrapper> createDoubleValues(HttpServletRequest request, String parameter) {
-        double lower = Double.parseDouble(request.getParameter("lower" + capitalizeFirstChar(parameter)));
-        double upper = Double.parseDouble(request.getParameter("upper" + capitalizeFirstChar(parameter)));
-        double step = Double.parseDouble(request.getParameter("step" + capitalizeFirstChar(parameter)));
-        Set<PropertyWrapper> values = new HashSet<>();
-        for (double value = lower; value <= upper; value += step) {
-            values.add(PropertyWrapper.create(parameter, value));
+        List<List<PropertyWrapper>> replicas = ExperimentConfigurations.replicate(configurations, repetitions);
+        String experimentId = StateStores.get().createExperiment(experimentTitle, replicas.size());
+
+        // Tasks are enqueued largest first, so the most expensive simulations start first.
+        SimulationCostEstimator estimator = SimulationCostEstimator.create();
+        ToDoubleFunction<List<PropertyWrapper>> cost = configuration -> estimator.estimate(configuration, beaconsNum);
+        List<List<List<PropertyWrapper>>> batches = ExperimentConfigurations.batch(
+                ExperimentConfigurations.orderByCost(replicas, cost), cost, MAX_BATCH_RUN_TIME_MILLIS, MAX_BATCH_SIZE);
+        List<ApiFuture<Task>> tasks = new ArrayList<>(batches.size());
+        int firstMember = 0; // members are numbered by their order, so a retried task reruns the same members.
+        for (List<List<PropertyWrapper>> batch : batches) {
+            AppEngineHttpRequest httpRequest =
+                    toHttpRequest(batch, firstMember, beaconsNum, experimentId, experimentTitle);
+            tasks.add(enqueueTask(httpRequest));
+            firstMember += batch.size();
         }
-        return ImmutableSet.copyOf(values);
-    }
+        awaitTasks(tasks);
+        log.info(batches.size() + " tasks running " + replicas.size() + " simulations of experiment " +
+                experimentId + " were created and enqueued.");
 
-    private String capitalizeFirstChar(String s) {
-        return Ascii.toUpperCase(s.substring(0, 1)) + s.substring(1);
+        response.setContentType("text/plain;");
+        response.getWriter().println(batches.size() + " tasks have been added to queue, running " +
+                replicas.size() + " simulations.");
     }
 
-    private AppEngineHttpRequest toHttpRequest(List<PropertyWrapper> configuration,
-                                               int beaconsNum, Key experimentId, String experimentTitle) throws UnsupportedEncodingException {
+    private AppEngineHttpRequest toHttpRequest(List<List<PropertyWrapper>> batch, int firstMember, int beaconsNum,
+                                               String experimentId, String experimentTitle)
+            throws UnsupportedEncodingException {
         Map<String, String> bodyMap = new HashMap<>();
-        bodyMap.put(Schema.SimulationMetadata.description,
-                "Simulation attached to experiment: " + experimentTitle);
+        bodyMap.put("experimentTitle", experimentTitle);
         bodyMap.put(Schema.SimulationMetadata.beaconsNum, String.valueOf(beaconsNum));
-        bodyMap.put(Schema.SimulationMetadata.beaconMovementStrategy, defaultMovementStrategy.toString());
-        bodyMap.put(Schema.SimulationMetadata.observerMovementStrategy, defaultMovementStrategy.toString());
-        bodyMap.put(Schema.SimulationMetadata.observerAwakenessStrategy, defaultAwakenessStrategy.toString());
-        bodyMap.put(Schema.ExperimentsToSimulations.experimentId, KeyFactory.keyToString(experimentId));
-        configuration.forEach((propertyWrapper -> {
-            bodyMap.put(propertyWrapper.property(), String.valueOf(propertyWrapper.value()));
-        }));
+        bodyMap.put(Schema.ExperimentsToSimulations.experimentId, experimentId);
+        bodyMap.put("configurations", ExperimentConfigurations.toJson(batch));
+        bodyMap.put("firstMember", String.valueOf(firstMember));
 
         return AppEngineHttpRequest.newBuilder()
                 .setRelativeUri("/new-experiment-simulation")
@@ -191,39 +159,34 @@ public class EnqueueExperimentServlet extends HttpServlet {
         return String.join("&", keyValuePairs);
     }
 
-    private boolean validateArguments(List<PropertyWrapper> configuration) {
-        // TODO: refactor TracingSimulation.Builder.validateArguments() to be usable in this context.
-        Map<String, Number> properties = configuration.stream()
-                .collect(Collectors.toMap(PropertyWrapper::property, PropertyWrapper::value));
+    /** Create a task without waiting for its creation, using the client shared by all requests. */
+    private ApiFuture<Task> enqueueTask(AppEngineHttpRequest httpRequest) throws IOException {
+        Task task = Task.newBuilder()
+                .setAppEngineHttpRequest(httpRequest)
+                .build();
+        CreateTaskRequest createTaskRequest = CreateTaskRequest.newBuilder()
+                .setParent(queueName)
+                .setTask(task)
+                .build();
+        return getClient().createTaskCallable().futureCall(createTaskRequest);
+    }
 
+    private static void awaitTasks(List<ApiFuture<Task>> tasks) throws IOException {
         try {
-            validator
-                    .setMaxNumberOfRounds(properties.get(Schema.SimulationMetadata.roundsNum).intValue())
-                    .setRowNum(properties.get(Schema.SimulationMetadata.rowsNum).intValue())
-                    .setColNum(properties.get(Schema.SimulationMetadata.colsNum).intValue())
-                    .setBeaconsNum(1) // dummy value for validation purpose only.
-                    .setObserversNum(properties.get(Schema.SimulationMetadata.observersNum).intValue())
-                    .setBeaconMovementStrategyType(defaultMovementStrategy)
-                    .setObserverMovementStrategyType(defaultMovementStrategy)
-                    .setAwakenessStrategyType(defaultAwakenessStrategy)
-                    .setAwakenessCycle(properties.get(Schema.SimulationMetadata.awakenessCycle).intValue())
-                    .setAwakenessDuration(properties.get(Schema.SimulationMetadata.awakenessDuration).intValue())
-                    .setTransmissionThresholdRadius(properties.get(Schema.SimulationMetadata.transmissionThresholdRadius)
-                            .doubleValue())
-                    .validateArguments();
-        } catch (Exception e) {
-            return false;
+            ApiFutures.allAsList(tasks).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating tasks.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to create tasks.", e.getCause());
         }
-        return true;
     }
 
-    private void enqueueTask(AppEngineHttpRequest httpRequest) throws IOException {
-        try (CloudTasksClient client = CloudTasksClient.create()) {
-            Task task = Task.newBuilder()
-                    .setAppEngineHttpRequest(httpRequest)
-                    .build();
-
-            client.createTask(queueName, task);
+    /** Returns the tasks client, which is created once per instance since creating a client is expensive. */
+    private static synchronized CloudTasksClient getClient() throws IOException {
+        if (client == null) {
+            client = CloudTasksClient.create();
         }
+        return client;
     }
 }
@@ -20,7 +20,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.research.bleth.exceptions.MissingSortingParameterException;
-import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.StateStores;
 import com.google.research.bleth.utils.Queries;
 import java.io.IOException;
 import java.util.Optional;
@@ -50,7 +50,7 @@ public class ListSimulationsServlet extends HttpServlet {
         }
 
         ImmutableMap.Builder<String, JsonElement> simulationsAsJson = new ImmutableMap.Builder<>();
-        SimulationMetadata.listSimulations(sortingParameters)
+        StateStores.get().listSimulations(sortingParameters)
                 .forEach((id, metadata) -> simulationsAsJson.put(id, gson.toJsonTree(metadata)));
 
         response.setContentType("application/json;");
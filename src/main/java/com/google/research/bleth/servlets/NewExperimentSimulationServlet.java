@@ -14,20 +14,20 @@
 
 package com.google.research.bleth.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Transaction;
-import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.research.bleth.experiments.ExperimentConfigurations;
+import com.google.research.bleth.experiments.ExperimentExecutor;
+import com.google.research.bleth.experiments.PropertyWrapper;
+import com.google.research.bleth.experiments.SimulationCostEstimator;
 import com.google.research.bleth.simulator.AbstractSimulation;
 import com.google.research.bleth.simulator.AwakenessStrategyFactory;
 import com.google.research.bleth.simulator.MovementStrategyFactory;
-import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.StateStores;
 import com.google.research.bleth.simulator.StrategiesMapper;
 import com.google.research.bleth.simulator.TracingSimulation;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -37,10 +37,13 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * A servlet used for creating and running a new simulation associated to an experiment,
  * and updating experimentsToSimulations database entity (which maps experiments to their associated simulations).
+ * If the 'configurations' parameter is set, the servlet runs a batch of simulations in parallel instead.
+ * If the 'firstMember' parameter is set as well, the batch's simulations are the experiment's members numbered from it,
+ * so a batch which runs again runs only its members which haven't been associated to the experiment. A batch with
+ * failed simulations responds with an error status, so its task is retried.
  */
 @WebServlet("/new-experiment-simulation")
 public class NewExperimentSimulationServlet extends HttpServlet {
-    private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     private static final Logger log = Logger.getLogger(NewExperimentSimulationServlet.class.getName());
 
     @Override
@@ -49,6 +52,11 @@ public class NewExperimentSimulationServlet extends HttpServlet {
         log.info("New Experiment Simulation Servlet received an http POST request with params: "
         + request.getParameterMap().toString());
 
+        if (request.getParameter("configurations") != null) {
+            runBatch(request, response);
+            return;
+        }
+
         // Get request parameters.
         String experimentId = request.getParameter("experimentId");
         String simulationDescription = request.getParameter("description");
@@ -86,37 +94,55 @@ public class NewExperimentSimulationServlet extends HttpServlet {
                     .setAwakenessCycle(awakenessCycle)
                     .setAwakenessDuration(awakenessDuration)
                     .setTransmissionThresholdRadius(transmissionThresholdRadius)
+                    .setRunMode(AbstractSimulation.RunMode.STATISTICS_ONLY) // experiments read only statistics.
                     .build();
 
+            long start = System.currentTimeMillis();
             simulation.run();
-            updateExperiment(simulation.getId(), experimentId);
-        } catch (RuntimeException | EntityNotFoundException e) {
+            SimulationCostEstimator.recordRunTime(StateStores.get().readMetadata(simulation.getId()),
+                    System.currentTimeMillis() - start);
+            StateStores.get().addSimulationToExperiment(experimentId, simulation.getId());
+        } catch (RuntimeException e) {
             responseText = e.getMessage();
         }
         response.getWriter().println(responseText);
     }
 
-    private void updateExperiment(String simulationId, String experimentId) throws EntityNotFoundException {
-        TransactionOptions options = TransactionOptions.Builder.withXG(true);
-        Transaction transaction = datastore.beginTransaction(options);
-        try {
-            // update simulationsToExperiments
-            Entity experimentToSimulation = new Entity((Schema.ExperimentsToSimulations.entityKind));
-            experimentToSimulation.setProperty(Schema.ExperimentsToSimulations.experimentId, experimentId);
-            experimentToSimulation.setProperty(Schema.ExperimentsToSimulations.simulationId, simulationId);
-            datastore.put(experimentToSimulation);
+    /**
+     * Run a batch of simulations of an experiment in parallel, on a pool of 'threadsNum' threads.
+     * Responds with an internal server error if any of the simulations has failed.
+     */
+    private static void runBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String experimentId = request.getParameter("experimentId");
+        String experimentTitle = request.getParameter("experimentTitle");
+        int beaconsNum = Integer.parseInt(request.getParameter("beaconsNum"));
+        List<List<PropertyWrapper>> configurations = ExperimentConfigurations.fromJson(request.getParameter("configurations"));
+        String threadsNum = request.getParameter("threadsNum");
+        ExperimentExecutor executor = new ExperimentExecutor(threadsNum == null
+                ? Runtime.getRuntime().availableProcessors()
+                : Integer.parseInt(threadsNum));
 
-            // decrease experiment counter
-            Entity experiment = datastore.get(KeyFactory.stringToKey(experimentId));
-            int simulationsLeft = ((Long) experiment.getProperty(Schema.Experiment.simulationsLeft)).intValue();
-            experiment.setProperty(Schema.Experiment.simulationsLeft, simulationsLeft - 1);
-            datastore.put(experiment);
-            transaction.commit();
-        } finally {
-            if (transaction.isActive()) {
-                log.info("Transaction has been rolled back.");
-                transaction.rollback();
+        String firstMember = request.getParameter("firstMember");
+        int failedNum;
+        if (firstMember == null) {
+            failedNum = executor.executeSimulations(experimentId, experimentTitle, beaconsNum, configurations,
+                    (succeededNum, batchFailedNum, simulationsNum) -> {});
+        } else {
+            Map<String, List<PropertyWrapper>> members = new LinkedHashMap<>();
+            for (int i = 0; i < configurations.size(); i++) {
+                members.put(String.valueOf(Integer.parseInt(firstMember) + i), configurations.get(i));
             }
+            failedNum = executor.executeMembers(experimentId, experimentTitle, beaconsNum, members,
+                    (succeededNum, batchFailedNum, simulationsNum) -> {});
+        }
+
+        if (failedNum > 0) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, failedNum + "/" +
+                    configurations.size() + " simulations have failed.");
+            return;
         }
+        response.setContentType("text/plain;");
+        response.getWriter().println(configurations.size() + "/" + configurations.size() +
+                " simulations have been created successfully.");
     }
 }
@@ -15,13 +15,21 @@
 package com.google.research.bleth.servlets;
 
 import com.google.research.bleth.simulator.BoardState;
+import com.google.research.bleth.simulator.IStateStore;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.SimulationReplay;
+import com.google.research.bleth.simulator.StateStores;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** A servlet used for reading a board state from the db and write it to response as a JSON 2D array. */
+/**
+ * A servlet used for reading a board state from the state store and write it to response, as a JSON 2D array or in
+ * the sparse encoding requested by the Accept header (see {@link BoardStateResponses}).
+ */
 @WebServlet("/read-board-state")
 public class ReadBoardStateServlet extends HttpServlet {
 
@@ -32,17 +40,28 @@ public class ReadBoardStateServlet extends HttpServlet {
         int round = Integer.parseInt(request.getParameter("round"));
         String simulationId = request.getParameter("simulationId");
         boolean isReal = Boolean.parseBoolean(request.getParameter("isReal"));
+        String entityKind = isReal ? Schema.BoardState.entityKindReal : Schema.BoardState.entityKindEstimated;
+        IStateStore stateStore = StateStores.get();
+        SimulationMetadata metadata = stateStore.readMetadata(simulationId);
+        boolean replay = Boolean.parseBoolean(request.getParameter("replay")) || !metadata.isBoardStatesWritten();
 
-        // Read board state.
+        // Board states of completed simulations never change, so a client holding the board state needn't get it again.
+        if (round < metadata.roundsNum && stateStore.isSimulationCompleted(simulationId)
+                && BoardStateResponses.checkNotModified(request, response, simulationId, round, entityKind)) {
+            return;
+        }
+
+        // Read board state, or regenerate it by replaying the simulation if requested or if board states weren't written.
+        // The shared replay continues from the last replayed round, so playing rounds back in order replays each once.
         BoardState boardState;
-        if (isReal) {
-            boardState = BoardState.readReal(simulationId, round);
+        if (replay) {
+            SimulationReplay simulationReplay = SimulationReplay.get(simulationId);
+            boardState = isReal ? simulationReplay.replayReal(round) : simulationReplay.replayEstimated(round);
         } else {
-            boardState = BoardState.readEstimated(simulationId, round);
+            boardState = stateStore.readBoardState(simulationId, round, entityKind);
         }
 
         // Write to response.
-        response.setContentType("application/json;");
-        response.getWriter().println(boardState.toJson());
+        BoardStateResponses.write(request, response, boardState);
     }
 }
@@ -0,0 +1,109 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.servlets;
+
+import com.google.research.bleth.simulator.BoardState;
+import com.google.research.bleth.simulator.IStateStore;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import com.google.research.bleth.simulator.SimulationReplay;
+import com.google.research.bleth.simulator.StateStores;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet used for reading the board states of a range of rounds [from, to) of a simulation in a single request,
+ * for playing the simulation back. The response is a stream of server-sent events: a 'round' event for every round,
+ * whose data is a JSON object of the round and its real and estimated board states (the board states which weren't
+ * requested are omitted), followed by an 'end' event. Each round is flushed as soon as it is read.
+ * The 'board' parameter limits the response to the 'real' or 'estimated' board, 'to' defaults to the end of
+ * the simulation, and 'format=sparse' writes the board states in their sparse JSON form (see
+ * {@link BoardState#toSparseJson()}) rather than as JSON 2D arrays.
+ * The board states of a completed simulation never change, so its streams are marked immutable, like single board
+ * states, and the stream of any other simulation isn't cached.
+ */
+@WebServlet("/read-board-states")
+public class ReadBoardStatesServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        // Get range parameters.
+        String simulationId = request.getParameter("simulationId");
+        IStateStore stateStore = StateStores.get();
+        SimulationMetadata metadata = stateStore.readMetadata(simulationId);
+        int fromRound = Integer.parseInt(request.getParameter("from"));
+        int toRound = request.getParameter("to") == null
+                ? metadata.roundsNum : Integer.parseInt(request.getParameter("to"));
+        String board = request.getParameter("board");
+        boolean isRealRead = board == null || board.equals("real");
+        boolean isEstimatedRead = board == null || board.equals("estimated");
+        if (!isRealRead && !isEstimatedRead) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown board: " + board);
+            return;
+        }
+        if (fromRound < 0 || fromRound >= toRound || toRound > metadata.roundsNum) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Range of rounds [" + fromRound + ", " + toRound +
+                    ") is not a range of rounds of simulation " + simulationId);
+            return;
+        }
+        boolean replay = Boolean.parseBoolean(request.getParameter("replay")) || !metadata.isBoardStatesWritten();
+        boolean isSparse = "sparse".equals(request.getParameter("format"));
+        boolean isCompleted = stateStore.isSimulationCompleted(simulationId);
+        if (isCompleted && BoardStateResponses.checkRangeNotModified(request, response, simulationId, fromRound,
+                toRound, board, isSparse ? "sparse" : null)) {
+            return;
+        }
+
+        // Read board states lazily, or regenerate them by replaying the simulation if requested or if board states
+        // weren't written.
+        SimulationReplay simulationReplay = replay ? SimulationReplay.get(simulationId) : null;
+        Iterator<BoardState> realBoardStates = isRealRead && !replay
+                ? stateStore.readBoardStates(simulationId, fromRound, toRound, Schema.BoardState.entityKindReal) : null;
+        Iterator<BoardState> estimatedBoardStates = isEstimatedRead && !replay
+                ? stateStore.readBoardStates(simulationId, fromRound, toRound, Schema.BoardState.entityKindEstimated)
+                : null;
+
+        // Write every round as an event.
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        if (!isCompleted) {
+            response.setHeader("Cache-Control", "no-cache");
+        }
+        PrintWriter writer = response.getWriter();
+        for (int round = fromRound; round < toRound; round++) {
+            StringBuilder event = new StringBuilder("event: round\ndata: {\"round\":").append(round);
+            if (isRealRead) {
+                BoardState realBoardState = replay ? simulationReplay.replayReal(round) : realBoardStates.next();
+                event.append(",\"real\":").append(isSparse ? realBoardState.toSparseJson() : realBoardState.toJson());
+            }
+            if (isEstimatedRead) {
+                BoardState estimatedBoardState = replay
+                        ? simulationReplay.replayEstimated(round) : estimatedBoardStates.next();
+                event.append(",\"estimated\":")
+                        .append(isSparse ? estimatedBoardState.toSparseJson() : estimatedBoardState.toJson());
+            }
+            writer.print(event.append("}\n\n"));
+            writer.flush();
+        }
+        writer.print("event: end\ndata: {}\n\n");
+        writer.flush();
+    }
+}
@@ -15,7 +15,7 @@
 package com.google.research.bleth.servlets;
 
 import com.google.gson.Gson;
-import com.google.research.bleth.simulator.StatisticsState;
+import com.google.research.bleth.simulator.StateStores;
 import java.io.IOException;
 import java.util.Map;
 import javax.servlet.annotation.WebServlet;
@@ -32,7 +32,7 @@ public class ReadDistanceStatisticsServlet extends HttpServlet {
         Gson gson = new Gson(); // Used for json serialization.
 
         String simulationId = request.getParameter("simulationId");
-        Map<String, Double> distancesStats = StatisticsState.readDistancesStats(simulationId);
+        Map<String, Double> distancesStats = StateStores.get().readDistancesStats(simulationId);
 
         // Write to response.
         response.setContentType("application/json;");
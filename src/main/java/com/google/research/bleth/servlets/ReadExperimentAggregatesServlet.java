@@ -0,0 +1,47 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.research.bleth.experiments.ConfigurationStatistics;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet used for reading the aggregated statistics of every configuration of an experiment, which are updated as
+ * the configuration's replicas complete, without reading the statistics of the experiment's simulations.
+ */
+@WebServlet("/read-experiment-aggregates")
+public class ReadExperimentAggregatesServlet extends HttpServlet {
+    private static final Gson gson = new Gson(); // Used for json serialization.
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String experimentId = request.getParameter("experimentId");
+
+        List<JsonElement> aggregates = ConfigurationStatistics.read(experimentId).stream()
+                .map(ConfigurationStatistics::toJson)
+                .collect(Collectors.toList());
+
+        response.setContentType("application/json;");
+        response.getWriter().println(gson.toJson(aggregates));
+    }
+}
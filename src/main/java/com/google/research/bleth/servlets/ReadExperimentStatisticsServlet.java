@@ -14,85 +14,68 @@
 
 package com.google.research.bleth.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Query;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultimap;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.research.bleth.simulator.ObservedInterval;
-import com.google.research.bleth.simulator.Schema;
-import com.google.research.bleth.simulator.SimulationMetadata;
-import com.google.research.bleth.simulator.StatisticsState;
+import com.google.research.bleth.experiments.ExperimentSummary;
+import com.google.research.bleth.simulator.StateStores;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** A servlet used for reading experiment's statistical data. */
+/**
+ * A servlet used for reading experiment's statistical data.
+ * The materialized summary of a completed experiment is served as is, and supports conditional requests.
+ * The summary of an experiment in progress is computed on every request.
+ */
 @WebServlet("/read-experiment-stats")
 public class ReadExperimentStatisticsServlet extends HttpServlet {
-    private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    private static final Gson gson = new Gson(); // Used for json serialization.
 
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        ImmutableMap.Builder<String, JsonElement> res = ImmutableMap.builder();
         String experimentId = request.getParameter("experimentId");
 
-        for (String simulationId : retrieveSimulations(experimentId)) {
-            ImmutableMap.Builder<String, JsonElement> simulationJson = ImmutableMap.builder(); // Stores metadata and stats.
-            SimulationMetadata metadata = SimulationMetadata.read(simulationId);
-            simulationJson.put(Schema.SimulationMetadata.entityKind, gson.toJsonTree(metadata));
-            Map<String, Double> distancesStats = StatisticsState.readDistancesStats(simulationId);
-            simulationJson.put(Schema.StatisticsState.entityKindDistance, gson.toJsonTree(distancesStats));
-            ImmutableMultimap<Integer, ObservedInterval> observedIntervalsStats = StatisticsState.readIntervalStats(simulationId);
-            simulationJson.put(Schema.StatisticsState.entityKindBeaconsObservedIntervals, serializeObservedIntervalsMap(observedIntervalsStats));
-            res.put(simulationId, gson.toJsonTree(simulationJson.build()));
+        ExperimentSummary summary = ExperimentSummary.read(experimentId).orElse(null);
+        if (summary == null) {
+            if (!StateStores.get().isExperimentCompleted(experimentId)) {
+                response.setContentType("application/json;");
+                response.getWriter().println(ExperimentSummary.compute(experimentId).toJson());
+                return;
+            }
+            // Experiments completed before summaries were materialized, or whose materialization failed.
+            summary = ExperimentSummary.materialize(experimentId);
         }
 
-        response.setContentType("application/json;");
-        response.getWriter().println(gson.toJson(res.build()));
-    }
-
-    private static List<String> retrieveSimulations(String experimentId) {
-        Query.Filter filterByExperimentId =
-                new Query.FilterPredicate(Schema.ExperimentsToSimulations.experimentId,
-                        Query.FilterOperator.EQUAL, experimentId);
-        Query simulationsQuery = new Query(Schema.ExperimentsToSimulations.entityKind)
-                .setFilter(filterByExperimentId);
-        return datastore.prepare(simulationsQuery)
-                .asList(FetchOptions.Builder.withDefaults())
-                .stream()
-                .map(entity -> (String) entity.getProperty(Schema.ExperimentsToSimulations.simulationId))
-                .collect(Collectors.toList());
-    }
+        // The compressed and identity representations differ in bytes, so each has its own strong entity tag.
+        boolean isCompressed = BoardStateResponses.acceptsGzip(request);
+        String etag = "\"" + summary.getEtag() + (isCompressed ? "/gzip" : "") + "\"";
+        long lastModified = summary.getLastModified().getTime();
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
 
-    private static JsonElement serializeObservedIntervalsMap(ImmutableMultimap<Integer, ObservedInterval> observedIntervalsMap) {
-        ImmutableMap.Builder<Integer, JsonArray> res = ImmutableMap.builder();
-        for (Integer beaconId : observedIntervalsMap.keySet()) {
-            List<JsonElement> serializedBeaconIntervals = observedIntervalsMap.get(beaconId).stream()
-                    .map(ReadExperimentStatisticsServlet::serializeObservedInterval)
-                    .collect(ImmutableList.toImmutableList());
-            res.put(beaconId, gson.toJsonTree(serializedBeaconIntervals).getAsJsonArray());
+        response.setContentType("application/json;");
+        if (isCompressed) {
+            byte[] compressedJson = summary.getCompressedJson();
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength(compressedJson.length);
+            response.getOutputStream().write(compressedJson);
+        } else {
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().println(summary.toJson());
         }
-        return gson.toJsonTree(res.build());
     }
 
-    private static JsonElement serializeObservedInterval(ObservedInterval interval) {
-        ImmutableMap.Builder<String, Integer> res = ImmutableMap.builder();
-        int observed = interval.observed() ? 1 : -1;
-        res.put("start", interval.start());
-        res.put("end", interval.end());
-        res.put("duration", observed * interval.duration()); // positive duration iff observed.
-        return gson.toJsonTree(res.build());
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        if (request.getHeader("If-None-Match") != null) {
+            return BoardStateResponses.matchesIfNoneMatch(request, etag);
+        }
+        long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        // Http dates have a resolution of seconds.
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
     }
 }
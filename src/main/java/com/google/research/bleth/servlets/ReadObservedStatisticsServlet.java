@@ -17,7 +17,7 @@ package com.google.research.bleth.servlets;
 import com.google.common.collect.Table;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.research.bleth.simulator.StatisticsState;
+import com.google.research.bleth.simulator.StateStores;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -33,7 +33,7 @@ public class ReadObservedStatisticsServlet extends HttpServlet {
         Gson gson = new GsonBuilder().serializeNulls().serializeSpecialFloatingPointValues().create();
 
         String simulationId = request.getParameter("simulationId");
-        Table<String, String, Double> observedStatistics = StatisticsState.readBeaconsObservedStats(simulationId);
+        Table<String, String, Double> observedStatistics = StateStores.get().readBeaconsObservedStats(simulationId);
 
         // Write to response.
         response.setContentType("application/json");
@@ -18,22 +18,35 @@ package com.google.research.bleth.simulator;
 public abstract class AbstractAgent implements IAgent {
     private final IMovementStrategy IMovementStrategy;
     private final IAgentOwner owner;
-    private Location realLocation; // the agent's location on the board, changed each time the agent moves.
+    private final AgentStore store; // stores the agent's location on the board, changed each time the agent moves.
+    private final int storeIndex;
 
     /**
-     * @param initialLocation is the location on board where the agent is placed.
+     * @param store is the store holding the agent's real location, in which the agent has already been added.
+     * @param storeIndex is the agent's index in the store.
      * @param movementStrategy determines how the agent moves.
      * @param owner is the real board that represents the world in which the agent lives.
      */
-    public AbstractAgent(Location initialLocation, IMovementStrategy movementStrategy, IAgentOwner owner) {
-        realLocation = initialLocation;
+    public AbstractAgent(AgentStore store, int storeIndex, IMovementStrategy movementStrategy, IAgentOwner owner) {
+        this.store = store;
+        this.storeIndex = storeIndex;
         this.IMovementStrategy = movementStrategy;
         this.owner = owner;
     }
 
     @Override
     public Location getLocation() {
-        return realLocation;
+        return Location.create(getRow(), getCol());
+    }
+
+    /** Returns the row of the agent's current location, without creating a location object. */
+    public int getRow() {
+        return store.row(storeIndex);
+    }
+
+    /** Returns the column of the agent's current location, without creating a location object. */
+    public int getCol() {
+        return store.col(storeIndex);
     }
 
     /**
@@ -42,13 +55,30 @@ public abstract class AbstractAgent implements IAgent {
      */
     @Override
     public Location moveTo() {
-        return IMovementStrategy.moveTo(owner, realLocation);
+        return IMovementStrategy.moveTo(owner, getLocation());
     }
 
     @Override
     public void move() {
-        Location nextMove = moveTo();
-        owner.updateAgentLocation(realLocation, nextMove, this);
-        realLocation = nextMove;
+        int row = getRow();
+        int col = getCol();
+        Direction direction = IMovementStrategy.nextDirection(owner, row, col);
+        if (direction == null) {
+            return; // the agent stays in its current location.
+        }
+        int newRow = row + direction.getRowDelta();
+        int newCol = col + direction.getColDelta();
+        owner.updateAgentLocation(row, col, newRow, newCol, this);
+        store.setLocation(storeIndex, newRow, newCol);
+    }
+
+    /** Returns the store holding the agent's real location. */
+    AgentStore getStore() {
+        return store;
+    }
+
+    /** Returns the agent's index in the store holding its real location. */
+    int getStoreIndex() {
+        return storeIndex;
     }
 }
@@ -17,37 +17,59 @@ package com.google.research.bleth.simulator;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ArrayTable;
-import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Multimap;
-import java.util.ArrayList;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /** A container for all the agents, representing their locations, either real or estimated. */
 public abstract class AbstractBoard {
+    // A board is stored sparsely if it has more than this number of cells for every agent expected to be placed on it.
+    static final int SPARSE_CELLS_PER_AGENT_THRESHOLD = 16;
+
     private final int rowNum;
     private final int colNum;
-    private ArrayTable<Integer, Integer, ArrayList<IAgent>> matrix;
+    private final IBoardStorage storage;
 
     /**
-     * Create an empty board for storing agents' locations.
+     * Create an empty board for storing agents' locations, which stores a list of agents for every cell.
      * A board can represent either the real agents' locations in the simulation,
      * or the estimated locations from the resolver's point of view.
      * @param rows is number of rows.
      * @param cols is number of columns.
      */
     public AbstractBoard(int rows, int cols) {
+        this(rows, cols, new DenseBoardStorage(rows, cols));
+    }
+
+    /**
+     * Create an empty board for storing agents' locations, whose storage is chosen by the ratio of agents to cells:
+     * boards on which most cells are expected to be empty store only their populated cells.
+     * @param rows is number of rows.
+     * @param cols is number of columns.
+     * @param agentsNum is the number of agents expected to be placed on the board.
+     */
+    public AbstractBoard(int rows, int cols, int agentsNum) {
+        this(rows, cols, isSparse(rows, cols, agentsNum) ? new SparseBoardStorage(cols) : new DenseBoardStorage(rows, cols));
+    }
+
+    private AbstractBoard(int rows, int cols, IBoardStorage storage) {
         rowNum = rows;
         colNum = cols;
-        matrix = ArrayTable.create(IntStream.range(0, rows).boxed().collect(Collectors.toList()),
-                                   IntStream.range(0, cols).boxed().collect(Collectors.toList()));
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                matrix.set(row, col, new ArrayList<IAgent>());
-            }
-        }
+        this.storage = storage;
+    }
+
+    /**
+     * Check whether a board should store only its populated cells.
+     * @param rows is number of rows.
+     * @param cols is number of columns.
+     * @param agentsNum is the number of agents expected to be placed on the board.
+     * @return true if the board has more than SPARSE_CELLS_PER_AGENT_THRESHOLD cells per agent, false otherwise.
+     */
+    static boolean isSparse(int rows, int cols, int agentsNum) {
+        return (long) rows * cols > (long) agentsNum * SPARSE_CELLS_PER_AGENT_THRESHOLD;
+    }
+
+    /** Returns true if the board stores only its populated cells, false if it stores all cells. */
+    boolean isSparse() {
+        return storage instanceof SparseBoardStorage;
     }
 
     /** Returns the number of rows. */
@@ -86,6 +108,16 @@ public abstract class AbstractBoard {
         return true;
     }
 
+    /**
+     * Check if a location is within the board boundaries, without creating a location object.
+     * @param row is the row of the location to check if valid.
+     * @param col is the column of the location to check if valid.
+     * @return true if the location is valid, false otherwise.
+     */
+    public boolean isLocationValid(int row, int col) {
+        return 0 <= row && row < rowNum && 0 <= col && col < colNum;
+    }
+
     /**
      * Place an agent on board if the given location is valid.
      * @param newLocation is the location where the agent will be placed.
@@ -94,7 +126,23 @@ public abstract class AbstractBoard {
     public void placeAgent(Location newLocation, IAgent agent) {
         checkNotNull(agent);
         validateLocation(newLocation);
-        matrix.get(newLocation.row(), newLocation.col()).add(agent);
+        storage.add(newLocation.row(), newLocation.col(), agent);
+    }
+
+    /**
+     * Remove an agent from its current location on board and place it on new location, without creating location objects.
+     * @param oldRow is the row of the agent's current location.
+     * @param oldCol is the column of the agent's current location.
+     * @param newRow is the row of the location where the agent will be placed.
+     * @param newCol is the column of the location where the agent will be placed.
+     * @param agent is the Agent which moves from the old location to the new location.
+     */
+    public void moveAgent(int oldRow, int oldCol, int newRow, int newCol, IAgent agent) {
+        checkNotNull(agent);
+        checkArgument(isLocationValid(newRow, newCol), "Invalid Location");
+        checkArgument(isLocationValid(oldRow, oldCol), "Invalid Location");
+        storage.remove(oldRow, oldCol, agent);
+        storage.add(newRow, newCol, agent);
     }
 
     /**
@@ -107,19 +155,13 @@ public abstract class AbstractBoard {
         checkNotNull(agent);
         validateLocation(newLocation);
         validateLocation(oldLocation);
-        matrix.get(oldLocation.row(), oldLocation.col()).remove(agent);
-        placeAgent(newLocation, agent);
+        storage.remove(oldLocation.row(), oldLocation.col(), agent);
+        storage.add(newLocation.row(), newLocation.col(), agent);
     }
 
     /** Returns a map that maps to each populated location the agents on this location. */
     public Multimap<Location, IAgent> agentsOnBoard() {
-        Multimap<Location, IAgent> locationsToAgents = ArrayListMultimap.create();
-        for (int row = 0; row < rowNum; row++) {
-            for (int col = 0; col < colNum; col++) {
-                locationsToAgents.putAll(Location.create(row, col), matrix.get(row, col));
-            }
-        }
-        return ImmutableListMultimap.copyOf(locationsToAgents);
+        return storage.agentsOnBoard();
     }
 
     /** Returns the type of the board, either real or estimated. */
@@ -14,30 +14,75 @@
 
 package com.google.research.bleth.simulator;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Table;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
 
 /** An abstract class representing a BLETH simulation. */
 public abstract class AbstractSimulation {
 
+    /** An enum representing the way beacons are matched to the observers within their transmission range. */
+    public enum MatchingMode {
+        BRUTE_FORCE, // check every awake observer for every beacon.
+        SPATIAL_INDEX // check only awake observers in buckets near the beacon.
+    }
+
+    /** An enum representing the data written to db by a simulation run. */
+    public enum RunMode {
+        FULL, // write the real and estimated board states of every round, and the simulation statistics.
+        STATISTICS_ONLY // write only the simulation statistics, which is all experiments read.
+    }
+
+    /** An enum representing the phases of a simulation run, whose durations are measured while the simulation runs. */
+    public enum Phase {
+        MOVEMENT, // moving the agents.
+        AWAKENESS, // updating the observers' awakeness states.
+        TRANSMISSION, // matching beacons to observers and passing their transmissions.
+        RESOLVER, // passing the observers' information to the resolver.
+        ESTIMATION, // updating the resolver's estimated board.
+        STATISTICS, // gathering the statistics of every round.
+        WRITE // writing the board states and statistics to the simulation's sink.
+    }
+
     private final String id;
     private int currentRound = 0;
     private final int maxNumberOfRounds;
     private final RealBoard board;
     protected final ImmutableList<Beacon> beacons;
     protected final ImmutableList<Observer> observers;
+    private final AgentStore beaconsStore; // the beacon at index i of beacons is stored at index i.
+    private final AgentStore observersStore; // the observer at index i of observers is stored at index i.
     private final IGlobalResolver resolver;
     private final double transmissionThresholdRadius;
+    private final ObserversSpatialIndex observersIndex; // null when beacons are matched to observers by brute force.
+    private final int parallelism;
+    private ForkJoinPool pool; // exists only while rounds are played in parallel, and null otherwise.
+    private final ISimulationSink sink;
+    private final boolean isBoardStatesWritten;
+    private final long[] phasesNanos = new long[Phase.values().length]; // the total duration of each phase so far.
+
+    private static final int CHUNKS_PER_THREAD = 4; // more chunks than threads balance the load between threads.
 
     private final HashMap<String, Double> distancesStats = new HashMap<>();
     private final HashMap<Beacon, ObservedInterval.Builder> beaconsObservedCurrentInterval = new HashMap<>();
@@ -55,31 +100,72 @@ public abstract class AbstractSimulation {
     /** Returns a static snapshot of the real board at the current round. */
     BoardState getRealBoardState() {
         return BoardStateFactory.create(board, id,
-                Math.min(currentRound, maxNumberOfRounds - 1)); // If the game is over return its final state
+                Math.min(currentRound, maxNumberOfRounds - 1), maxNumberOfRounds); // If the game is over return its final state
     }
 
     /** Returns a static snapshot of the resolver's estimated board at the current round. */
     BoardState getEstimatedBoardState() {
         return BoardStateFactory.create(resolver.getBoard(), id,
-                Math.min(currentRound, maxNumberOfRounds - 1)); // If the game is over return its final state
+                Math.min(currentRound, maxNumberOfRounds - 1), maxNumberOfRounds); // If the game is over return its final state
     }
 
-    /** Run entire simulation logic, including writing data to db. */
+    /** Run entire simulation logic, including writing data to the simulation's sink. */
     public void run() {
-        writeRoundState(); // round 0 is the initial simulation state
-        currentRound++;
-        while (currentRound < maxNumberOfRounds) {
-            moveAgents();
-            updateObserversAwaknessState();
-            beaconsToObservers();
-            observersToResolver();
-            resolverEstimate();
-            writeRoundState();
-            updateDistanceSimulationStats();
+        startPool();
+        try {
+            writeRoundState(); // round 0 is the initial simulation state
             currentRound++;
+            while (currentRound < maxNumberOfRounds) {
+                playRound();
+                writeRoundState();
+                long start = System.nanoTime();
+                updateDistanceSimulationStats();
+                recordPhase(Phase.STATISTICS, start);
+                currentRound++;
+            }
+            long start = System.nanoTime();
+            closeBeaconsOpenObservedIntervals();
+            start = recordPhase(Phase.STATISTICS, start);
+            sink.flush(); // board states' writes fail the run if they fail.
+            writeSimulationStats();
+            recordPhase(Phase.WRITE, start);
+        } finally {
+            shutdownPool();
+        }
+    }
+
+    /**
+     * Play the simulation rounds up to a given round without writing anything to db, so the simulation's state is
+     * the state of that round. Used for replaying a seeded simulation in memory.
+     * @param round is the round to advance to, which must not precede the current round.
+     */
+    void advanceTo(int round) {
+        checkArgument(round >= currentRound && round < maxNumberOfRounds,
+                "Round %s is before the current round %s or exceeds the simulation's rounds.", round, currentRound);
+        startPool();
+        try {
+            while (currentRound < round) {
+                currentRound++;
+                playRound();
+            }
+        } finally {
+            shutdownPool();
+        }
+    }
+
+    // Creates the pool of a parallel simulation, which is shut down once the rounds are played so its threads don't
+    // outlive the simulation.
+    private void startPool() {
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+    }
+
+    private void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
         }
-        closeBeaconsOpenObservedIntervals();
-        writeSimulationStats();
     }
 
     /** Returns the simulation's Id. */
@@ -87,6 +173,38 @@ public abstract class AbstractSimulation {
         return id;
     }
 
+    /**
+     * Returns the total duration of each phase of the simulation so far, including the rounds played by a replay.
+     * Phases which haven't run have a zero duration.
+     */
+    public ImmutableMap<Phase, Duration> getPhasesDurations() {
+        ImmutableMap.Builder<Phase, Duration> phasesDurations = ImmutableMap.builder();
+        for (Phase phase : Phase.values()) {
+            phasesDurations.put(phase, Duration.ofNanos(phasesNanos[phase.ordinal()]));
+        }
+        return phasesDurations.build();
+    }
+
+    /** Returns the current round of the simulation. */
+    int getCurrentRound() {
+        return currentRound;
+    }
+
+    /** Play a single round: move agents, update observers, pass transmissions and update the resolver's estimation. */
+    void playRound() {
+        long start = System.nanoTime();
+        moveAgents();
+        start = recordPhase(Phase.MOVEMENT, start);
+        updateObserversAwaknessState();
+        start = recordPhase(Phase.AWAKENESS, start);
+        beaconsToObservers();
+        start = recordPhase(Phase.TRANSMISSION, start);
+        observersToResolver();
+        start = recordPhase(Phase.RESOLVER, start);
+        resolverEstimate();
+        recordPhase(Phase.ESTIMATION, start);
+    }
+
     /** Move all agents according to their movement strategies and update the real board. */
     void moveAgents() {
         beacons.forEach((AbstractAgent::move));
@@ -95,7 +213,15 @@ public abstract class AbstractSimulation {
 
     /** Update all observers awakeness states according to their awakeness strategies. */
     void updateObserversAwaknessState() {
-        observers.forEach((observer -> observer.updateAwakenessState(currentRound)));
+        if (pool == null) {
+            observers.forEach((observer -> observer.updateAwakenessState(currentRound)));
+            return;
+        }
+        // Each observer's awakeness strategy holds its own state, so observers can be updated concurrently.
+        invokeInChunks(observers.size(), (from, to) -> {
+            observers.subList(from, to).forEach(observer -> observer.updateAwakenessState(currentRound));
+            return null;
+        });
     }
 
     /**
@@ -103,19 +229,39 @@ public abstract class AbstractSimulation {
      * such as probability of transmission and distance between beacons and observers.
      */
     void beaconsToObservers() {
-        for (Beacon beacon : beacons) {
-            boolean observed = false;
-            Transmission transmission = beacon.transmit();
-            for (Observer observer : observers) {
-                if (observer.isAwake()) {
-                    double distance = distance(beacon.getLocation(), observer.getLocation());
-                    if (distance <= transmissionThresholdRadius) {
-                        observer.observe(transmission);
-                        observed = true;
-                    }
-                }
+        if (observersIndex != null) {
+            observersIndex.rebuild(observersStore);
+        }
+        if (pool == null) {
+            for (int beaconIndex = 0; beaconIndex < beacons.size(); beaconIndex++) {
+                Beacon beacon = beacons.get(beaconIndex);
+                Transmission transmission = beacon.transmit();
+                boolean observed = forEachObserverInRange(beaconIndex,
+                        observerIndex -> observers.get(observerIndex).observe(transmission));
+                updateBeaconObservedInterval(beacon, observed);
+            }
+            return;
+        }
+
+        // Find each beacon's receiving observers concurrently, then deliver the transmissions on this thread
+        // in beacons order, so every observer receives its transmissions in the same order as in sequential mode.
+        List<List<List<Observer>>> chunksReceivers = invokeInChunks(beacons.size(), (from, to) -> {
+            List<List<Observer>> chunkReceivers = new ArrayList<>(to - from);
+            for (int beaconIndex = from; beaconIndex < to; beaconIndex++) {
+                List<Observer> receivers = new ArrayList<>();
+                forEachObserverInRange(beaconIndex, observerIndex -> receivers.add(observers.get(observerIndex)));
+                chunkReceivers.add(receivers);
+            }
+            return chunkReceivers;
+        });
+        Iterator<Beacon> beaconsIterator = beacons.iterator();
+        for (List<List<Observer>> chunkReceivers : chunksReceivers) {
+            for (List<Observer> receivers : chunkReceivers) {
+                Beacon beacon = beaconsIterator.next();
+                Transmission transmission = beacon.transmit();
+                receivers.forEach(observer -> observer.observe(transmission));
+                updateBeaconObservedInterval(beacon, !receivers.isEmpty());
             }
-            updateBeaconObservedInterval(beacon, observed);
         }
     }
 
@@ -129,12 +275,21 @@ public abstract class AbstractSimulation {
         resolver.estimate();
     }
 
-    /** Write current-round state of the simulation to db. */
+    /**
+     * Start writing current-round state of the simulation to its sink, unless the simulation runs in statistics only
+     * mode. The write may complete in the background, and is waited for at the end of the simulation run.
+     */
     void writeRoundState() {
-        BoardState realBoardState = BoardStateFactory.create(this.board, this.id, this.currentRound);
-        BoardState estimatedBoardState = BoardStateFactory.create(this.resolver.getBoard(), this.id, this.currentRound);
-        realBoardState.write();
-        estimatedBoardState.write();
+        if (!isBoardStatesWritten) {
+            return;
+        }
+        long start = System.nanoTime();
+        BoardState realBoardState = BoardStateFactory.create(this.board, this.id, this.currentRound, this.maxNumberOfRounds);
+        BoardState estimatedBoardState =
+                BoardStateFactory.create(this.resolver.getBoard(), this.id, this.currentRound, this.maxNumberOfRounds);
+        sink.writeBoardState(realBoardState);
+        sink.writeBoardState(estimatedBoardState);
+        recordPhase(Phase.WRITE, start);
     }
 
     /** Gather statistical data of the current round and update the aggregated distance statistics based on all rounds. */
@@ -156,7 +311,7 @@ public abstract class AbstractSimulation {
         }
     }
 
-    /** Write final simulation statistical data to db. */
+    /** Write final simulation statistical data to the simulation's sink. */
     void writeSimulationStats() {
         Map<String, List<Integer>> observedIntervals = beaconsObservedIntervals.keySet().stream()
                 .collect(toImmutableMap(beacon -> String.valueOf(beacon.getId()),
@@ -174,10 +329,7 @@ public abstract class AbstractSimulation {
         beaconsObservedIntervals.forEach((beacon, interval) -> {
                 beaconIdsObservedIntervals.put(beacon.getId(), interval);
         });
-        StatisticsState statsState = StatisticsState.create(id, distancesStats, observedStats, beaconIdsObservedIntervals);
-        statsState.writeDistancesStats();
-        statsState.writeBeaconsObservedStats();
-        statsState.writeIntervalStats();
+        sink.writeStatistics(StatisticsState.create(id, distancesStats, observedStats, beaconIdsObservedIntervals));
     }
 
     /** An abstract builder class designed to separate the construction of a simulation from its representation. */
@@ -194,12 +346,20 @@ public abstract class AbstractSimulation {
         protected int observersNum;
         protected List<Beacon> beacons = new ArrayList<>();
         protected List<Observer> observers = new ArrayList<>();
+        protected final AgentStore beaconsStore = new AgentStore(); // holds the locations of the beacons in beacons order.
+        protected final AgentStore observersStore = new AgentStore(); // holds the locations of the observers in observers order.
         protected MovementStrategyFactory.Type beaconMovementStrategyType;
         protected MovementStrategyFactory.Type observerMovementStrategyType;
         protected AwakenessStrategyFactory.Type awakenessStrategyType;
         protected double transmissionThresholdRadius;
         protected int awakenessCycle;
         protected int awakenessDuration;
+        protected MatchingMode matchingMode = MatchingMode.SPATIAL_INDEX;
+        protected int parallelism = 1;
+        protected int keyframeInterval = BoardStateWriter.DEFAULT_KEYFRAME_INTERVAL;
+        protected RunMode runMode = RunMode.FULL;
+        protected long seed = new Random().nextLong(); // all of the simulation's randomness is derived from the seed.
+        protected ISimulationSink sink; // a sink of the process's state store is created if no sink is set.
 
         /** Return a string that describe the simulation. */
         public String getDescription() {
@@ -261,6 +421,36 @@ public abstract class AbstractSimulation {
             return awakenessDuration;
         }
 
+        /** Return the mode used for matching beacons to observers in the simulation created by the builder. */
+        public MatchingMode getMatchingMode() {
+            return matchingMode;
+        }
+
+        /** Return the number of threads used for running the simulation created by the builder. */
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        /** Return the maximal number of rounds between board states written in full by the simulation created by the builder. */
+        public int getKeyframeInterval() {
+            return keyframeInterval;
+        }
+
+        /** Return the mode determining the data written to db by the simulation created by the builder. */
+        public RunMode getRunMode() {
+            return runMode;
+        }
+
+        /** Return the seed all random choices of the simulation created by the builder are derived from. */
+        public long getSeed() {
+            return seed;
+        }
+
+        /** Return the sink receiving the data of the simulation created by the builder, or null if none has been set. */
+        public ISimulationSink getSink() {
+            return sink;
+        }
+
         /**
          * Set a description of the simulation.
          * @param description is the description of the simulation.
@@ -384,11 +574,82 @@ public abstract class AbstractSimulation {
         }
 
         /**
-         * Write simulation metadata to the db.
-         * @return the unique Id assigned to the datastore entity as a string.
+         * Set the mode used for matching each beacon to the observers within its transmission range.
+         * Both modes produce identical results, brute force is kept as a reference implementation.
+         * @param matchingMode is the matching mode.
+         * @return this, to provide chaining.
+         */
+        public Builder setMatchingMode(MatchingMode matchingMode) {
+            this.matchingMode = matchingMode;
+            return this;
+        }
+
+        /**
+         * Set the number of threads used for running the simulation rounds. If greater than one, observers' awakeness
+         * updates and beacons' transmissions are computed concurrently, with results identical to sequential mode.
+         * @param parallelism is the number of threads (1 for sequential mode, which is the default).
+         * @return this, to provide chaining.
+         */
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Set the maximal number of rounds between keyframes, which are board states written to the db in full.
+         * Board states of other rounds are written as the agents' moves since the previous round, and are read by
+         * applying the moves since the last keyframe.
+         * @param keyframeInterval is the maximal number of rounds between keyframes (1 for writing every round in full).
+         * @return this, to provide chaining.
+         */
+        public Builder setKeyframeInterval(int keyframeInterval) {
+            this.keyframeInterval = keyframeInterval;
+            return this;
+        }
+
+        /**
+         * Set the mode determining the data written to db when running the simulation. In statistics only mode, board
+         * states aren't written, and the simulation's rounds can be regenerated by replaying it from its seed.
+         * @param runMode is the run mode (full by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setRunMode(RunMode runMode) {
+            this.runMode = runMode;
+            return this;
+        }
+
+        /**
+         * Set the seed all random choices of the simulation are derived from, such as agents' initial locations,
+         * movements and awakeness times. Simulations with the same seed and parameters play identical rounds,
+         * so a simulation can be replayed from its metadata. If not set, a random seed is used.
+         * @param seed is the simulation seed.
+         * @return this, to provide chaining.
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Set the sink receiving the simulation's metadata, board states and statistics, such as a sink keeping them in
+         * memory or writing them to local files. A sink must not be shared between simulations.
+         * @param sink is the simulation's sink (a sink writing to the process's state store by default).
+         * @return this, to provide chaining.
+         */
+        public Builder setSink(ISimulationSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        /**
+         * Write simulation metadata to the simulation's sink, which writes to the process's state store by default.
+         * @return the unique Id assigned to the simulation by the sink.
          */
         String writeMetadata() {
-            this.id = new SimulationMetadata(this).write();
+            if (sink == null) {
+                sink = StateStores.get().createSink(keyframeInterval);
+            }
+            this.id = sink.writeMetadata(new SimulationMetadata(this));
             return this.id;
         }
 
@@ -426,6 +687,75 @@ public abstract class AbstractSimulation {
         this.transmissionThresholdRadius = builder.transmissionThresholdRadius;
         this.beacons = ImmutableList.copyOf(builder.beacons);
         this.observers = ImmutableList.copyOf(builder.observers);
+        this.beaconsStore = builder.beaconsStore;
+        this.observersStore = builder.observersStore;
+        this.observersIndex = builder.matchingMode == MatchingMode.SPATIAL_INDEX
+                ? new ObserversSpatialIndex(builder.rowNum, builder.colNum, observers.size(), transmissionThresholdRadius)
+                : null;
+        this.parallelism = builder.parallelism;
+        this.sink = builder.sink != null ? builder.sink : StateStores.get().createSink(builder.keyframeInterval);
+        this.isBoardStatesWritten = builder.runMode == RunMode.FULL;
+    }
+
+    /**
+     * Split the range [0, size) into consecutive chunks, apply a task on each chunk using the simulation's pool
+     * and return the results in chunks order.
+     * @param size is the size of the range to split.
+     * @param task is a function receiving the chunk's first (inclusive) and last (exclusive) indices.
+     * @return a list of the tasks' results, ordered by the chunks' positions in the range.
+     */
+    private <T> List<T> invokeInChunks(int size, BiFunction<Integer, Integer, T> task) {
+        int chunksNum = Math.min(size, pool.getParallelism() * CHUNKS_PER_THREAD);
+        List<Callable<T>> chunkTasks = new ArrayList<>(chunksNum);
+        for (int chunk = 0; chunk < chunksNum; chunk++) {
+            int from = (int) ((long) size * chunk / chunksNum);
+            int to = (int) ((long) size * (chunk + 1) / chunksNum);
+            chunkTasks.add(() -> task.apply(from, to));
+        }
+
+        List<T> results = new ArrayList<>(chunksNum);
+        for (Future<T> result : pool.invokeAll(chunkTasks)) {
+            try {
+                results.add(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Apply an action on the index of every awake observer within the transmission threshold radius of a beacon.
+     * @param beaconIndex is the index of the transmitting beacon.
+     * @param action is the action to apply on the index of each observer in range.
+     * @return true if at least one observer is within range, false otherwise.
+     */
+    private boolean forEachObserverInRange(int beaconIndex, IntConsumer action) {
+        int row = beaconsStore.row(beaconIndex);
+        int col = beaconsStore.col(beaconIndex);
+        if (observersIndex != null) {
+            return observersIndex.forEachObserverInRange(row, col, action);
+        }
+        boolean found = false;
+        for (int observerIndex = 0; observerIndex < observersStore.size(); observerIndex++) {
+            if (observersStore.isAwake(observerIndex) &&
+                    distance(row, col, observersStore.row(observerIndex), observersStore.col(observerIndex)) <= transmissionThresholdRadius) {
+                action.accept(observerIndex);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /** Add the time elapsed since a start time to a phase's duration, and return the current time. */
+    private long recordPhase(Phase phase, long startNanos) {
+        long nowNanos = System.nanoTime();
+        phasesNanos[phase.ordinal()] += nowNanos - startNanos;
+        return nowNanos;
     }
 
     private void updateBeaconObservedInterval(Beacon beacon, boolean observed) {
@@ -451,8 +781,12 @@ public abstract class AbstractSimulation {
         beaconsObservedCurrentInterval.clear();
     }
 
-    private static double distance(Location firstLocation, Location secondLocation) {
-        return Math.abs(firstLocation.row() - secondLocation.row()) + Math.abs(firstLocation.col() - secondLocation.col());
+    static double distance(Location firstLocation, Location secondLocation) {
+        return distance(firstLocation.row(), firstLocation.col(), secondLocation.row(), secondLocation.col());
+    }
+
+    static double distance(int firstRow, int firstCol, int secondRow, int secondCol) {
+        return Math.abs(firstRow - secondRow) + Math.abs(firstCol - secondCol);
     }
 
     private Table<String, String, Double> calculateObservedStats(Map<String, List<Integer>> observedIntervals,
@@ -0,0 +1,85 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.util.Arrays;
+
+/**
+ * A struct-of-arrays store of the real locations and awakeness states of agents of a single kind, indexed by agent id.
+ * Agents are views over the store, so moving an agent updates primitive arrays instead of allocating a new location.
+ */
+public final class AgentStore {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int[] cols = new int[INITIAL_CAPACITY];
+    private boolean[] awake = new boolean[INITIAL_CAPACITY]; // distinct agents' flags can be updated concurrently.
+    private int size = 0;
+
+    /** Returns the number of agents in the store. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the row of the agent with the given id. */
+    public int row(int id) {
+        checkElementIndex(id, size);
+        return rows[id];
+    }
+
+    /** Returns the column of the agent with the given id. */
+    public int col(int id) {
+        checkElementIndex(id, size);
+        return cols[id];
+    }
+
+    /** Returns true if the agent with the given id is awake, false otherwise. */
+    public boolean isAwake(int id) {
+        checkElementIndex(id, size);
+        return awake[id];
+    }
+
+    /**
+     * Add a new agent to the store.
+     * @param row is the agent's initial row.
+     * @param col is the agent's initial column.
+     * @return the id assigned to the agent, which is its index in the store.
+     */
+    int add(int row, int col) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            cols = Arrays.copyOf(cols, size * 2);
+            awake = Arrays.copyOf(awake, size * 2);
+        }
+        rows[size] = row;
+        cols[size] = col;
+        return size++;
+    }
+
+    /** Set the location of the agent with the given id. */
+    void setLocation(int id, int row, int col) {
+        checkElementIndex(id, size);
+        rows[id] = row;
+        cols[id] = col;
+    }
+
+    /** Set the awakeness state of the agent with the given id. */
+    void setAwake(int id, boolean isAwake) {
+        checkElementIndex(id, size);
+        awake[id] = isAwake;
+    }
+}
@@ -36,7 +36,6 @@ public class AwakenessStrategyFactory {
         boolean isForTest() { return isForTest; }
     }
 
-    private Random rand = new Random(); // used for generating the initial awakeness time
     private Type type;
 
     /**
@@ -56,19 +55,33 @@ public class AwakenessStrategyFactory {
      * @return an awakeness strategy initialized with all required parameters (if no proper type was set, return random by default).
      */
     public IAwakenessStrategy createStrategy(int awakenessCycle, int awakenessDuration) {
+        return createStrategy(awakenessCycle, awakenessDuration, new Random());
+    }
+
+    /**
+     * Create a new strategy according to the factory's type attribute and the following params:
+     * @param awakenessCycle is the cycle, which is the number of rounds in which every observer
+     * must have an awakeness period.
+     * @param awakenessDuration is the duration, which is the number of rounds in which an observer
+     * is awake in a single awakeness cycle.
+     * @param random is the random number generator used for generating the initial awakeness time,
+     * and by the strategy itself if it is random.
+     * @return an awakeness strategy initialized with all required parameters (if no proper type was set, return random by default).
+     */
+    public IAwakenessStrategy createStrategy(int awakenessCycle, int awakenessDuration, Random random) {
         switch (this.type) {
-            case FIXED: return createFixedStrategy(awakenessCycle, awakenessDuration);
-            default: return createRandomStrategy(awakenessCycle, awakenessDuration);
+            case FIXED: return createFixedStrategy(awakenessCycle, awakenessDuration, random);
+            default: return createRandomStrategy(awakenessCycle, awakenessDuration, random);
         }
     }
 
-    private IAwakenessStrategy createFixedStrategy(int awakenessCycle, int awakenessDuration) {
-        int firstAwakenessTime = rand.nextInt(awakenessCycle - awakenessDuration + 1);
+    private IAwakenessStrategy createFixedStrategy(int awakenessCycle, int awakenessDuration, Random random) {
+        int firstAwakenessTime = random.nextInt(awakenessCycle - awakenessDuration + 1);
         return new FixedAwakenessStrategy(awakenessCycle, awakenessDuration, firstAwakenessTime);
     }
 
-    private IAwakenessStrategy createRandomStrategy(int awakenessCycle, int awakenessDuration) {
-        int firstAwakenessTime = rand.nextInt(awakenessCycle - awakenessDuration + 1);
-        return new RandomAwakenessStrategy(awakenessCycle, awakenessDuration, firstAwakenessTime);
+    private IAwakenessStrategy createRandomStrategy(int awakenessCycle, int awakenessDuration, Random random) {
+        int firstAwakenessTime = random.nextInt(awakenessCycle - awakenessDuration + 1);
+        return new RandomAwakenessStrategy(awakenessCycle, awakenessDuration, firstAwakenessTime, random);
     }
 }
\ No newline at end of file
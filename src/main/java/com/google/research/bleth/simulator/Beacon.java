@@ -20,13 +20,13 @@ public class Beacon extends AbstractAgent implements IBeacon {
 
     /**
      * Create new Beacon with consecutive serial number.
-     * @param id is a unique ID.
-     * @param initialLocation is the location on board where the beacon is placed.
+     * @param id is a unique ID, which is also the beacon's index in the store.
+     * @param store is the store holding the beacon's real location, in which the beacon has already been added.
      * @param movementStrategy determines how the beacon moves.
      * @param owner is the real board that represents the world in which the beacon lives.
      */
-    Beacon(int id, Location initialLocation, IMovementStrategy movementStrategy, IAgentOwner owner) {
-        super(initialLocation, movementStrategy, owner);
+    Beacon(int id, AgentStore store, IMovementStrategy movementStrategy, IAgentOwner owner) {
+        super(store, id, movementStrategy, owner);
         this.id = id;
     }
 
@@ -19,7 +19,25 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /** A factory class to create new beacons. */
 public class BeaconFactory {
-    private int beaconId = 0; // used for generating unique id for each beacon.
+    private final AgentStore store; // holds the locations of the created beacons, and generates their unique ids.
+
+    /** Create a new beacon factory, storing the created beacons' locations in a new store. */
+    public BeaconFactory() {
+        this(new AgentStore());
+    }
+
+    /**
+     * Create a new beacon factory.
+     * @param store is the store holding the created beacons' locations. Must be used by this factory only.
+     */
+    public BeaconFactory(AgentStore store) {
+        this.store = checkNotNull(store);
+    }
+
+    /** Returns the store holding the created beacons' locations, in which the beacon with id i is stored at index i. */
+    public AgentStore getStore() {
+        return store;
+    }
 
     /**
      * Create new beacon, according to the given parameters.
@@ -33,7 +51,8 @@ public class BeaconFactory {
         checkNotNull(owner);
         checkArgument(owner.isLocationValid(initialLocation));
 
-        Beacon newBeacon = new Beacon(beaconId++, initialLocation, movementStrategy, owner);
+        int id = store.add(initialLocation.row(), initialLocation.col());
+        Beacon newBeacon = new Beacon(id, store, movementStrategy, owner);
         owner.updateAgentLocation(null, initialLocation, newBeacon);
         return newBeacon;
     }
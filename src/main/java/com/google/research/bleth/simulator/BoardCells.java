@@ -0,0 +1,147 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The agents of a board state: the representations (type and id) of the agents on each cell of a board, in the cell's
+ * order. Only populated cells are stored, ordered row-major by their linear indices, so the memory and the time of
+ * iterating over the cells are proportional to the number of agents rather than to the number of cells.
+ */
+final class BoardCells {
+    private final int rowNum;
+    private final int colNum;
+    private final TreeMap<Long, ArrayList<String>> cells = new TreeMap<>(); // holds no empty lists.
+
+    /** A consumer of a populated cell, which may throw a checked exception of type E. */
+    interface CellConsumer<E extends Exception> {
+        void accept(int row, int col, List<String> agents) throws E;
+    }
+
+    /**
+     * Create an empty board's cells.
+     * @param rows is number of rows.
+     * @param cols is number of columns.
+     */
+    BoardCells(int rows, int cols) {
+        rowNum = rows;
+        colNum = cols;
+    }
+
+    /** Returns the number of rows. */
+    int getRowNum() {
+        return rowNum;
+    }
+
+    /** Returns the number of columns. */
+    int getColNum() {
+        return colNum;
+    }
+
+    /** Returns an unmodifiable list of the agents on a cell, in the cell's order. */
+    List<String> get(int row, int col) {
+        ArrayList<String> agents = cells.get(cellIndex(row, col));
+        return agents == null ? ImmutableList.of() : Collections.unmodifiableList(agents);
+    }
+
+    /**
+     * Append an agent to a cell.
+     * @throws IndexOutOfBoundsException if the cell is not on the board.
+     */
+    void add(int row, int col, String agent) {
+        cells.computeIfAbsent(cellIndex(row, col), cell -> new ArrayList<>(1)).add(agent);
+    }
+
+    /**
+     * Remove an agent from a cell.
+     * @return true if the agent was on the cell, false otherwise.
+     * @throws IndexOutOfBoundsException if the cell is not on the board.
+     */
+    boolean remove(int row, int col, String agent) {
+        long cell = cellIndex(row, col);
+        ArrayList<String> agents = cells.get(cell);
+        if (agents == null || !agents.remove(agent)) {
+            return false;
+        }
+        if (agents.isEmpty()) {
+            cells.remove(cell); // keep only populated cells.
+        }
+        return true;
+    }
+
+    /** Returns the number of populated cells. */
+    int size() {
+        return cells.size();
+    }
+
+    /** Returns the number of agents on all cells. */
+    int agentsNum() {
+        return cells.values().stream().mapToInt(List::size).sum();
+    }
+
+    /** Apply an action on every populated cell, in row-major order. */
+    <E extends Exception> void forEach(CellConsumer<E> action) throws E {
+        for (Map.Entry<Long, ArrayList<String>> cell : cells.entrySet()) {
+            action.accept((int) (cell.getKey() / colNum), (int) (cell.getKey() % colNum),
+                    Collections.unmodifiableList(cell.getValue()));
+        }
+    }
+
+    /** Returns a copy of the cells, which can be modified independently. */
+    BoardCells copy() {
+        BoardCells copy = new BoardCells(rowNum, colNum);
+        cells.forEach((cell, agents) -> copy.cells.put(cell, new ArrayList<>(agents)));
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BoardCells that = (BoardCells) o;
+        return rowNum == that.rowNum &&
+                colNum == that.colNum &&
+                Objects.equal(cells, that.cells);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(rowNum, colNum, cells);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder string = new StringBuilder("{");
+        forEach((row, col, agents) -> string.append(string.length() > 1 ? ", " : "")
+                .append('(').append(row).append(", ").append(col).append(")=").append(agents));
+        return string.append('}').toString();
+    }
+
+    private long cellIndex(int row, int col) {
+        checkElementIndex(row, rowNum, "row");
+        checkElementIndex(col, colNum, "column");
+        return (long) row * colNum + col;
+    }
+}
@@ -0,0 +1,250 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the board states of a board history file written by a {@link BoardHistoryWriter}. The file is memory-mapped,
+ * so a round is read by looking up its index entry and slicing its columns from the mapping, without reading the
+ * file into the heap. A mapped buffer is limited to 2GB, so the file is mapped in fixed-size segments addressed by
+ * long offsets, and the rare region crossing segments is copied. If the file is still being written, its new
+ * segments are mapped when a round written after the file was mapped is read. A reader is safe for use by concurrent
+ * threads.
+ */
+final class BoardHistoryReader {
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    private final Path file;
+    private final int segmentSize;
+    private final int rows;
+    private final int cols;
+    private final int roundsNum;
+    private volatile Mapping mapping;
+
+    /** The segments of the file mapped so far, each of the segment size except the last. */
+    private static final class Mapping {
+        private final MappedByteBuffer[] segments;
+        private final long size;
+
+        private Mapping(MappedByteBuffer[] segments, long size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        /** Returns the bytes of a region of the file, sliced from its segment or copied if it crosses segments. */
+        private ByteBuffer slice(long offset, int length, int segmentSize) {
+            int segment = (int) (offset / segmentSize);
+            int position = (int) (offset % segmentSize);
+            if (position + length <= segments[segment].capacity()) {
+                ByteBuffer slice = segments[segment].duplicate();
+                slice.limit(position + length).position(position);
+                return slice.slice();
+            }
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            while (copy.hasRemaining()) {
+                ByteBuffer part = segments[segment].duplicate();
+                part.limit(Math.min(part.capacity(), position + copy.remaining())).position(position);
+                copy.put(part);
+                segment++;
+                position = 0;
+            }
+            copy.flip();
+            return copy;
+        }
+    }
+
+    /** The agents of a round, as slices of the mapped columns of their types and ids, rows and columns. */
+    static final class Round {
+        private final IntBuffer agents;
+        private final IntBuffer rows;
+        private final IntBuffer cols;
+
+        private Round(IntBuffer agents, IntBuffer rows, IntBuffer cols) {
+            this.agents = agents;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        /** Returns the number of agents of the round. */
+        int size() {
+            return agents.limit();
+        }
+
+        /** Returns the packed type index and id of the i-th agent of the round. */
+        int agent(int i) {
+            return agents.get(i);
+        }
+
+        /** Returns the row of the i-th agent of the round. */
+        int row(int i) {
+            return rows.get(i);
+        }
+
+        /** Returns the column of the i-th agent of the round. */
+        int col(int i) {
+            return cols.get(i);
+        }
+    }
+
+    /**
+     * Open a board history file and map it to memory.
+     * @param file is the path of the file.
+     * @return a reader of the file.
+     * @throws IOException if the file can't be read.
+     * @throws IllegalArgumentException if the file is not a board history file.
+     */
+    static BoardHistoryReader open(Path file) throws IOException {
+        return open(file, SEGMENT_SIZE);
+    }
+
+    /** Open a board history file, mapping it in segments of a given size. */
+    static BoardHistoryReader open(Path file, int segmentSize) throws IOException {
+        checkArgument(segmentSize >= BoardHistoryWriter.HEADER_SIZE, "Segments must hold the header.");
+        return new BoardHistoryReader(file, segmentSize, map(file, segmentSize, null));
+    }
+
+    /** Returns the number of rounds of the simulation. */
+    int getRoundsNum() {
+        return roundsNum;
+    }
+
+    /** Returns true if the round has been written to the file, and false otherwise. */
+    boolean isWritten(int round) {
+        checkRound(round);
+        return mapping.slice(BoardHistoryWriter.indexOffset(round), Long.BYTES, segmentSize).getLong(0) != 0;
+    }
+
+    /**
+     * Read the agents of a round as slices of the mapped file.
+     * @param round is the round.
+     * @return the round's agents, or null if the round hasn't been written.
+     * @throws IOException if the file is mapped again and can't be read.
+     */
+    Round readRound(int round) throws IOException {
+        checkRound(round);
+        Mapping currentMapping = mapping;
+        ByteBuffer indexEntry = currentMapping.slice(BoardHistoryWriter.indexOffset(round),
+                BoardHistoryWriter.INDEX_ENTRY_SIZE, segmentSize);
+        long offset = indexEntry.getLong(0);
+        if (offset == 0) {
+            return null;
+        }
+        int agentsNum = indexEntry.getInt(Long.BYTES);
+        long end = offset + 3L * agentsNum * Integer.BYTES;
+        if (end > currentMapping.size) {
+            currentMapping = remap(end);
+        }
+        return new Round(column(currentMapping, offset, agentsNum, 0), column(currentMapping, offset, agentsNum, 1),
+                column(currentMapping, offset, agentsNum, 2));
+    }
+
+    /**
+     * Read a board state from the file.
+     * @param simulationId is the id of the simulation.
+     * @param round is the round.
+     * @param entityKind is the kind of the board states of the file.
+     * @return the board state, which is empty if the round hasn't been written.
+     * @throws IOException if the file is mapped again and can't be read.
+     */
+    BoardState read(String simulationId, int round, String entityKind) throws IOException {
+        BoardCells cells = new BoardCells(rows, cols);
+        Round agents = readRound(round);
+        if (agents != null) {
+            List<String> types = readTypes();
+            for (int i = 0; i < agents.size(); i++) {
+                int agent = agents.agent(i);
+                cells.add(agents.row(i), agents.col(i),
+                        types.get(agent >>> BoardHistoryWriter.TYPE_SHIFT) + (agent & BoardHistoryWriter.MAX_ID));
+            }
+        }
+        return new BoardState(rows, cols, cells, simulationId, round, entityKind);
+    }
+
+    /** Returns the names of the agents' types, by their indices. */
+    List<String> readTypes() {
+        ByteBuffer header = mapping.segments[0].duplicate();
+        header.position(BoardHistoryWriter.TYPES_OFFSET);
+        int typesNum = header.getInt();
+        List<String> types = new ArrayList<>(typesNum);
+        for (int i = 0; i < typesNum; i++) {
+            byte[] typeBytes = new byte[header.getInt()];
+            header.get(typeBytes);
+            types.add(new String(typeBytes, StandardCharsets.UTF_8));
+        }
+        return types;
+    }
+
+    private BoardHistoryReader(Path file, int segmentSize, Mapping mapping) {
+        checkArgument(mapping.size >= BoardHistoryWriter.HEADER_SIZE, "%s is not a board history file.", file);
+        ByteBuffer header = mapping.segments[0];
+        checkArgument(header.getInt(0) == BoardHistoryWriter.MAGIC
+                        && header.getInt(Integer.BYTES) == BoardHistoryWriter.FORMAT_VERSION,
+                "%s is not a board history file.", file);
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.rows = header.getInt(BoardHistoryWriter.ROWS_OFFSET);
+        this.cols = header.getInt(BoardHistoryWriter.COLS_OFFSET);
+        this.roundsNum = header.getInt(BoardHistoryWriter.ROUNDS_NUM_OFFSET);
+        checkArgument(mapping.size >= BoardHistoryWriter.dataOffset(roundsNum), "%s is truncated.", file);
+        this.mapping = mapping;
+    }
+
+    private void checkRound(int round) {
+        checkArgument(round >= 0 && round < roundsNum, "Round %s is not a round of the simulation.", round);
+    }
+
+    private synchronized Mapping remap(long end) throws IOException {
+        if (mapping.size < end) {
+            mapping = map(file, segmentSize, mapping);
+            checkArgument(mapping.size >= end, "%s is truncated.", file);
+        }
+        return mapping;
+    }
+
+    private IntBuffer column(Mapping mapping, long offset, int agentsNum, int column) {
+        long start = offset + (long) column * agentsNum * Integer.BYTES;
+        return mapping.slice(start, agentsNum * Integer.BYTES, segmentSize).asIntBuffer();
+    }
+
+    /** Map the file in segments, keeping the full segments of a previous mapping of the file (optional). */
+    private static Mapping map(Path file, int segmentSize, Mapping previous) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int segmentsNum = (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentsNum];
+            for (int segment = 0; segment < segmentsNum; segment++) {
+                long start = (long) segment * segmentSize;
+                boolean isMapped = previous != null && segment < previous.segments.length
+                        && previous.segments[segment].capacity() == segmentSize;
+                segments[segment] = isMapped
+                        ? previous.segments[segment]
+                        : channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+            }
+            return new Mapping(segments, size);
+        }
+    }
+}
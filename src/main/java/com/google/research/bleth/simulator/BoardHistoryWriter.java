@@ -0,0 +1,173 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the board states of a single kind of a simulation to a board history file, read by a
+ * {@link BoardHistoryReader}. The file is laid out for reading any round by its offset without scanning:
+ * a fixed size header, holding the board's dimensions, the number of rounds and the names of the agents' types;
+ * a round offset index, holding the offset of each round's agents and their number (a zero offset for rounds which
+ * haven't been written);
+ * and the agents of every written round, stored as three fixed-width int columns one after the other: the agents'
+ * types and ids, their rows and their columns. An agent's type and id are packed as the index of the type's name in
+ * the header in the highest byte, followed by the id.
+ * Rounds may be written in any order, and each round's agents are written before its index entry, so a round whose
+ * index entry is set can be read while the simulation is running.
+ */
+final class BoardHistoryWriter implements Closeable {
+    static final String FILE_EXTENSION = ".history";
+    static final int MAGIC = 0x424C4248; // "BLBH"
+    static final int FORMAT_VERSION = 1;
+    static final int ROWS_OFFSET = 8;
+    static final int COLS_OFFSET = 12;
+    static final int ROUNDS_NUM_OFFSET = 16;
+    static final int TYPES_OFFSET = 20; // the number of types, followed by each type's name as its length and bytes.
+    static final int HEADER_SIZE = 256;
+    static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES; // a round's agents' offset and number.
+    static final int TYPE_SHIFT = 24; // the position of an agent's type index in its packed type and id.
+    static final int MAX_ID = (1 << TYPE_SHIFT) - 1;
+    static final int MAX_TYPES_NUM = 1 << (Integer.SIZE - 1 - TYPE_SHIFT);
+
+    private final FileChannel channel;
+    private final int rows;
+    private final int cols;
+    private final int roundsNum;
+    private final Map<String, Integer> typesIndices = new HashMap<>();
+    private final List<String> types = new ArrayList<>();
+    private final BitSet writtenRounds = new BitSet();
+    private long dataEnd;
+
+    /**
+     * Create a new board history file, replacing any existing file, and write its header.
+     * @param file is the path of the file.
+     * @param rows is the number of rows of the board.
+     * @param cols is the number of columns of the board.
+     * @param roundsNum is the number of rounds of the simulation.
+     * @throws IOException if the file can't be written.
+     */
+    BoardHistoryWriter(Path file, int rows, int cols, int roundsNum) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        this.rows = rows;
+        this.cols = cols;
+        this.roundsNum = roundsNum;
+        this.dataEnd = dataOffset(roundsNum);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(rows).putInt(cols).putInt(roundsNum).putInt(0);
+        header.rewind();
+        writeFully(header, 0);
+        // The index is written as zeros, marking all rounds as not written.
+        writeFully(ByteBuffer.allocate(roundsNum * INDEX_ENTRY_SIZE), HEADER_SIZE);
+    }
+
+    /**
+     * Append the agents of a board state to the file and set its round's index entry.
+     * @param boardState is a board state of the simulation, of the board's dimensions.
+     * @throws IOException if the file can't be written.
+     * @throws IllegalArgumentException if the board state's round was already written or doesn't exist, or if an
+     * agent's id is too large to be packed with its type.
+     */
+    void write(BoardState boardState) throws IOException {
+        int round = boardState.getRound();
+        checkArgument(round >= 0 && round < roundsNum, "Round %s is not a round of the simulation.", round);
+        checkArgument(!writtenRounds.get(round), "Round %s was already written.", round);
+
+        int agentsNum = boardState.getCells().agentsNum();
+        ByteBuffer columns = ByteBuffer.allocate(3 * agentsNum * Integer.BYTES);
+        int[] agent = new int[1];
+        boolean[] typesAdded = new boolean[1];
+        boardState.getCells().forEach((row, col, agents) -> {
+            for (String representation : agents) {
+                int idStart = BoardStateCodec.idStart(representation);
+                String type = representation.substring(0, idStart);
+                int id = Integer.parseInt(representation.substring(idStart));
+                checkArgument(id <= MAX_ID, "Agent id %s is too large.", id);
+                Integer typeIndex = typesIndices.get(type);
+                if (typeIndex == null) {
+                    checkState(types.size() < MAX_TYPES_NUM, "Too many agent types.");
+                    typeIndex = types.size();
+                    typesIndices.put(type, typeIndex);
+                    types.add(type);
+                    typesAdded[0] = true;
+                }
+                columns.putInt(agent[0] * Integer.BYTES, typeIndex << TYPE_SHIFT | id);
+                columns.putInt((agentsNum + agent[0]) * Integer.BYTES, row);
+                columns.putInt((2 * agentsNum + agent[0]) * Integer.BYTES, col);
+                agent[0]++;
+            }
+        });
+
+        if (typesAdded[0]) {
+            writeTypes();
+        }
+        long offset = dataEnd;
+        writeFully(columns, offset);
+        dataEnd += columns.capacity();
+        ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        indexEntry.putLong(offset).putInt(agentsNum).rewind();
+        writeFully(indexEntry, indexOffset(round));
+        writtenRounds.set(round);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Returns the offset of a round's entry in the index of a board history file. */
+    static long indexOffset(int round) {
+        return HEADER_SIZE + (long) round * INDEX_ENTRY_SIZE;
+    }
+
+    /** Returns the offset of the first round's agents in a board history file of a simulation's number of rounds. */
+    static long dataOffset(int roundsNum) {
+        return indexOffset(roundsNum);
+    }
+
+    private void writeTypes() throws IOException {
+        ByteBuffer typesRegion = ByteBuffer.allocate(HEADER_SIZE - TYPES_OFFSET);
+        typesRegion.putInt(types.size());
+        for (String type : types) {
+            byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+            checkState(typesRegion.remaining() >= Integer.BYTES + typeBytes.length, "Agent types' names are too long.");
+            typesRegion.putInt(typeBytes.length).put(typeBytes);
+        }
+        typesRegion.rewind();
+        writeFully(typesRegion, TYPES_OFFSET);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
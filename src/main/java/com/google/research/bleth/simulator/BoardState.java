@@ -14,31 +14,52 @@
 
 package com.google.research.bleth.simulator;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.common.base.Objects;
-import com.google.common.collect.ArrayTable;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.gson.Gson;
 import com.google.research.bleth.exceptions.BoardStateAlreadyExistsException;
 import com.google.research.bleth.exceptions.ExceedingRoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a static snapshot of a (real or estimated) board, associated with a simulation id and a round.
  * The BoardState storing the minimal data required for visualization -
- * which is a matrix of agents' type and id encoded as strings.
+ * which is the agents' type and id encoded as strings, on the populated cells of the board.
  * The BoardState provides methods for writing itself to the db,
  * json serialization and static methods for reading real / estimated board states.
+ * Board states are written in the packed format, storing a board state in a single entity, either as a keyframe holding
+ * all its agents or as the agents' moves since the previous round. Board states are read from either the packed format
+ * or the former format storing an entity per agent.
  */
 public class BoardState {
+    static final int MAX_PART_SIZE = 900_000; // the maximal size in bytes of a blob, below the datastore entity size limit.
+    static final int RANGE_BATCH_SIZE = 100; // the number of rounds of a range whose entities are retrieved in one lookup.
+
     private final int rows;
     private final int cols;
-    private final ArrayTable<Integer, Integer, ArrayList<String>> matrix;
+    private final BoardCells cells;
     private final String simulationId;
     private final int round;
     private final String entityKind;
@@ -47,17 +68,16 @@ public class BoardState {
      * Create new BoardState.
      * @param rows is the number of rows.
      * @param cols is the number of columns.
-     * @param matrix is an array table of array lists of strings, where each string encodes the agent's type and id.
+     * @param cells is the populated cells, holding strings which encode the agents' types and ids.
      * @param simulationId is the associated simulation id.
      * @param round is the associated round.
      * @param entityKind is a string indicating the entity kind to create when this BoardState is written to datastore.
      *                   can be either "RealBoardState" or "EstimatedBoardState".
      */
-    BoardState(int rows, int cols, ArrayTable<Integer, Integer, ArrayList<String>> matrix,
-               String simulationId, int round, String entityKind) {
+    BoardState(int rows, int cols, BoardCells cells, String simulationId, int round, String entityKind) {
         this.rows = rows;
         this.cols = cols;
-        this.matrix = matrix;
+        this.cells = cells;
         this.simulationId = simulationId;
         this.round = round;
         this.entityKind = entityKind;
@@ -69,119 +89,376 @@ public class BoardState {
         if (o == null || getClass() != o.getClass()) return false;
         BoardState that = (BoardState) o;
         return round == that.round &&
-                Objects.equal(matrix, that.matrix) &&
+                Objects.equal(cells, that.cells) &&
                 Objects.equal(simulationId, that.simulationId) &&
                 Objects.equal(entityKind, that.entityKind);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(matrix, simulationId, round, entityKind);
+        return Objects.hashCode(cells, simulationId, round, entityKind);
     }
 
     /**
-     * Create multiple datastore entities (each represents an agent in its location) associated with the board state,
-     * and write them to the db.
+     * Create the datastore entities storing the board state's agents in the packed format, and write them to the db.
      * @throws BoardStateAlreadyExistsException if a board state associated with the same simulation id, round and entity kind
      * already exists in the db.
      */
     public void write() throws BoardStateAlreadyExistsException {
         // Throw an exception if a board state associated with the same simulation id, round and entity kind
         // already exists in the db.
-        BoardState readBoardState = read(simulationId, round, entityKind);
-        if (!readBoardState.matrix.equals(BoardStateFactory.createEmptyTable(rows, cols))) {
+        if (exists(simulationId, round, entityKind)) {
             throw new BoardStateAlreadyExistsException(this.entityKind + " with simulationId "
                     + simulationId + " at round " + round + " already exists in db.");
         }
 
+        // Write to datastore in batches.
         DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                for (String agentId : matrix.get(row, col)) {
-                    // Create new entity.
-                    Entity entity = new Entity(this.entityKind);
-
-                    // Set properties.
-                    entity.setProperty(Schema.BoardState.simulationId, simulationId);
-                    entity.setProperty(Schema.BoardState.round, round);
-                    entity.setProperty(Schema.BoardState.agentId, agentId);
-                    entity.setProperty(Schema.BoardState.rowNum, row);
-                    entity.setProperty(Schema.BoardState.colNum, col);
-
-                    // Write to datastore.
-                    datastore.put(entity);
+        for (List<Entity> batch : Lists.partition(toEntities(), BoardStateWriter.MAX_BATCH_SIZE)) {
+            datastore.put(batch);
+        }
+    }
+
+    /**
+     * Create the datastore entities storing the board state in the packed format as a keyframe, holding all its agents:
+     * the board state's entity, followed by its additional parts entities if the encoded agents are larger than
+     * a single blob.
+     */
+    List<Entity> toEntities() {
+        return toPackedEntities(Schema.BoardState.agents, BoardStateCodec.encode(cells), null);
+    }
+
+    /**
+     * Create the datastore entities storing the board state in the packed format as the moves from the board state
+     * of the previous round, which is read by applying the moves of all rounds since the last keyframe on the keyframe.
+     * @param previous is the board state of the previous round, of the same simulation and entity kind.
+     * @param keyframeRound is the round of the last keyframe written before the board state.
+     * @return the entities, or null if most agents have moved, in which case the board state should be written as
+     * a keyframe.
+     */
+    List<Entity> toMovesEntities(BoardState previous, int keyframeRound) {
+        checkArgument(previous.round == round - 1 && previous.entityKind.equals(entityKind) &&
+                        previous.simulationId.equals(simulationId),
+                "Moves are written only from the previous round's board state.");
+        checkArgument(keyframeRound < round, "Keyframe must precede the board state.");
+        byte[] encodedMoves = BoardStateCodec.encodeMoves(previous.cells, cells);
+        if (encodedMoves == null) {
+            return null;
+        }
+        return toPackedEntities(Schema.BoardState.moves, encodedMoves, keyframeRound);
+    }
+
+    /** Returns the round associated with the board state. */
+    int getRound() {
+        return round;
+    }
+
+    /** Returns the entity kind to create when the board state is written to datastore. */
+    String getEntityKind() {
+        return entityKind;
+    }
+
+    /** Returns the id of the simulation associated with the board state. */
+    String getSimulationId() {
+        return simulationId;
+    }
+
+    /** Returns the populated cells of the board state, holding the agents' types and ids, which must not be modified. */
+    BoardCells getCells() {
+        return cells;
+    }
+
+    /**
+     * Create an empty board state of a simulation, for a round whose board state hasn't been written.
+     * @param metadata is the metadata of the simulation.
+     * @param simulationId is the simulation id.
+     * @param round is the round.
+     * @param entityKind is the board state's kind.
+     * @return the board state.
+     */
+    static BoardState empty(SimulationMetadata metadata, String simulationId, int round, String entityKind) {
+        return new BoardState(metadata.rowsNum, metadata.colsNum,
+                new BoardCells(metadata.rowsNum, metadata.colsNum), simulationId, round, entityKind);
+    }
+
+    private List<Entity> toPackedEntities(String blobProperty, byte[] blob, Integer keyframeRound) {
+        int partsNum = Math.max(1, (blob.length + MAX_PART_SIZE - 1) / MAX_PART_SIZE);
+        List<Entity> entities = new ArrayList<>(partsNum);
+        for (int part = 0; part < partsNum; part++) {
+            // Create new entity.
+            Entity entity = new Entity(packedPartKey(simulationId, round, entityKind, part));
+
+            // Set properties.
+            entity.setProperty(Schema.BoardState.simulationId, simulationId);
+            entity.setProperty(Schema.BoardState.round, round);
+            entity.setProperty(blobProperty, new Blob(Arrays.copyOfRange(blob,
+                    part * MAX_PART_SIZE, Math.min(blob.length, (part + 1) * MAX_PART_SIZE))));
+            if (part == 0) {
+                entity.setProperty(Schema.BoardState.partsNum, partsNum);
+                if (keyframeRound != null) {
+                    entity.setProperty(Schema.BoardState.keyframeRound, keyframeRound);
                 }
             }
+
+            entities.add(entity);
         }
+        return entities;
     }
 
-    /** Return a JSON string representing the board state. */
+    /**
+     * Return a JSON string representing the board state as a dense matrix of all cells: {"array":[[[agents of cell
+     * (0, 0)],...],...]}. The string is proportional to the board's area, so {@link #toSparseJson()} is preferred.
+     */
     public String toJson() {
-        return new Gson().toJson(this.matrix);
+        Gson gson = new Gson();
+        StringBuilder json = new StringBuilder("{\"array\":[");
+        for (int row = 0; row < rows; row++) {
+            json.append(row == 0 ? "[" : ",[");
+            for (int col = 0; col < cols; col++) {
+                json.append(col == 0 ? "" : ",").append(gson.toJson(cells.get(row, col)));
+            }
+            json.append(']');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Return a sparse JSON string representing the board state, which lists only the occupied cells and their agents
+     * by agent type index and numeric id: {"rows":R,"cols":C,"types":[type names],"cells":[[row,col,types mask,
+     * type index,id,...],...]}, where bit i of a cell's types mask is set if the cell holds an agent of type i.
+     */
+    public String toSparseJson() {
+        return BoardStateCodec.encodeSparseJson(cells);
+    }
+
+    /**
+     * Write the board state in the binary form of its sparse JSON, as uncompressed varints.
+     * @param out is the stream to write the board state to.
+     */
+    public void writeSparse(OutputStream out) throws IOException {
+        BoardStateCodec.encodeSparse(cells, out);
     }
 
     /** Returns a map that maps to each populated location the representations (type and id) of the agents on this location. */
     public Multimap<Location, String> agentsRepresentationsOnStateBoard() {
         ImmutableListMultimap.Builder<Location, String> locationsToRepresentations =
                                                         new ImmutableListMultimap.Builder<Location, String>();
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                locationsToRepresentations.putAll(Location.create(row, col), matrix.get(row, col));
-            }
-        }
+        cells.forEach((row, col, agents) -> locationsToRepresentations.putAll(Location.create(row, col), agents));
         return locationsToRepresentations.build();
     }
 
     /**
-     * Read a real BoardState from the db.
+     * Read a real BoardState from the state store of the running process.
      * @param simulationId is the simulation id.
      * @param round is the round.
-     * @return a board state constructed from the data read from db (if no entity exists in the db but the provided round
-     * exists in the simulation - thr returned board state is empty).
+     * @return a board state constructed from the data read from the store (if the board state hasn't been written but
+     * the provided round exists in the simulation - thr returned board state is empty).
      * @throws ExceedingRoundException if the provided round does not exist in the simulation corresponding
      * with the provided simulation id.
      */
     public static BoardState readReal(String simulationId, int round) throws ExceedingRoundException {
-        return read(simulationId, round, Schema.BoardState.entityKindReal);
+        return StateStores.get().readBoardState(simulationId, round, Schema.BoardState.entityKindReal);
     }
 
     /**
-     * Read an estimated BoardState from the db.
+     * Read an estimated BoardState from the state store of the running process.
      * @param simulationId is the simulation id.
      * @param round is the round.
-     * @return a board state constructed from the data read from db (if no entity exists in the db but the provided round
-     * exists in the simulation - thr returned board state is empty).
+     * @return a board state constructed from the data read from the store (if the board state hasn't been written but
+     * the provided round exists in the simulation - thr returned board state is empty).
      * @throws ExceedingRoundException if the provided round does not exist in the simulation corresponding
      * with the provided simulation id.
      */
     public static BoardState readEstimated(String simulationId, int round) throws ExceedingRoundException {
-        return read(simulationId, round, Schema.BoardState.entityKindEstimated);
+        return StateStores.get().readBoardState(simulationId, round, Schema.BoardState.entityKindEstimated);
     }
 
-    private static BoardState read(String simulationId, int round, String entityKind) throws ExceedingRoundException {
+    /**
+     * Read a BoardState from the db.
+     * @param simulationId is the simulation id.
+     * @param round is the round.
+     * @param entityKind is the kind of the board state.
+     * @return a board state constructed from the data read from db (if no entity exists in the db but the provided round
+     * exists in the simulation - thr returned board state is empty).
+     * @throws ExceedingRoundException if the provided round does not exist in the simulation corresponding
+     * with the provided simulation id.
+     */
+    static BoardState readFromDatastore(String simulationId, int round, String entityKind) throws ExceedingRoundException {
         // throw and exception if the provided round does not exist in the simulation.
-        if (!SimulationMetadata.isRoundExistsInSimulation(simulationId, round)) {
+        SimulationMetadata simulationMetadata = SimulationMetadata.read(simulationId);
+        if (round >= simulationMetadata.roundsNum) {
             throw new ExceedingRoundException("Provided round " + round +
                     " exceeds maximum number of rounds of simulation " + simulationId);
         }
 
         // Retrieve simulation dimensions.
-        SimulationMetadata simulationMetadata = SimulationMetadata.read(simulationId);
         int rowNum = simulationMetadata.rowsNum;
         int colNum = simulationMetadata.colsNum;
 
+        BoardCells cells = new BoardCells(rowNum, colNum);
+
+        // Retrieve the packed entity to construct board state, if the board state is stored in the packed format.
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        try {
+            Entity packedEntity = datastore.get(packedPartKey(simulationId, round, entityKind, 0));
+            readPacked(datastore, packedEntity, simulationId, round, entityKind, cells);
+            return new BoardState(rowNum, colNum, cells, simulationId, round, entityKind);
+        } catch (EntityNotFoundException notPacked) {
+            // The board state is either stored an entity per agent, or empty and written in the former format.
+        }
+
         // Retrieve entities to construct board state.
         PreparedQuery boardStateBySimulationIdAndRoundPreparedQuery = prepareBoardStateQuery(simulationId, round, entityKind);
-        ArrayTable<Integer, Integer, ArrayList<String>> matrix = BoardStateFactory.createEmptyTable(rowNum, colNum);
 
         for (Entity entity : boardStateBySimulationIdAndRoundPreparedQuery.asIterable()) {
             int row = ((Long) entity.getProperty(Schema.BoardState.rowNum)).intValue();
             int col = ((Long) entity.getProperty(Schema.BoardState.colNum)).intValue();
             String agentId = (String) entity.getProperty(Schema.BoardState.agentId);
-            matrix.get(row, col).add(agentId);
+            cells.add(row, col, agentId);
         }
 
-        return new BoardState(rowNum, colNum, matrix, simulationId, round, entityKind);
+        return new BoardState(rowNum, colNum, cells, simulationId, round, entityKind);
+    }
+
+    /**
+     * Read the BoardStates of a range of rounds from the db, in rounds order. The packed entities of the range are
+     * retrieved in batch lookups, and a board state stored as moves is read by applying its moves on the board state
+     * of the previous round, so the keyframes and moves preceding the range are retrieved only for its first round.
+     * @param simulationId is the simulation id.
+     * @param fromRound is the first round of the range.
+     * @param toRound is the round following the last round of the range.
+     * @param entityKind is the kind of the board states.
+     * @return an iterator over the board states of the range, which retrieves entities while iterating.
+     * @throws ExceedingRoundException if the range exceeds the rounds of the simulation.
+     */
+    static Iterator<BoardState> readRangeFromDatastore(String simulationId, int fromRound, int toRound,
+                                                       String entityKind) throws ExceedingRoundException {
+        SimulationMetadata simulationMetadata = SimulationMetadata.read(simulationId);
+        StateStores.checkRange(simulationMetadata, simulationId, fromRound, toRound);
+        int rowNum = simulationMetadata.rowsNum;
+        int colNum = simulationMetadata.colsNum;
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+        return new AbstractIterator<BoardState>() {
+            private int round = fromRound;
+            private int batchEnd = fromRound;
+            private Map<Key, Entity> batch;
+            private BoardCells previous; // null if the previous round wasn't read.
+
+            @Override
+            protected BoardState computeNext() {
+                if (round == toRound) {
+                    return endOfData();
+                }
+                if (round == batchEnd) {
+                    batchEnd = Math.min(toRound, round + RANGE_BATCH_SIZE);
+                    List<Key> keys = new ArrayList<>(batchEnd - round);
+                    for (int batchRound = round; batchRound < batchEnd; batchRound++) {
+                        keys.add(packedPartKey(simulationId, batchRound, entityKind, 0));
+                    }
+                    batch = datastore.get(keys);
+                }
+
+                Entity packedEntity = batch.get(packedPartKey(simulationId, round, entityKind, 0));
+                BoardState boardState;
+                if (packedEntity == null) {
+                    // The board state is either stored an entity per agent, or empty and written in the former format.
+                    boardState = readFromDatastore(simulationId, round, entityKind);
+                } else if (previous != null && packedEntity.hasProperty(Schema.BoardState.keyframeRound)) {
+                    BoardCells cells = previous.copy();
+                    BoardStateCodec.applyMoves(readBlob(datastore, packedEntity, Schema.BoardState.moves,
+                            simulationId, round, entityKind), cells);
+                    boardState = new BoardState(rowNum, colNum, cells, simulationId, round, entityKind);
+                } else {
+                    BoardCells cells = new BoardCells(rowNum, colNum);
+                    readPacked(datastore, packedEntity, simulationId, round, entityKind, cells);
+                    boardState = new BoardState(rowNum, colNum, cells, simulationId, round, entityKind);
+                }
+                previous = boardState.cells;
+                round++;
+                return boardState;
+            }
+        };
+    }
+
+    private static boolean exists(String simulationId, int round, String entityKind) {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        try {
+            datastore.get(packedPartKey(simulationId, round, entityKind, 0));
+            return true;
+        } catch (EntityNotFoundException notPacked) {
+            PreparedQuery boardStateQuery = prepareBoardStateQuery(simulationId, round, entityKind);
+            return !boardStateQuery.asList(FetchOptions.Builder.withLimit(1)).isEmpty();
+        }
+    }
+
+    /**
+     * Fill empty cells with the agents of a board state stored in the packed format. If the board state is stored
+     * as moves, the entities of all rounds since its keyframe are retrieved in a single batch lookup, and their moves
+     * are applied on the keyframe in rounds order.
+     */
+    private static void readPacked(DatastoreService datastore, Entity packedEntity, String simulationId, int round,
+                                   String entityKind, BoardCells cells) {
+        if (!packedEntity.hasProperty(Schema.BoardState.keyframeRound)) {
+            BoardStateCodec.decode(readBlob(datastore, packedEntity, Schema.BoardState.agents,
+                    simulationId, round, entityKind), cells);
+            return;
+        }
+
+        int keyframeRound = ((Long) packedEntity.getProperty(Schema.BoardState.keyframeRound)).intValue();
+        List<Key> previousKeys = new ArrayList<>(round - keyframeRound);
+        for (int previousRound = keyframeRound; previousRound < round; previousRound++) {
+            previousKeys.add(packedPartKey(simulationId, previousRound, entityKind, 0));
+        }
+        Map<Key, Entity> previousEntities = datastore.get(previousKeys);
+        for (int previousRound = keyframeRound; previousRound <= round; previousRound++) {
+            Entity entity = previousRound == round
+                    ? packedEntity : previousEntities.get(previousKeys.get(previousRound - keyframeRound));
+            if (entity == null) {
+                throw new IllegalStateException(entityKind + " with simulationId " + simulationId + " at round "
+                        + previousRound + " is missing, so round " + round + " cannot be reconstructed.");
+            }
+            if (previousRound == keyframeRound) {
+                BoardStateCodec.decode(readBlob(datastore, entity, Schema.BoardState.agents,
+                        simulationId, previousRound, entityKind), cells);
+            } else {
+                BoardStateCodec.applyMoves(readBlob(datastore, entity, Schema.BoardState.moves,
+                        simulationId, previousRound, entityKind), cells);
+            }
+        }
+    }
+
+    private static byte[] readBlob(DatastoreService datastore, Entity packedEntity, String blobProperty,
+                                   String simulationId, int round, String entityKind) {
+        int partsNum = ((Long) packedEntity.getProperty(Schema.BoardState.partsNum)).intValue();
+        if (partsNum == 1) {
+            return ((Blob) packedEntity.getProperty(blobProperty)).getBytes();
+        }
+
+        List<Key> partsKeys = new ArrayList<>(partsNum - 1);
+        for (int part = 1; part < partsNum; part++) {
+            partsKeys.add(packedPartKey(simulationId, round, entityKind, part));
+        }
+        Map<Key, Entity> parts = datastore.get(partsKeys);
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        byte[] firstPart = ((Blob) packedEntity.getProperty(blobProperty)).getBytes();
+        blob.write(firstPart, 0, firstPart.length);
+        for (Key partKey : partsKeys) {
+            Entity part = parts.get(partKey);
+            if (part == null) {
+                throw new IllegalStateException("Missing part " + partKey.getName() + " of packed board state.");
+            }
+            byte[] partBytes = ((Blob) part.getProperty(blobProperty)).getBytes();
+            blob.write(partBytes, 0, partBytes.length);
+        }
+        return blob.toByteArray();
+    }
+
+    private static Key packedPartKey(String simulationId, int round, String entityKind, int part) {
+        String packedEntityKind = entityKind.equals(Schema.BoardState.entityKindReal)
+                ? Schema.BoardState.entityKindPackedReal : Schema.BoardState.entityKindPackedEstimated;
+        String keyName = simulationId + ":" + round;
+        return KeyFactory.createKey(packedEntityKind, part == 0 ? keyName : keyName + ":" + part);
     }
 
     private static PreparedQuery prepareBoardStateQuery(String simulationId, int round, String entityKind) {
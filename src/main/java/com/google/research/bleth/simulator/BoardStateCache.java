@@ -0,0 +1,152 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.research.bleth.simulator;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of the board states of completed simulations, read from the db.
+ * Board states of completed simulations never change, so they are kept decoded in a bounded in-process cache,
+ * backed by memcache which is shared between instances and keeps them encoded by {@link BoardStateCodec}.
+ * A decoded board state holds only its populated cells, so the in-process cache is bounded by the number of agents
+ * of the cached board states rather than by their boards' areas.
+ * Simulation ids are never reused, so board states of deleted simulations are removed from the in-process cache only,
+ * and are left in memcache until they are evicted.
+ */
+final class BoardStateCache {
+    static final long CACHE_MAXIMUM_WEIGHT = 1_000_000; // bounds the agents of all cached board states.
+    private static final String MEMCACHE_NAMESPACE = "BoardState";
+    private static final int MEMCACHE_MAXIMUM_VALUE_SIZE = BoardState.MAX_PART_SIZE; // below memcache's value size limit.
+    private static final Cache<CacheKey, BoardState> cache = CacheBuilder.newBuilder()
+            .maximumWeight(CACHE_MAXIMUM_WEIGHT)
+            .weigher((CacheKey key, BoardState boardState) -> weigh(boardState))
+            .build(); // evicts the least recently used first.
+
+    private BoardStateCache() {}
+
+    /**
+     * Read a cached board state.
+     * @param metadata is the metadata of the simulation, providing its board's dimensions.
+     * @param simulationId is the id of the simulation.
+     * @param round is the round of the board state.
+     * @param entityKind is the kind of the board state.
+     * @return the board state, or null if it isn't cached.
+     */
+    static BoardState get(SimulationMetadata metadata, String simulationId, int round, String entityKind) {
+        CacheKey key = new CacheKey(simulationId, round, entityKind);
+        BoardState boardState = cache.getIfPresent(key);
+        if (boardState != null) {
+            return boardState;
+        }
+
+        byte[] encoded = (byte[]) getMemcache().get(key.toString());
+        if (encoded == null) {
+            return null;
+        }
+        BoardCells cells = new BoardCells(metadata.rowsNum, metadata.colsNum);
+        BoardStateCodec.decode(encoded, cells);
+        boardState = new BoardState(metadata.rowsNum, metadata.colsNum, cells, simulationId, round, entityKind);
+        cache.put(key, boardState);
+        return boardState;
+    }
+
+    /**
+     * Returns the weight of a board state in the in-process cache: the number of its agents, and one for the board
+     * state itself so that empty board states are bounded as well.
+     */
+    static int weigh(BoardState boardState) {
+        return 1 + boardState.getCells().agentsNum();
+    }
+
+    /**
+     * Returns the number of a simulation's board states the in-process cache holds, weighing each by all the
+     * simulation's agents, which bounds the agents of a board state of either kind.
+     */
+    static long capacity(SimulationMetadata metadata) {
+        return CACHE_MAXIMUM_WEIGHT / (1 + metadata.beaconsNum + metadata.observersNum);
+    }
+
+    /** Returns true if a board state is in the in-process cache, without reading it from memcache. */
+    static boolean contains(String simulationId, int round, String entityKind) {
+        return cache.getIfPresent(new CacheKey(simulationId, round, entityKind)) != null;
+    }
+
+    /**
+     * Cache a board state of a completed simulation.
+     * @param boardState is the board state, whose cells must not be modified afterwards.
+     */
+    static void put(BoardState boardState) {
+        CacheKey key = new CacheKey(boardState.getSimulationId(), boardState.getRound(), boardState.getEntityKind());
+        cache.put(key, boardState);
+        byte[] encoded = BoardStateCodec.encode(boardState.getCells());
+        if (encoded.length <= MEMCACHE_MAXIMUM_VALUE_SIZE) {
+            getMemcache().put(key.toString(), encoded);
+        }
+    }
+
+    /**
+     * Remove the board states of a simulation from the in-process cache, after the simulation is deleted from the db.
+     * @param simulationId the id of the deleted simulation.
+     */
+    static void invalidate(String simulationId) {
+        cache.asMap().keySet().removeIf(key -> key.simulationId.equals(simulationId));
+    }
+
+    /** Clear the in-process cache, so board states are read from memcache or from the db. */
+    static void clearLocalCache() {
+        cache.invalidateAll();
+    }
+
+    private static MemcacheService getMemcache() {
+        return MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+    }
+
+    private static final class CacheKey {
+        private final String simulationId;
+        private final int round;
+        private final String entityKind;
+
+        private CacheKey(String simulationId, int round, String entityKind) {
+            this.simulationId = simulationId;
+            this.round = round;
+            this.entityKind = entityKind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey that = (CacheKey) o;
+            return round == that.round &&
+                    Objects.equal(simulationId, that.simulationId) &&
+                    Objects.equal(entityKind, that.entityKind);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(simulationId, round, entityKind);
+        }
+
+        @Override
+        public String toString() {
+            return simulationId + ":" + entityKind + ":" + round;
+        }
+    }
+}
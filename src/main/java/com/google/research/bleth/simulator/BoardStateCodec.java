@@ -0,0 +1,425 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes the agents of a board state as a compact byte array, used for storing a whole board state in a single entity.
+ * The encoding is a format version byte followed by a deflate-compressed body of varints: the number of distinct
+ * agent types and their names, then the number of agents and an (agent type index, agent id, row, column) tuple
+ * for every agent, in row-major order of the cells and in the cell's order within each cell.
+ * Also encodes the moves between the board states of consecutive rounds, in the same form with an
+ * (agent type index, agent id, old row + 1, old column, new row + 1, new column) tuple for every move,
+ * where a zero row marks a missing cell and is not followed by a column.
+ * Also encodes board states for responses in a sparse form listing only the occupied cells, as either JSON or varints.
+ */
+final class BoardStateCodec {
+    private static final int FORMAT_VERSION = 1;
+    private static final int SPARSE_FORMAT_VERSION = 1;
+    private static final int MAX_SPARSE_TYPES_NUM = Integer.SIZE - 1; // a cell's types mask is a non-negative int.
+
+    private BoardStateCodec() {}
+
+    /**
+     * Encode the agents of a board state.
+     * @param cells is the board state's cells, holding strings which encode the agents' types and ids.
+     * @return the encoded agents.
+     * @throws IllegalArgumentException if an agent's string does not end with its numeric id.
+     */
+    static byte[] encode(BoardCells cells) {
+        // The first pass collects the agent types, so the agents can be written in a single second pass.
+        Map<String, Integer> typesIndices = new HashMap<>();
+        List<String> types = new ArrayList<>();
+        int[] agentsNum = new int[1];
+        cells.forEach((row, col, agents) -> {
+            for (String agent : agents) {
+                String type = agent.substring(0, idStart(agent));
+                if (!typesIndices.containsKey(type)) {
+                    typesIndices.put(type, types.size());
+                    types.add(type);
+                }
+                agentsNum[0]++;
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(FORMAT_VERSION);
+        try (OutputStream body = new DeflaterOutputStream(bytes)) {
+            writeTypes(body, types);
+            writeVarint(body, agentsNum[0]);
+            cells.forEach((row, col, agents) -> {
+                for (String agent : agents) {
+                    int idStart = idStart(agent);
+                    writeVarint(body, typesIndices.get(agent.substring(0, idStart)));
+                    writeVarint(body, Integer.parseInt(agent.substring(idStart)));
+                    writeVarint(body, row);
+                    writeVarint(body, col);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the moves turning a board state into the board state of the following round.
+     * Applying the moves in order removes each moving agent from its old cell and appends it to its new cell, so the
+     * moves of a cell are the agents following the longest prefix of the cell which kept its order from the previous
+     * round. Agents which moved within their cell's list without changing cell are encoded as moving to the same cell.
+     * @param previous is the board state cells of the previous round.
+     * @param current is the board state cells of the current round, of the same dimensions.
+     * @return the encoded moves, or null if more than half of the agents have moved, in which case encoding
+     * the current board state is not much larger.
+     * @throws IllegalArgumentException if an agent's string does not end with its numeric id.
+     */
+    static byte[] encodeMoves(BoardCells previous, BoardCells current) {
+        Map<String, Long> previousCells = new HashMap<>(); // maps each agent to its cell in the previous round.
+        previous.forEach((row, col, agents) -> agents.forEach(agent -> previousCells.put(agent, packCell(row, col))));
+
+        List<String> movingAgents = new ArrayList<>();
+        List<Long> oldCells = new ArrayList<>();
+        List<Long> newCells = new ArrayList<>();
+        int[] agentsNumHolder = new int[1];
+        current.forEach((row, col, cellAgents) -> {
+            int keptPrefixLength = keptPrefixLength(previous.get(row, col), cellAgents);
+            for (int i = 0; i < cellAgents.size(); i++) {
+                Long oldCell = previousCells.remove(cellAgents.get(i));
+                if (i >= keptPrefixLength) {
+                    movingAgents.add(cellAgents.get(i));
+                    oldCells.add(oldCell);
+                    newCells.add(packCell(row, col));
+                }
+            }
+            agentsNumHolder[0] += cellAgents.size();
+        });
+        int agentsNum = agentsNumHolder[0];
+        for (Map.Entry<String, Long> removedAgent : previousCells.entrySet()) {
+            movingAgents.add(removedAgent.getKey());
+            oldCells.add(removedAgent.getValue());
+            newCells.add(null);
+        }
+        if (2 * movingAgents.size() > agentsNum) {
+            return null;
+        }
+
+        Map<String, Integer> typesIndices = new HashMap<>();
+        List<String> types = new ArrayList<>();
+        for (String agent : movingAgents) {
+            String type = agent.substring(0, idStart(agent));
+            if (!typesIndices.containsKey(type)) {
+                typesIndices.put(type, types.size());
+                types.add(type);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(FORMAT_VERSION);
+        try (OutputStream body = new DeflaterOutputStream(bytes)) {
+            writeTypes(body, types);
+            writeVarint(body, movingAgents.size());
+            for (int i = 0; i < movingAgents.size(); i++) {
+                String agent = movingAgents.get(i);
+                int idStart = idStart(agent);
+                writeVarint(body, typesIndices.get(agent.substring(0, idStart)));
+                writeVarint(body, Integer.parseInt(agent.substring(idStart)));
+                writeCell(body, oldCells.get(i));
+                writeCell(body, newCells.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode encoded moves and apply them on a board state's cells, turning them into the cells of the following round.
+     * @param encoded is the encoded moves.
+     * @param cells is the cells of the previous round, which are updated in place.
+     * @throws IllegalArgumentException if the encoded moves are malformed or do not fit the cells.
+     */
+    static void applyMoves(byte[] encoded, BoardCells cells) {
+        checkArgument(encoded.length > 0 && encoded[0] == FORMAT_VERSION, "Unsupported board state encoding.");
+        try (InputStream body = new InflaterInputStream(new ByteArrayInputStream(encoded, 1, encoded.length - 1))) {
+            List<String> types = readTypes(body);
+            int movesNum = readVarint(body);
+            for (int i = 0; i < movesNum; i++) {
+                String agent = types.get(readVarint(body)) + readVarint(body);
+                int oldRow = readVarint(body) - 1;
+                if (oldRow >= 0) {
+                    cells.remove(oldRow, readVarint(body), agent);
+                }
+                int newRow = readVarint(body) - 1;
+                if (newRow >= 0) {
+                    cells.add(newRow, readVarint(body), agent);
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed board state encoding.", e);
+        }
+    }
+
+    /**
+     * Decode encoded agents into a board state's cells.
+     * @param encoded is the encoded agents.
+     * @param cells is the empty cells, to which the decoded agents are added.
+     * @throws IllegalArgumentException if the encoded agents are malformed or do not fit the cells.
+     */
+    static void decode(byte[] encoded, BoardCells cells) {
+        checkArgument(encoded.length > 0 && encoded[0] == FORMAT_VERSION, "Unsupported board state encoding.");
+        try (InputStream body = new InflaterInputStream(new ByteArrayInputStream(encoded, 1, encoded.length - 1))) {
+            List<String> types = readTypes(body);
+            int agentsNum = readVarint(body);
+            for (int i = 0; i < agentsNum; i++) {
+                String type = types.get(readVarint(body));
+                int id = readVarint(body);
+                int row = readVarint(body);
+                int col = readVarint(body);
+                cells.add(row, col, type + id);
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed board state encoding.", e);
+        }
+    }
+
+    /**
+     * Encode the occupied cells of a board state as sparse JSON:
+     * {"rows":R,"cols":C,"types":[type names],"cells":[[row,col,types mask,type index,id,type index,id,...],...]},
+     * listing each cell's agents in the cell's order, where bit i of the types mask is set if the cell holds an agent
+     * of type i. Only the occupied cells are visited, so the encoding's size and time are linear in the agents number.
+     * @param boardCells is the board state's cells, holding strings which encode the agents' types and ids.
+     * @return the sparse JSON string.
+     * @throws IllegalArgumentException if an agent's string does not end with its numeric id, or if there are more
+     * agent types than bits of a types mask.
+     */
+    static String encodeSparseJson(BoardCells boardCells) {
+        Map<String, Integer> typesIndices = new HashMap<>();
+        List<String> types = new ArrayList<>();
+        StringBuilder cells = new StringBuilder();
+        boardCells.forEach((row, col, agents) -> {
+            int typesMask = 0;
+            StringBuilder cellAgents = new StringBuilder();
+            for (String agent : agents) {
+                int idStart = idStart(agent);
+                int typeIndex = sparseTypeIndex(agent.substring(0, idStart), typesIndices, types);
+                typesMask |= 1 << typeIndex;
+                cellAgents.append(',').append(typeIndex).append(',').append(agent, idStart, agent.length());
+            }
+            if (cells.length() > 0) {
+                cells.append(',');
+            }
+            cells.append('[').append(row).append(',').append(col).append(',').append(typesMask)
+                    .append(cellAgents).append(']');
+        });
+        return "{\"rows\":" + boardCells.getRowNum() + ",\"cols\":" + boardCells.getColNum() + ",\"types\":" + new Gson().toJson(types)
+                + ",\"cells\":[" + cells + "]}";
+    }
+
+    /**
+     * Encode the occupied cells of a board state as sparse varints: a format version byte, the numbers of rows
+     * and columns, the number of distinct agent types and their names, then the number of occupied cells and a
+     * (row, column, types mask, agents number, (type index, id) for every agent) tuple for every cell, where bit i of
+     * the types mask is set if the cell holds an agent of type i.
+     * The encoding is not compressed, as it is meant to be written to a compressed response.
+     * @param boardCells is the board state's cells, holding strings which encode the agents' types and ids.
+     * @param out is the stream to write the encoding to.
+     * @throws IllegalArgumentException if an agent's string does not end with its numeric id, or if there are more
+     * agent types than bits of a types mask.
+     */
+    static void encodeSparse(BoardCells boardCells, OutputStream out) throws IOException {
+        // The types are written before the cells, so the first pass collects them.
+        Map<String, Integer> typesIndices = new HashMap<>();
+        List<String> types = new ArrayList<>();
+        boardCells.forEach((row, col, agents) -> {
+            for (String agent : agents) {
+                sparseTypeIndex(agent.substring(0, idStart(agent)), typesIndices, types);
+            }
+        });
+
+        out.write(SPARSE_FORMAT_VERSION);
+        writeVarint(out, boardCells.getRowNum());
+        writeVarint(out, boardCells.getColNum());
+        writeTypes(out, types);
+        writeVarint(out, boardCells.size());
+        boardCells.forEach((row, col, agents) -> {
+            int typesMask = 0;
+            for (String agent : agents) {
+                typesMask |= 1 << typesIndices.get(agent.substring(0, idStart(agent)));
+            }
+            writeVarint(out, row);
+            writeVarint(out, col);
+            writeVarint(out, typesMask);
+            writeVarint(out, agents.size());
+            for (String agent : agents) {
+                int idStart = idStart(agent);
+                writeVarint(out, typesIndices.get(agent.substring(0, idStart)));
+                writeVarint(out, Integer.parseInt(agent.substring(idStart)));
+            }
+        });
+    }
+
+    /**
+     * Decode sparse varints into a board state's cells.
+     * @param in is the stream of the sparse varints, as written by {@link #encodeSparse}.
+     * @return new cells of the decoded agents.
+     * @throws IllegalArgumentException if the sparse varints are malformed.
+     */
+    static BoardCells decodeSparse(InputStream in) {
+        try {
+            checkArgument(in.read() == SPARSE_FORMAT_VERSION, "Unsupported board state encoding.");
+            int rows = readVarint(in);
+            int cols = readVarint(in);
+            BoardCells cells = new BoardCells(rows, cols);
+            List<String> types = readTypes(in);
+            int cellsNum = readVarint(in);
+            for (int i = 0; i < cellsNum; i++) {
+                int row = readVarint(in);
+                int col = readVarint(in);
+                readVarint(in); // the types mask is implied by the agents.
+                int agentsNum = readVarint(in);
+                for (int j = 0; j < agentsNum; j++) {
+                    String type = types.get(readVarint(in));
+                    cells.add(row, col, type + readVarint(in));
+                }
+            }
+            return cells;
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed board state encoding.", e);
+        }
+    }
+
+    // Returns the index of an agent type in a sparse encoding, adding the type if it is new.
+    private static int sparseTypeIndex(String type, Map<String, Integer> typesIndices, List<String> types) {
+        Integer typeIndex = typesIndices.get(type);
+        if (typeIndex == null) {
+            checkArgument(types.size() < MAX_SPARSE_TYPES_NUM, "Too many agent types for a sparse encoding.");
+            typeIndex = types.size();
+            typesIndices.put(type, typeIndex);
+            types.add(type);
+        }
+        return typeIndex;
+    }
+
+    // Returns the length of the longest prefix of a cell's agents which is ordered as in the cell's previous agents.
+    private static int keptPrefixLength(List<String> previousAgents, List<String> agents) {
+        int previousIndex = 0;
+        for (int i = 0; i < agents.size(); i++) {
+            while (previousIndex < previousAgents.size() && !previousAgents.get(previousIndex).equals(agents.get(i))) {
+                previousIndex++;
+            }
+            if (previousIndex == previousAgents.size()) {
+                return i;
+            }
+            previousIndex++;
+        }
+        return agents.size();
+    }
+
+    private static long packCell(int row, int col) {
+        return ((long) row << 32) | col;
+    }
+
+    private static void writeCell(OutputStream out, Long cell) throws IOException {
+        if (cell == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, (int) (cell >>> 32) + 1);
+        writeVarint(out, (int) (long) cell);
+    }
+
+    private static void writeTypes(OutputStream out, List<String> types) throws IOException {
+        writeVarint(out, types.size());
+        for (String type : types) {
+            byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, typeBytes.length);
+            out.write(typeBytes);
+        }
+    }
+
+    private static List<String> readTypes(InputStream in) throws IOException {
+        int typesNum = readVarint(in);
+        List<String> types = new ArrayList<>(typesNum);
+        for (int i = 0; i < typesNum; i++) {
+            byte[] typeBytes = new byte[readVarint(in)];
+            readFully(in, typeBytes);
+            types.add(new String(typeBytes, StandardCharsets.UTF_8));
+        }
+        return types;
+    }
+
+    // Returns the index of the first character of the numeric id at the end of an agent's string.
+    static int idStart(String agent) {
+        int idStart = agent.length();
+        while (idStart > 0 && Character.isDigit(agent.charAt(idStart - 1))) {
+            idStart--;
+        }
+        checkArgument(idStart < agent.length(), "Agent " + agent + " has no numeric id.");
+        return idStart;
+    }
+
+    // Writes a non-negative int using 7 bits per byte, where the highest bit marks that more bytes follow.
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        checkArgument(value >= 0, "Only non-negative values are encoded.");
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long.");
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int count = in.read(bytes, read, bytes.length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+}
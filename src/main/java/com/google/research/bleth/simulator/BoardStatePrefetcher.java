@@ -0,0 +1,150 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.research.bleth.simulator;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prefetches the board states of the rounds following a read range of rounds, since playback reads rounds in order.
+ * Reads of each simulation's board states of each kind are tracked as a playback, whose rate is estimated from the
+ * time between reads of consecutive ranges per read round, and the prefetch window covers the rounds expected to be
+ * read within the lookahead time at that rate, but no more than a share of the rounds the board state cache holds, so
+ * prefetched rounds don't evict the rounds being played. A read of a range which doesn't follow the previous one is a
+ * seek, which restarts the estimation. Each playback has at most one prefetch in progress, and prefetches no round
+ * twice until a seek.
+ */
+final class BoardStatePrefetcher {
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = BoardState.RANGE_BATCH_SIZE;
+    static final long LOOKAHEAD_NANOS = TimeUnit.SECONDS.toNanos(2);
+    static final int CACHE_SHARE_DIVISOR = 4; // prefetched rounds take at most a quarter of the cache's capacity.
+    private static final double RATE_SMOOTHING = 0.5; // the weight of the latest interval between reads.
+    private static final int PLAYBACKS_CACHE_MAXIMUM_SIZE = 1000;
+    private static final long PLAYBACK_EXPIRATION_MINUTES = 10;
+    private static final Logger log = Logger.getLogger(BoardStatePrefetcher.class.getName());
+
+    /** Reads a range of rounds [from, to) of a simulation's board states into the board state cache. */
+    @FunctionalInterface
+    interface IRangeLoader {
+        void load(String simulationId, int fromRound, int toRound, String entityKind);
+    }
+
+    private final Executor executor;
+    private final Ticker ticker;
+    private final IRangeLoader loader;
+    private final Cache<String, Playback> playbacks;
+
+    /**
+     * Create a new prefetcher.
+     * @param executor is the executor running the prefetches.
+     * @param ticker is the source of the reads' times.
+     * @param loader reads prefetched ranges into the board state cache.
+     */
+    BoardStatePrefetcher(Executor executor, Ticker ticker, IRangeLoader loader) {
+        this.executor = executor;
+        this.ticker = ticker;
+        this.loader = loader;
+        this.playbacks = CacheBuilder.newBuilder()
+                .maximumSize(PLAYBACKS_CACHE_MAXIMUM_SIZE)
+                .expireAfterAccess(PLAYBACK_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Record a read of a range of rounds [from, to) of board states, and prefetch the rounds following it which haven't
+     * been prefetched yet, unless a prefetch of the playback is in progress.
+     * @param simulationId is the id of the simulation.
+     * @param fromRound is the first read round.
+     * @param toRound is the round following the last read round.
+     * @param entityKind is the kind of the read board states.
+     * @param roundsNum is the number of rounds of the simulation.
+     * @param cacheCapacity is the number of the simulation's rounds the board state cache holds.
+     */
+    void onRead(String simulationId, int fromRound, int toRound, String entityKind, int roundsNum, long cacheCapacity) {
+        Playback playback;
+        try {
+            playback = playbacks.get(simulationId + ":" + entityKind, Playback::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int prefetchFromRound;
+        int prefetchToRound;
+        synchronized (playback) {
+            long now = ticker.read();
+            if (playback.lastRound >= 0 && fromRound == playback.lastRound + 1) {
+                double interval = (double) (now - playback.lastReadNanos) / (toRound - fromRound);
+                playback.roundIntervalNanos = Double.isNaN(playback.roundIntervalNanos) ? interval
+                        : RATE_SMOOTHING * interval + (1 - RATE_SMOOTHING) * playback.roundIntervalNanos;
+            } else if (toRound - 1 != playback.lastRound) {
+                playback.roundIntervalNanos = Double.NaN;
+                playback.prefetchedToRound = toRound;
+            }
+            playback.lastRound = toRound - 1;
+            playback.lastReadNanos = now;
+
+            prefetchFromRound = Math.max(toRound, playback.prefetchedToRound);
+            prefetchToRound = Math.min(toRound + window(playback.roundIntervalNanos, cacheCapacity), roundsNum);
+            if (playback.isPrefetching || prefetchFromRound >= prefetchToRound) {
+                return;
+            }
+            playback.isPrefetching = true;
+            playback.prefetchedToRound = prefetchToRound;
+        }
+
+        executor.execute(() -> {
+            try {
+                loader.load(simulationId, prefetchFromRound, prefetchToRound, entityKind);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Prefetching rounds [" + prefetchFromRound + ", " + prefetchToRound
+                        + ") of simulation " + simulationId + " has failed.", e);
+            } finally {
+                synchronized (playback) {
+                    playback.isPrefetching = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the number of rounds to prefetch after a read range.
+     * @param roundIntervalNanos is the estimated time between reads of consecutive rounds, or NaN if it is unknown.
+     * @param cacheCapacity is the number of the simulation's rounds the board state cache holds.
+     * @return the number of rounds expected to be read within the lookahead time, between the minimal and the maximal
+     * window, and no more than the cache's share of prefetched rounds.
+     */
+    static int window(double roundIntervalNanos, long cacheCapacity) {
+        double expectedRounds = Double.isNaN(roundIntervalNanos) ? MIN_WINDOW
+                : Math.ceil(LOOKAHEAD_NANOS / Math.max(roundIntervalNanos, 1));
+        double window = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, expectedRounds));
+        return (int) Math.min(window, cacheCapacity / CACHE_SHARE_DIVISOR);
+    }
+
+    private static final class Playback {
+        private int lastRound = -1; // -1 if no round has been read.
+        private long lastReadNanos;
+        private double roundIntervalNanos = Double.NaN; // NaN until two consecutive rounds are read.
+        private int prefetchedToRound; // the round following the last prefetched round.
+        private boolean isPrefetching;
+    }
+}
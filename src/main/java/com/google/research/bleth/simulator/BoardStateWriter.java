@@ -0,0 +1,149 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.common.base.Throwables;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A write-behind writer of board states, used by a running simulation.
+ * Board states' entities are gathered across rounds and written in batches using the asynchronous datastore service,
+ * so writing a round overlaps with computing the following rounds. The number of batches in flight is bounded: when
+ * the bound is reached, writing a new batch waits for the oldest batch to complete.
+ * Board states are written as keyframes every keyframe interval rounds, and as the moves since the previous round
+ * in between, so the written volume grows with the agents' movement rather than with the number of agents.
+ * Unlike {@link BoardState#write()}, the writer does not check whether the board states already exist in the db,
+ * since a running simulation writes every round of its own board states exactly once.
+ */
+final class BoardStateWriter {
+    static final int MAX_BATCH_SIZE = 500; // the maximal number of entities in a single datastore put.
+    static final int MAX_BATCH_BYTES = 8_000_000; // a batch is written once its blobs reach this size, below the request limit.
+    static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 16;
+    static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+
+    private final AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    private final Queue<Future<List<Key>>> batchesInFlight = new ArrayDeque<>();
+    private List<Entity> pendingBatch = new ArrayList<>();
+    private int pendingBatchBytes = 0;
+    private final int maxBatchesInFlight;
+    private final int keyframeInterval;
+    private final Map<String, BoardState> previousBoardStates = new HashMap<>(); // the last written state of each kind.
+    private final Map<String, Integer> keyframeRounds = new HashMap<>(); // the last written keyframe round of each kind.
+
+    /**
+     * Create a new writer, bounding the number of batches in flight by DEFAULT_MAX_BATCHES_IN_FLIGHT.
+     * @param keyframeInterval is the maximal number of rounds between consecutive keyframes.
+     */
+    BoardStateWriter(int keyframeInterval) {
+        this(keyframeInterval, DEFAULT_MAX_BATCHES_IN_FLIGHT);
+    }
+
+    /**
+     * Create a new writer.
+     * @param keyframeInterval is the maximal number of rounds between consecutive keyframes.
+     * @param maxBatchesInFlight is the maximal number of batches written concurrently.
+     */
+    BoardStateWriter(int keyframeInterval, int maxBatchesInFlight) {
+        checkArgument(keyframeInterval > 0, "Keyframe interval must be positive.");
+        checkArgument(maxBatchesInFlight > 0, "Maximal number of batches in flight must be positive.");
+        this.keyframeInterval = keyframeInterval;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    /**
+     * Add the entities of a board state to the pending batch, and start writing the batch to the db if it is full,
+     * without waiting for the write to complete. Blocks while the number of batches in flight is at its bound.
+     * The board state is written as moves if the previous round's board state of its kind has been written by this
+     * writer since the last keyframe's interval started, and as a keyframe otherwise or if most agents have moved.
+     * @param boardState is the board state to write.
+     * @throws RuntimeException if writing a previously started batch has failed.
+     */
+    void write(BoardState boardState) {
+        String entityKind = boardState.getEntityKind();
+        BoardState previous = previousBoardStates.put(entityKind, boardState);
+        Integer keyframeRound = keyframeRounds.get(entityKind);
+        List<Entity> entities = null;
+        if (previous != null && previous.getRound() == boardState.getRound() - 1 &&
+                boardState.getRound() - keyframeRound < keyframeInterval) {
+            entities = boardState.toMovesEntities(previous, keyframeRound);
+        }
+        if (entities == null) {
+            entities = boardState.toEntities();
+            keyframeRounds.put(entityKind, boardState.getRound());
+        }
+
+        for (Entity entity : entities) {
+            Blob blob = (Blob) entity.getProperty(entity.hasProperty(Schema.BoardState.agents)
+                    ? Schema.BoardState.agents : Schema.BoardState.moves);
+            int entityBytes = blob.getBytes().length;
+            if (!pendingBatch.isEmpty() && pendingBatchBytes + entityBytes > MAX_BATCH_BYTES) {
+                writePendingBatch();
+            }
+            pendingBatch.add(entity);
+            pendingBatchBytes += entityBytes;
+            if (pendingBatch.size() == MAX_BATCH_SIZE) {
+                writePendingBatch();
+            }
+        }
+    }
+
+    /**
+     * Write the pending batch and wait for all started writes to complete.
+     * @throws RuntimeException if writing any batch has failed.
+     */
+    void flush() {
+        if (!pendingBatch.isEmpty()) {
+            writePendingBatch();
+        }
+        while (!batchesInFlight.isEmpty()) {
+            await(batchesInFlight.remove());
+        }
+    }
+
+    private void writePendingBatch() {
+        while (batchesInFlight.size() >= maxBatchesInFlight) {
+            await(batchesInFlight.remove());
+        }
+        batchesInFlight.add(datastore.put(pendingBatch));
+        pendingBatch = new ArrayList<>();
+        pendingBatchBytes = 0;
+    }
+
+    private static void await(Future<List<Key>> batch) {
+        try {
+            batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
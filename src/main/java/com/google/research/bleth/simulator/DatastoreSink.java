@@ -0,0 +1,53 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+/**
+ * A sink writing a simulation's data to the db, which is the default sink of simulations.
+ * Board states are written behind the run by a {@link BoardStateWriter}.
+ */
+public final class DatastoreSink implements ISimulationSink {
+    private final BoardStateWriter boardStateWriter;
+
+    /**
+     * Create a new datastore sink.
+     * @param keyframeInterval is the maximal number of rounds between board states written in full.
+     */
+    public DatastoreSink(int keyframeInterval) {
+        this.boardStateWriter = new BoardStateWriter(keyframeInterval);
+    }
+
+    @Override
+    public String writeMetadata(SimulationMetadata metadata) {
+        return metadata.write();
+    }
+
+    @Override
+    public void writeBoardState(BoardState boardState) {
+        boardStateWriter.write(boardState);
+    }
+
+    @Override
+    public void flush() {
+        boardStateWriter.flush();
+    }
+
+    @Override
+    public void writeStatistics(StatisticsState statisticsState) {
+        statisticsState.writeDistancesStats();
+        statisticsState.writeBeaconsObservedStats();
+        statisticsState.writeIntervalStats();
+    }
+}
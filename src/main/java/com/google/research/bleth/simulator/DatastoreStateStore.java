@@ -0,0 +1,274 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.experiments.Experiment;
+import com.google.research.bleth.utils.Queries;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A state store backed by the db, which is the default store. Completed simulations added to an experiment are also
+ * aggregated with their configuration, and completed experiments' summaries are materialized, as done by
+ * {@link Experiment}. Board states of completed simulations are cached by {@link BoardStateCache}, and reading a round
+ * or a range of rounds prefetches the following rounds into the cache in the background.
+ */
+public final class DatastoreStateStore implements IStateStore {
+    private static final int COMPLETED_SIMULATIONS_CACHE_MAXIMUM_SIZE = 1000;
+    private static final Cache<String, Boolean> completedSimulations = CacheBuilder.newBuilder()
+            .maximumSize(COMPLETED_SIMULATIONS_CACHE_MAXIMUM_SIZE).build(); // a simulation stays completed.
+    private static final BoardStatePrefetcher prefetcher = new BoardStatePrefetcher(
+            Executors.newSingleThreadExecutor(prefetchThreadFactory()), Ticker.systemTicker(),
+            DatastoreStateStore::prefetch);
+
+    @Override
+    public ISimulationSink createSink(int keyframeInterval) {
+        return new DatastoreSink(keyframeInterval);
+    }
+
+    @Override
+    public SimulationMetadata readMetadata(String simulationId) {
+        return SimulationMetadata.read(simulationId);
+    }
+
+    @Override
+    public ImmutableMap<String, SimulationMetadata> listSimulations(Optional<Queries.SortingParameters> sortingParameters) {
+        return SimulationMetadata.listSimulations(sortingParameters);
+    }
+
+    @Override
+    public BoardState readBoardState(String simulationId, int round, String entityKind) throws ExceedingRoundException {
+        SimulationMetadata metadata = SimulationMetadata.read(simulationId);
+        StateStores.checkRound(metadata, simulationId, round);
+        BoardState boardState = BoardStateCache.get(metadata, simulationId, round, entityKind);
+        if (boardState != null) {
+            prefetcher.onRead(simulationId, round, round + 1, entityKind, metadata.roundsNum,
+                    BoardStateCache.capacity(metadata));
+            return boardState;
+        }
+
+        // Board states of simulations which haven't completed aren't cached, as unwritten rounds are read as empty.
+        boardState = BoardState.readFromDatastore(simulationId, round, entityKind);
+        if (isSimulationCompleted(simulationId)) {
+            BoardStateCache.put(boardState);
+            prefetcher.onRead(simulationId, round, round + 1, entityKind, metadata.roundsNum,
+                    BoardStateCache.capacity(metadata));
+        }
+        return boardState;
+    }
+
+    /**
+     * Reads the cached rounds of a completed simulation from the cache, and each run of uncached rounds as a range
+     * from the db, caching its board states while they are read.
+     */
+    @Override
+    public Iterator<BoardState> readBoardStates(String simulationId, int fromRound, int toRound, String entityKind)
+            throws ExceedingRoundException {
+        if (!isSimulationCompleted(simulationId)) {
+            return BoardState.readRangeFromDatastore(simulationId, fromRound, toRound, entityKind);
+        }
+        SimulationMetadata metadata = SimulationMetadata.read(simulationId);
+        StateStores.checkRange(metadata, simulationId, fromRound, toRound);
+        prefetcher.onRead(simulationId, fromRound, toRound, entityKind, metadata.roundsNum,
+                BoardStateCache.capacity(metadata));
+        return readCachedRange(metadata, simulationId, fromRound, toRound, entityKind);
+    }
+
+    // Reads a range of rounds of a completed simulation through the board state cache.
+    private static Iterator<BoardState> readCachedRange(SimulationMetadata metadata, String simulationId, int fromRound,
+                                                        int toRound, String entityKind) {
+        return new AbstractIterator<BoardState>() {
+            private int round = fromRound;
+            private Iterator<BoardState> uncachedBoardStates = Collections.emptyIterator();
+
+            @Override
+            protected BoardState computeNext() {
+                if (round == toRound) {
+                    return endOfData();
+                }
+                BoardState boardState;
+                if (uncachedBoardStates.hasNext()) {
+                    boardState = uncachedBoardStates.next();
+                    BoardStateCache.put(boardState);
+                } else {
+                    boardState = BoardStateCache.get(metadata, simulationId, round, entityKind);
+                    if (boardState == null) {
+                        int uncachedEnd = round + 1;
+                        while (uncachedEnd < toRound && !BoardStateCache.contains(simulationId, uncachedEnd, entityKind)) {
+                            uncachedEnd++;
+                        }
+                        uncachedBoardStates =
+                                BoardState.readRangeFromDatastore(simulationId, round, uncachedEnd, entityKind);
+                        boardState = uncachedBoardStates.next();
+                        BoardStateCache.put(boardState);
+                    }
+                }
+                round++;
+                return boardState;
+            }
+        };
+    }
+
+    @Override
+    public boolean isSimulationCompleted(String simulationId) {
+        if (completedSimulations.getIfPresent(simulationId) != null) {
+            return true;
+        }
+        boolean isCompleted = IStateStore.super.isSimulationCompleted(simulationId);
+        if (isCompleted) {
+            completedSimulations.put(simulationId, true);
+        }
+        return isCompleted;
+    }
+
+    @Override
+    public Map<String, Double> readDistancesStats(String simulationId) {
+        return StatisticsState.readDistancesStats(simulationId);
+    }
+
+    @Override
+    public Table<String, String, Double> readBeaconsObservedStats(String simulationId) {
+        return StatisticsState.readBeaconsObservedStats(simulationId);
+    }
+
+    @Override
+    public ImmutableMultimap<Integer, ObservedInterval> readIntervalStats(String simulationId) {
+        return StatisticsState.readIntervalStats(simulationId);
+    }
+
+    @Override
+    public ImmutableMap<String, ImmutableMultimap<Integer, ObservedInterval>> readIntervalStats(
+            Collection<String> simulationIds) {
+        return StatisticsState.readIntervalStats(simulationIds);
+    }
+
+    @Override
+    public String createExperiment(String experimentTitle, int simulationsNum) {
+        return Experiment.create(experimentTitle, simulationsNum);
+    }
+
+    @Override
+    public String createOpenExperiment(String experimentTitle) {
+        return Experiment.createOpen(experimentTitle);
+    }
+
+    @Override
+    public void addSimulationToExperiment(String experimentId, String simulationId) {
+        try {
+            Experiment.addSimulation(experimentId, simulationId);
+        } catch (EntityNotFoundException e) {
+            throw new IllegalArgumentException("Experiment " + experimentId + " does not exist.", e);
+        }
+    }
+
+    @Override
+    public boolean addMemberToExperiment(String experimentId, String memberId, String simulationId) {
+        try {
+            return Experiment.addMember(experimentId, memberId, simulationId);
+        } catch (EntityNotFoundException e) {
+            throw new IllegalArgumentException("Experiment " + experimentId + " does not exist.", e);
+        }
+    }
+
+    @Override
+    public Set<String> readExperimentMembers(String experimentId, Collection<String> memberIds) {
+        return Experiment.readMembers(experimentId, memberIds);
+    }
+
+    @Override
+    public void closeExperiment(String experimentId, int simulationsFailed) {
+        try {
+            Experiment.close(experimentId, simulationsFailed);
+        } catch (EntityNotFoundException e) {
+            throw new IllegalArgumentException("Experiment " + experimentId + " does not exist.", e);
+        }
+    }
+
+    @Override
+    public int readSimulationsCompleted(String experimentId) {
+        try {
+            return Experiment.readSimulationsCompleted(experimentId);
+        } catch (EntityNotFoundException e) {
+            throw new IllegalArgumentException("Experiment " + experimentId + " does not exist.", e);
+        }
+    }
+
+    @Override
+    public ImmutableList<String> listExperimentSimulations(String experimentId) {
+        return Experiment.listSimulations(experimentId);
+    }
+
+    @Override
+    public boolean isExperimentCompleted(String experimentId) {
+        return Experiment.isCompleted(experimentId);
+    }
+
+    @Override
+    public ImmutableMap<String, String> listExperiments() {
+        return Experiment.list();
+    }
+
+    @Override
+    public void deleteSimulation(String simulationId) {
+        Queries.delete(simulationId);
+        completedSimulations.invalidate(simulationId);
+        BoardStateCache.invalidate(simulationId);
+    }
+
+    // Reads a range of rounds of a completed simulation into the board state cache, skipping its cached first rounds.
+    private static void prefetch(String simulationId, int fromRound, int toRound, String entityKind) {
+        while (fromRound < toRound && BoardStateCache.contains(simulationId, fromRound, entityKind)) {
+            fromRound++;
+        }
+        if (fromRound < toRound) {
+            // Read without recording the range as read by the playback, caching the board states while they are read.
+            readCachedRange(SimulationMetadata.read(simulationId), simulationId, fromRound, toRound, entityKind)
+                    .forEachRemaining(boardState -> {});
+        }
+    }
+
+    // Returns a factory of daemon threads, which are background threads when running on App Engine.
+    private static ThreadFactory prefetchThreadFactory() {
+        if (SystemProperty.environment.value() == null) {
+            return new ThreadFactoryBuilder().setDaemon(true).setNameFormat("board-state-prefetch-%d").build();
+        }
+        return ThreadManager.backgroundThreadFactory();
+    }
+
+    /** Clear the in-process caches of completed simulations and their board states. */
+    static void clearLocalCaches() {
+        completedSimulations.invalidateAll();
+        BoardStateCache.clearLocalCache();
+    }
+}
@@ -0,0 +1,69 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import com.google.common.collect.ArrayTable;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimap;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/** A board storage holding a list of agents for every cell, suitable for boards on which many cells are populated. */
+final class DenseBoardStorage implements IBoardStorage {
+    private final int rowNum;
+    private final int colNum;
+    private final ArrayTable<Integer, Integer, ArrayList<IAgent>> matrix;
+
+    /**
+     * Create an empty dense storage.
+     * @param rows is number of rows.
+     * @param cols is number of columns.
+     */
+    DenseBoardStorage(int rows, int cols) {
+        rowNum = rows;
+        colNum = cols;
+        matrix = ArrayTable.create(IntStream.range(0, rows).boxed().collect(Collectors.toList()),
+                                   IntStream.range(0, cols).boxed().collect(Collectors.toList()));
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                matrix.set(row, col, new ArrayList<IAgent>());
+            }
+        }
+    }
+
+    @Override
+    public void add(int row, int col, IAgent agent) {
+        matrix.at(row, col).add(agent); // row and column keys equal their indices.
+    }
+
+    @Override
+    public void remove(int row, int col, IAgent agent) {
+        matrix.at(row, col).remove(agent);
+    }
+
+    @Override
+    public Multimap<Location, IAgent> agentsOnBoard() {
+        ImmutableListMultimap.Builder<Location, IAgent> locationsToAgents = ImmutableListMultimap.builder();
+        for (int row = 0; row < rowNum; row++) {
+            for (int col = 0; col < colNum; col++) {
+                if (!matrix.at(row, col).isEmpty()) {
+                    locationsToAgents.putAll(Location.create(row, col), matrix.at(row, col));
+                }
+            }
+        }
+        return locationsToAgents.build();
+    }
+}
@@ -26,6 +26,17 @@ public class EstimatedBoard extends AbstractBoard {
         super(rows, cols);
     }
 
+    /**
+     * Create an empty board for storing beacons' estimated locations from the resolver's point of view, whose storage
+     * is chosen by the ratio of beacons to cells.
+     * @param rows is number of rows.
+     * @param cols is number of columns.
+     * @param beaconsNum is the number of beacons in the simulation.
+     */
+    public EstimatedBoard(int rows, int cols, int beaconsNum) {
+        super(rows, cols, beaconsNum);
+    }
+
     @Override
     public String getType() {
         return "EstimatedBoard";
@@ -41,7 +41,7 @@ public final class GlobalResolver implements IGlobalResolver {
      */
     public static GlobalResolver create(int rowsNum, int colsNum, List<Beacon> beacons) {
         checkNotNull(beacons);
-        EstimatedBoard estimatedBoard = new EstimatedBoard(rowsNum, colsNum);
+        EstimatedBoard estimatedBoard = new EstimatedBoard(rowsNum, colsNum, beacons.size());
         Map<Transmission, Beacon> transmissionsToBeacons =
                 beacons.stream().collect(toImmutableMap(Beacon::transmit, Function.identity()));
         return new GlobalResolver(estimatedBoard, transmissionsToBeacons);
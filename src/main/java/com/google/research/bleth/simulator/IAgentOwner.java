@@ -25,10 +25,28 @@ public interface IAgentOwner {
      */
     void updateAgentLocation(Location oldLocation, Location newLocation, IAgent agent);
 
+    /**
+     * Update the agent's location on board, without creating location objects.
+     * @param oldRow is the row of the agent's current location.
+     * @param oldCol is the column of the agent's current location.
+     * @param newRow is the row of the location where the agent will be placed.
+     * @param newCol is the column of the location where the agent will be placed.
+     * @param agent is the Agent which moves from the old location to the new location.
+     */
+    void updateAgentLocation(int oldRow, int oldCol, int newRow, int newCol, IAgent agent);
+
     /**
      * Check if a location is within the board boundaries.
      * @param location is the location to check if valid.
      * @return true if the location is valid, false otherwise.
      */
     boolean isLocationValid(Location location);
+
+    /**
+     * Check if a location is within the board boundaries, without creating a location object.
+     * @param row is the row of the location to check if valid.
+     * @param col is the column of the location to check if valid.
+     * @return true if the location is valid, false otherwise.
+     */
+    boolean isLocationValid(int row, int col);
 }
@@ -0,0 +1,40 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import com.google.common.collect.Multimap;
+
+/** Stores the agents placed on each cell of a board. Locations are assumed to be validated by the board. */
+interface IBoardStorage {
+
+    /**
+     * Add an agent to a cell.
+     * @param row is the cell's row.
+     * @param col is the cell's column.
+     * @param agent is the agent to add.
+     */
+    void add(int row, int col, IAgent agent);
+
+    /**
+     * Remove an agent from a cell, if it is placed on it.
+     * @param row is the cell's row.
+     * @param col is the cell's column.
+     * @param agent is the agent to remove.
+     */
+    void remove(int row, int col, IAgent agent);
+
+    /** Returns a map that maps to each populated location the agents on this location. */
+    Multimap<Location, IAgent> agentsOnBoard();
+}
@@ -23,5 +23,18 @@ public interface IMovementStrategy {
      * @param currentLocation is the current location of the agent on the board.
      * @return the location on the board that the agent is moving to.
      */
-    Location moveTo(IAgentOwner owner, Location currentLocation);
+    default Location moveTo(IAgentOwner owner, Location currentLocation) {
+        Direction direction = nextDirection(owner, currentLocation.row(), currentLocation.col());
+        return direction == null ? currentLocation : currentLocation.moveInDirection(direction);
+    }
+
+    /**
+     * Determine the direction of the next step of an agent, based on its current location on the board and its strategy.
+     * Used by agents for moving without creating location objects.
+     * @param owner is the board that the agent is placed on.
+     * @param row is the row of the current location of the agent on the board.
+     * @param col is the column of the current location of the agent on the board.
+     * @return the direction the agent is moving to, or null if the agent stays in its current location.
+     */
+    Direction nextDirection(IAgentOwner owner, int row, int col);
 }
@@ -0,0 +1,44 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+/**
+ * A sink receiving the data written by a single simulation: its metadata when it is built, its board states while it
+ * runs and its statistics once it ends. A sink is used by a single simulation, on the thread running it.
+ */
+public interface ISimulationSink {
+
+    /**
+     * Write the metadata of a new simulation.
+     * @param metadata is the simulation's metadata.
+     * @return the unique Id assigned to the simulation.
+     */
+    String writeMetadata(SimulationMetadata metadata);
+
+    /**
+     * Write the board state of a round. The write may complete in the background, until the sink is flushed.
+     * @param boardState is a real or estimated board state, written in rounds order for each kind.
+     */
+    void writeBoardState(BoardState boardState);
+
+    /** Wait for all board states' writes to complete, and fail if any of them has failed. */
+    void flush();
+
+    /**
+     * Write the statistics of the simulation, after all its board states have been flushed.
+     * @param statisticsState is the simulation's statistics.
+     */
+    void writeStatistics(StatisticsState statisticsState);
+}
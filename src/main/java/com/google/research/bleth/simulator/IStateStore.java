@@ -0,0 +1,221 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Table;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.utils.Queries;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * A store of simulations' and experiments' state: simulations' metadata, board states and statistics, and the progress
+ * of experiments. Simulations write to a store through the sinks it creates, and everything else reads from it.
+ * Implementations must be safe for use by concurrent simulations and requests.
+ * The store used by the running process is provided by {@link StateStores}.
+ */
+public interface IStateStore {
+
+    /**
+     * Create a sink writing the data of a single new simulation to the store.
+     * @param keyframeInterval is the maximal number of rounds between board states written in full, for stores
+     * writing board states as moves between keyframes.
+     * @return a new sink.
+     */
+    ISimulationSink createSink(int keyframeInterval);
+
+    /**
+     * Read the metadata of a simulation.
+     * @param simulationId is the id of the simulation.
+     * @return the simulation's metadata.
+     * @throws IllegalArgumentException if the simulation does not exist.
+     */
+    SimulationMetadata readMetadata(String simulationId);
+
+    /**
+     * Read the metadata of all simulations.
+     * @param sortingParameters is the name of a metadata property to sort the simulations by and the sort direction
+     * (optional).
+     * @return an immutable map which maps a simulation id to the simulation's metadata, in the requested order.
+     */
+    ImmutableMap<String, SimulationMetadata> listSimulations(Optional<Queries.SortingParameters> sortingParameters);
+
+    /**
+     * Read a board state of a simulation.
+     * @param simulationId is the id of the simulation.
+     * @param round is the round of the board state.
+     * @param entityKind is the kind of the board state, either {@link Schema.BoardState#entityKindReal} or
+     * {@link Schema.BoardState#entityKindEstimated}.
+     * @return the board state, which is empty if the round exists in the simulation but hasn't been written.
+     * @throws ExceedingRoundException if the round does not exist in the simulation.
+     */
+    BoardState readBoardState(String simulationId, int round, String entityKind) throws ExceedingRoundException;
+
+    /**
+     * Read the board states of a range of rounds of a simulation, in rounds order. Board states are read lazily while
+     * iterating, so they can be consumed as they are read. By default, each round is read as a single board state.
+     * @param simulationId is the id of the simulation.
+     * @param fromRound is the first round of the range.
+     * @param toRound is the round following the last round of the range.
+     * @param entityKind is the kind of the board states.
+     * @return an iterator over the board states of the range, which are empty for rounds which haven't been written.
+     * @throws IllegalArgumentException if the range is empty or negative.
+     * @throws ExceedingRoundException if the range exceeds the rounds of the simulation.
+     */
+    default Iterator<BoardState> readBoardStates(String simulationId, int fromRound, int toRound, String entityKind)
+            throws ExceedingRoundException {
+        StateStores.checkRange(readMetadata(simulationId), simulationId, fromRound, toRound);
+        return IntStream.range(fromRound, toRound)
+                .mapToObj(round -> readBoardState(simulationId, round, entityKind))
+                .iterator();
+    }
+
+    /**
+     * Check whether a simulation has completed, after which its board states and statistics never change.
+     * By default, a simulation is completed once its statistics are written, as they are written after all its board
+     * states have been flushed.
+     * @param simulationId is the id of the simulation.
+     * @return true if the simulation's statistics have been written, false otherwise.
+     */
+    default boolean isSimulationCompleted(String simulationId) {
+        return !readDistancesStats(simulationId).isEmpty();
+    }
+
+    /**
+     * Read the statistics about the distance between a simulation's beacons' real and estimated locations.
+     * @param simulationId is the id of the simulation.
+     * @return a map of the aggregate functions' names to their values, which is empty if no statistics were written.
+     */
+    Map<String, Double> readDistancesStats(String simulationId);
+
+    /**
+     * Read the statistics about the intervals of time each beacon of a simulation has been observed.
+     * @param simulationId is the id of the simulation.
+     * @return a table mapping a beacon id and a statistic name to its value, which is empty if no statistics were written.
+     */
+    Table<String, String, Double> readBeaconsObservedStats(String simulationId);
+
+    /**
+     * Read the observed and unobserved intervals of a simulation's beacons.
+     * @param simulationId is the id of the simulation.
+     * @return an immutable multimap of beacon ids to their intervals, ordered by beacon id and by intervals' start.
+     */
+    ImmutableMultimap<Integer, ObservedInterval> readIntervalStats(String simulationId);
+
+    /**
+     * Read the beacons' observed intervals of multiple simulations. By default, each simulation is read separately.
+     * @param simulationIds are the ids of the simulations.
+     * @return an immutable map which maps each simulation id to the beacons' observed intervals of the simulation.
+     */
+    default ImmutableMap<String, ImmutableMultimap<Integer, ObservedInterval>> readIntervalStats(
+            Collection<String> simulationIds) {
+        ImmutableMap.Builder<String, ImmutableMultimap<Integer, ObservedInterval>> intervalStats = ImmutableMap.builder();
+        for (String simulationId : simulationIds) {
+            intervalStats.put(simulationId, readIntervalStats(simulationId));
+        }
+        return intervalStats.build();
+    }
+
+    /**
+     * Create a new experiment.
+     * @param experimentTitle is the title of the experiment.
+     * @param simulationsNum is the number of simulations of the experiment.
+     * @return the unique Id assigned to the experiment.
+     */
+    String createExperiment(String experimentTitle, int simulationsNum);
+
+    /**
+     * Create a new open experiment, whose number of simulations is determined while it runs, such as an adaptive
+     * sweep. An open experiment completes only once it is closed.
+     * @param experimentTitle is the title of the experiment.
+     * @return the unique Id assigned to the experiment.
+     */
+    String createOpenExperiment(String experimentTitle);
+
+    /**
+     * Associate a completed simulation to an experiment, which counts it in the experiment's progress.
+     * @param experimentId is the id of the experiment.
+     * @param simulationId is the id of the completed simulation.
+     * @throws IllegalArgumentException if the experiment does not exist.
+     */
+    void addSimulationToExperiment(String experimentId, String simulationId);
+
+    /**
+     * Associate a completed simulation to an experiment as one of its members, which are identified by ids unique
+     * within the experiment, such as the simulations of a batch which runs again if it fails. A member is associated
+     * and counted in the experiment's progress at most once.
+     * @param experimentId is the id of the experiment.
+     * @param memberId is the id of the member which the simulation completes.
+     * @param simulationId is the id of the completed simulation.
+     * @return true if the simulation was associated, false if the member had already been associated.
+     * @throws IllegalArgumentException if the experiment does not exist.
+     */
+    boolean addMemberToExperiment(String experimentId, String memberId, String simulationId);
+
+    /**
+     * Read which members of an experiment have been associated to it.
+     * @param experimentId is the id of the experiment.
+     * @param memberIds are the ids of the members.
+     * @return the ids of the given members which have been associated.
+     */
+    Set<String> readExperimentMembers(String experimentId, Collection<String> memberIds);
+
+    /**
+     * Close an experiment whose remaining simulations won't be added since they have failed, so it completes with the
+     * simulations added so far, as its number of simulations. Closing a completed experiment has no effect.
+     * @param experimentId is the id of the experiment.
+     * @param simulationsFailed is the number of the experiment's simulations which have failed.
+     * @throws IllegalArgumentException if the experiment does not exist.
+     */
+    void closeExperiment(String experimentId, int simulationsFailed);
+
+    /**
+     * Read the number of completed simulations of an experiment.
+     * @param experimentId is the id of the experiment.
+     * @return the number of simulations associated to the experiment.
+     * @throws IllegalArgumentException if the experiment does not exist.
+     */
+    int readSimulationsCompleted(String experimentId);
+
+    /**
+     * List the completed simulations of an experiment.
+     * @param experimentId is the id of the experiment.
+     * @return an immutable list of the ids of the simulations associated to the experiment.
+     */
+    ImmutableList<String> listExperimentSimulations(String experimentId);
+
+    /**
+     * Check whether all simulations of an experiment have been completed.
+     * @param experimentId is the id of the experiment.
+     * @return true if the experiment exists and has no simulations left, false otherwise.
+     */
+    boolean isExperimentCompleted(String experimentId);
+
+    /** Returns an immutable map which maps the id of every experiment to its title. */
+    ImmutableMap<String, String> listExperiments();
+
+    /**
+     * Delete all data associated with a simulation.
+     * @param simulationId is the id of the simulation.
+     */
+    void deleteSimulation(String simulationId);
+}
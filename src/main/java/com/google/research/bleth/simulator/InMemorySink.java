@@ -0,0 +1,110 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A sink keeping a simulation's data in memory, used for running simulations without any storage, such as when
+ * profiling the simulation engine. By default the sink keeps only the number of board states written and the last of
+ * them, so its memory doesn't grow with the simulation's rounds; keeping every board state is optional.
+ */
+public final class InMemorySink implements ISimulationSink {
+    private final boolean retainBoardStates;
+    private SimulationMetadata metadata;
+    private String simulationId;
+    private final List<BoardState> boardStates = new ArrayList<>();
+    private int boardStatesNum;
+    private BoardState lastBoardState;
+    private StatisticsState statisticsState;
+
+    /** Create a sink which keeps only the number of board states written and the last of them. */
+    public InMemorySink() {
+        this(/* retainBoardStates= */ false);
+    }
+
+    /**
+     * Create a sink.
+     * @param retainBoardStates is true if the sink keeps every board state written, and false if it keeps only their
+     *                          number and the last of them.
+     */
+    public InMemorySink(boolean retainBoardStates) {
+        this.retainBoardStates = retainBoardStates;
+    }
+
+    @Override
+    public String writeMetadata(SimulationMetadata metadata) {
+        checkState(this.metadata == null, "A sink receives the data of a single simulation.");
+        this.metadata = metadata;
+        this.simulationId = UUID.randomUUID().toString();
+        return simulationId;
+    }
+
+    @Override
+    public void writeBoardState(BoardState boardState) {
+        boardStatesNum++;
+        lastBoardState = boardState;
+        if (retainBoardStates) {
+            boardStates.add(boardState);
+        }
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void writeStatistics(StatisticsState statisticsState) {
+        this.statisticsState = statisticsState;
+    }
+
+    /** Returns the simulation's metadata, or null if it hasn't been written. */
+    public SimulationMetadata getMetadata() {
+        return metadata;
+    }
+
+    /** Returns the simulation's id, or null if its metadata hasn't been written. */
+    public String getSimulationId() {
+        return simulationId;
+    }
+
+    /**
+     * Returns the real and estimated board states written so far, in the order they were written.
+     * @throws IllegalStateException if the sink doesn't keep every board state.
+     */
+    public ImmutableList<BoardState> getBoardStates() {
+        checkState(retainBoardStates, "The sink doesn't keep every board state.");
+        return ImmutableList.copyOf(boardStates);
+    }
+
+    /** Returns the number of real and estimated board states written so far. */
+    public int getBoardStatesNum() {
+        return boardStatesNum;
+    }
+
+    /** Returns the last board state written, or null if no board state has been written. */
+    public BoardState getLastBoardState() {
+        return lastBoardState;
+    }
+
+    /** Returns the simulation's statistics, or null if they haven't been written. */
+    public StatisticsState getStatisticsState() {
+        return statisticsState;
+    }
+}
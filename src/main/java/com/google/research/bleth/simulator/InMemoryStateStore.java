@@ -0,0 +1,229 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.utils.Queries;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A state store keeping all simulations and experiments in memory, used for local runs and tests which don't need
+ * the data to outlive the process. All maps are concurrent, so simulations may run and be read concurrently.
+ */
+public final class InMemoryStateStore implements IStateStore {
+    private final Map<String, SimulationMetadata> metadata = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, BoardState>> boardStates = new ConcurrentHashMap<>(); // by simulation id.
+    private final Map<String, StatisticsState> statistics = new ConcurrentHashMap<>();
+    private final Map<String, ExperimentState> experiments = new ConcurrentHashMap<>();
+
+    /** The title and progress of an experiment. */
+    private static final class ExperimentState {
+        private final String title;
+        private volatile int simulationsNum; // set to the number of completed simulations once closed.
+        private volatile int simulationsFailed;
+        private final Set<String> simulationIds = ConcurrentHashMap.newKeySet();
+        private final Set<String> memberIds = ConcurrentHashMap.newKeySet();
+
+        private ExperimentState(String title, int simulationsNum) {
+            this.title = title;
+            this.simulationsNum = simulationsNum;
+        }
+    }
+
+    /** A sink writing a single simulation to the store, whose board states can be read while it runs. */
+    private final class Sink implements ISimulationSink {
+        private String simulationId;
+
+        @Override
+        public String writeMetadata(SimulationMetadata simulationMetadata) {
+            checkState(simulationId == null, "A sink receives the data of a single simulation.");
+            simulationId = UUID.randomUUID().toString();
+            boardStates.put(simulationId, new ConcurrentHashMap<>());
+            metadata.put(simulationId, simulationMetadata);
+            return simulationId;
+        }
+
+        @Override
+        public void writeBoardState(BoardState boardState) {
+            checkState(simulationId != null, "Simulation metadata must be written before its board states.");
+            boardStates.get(simulationId).put(boardStateKey(boardState.getRound(), boardState.getEntityKind()), boardState);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void writeStatistics(StatisticsState statisticsState) {
+            checkState(simulationId != null, "Simulation metadata must be written before its statistics.");
+            statistics.put(simulationId, statisticsState);
+        }
+    }
+
+    @Override
+    public ISimulationSink createSink(int keyframeInterval) {
+        return new Sink();
+    }
+
+    @Override
+    public SimulationMetadata readMetadata(String simulationId) {
+        SimulationMetadata simulationMetadata = metadata.get(simulationId);
+        if (simulationMetadata == null) {
+            throw new IllegalArgumentException("Simulation " + simulationId + " does not exist.");
+        }
+        return simulationMetadata;
+    }
+
+    @Override
+    public ImmutableMap<String, SimulationMetadata> listSimulations(Optional<Queries.SortingParameters> sortingParameters) {
+        return StateStores.sortSimulations(metadata, sortingParameters);
+    }
+
+    @Override
+    public BoardState readBoardState(String simulationId, int round, String entityKind) throws ExceedingRoundException {
+        SimulationMetadata simulationMetadata = readMetadata(simulationId);
+        StateStores.checkRound(simulationMetadata, simulationId, round);
+        Map<String, BoardState> simulationBoardStates = boardStates.get(simulationId);
+        BoardState boardState = simulationBoardStates == null
+                ? null : simulationBoardStates.get(boardStateKey(round, entityKind));
+        return boardState != null
+                ? boardState : BoardState.empty(simulationMetadata, simulationId, round, entityKind);
+    }
+
+    @Override
+    public boolean isSimulationCompleted(String simulationId) {
+        return statistics.containsKey(simulationId);
+    }
+
+    @Override
+    public Map<String, Double> readDistancesStats(String simulationId) {
+        StatisticsState statisticsState = statistics.get(simulationId);
+        return statisticsState == null ? ImmutableMap.of() : ImmutableMap.copyOf(statisticsState.getDistanceStats());
+    }
+
+    @Override
+    public Table<String, String, Double> readBeaconsObservedStats(String simulationId) {
+        StatisticsState statisticsState = statistics.get(simulationId);
+        return statisticsState == null
+                ? ImmutableTable.of() : ImmutableTable.copyOf(statisticsState.getBeaconsObservedStats());
+    }
+
+    @Override
+    public ImmutableMultimap<Integer, ObservedInterval> readIntervalStats(String simulationId) {
+        StatisticsState statisticsState = statistics.get(simulationId);
+        return statisticsState == null
+                ? ImmutableMultimap.of() : StateStores.sortIntervals(statisticsState.getBeaconsObservedIntervals());
+    }
+
+    @Override
+    public String createExperiment(String experimentTitle, int simulationsNum) {
+        String experimentId = UUID.randomUUID().toString();
+        experiments.put(experimentId, new ExperimentState(experimentTitle, simulationsNum));
+        return experimentId;
+    }
+
+    /** Creates an experiment which completes only once it is closed, since it never reaches its number of simulations. */
+    @Override
+    public String createOpenExperiment(String experimentTitle) {
+        return createExperiment(experimentTitle, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void addSimulationToExperiment(String experimentId, String simulationId) {
+        readExperiment(experimentId).simulationIds.add(simulationId);
+    }
+
+    @Override
+    public boolean addMemberToExperiment(String experimentId, String memberId, String simulationId) {
+        ExperimentState experiment = readExperiment(experimentId);
+        if (!experiment.memberIds.add(memberId)) {
+            return false;
+        }
+        experiment.simulationIds.add(simulationId);
+        return true;
+    }
+
+    @Override
+    public Set<String> readExperimentMembers(String experimentId, Collection<String> memberIds) {
+        Set<String> members = new HashSet<>(memberIds);
+        members.retainAll(readExperiment(experimentId).memberIds);
+        return members;
+    }
+
+    @Override
+    public void closeExperiment(String experimentId, int simulationsFailed) {
+        ExperimentState experiment = readExperiment(experimentId);
+        synchronized (experiment) {
+            if (experiment.simulationIds.size() < experiment.simulationsNum) {
+                experiment.simulationsNum = experiment.simulationIds.size();
+                experiment.simulationsFailed = simulationsFailed;
+            }
+        }
+    }
+
+    @Override
+    public int readSimulationsCompleted(String experimentId) {
+        return readExperiment(experimentId).simulationIds.size();
+    }
+
+    @Override
+    public ImmutableList<String> listExperimentSimulations(String experimentId) {
+        return ImmutableList.copyOf(readExperiment(experimentId).simulationIds);
+    }
+
+    @Override
+    public boolean isExperimentCompleted(String experimentId) {
+        ExperimentState experiment = experiments.get(experimentId);
+        return experiment != null && experiment.simulationIds.size() >= experiment.simulationsNum;
+    }
+
+    @Override
+    public ImmutableMap<String, String> listExperiments() {
+        ImmutableMap.Builder<String, String> experimentsTitles = new ImmutableMap.Builder<>();
+        experiments.forEach((experimentId, experiment) -> experimentsTitles.put(experimentId, experiment.title));
+        return experimentsTitles.build();
+    }
+
+    @Override
+    public void deleteSimulation(String simulationId) {
+        metadata.remove(simulationId);
+        boardStates.remove(simulationId);
+        statistics.remove(simulationId);
+    }
+
+    private ExperimentState readExperiment(String experimentId) {
+        ExperimentState experiment = experiments.get(experimentId);
+        if (experiment == null) {
+            throw new IllegalArgumentException("Experiment " + experimentId + " does not exist.");
+        }
+        return experiment;
+    }
+
+    private static String boardStateKey(int round, String entityKind) {
+        return entityKind + ":" + round;
+    }
+}
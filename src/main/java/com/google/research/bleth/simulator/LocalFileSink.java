@@ -0,0 +1,123 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A sink writing a simulation's data to files in a local directory, used for running simulations on a single machine
+ * without the db. Each simulation is written to a directory named by its id, holding:
+ * 'metadata.json', storing the simulation's metadata;
+ * a board history file of each board states' kind, such as 'RealBoardState.history', written by a
+ * {@link BoardHistoryWriter};
+ * 'statistics.json', storing the simulation's statistics.
+ */
+public final class LocalFileSink implements ISimulationSink {
+    static final String METADATA_FILE_NAME = "metadata.json";
+    static final String STATISTICS_FILE_NAME = "statistics.json";
+    private static final Gson gson = // Used for json serialization, of statistics which may be NaN.
+            new GsonBuilder().serializeSpecialFloatingPointValues().create();
+
+    private final Path directory;
+    private Path simulationDirectory;
+    private SimulationMetadata metadata;
+    private final Map<String, BoardHistoryWriter> boardHistoryWriters = new HashMap<>(); // mapped by board states' kind.
+
+    /**
+     * Create a new local file sink.
+     * @param directory is the directory under which the simulation's directory is created.
+     */
+    public LocalFileSink(Path directory) {
+        this.directory = checkNotNull(directory);
+    }
+
+    @Override
+    public String writeMetadata(SimulationMetadata metadata) {
+        checkState(simulationDirectory == null, "A sink receives the data of a single simulation.");
+        String simulationId = UUID.randomUUID().toString();
+        this.metadata = metadata;
+        try {
+            simulationDirectory = Files.createDirectories(directory.resolve(simulationId));
+            Files.write(simulationDirectory.resolve(METADATA_FILE_NAME), gson.toJson(metadata).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return simulationId;
+    }
+
+    @Override
+    public void writeBoardState(BoardState boardState) {
+        checkState(simulationDirectory != null, "Simulation metadata must be written before its board states.");
+        try {
+            BoardHistoryWriter writer = boardHistoryWriters.get(boardState.getEntityKind());
+            if (writer == null) {
+                writer = new BoardHistoryWriter(
+                        simulationDirectory.resolve(boardState.getEntityKind() + BoardHistoryWriter.FILE_EXTENSION),
+                        metadata.rowsNum, metadata.colsNum, metadata.roundsNum);
+                boardHistoryWriters.put(boardState.getEntityKind(), writer);
+            }
+            writer.write(boardState);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            for (BoardHistoryWriter writer : boardHistoryWriters.values()) {
+                writer.close();
+            }
+            boardHistoryWriters.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void writeStatistics(StatisticsState statisticsState) {
+        checkState(simulationDirectory != null, "Simulation metadata must be written before its statistics.");
+        List<Map<String, Object>> intervals = new ArrayList<>();
+        statisticsState.getBeaconsObservedIntervals().forEach((beaconId, interval) -> intervals.add(ImmutableMap.of(
+                Schema.StatisticsState.beaconId, beaconId,
+                Schema.StatisticsState.intervalStart, interval.start(),
+                Schema.StatisticsState.intervalEnd, interval.end(),
+                Schema.StatisticsState.intervalObserved, interval.observed())));
+        Map<String, Object> statistics = ImmutableMap.of(
+                Schema.StatisticsState.entityKindDistance, statisticsState.getDistanceStats(),
+                Schema.StatisticsState.entityKindBeaconsObserved, statisticsState.getBeaconsObservedStats().rowMap(),
+                Schema.StatisticsState.entityKindBeaconsObservedIntervals, intervals);
+        try {
+            Files.write(simulationDirectory.resolve(STATISTICS_FILE_NAME), gson.toJson(statistics).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
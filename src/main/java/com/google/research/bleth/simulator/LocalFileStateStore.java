@@ -0,0 +1,392 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Table;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.utils.Queries;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A state store keeping simulations and experiments in append-only files under a local directory, used for running
+ * large simulations on a single machine without the db. Simulations are written under the 'simulations' directory
+ * by a {@link LocalFileSink}. Each experiment is a directory under the 'experiments' directory, holding
+ * 'experiment.json', storing its title and number of simulations, and 'simulations.log', to which the id of every
+ * completed simulation is appended as a line.
+ */
+public final class LocalFileStateStore implements IStateStore {
+    static final String SIMULATIONS_DIRECTORY_NAME = "simulations";
+    static final String EXPERIMENTS_DIRECTORY_NAME = "experiments";
+    private static final String EXPERIMENT_FILE_NAME = "experiment.json";
+    private static final String EXPERIMENT_SIMULATIONS_FILE_NAME = "simulations.log";
+    private static final String EXPERIMENT_MEMBERS_FILE_NAME = "members.log";
+    private static final Gson gson = new Gson();
+
+    private final Path simulationsDirectory;
+    private final Path experimentsDirectory;
+    private final Map<String, SimulationMetadata> metadataCache = new ConcurrentHashMap<>(); // metadata is immutable.
+    private final Map<Path, BoardHistoryReader> boardHistoryReaders = new ConcurrentHashMap<>();
+
+    /** The title and number of simulations of an experiment, as stored in its experiment file. */
+    private static final class ExperimentState {
+        private String title;
+        private int simulationsNum; // set to the number of completed simulations once closed.
+        private int simulationsFailed;
+    }
+
+    /**
+     * Create a new local file store.
+     * @param directory is the directory of the store, which is created when it is first written to.
+     */
+    public LocalFileStateStore(Path directory) {
+        checkNotNull(directory);
+        this.simulationsDirectory = directory.resolve(SIMULATIONS_DIRECTORY_NAME);
+        this.experimentsDirectory = directory.resolve(EXPERIMENTS_DIRECTORY_NAME);
+    }
+
+    @Override
+    public ISimulationSink createSink(int keyframeInterval) {
+        return new LocalFileSink(simulationsDirectory);
+    }
+
+    @Override
+    public SimulationMetadata readMetadata(String simulationId) {
+        SimulationMetadata metadata = metadataCache.get(simulationId);
+        if (metadata != null) {
+            return metadata;
+        }
+        try {
+            metadata = gson.fromJson(readString(simulationFile(simulationId, LocalFileSink.METADATA_FILE_NAME)),
+                    SimulationMetadata.class);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("Simulation " + simulationId + " does not exist.", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        metadataCache.put(simulationId, metadata);
+        return metadata;
+    }
+
+    @Override
+    public ImmutableMap<String, SimulationMetadata> listSimulations(Optional<Queries.SortingParameters> sortingParameters) {
+        Map<String, SimulationMetadata> simulations = new LinkedHashMap<>();
+        for (Path simulationDirectory : listDirectories(simulationsDirectory)) {
+            if (Files.exists(simulationDirectory.resolve(LocalFileSink.METADATA_FILE_NAME))) {
+                String simulationId = simulationDirectory.getFileName().toString();
+                simulations.put(simulationId, readMetadata(simulationId));
+            }
+        }
+        return StateStores.sortSimulations(simulations, sortingParameters);
+    }
+
+    /**
+     * Read a board state of a simulation from the simulation's board history file of the board state's kind, which is
+     * mapped to memory once and kept open by the store.
+     */
+    @Override
+    public BoardState readBoardState(String simulationId, int round, String entityKind) throws ExceedingRoundException {
+        SimulationMetadata metadata = readMetadata(simulationId);
+        StateStores.checkRound(metadata, simulationId, round);
+        Path boardHistoryFile = simulationFile(simulationId, entityKind + BoardHistoryWriter.FILE_EXTENSION);
+        try {
+            BoardHistoryReader reader = boardHistoryReaders.get(boardHistoryFile);
+            if (reader == null) {
+                reader = BoardHistoryReader.open(boardHistoryFile);
+                boardHistoryReaders.put(boardHistoryFile, reader);
+            }
+            return reader.read(simulationId, round, entityKind);
+        } catch (NoSuchFileException e) {
+            // No board state has been written, so the board state is empty.
+            return BoardState.empty(metadata, simulationId, round, entityKind);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean isSimulationCompleted(String simulationId) {
+        return Files.exists(simulationFile(simulationId, LocalFileSink.STATISTICS_FILE_NAME));
+    }
+
+    @Override
+    public Map<String, Double> readDistancesStats(String simulationId) {
+        JsonObject statistics = readStatistics(simulationId);
+        if (statistics == null) {
+            return ImmutableMap.of();
+        }
+        ImmutableMap.Builder<String, Double> distancesStats = new ImmutableMap.Builder<>();
+        statistics.getAsJsonObject(Schema.StatisticsState.entityKindDistance).entrySet()
+                .forEach(entry -> distancesStats.put(entry.getKey(), entry.getValue().getAsDouble()));
+        return distancesStats.build();
+    }
+
+    @Override
+    public Table<String, String, Double> readBeaconsObservedStats(String simulationId) {
+        JsonObject statistics = readStatistics(simulationId);
+        if (statistics == null) {
+            return ImmutableTable.of();
+        }
+        ImmutableTable.Builder<String, String, Double> observedStatistics = new ImmutableTable.Builder<>();
+        for (Map.Entry<String, JsonElement> beacon :
+                statistics.getAsJsonObject(Schema.StatisticsState.entityKindBeaconsObserved).entrySet()) {
+            beacon.getValue().getAsJsonObject().entrySet().forEach(entry ->
+                    observedStatistics.put(beacon.getKey(), entry.getKey(), entry.getValue().getAsDouble()));
+        }
+        return observedStatistics.build();
+    }
+
+    @Override
+    public ImmutableMultimap<Integer, ObservedInterval> readIntervalStats(String simulationId) {
+        JsonObject statistics = readStatistics(simulationId);
+        if (statistics == null) {
+            return ImmutableMultimap.of();
+        }
+        LinkedListMultimap<Integer, ObservedInterval> intervals = LinkedListMultimap.create();
+        for (JsonElement element : statistics.getAsJsonArray(Schema.StatisticsState.entityKindBeaconsObservedIntervals)) {
+            JsonObject interval = element.getAsJsonObject();
+            intervals.put(interval.get(Schema.StatisticsState.beaconId).getAsInt(), new AutoValue_ObservedInterval.Builder()
+                    .setObserved(interval.get(Schema.StatisticsState.intervalObserved).getAsBoolean())
+                    .setStart(interval.get(Schema.StatisticsState.intervalStart).getAsInt())
+                    .setEnd(interval.get(Schema.StatisticsState.intervalEnd).getAsInt())
+                    .build());
+        }
+        return StateStores.sortIntervals(intervals);
+    }
+
+    @Override
+    public String createExperiment(String experimentTitle, int simulationsNum) {
+        String experimentId = UUID.randomUUID().toString();
+        ExperimentState experiment = new ExperimentState();
+        experiment.title = experimentTitle;
+        experiment.simulationsNum = simulationsNum;
+        writeExperiment(experimentId, experiment);
+        return experimentId;
+    }
+
+    /** Creates an experiment which completes only once it is closed, since it never reaches its number of simulations. */
+    @Override
+    public String createOpenExperiment(String experimentTitle) {
+        return createExperiment(experimentTitle, Integer.MAX_VALUE);
+    }
+
+    /** Appends the simulation's id to the experiment's log, as a single write which concurrent appends don't split. */
+    @Override
+    public void addSimulationToExperiment(String experimentId, String simulationId) {
+        readExperiment(experimentId);
+        try {
+            Files.write(experimentsDirectory.resolve(experimentId).resolve(EXPERIMENT_SIMULATIONS_FILE_NAME),
+                    (simulationId + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Appends the member's id to the experiment's members log, unless it is already listed, then adds the simulation. */
+    @Override
+    public synchronized boolean addMemberToExperiment(String experimentId, String memberId, String simulationId) {
+        readExperiment(experimentId);
+        if (readExperimentMembers(experimentId).contains(memberId)) {
+            return false;
+        }
+        try {
+            Files.write(experimentsDirectory.resolve(experimentId).resolve(EXPERIMENT_MEMBERS_FILE_NAME),
+                    (memberId + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        addSimulationToExperiment(experimentId, simulationId);
+        return true;
+    }
+
+    @Override
+    public Set<String> readExperimentMembers(String experimentId, Collection<String> memberIds) {
+        Set<String> members = new HashSet<>(memberIds);
+        members.retainAll(readExperimentMembers(experimentId));
+        return members;
+    }
+
+    @Override
+    public synchronized void closeExperiment(String experimentId, int simulationsFailed) {
+        ExperimentState experiment = readExperiment(experimentId);
+        int simulationsCompleted = readExperimentSimulations(experimentId).size();
+        if (simulationsCompleted < experiment.simulationsNum) {
+            experiment.simulationsNum = simulationsCompleted;
+            experiment.simulationsFailed = simulationsFailed;
+            writeExperiment(experimentId, experiment);
+        }
+    }
+
+    @Override
+    public int readSimulationsCompleted(String experimentId) {
+        readExperiment(experimentId);
+        return readExperimentSimulations(experimentId).size();
+    }
+
+    @Override
+    public ImmutableList<String> listExperimentSimulations(String experimentId) {
+        readExperiment(experimentId);
+        return readExperimentSimulations(experimentId);
+    }
+
+    @Override
+    public boolean isExperimentCompleted(String experimentId) {
+        try {
+            return readExperimentSimulations(experimentId).size() >= readExperiment(experimentId).simulationsNum;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public ImmutableMap<String, String> listExperiments() {
+        ImmutableMap.Builder<String, String> experiments = new ImmutableMap.Builder<>();
+        for (Path experimentDirectory : listDirectories(experimentsDirectory)) {
+            String experimentId = experimentDirectory.getFileName().toString();
+            experiments.put(experimentId, readExperiment(experimentId).title);
+        }
+        return experiments.build();
+    }
+
+    @Override
+    public void deleteSimulation(String simulationId) {
+        metadataCache.remove(simulationId);
+        Path simulationDirectory = simulationsDirectory.resolve(simulationId);
+        boardHistoryReaders.keySet().removeIf(file -> file.startsWith(simulationDirectory));
+        if (!Files.exists(simulationDirectory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(simulationDirectory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path simulationFile(String simulationId, String fileName) {
+        return simulationsDirectory.resolve(simulationId).resolve(fileName);
+    }
+
+    /** Returns the simulation's statistics as a JSON object, or null if they haven't been written. */
+    private JsonObject readStatistics(String simulationId) {
+        try {
+            return gson.fromJson(readString(simulationFile(simulationId, LocalFileSink.STATISTICS_FILE_NAME)),
+                    JsonObject.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ExperimentState readExperiment(String experimentId) {
+        try {
+            return gson.fromJson(readString(experimentsDirectory.resolve(experimentId).resolve(EXPERIMENT_FILE_NAME)),
+                    ExperimentState.class);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("Experiment " + experimentId + " does not exist.", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeExperiment(String experimentId, ExperimentState experiment) {
+        try {
+            Path experimentDirectory = Files.createDirectories(experimentsDirectory.resolve(experimentId));
+            Files.write(experimentDirectory.resolve(EXPERIMENT_FILE_NAME),
+                    gson.toJson(experiment).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns the ids of the members in the experiment's members log. */
+    private Set<String> readExperimentMembers(String experimentId) {
+        try {
+            Set<String> memberIds = new HashSet<>(Files.readAllLines(
+                    experimentsDirectory.resolve(experimentId).resolve(EXPERIMENT_MEMBERS_FILE_NAME),
+                    StandardCharsets.UTF_8));
+            memberIds.remove("");
+            return memberIds;
+        } catch (NoSuchFileException e) {
+            return Collections.emptySet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns the distinct simulations in the experiment's log, in the order they were added. */
+    private ImmutableList<String> readExperimentSimulations(String experimentId) {
+        try {
+            List<String> simulationIds = Files.readAllLines(
+                    experimentsDirectory.resolve(experimentId).resolve(EXPERIMENT_SIMULATIONS_FILE_NAME),
+                    StandardCharsets.UTF_8);
+            simulationIds.removeIf(String::isEmpty);
+            return ImmutableSet.copyOf(simulationIds).asList();
+        } catch (NoSuchFileException e) {
+            return ImmutableList.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Path> listDirectories(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String readString(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
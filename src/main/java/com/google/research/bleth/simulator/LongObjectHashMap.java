@@ -0,0 +1,137 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hash map from primitive long keys to non-null values, using open addressing with linear probing.
+ * Keys are stored in a primitive array, so no boxed key or entry object is allocated per mapping.
+ * @param <V> is the type of the mapped values.
+ */
+final class LongObjectHashMap<V> {
+    private static final int INITIAL_CAPACITY = 16; // must be a power of two.
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L; // spreads consecutive keys over the table.
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY]; // a null value marks an empty slot.
+    private int size = 0;
+
+    /** A consumer of a map entry. */
+    interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    /** Returns the number of mappings in the map. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the value mapped to the key, or null if the key is not mapped. */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Map a key to a value, replacing the previous value mapped to the key if there is such.
+     * @param key is the key.
+     * @param value is the non-null value.
+     */
+    void put(long key, V value) {
+        checkNotNull(value);
+        if (2 * (size + 1) > keys.length) {
+            resize(keys.length * 2); // keep the load factor at most 0.5, so probe sequences stay short.
+        }
+        int slot = firstSlot(key, keys.length);
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (values[slot] == null) {
+            size++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * Remove the mapping of a key, if there is such.
+     * The following entries of the probe sequence are shifted back, so no deletion markers are left in the table.
+     * @param key is the key.
+     */
+    void remove(long key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            int home = firstSlot(keys[next], keys.length);
+            // Move the entry back to the freed slot unless its home slot lies cyclically in (slot, next].
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[slot] = null;
+        size--;
+    }
+
+    /** Apply an action on every entry of the map, in no particular order. */
+    @SuppressWarnings("unchecked")
+    void forEach(EntryConsumer<V> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                action.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    private int slotOf(long key) {
+        int slot = firstSlot(key, keys.length);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldValues[slot] != null) {
+                int newSlot = firstSlot(oldKeys[slot], capacity);
+                while (values[newSlot] != null) {
+                    newSlot = (newSlot + 1) & (capacity - 1);
+                }
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    private static int firstSlot(long key, int capacity) {
+        return (int) ((key * HASH_MULTIPLIER) >>> (64 - Integer.numberOfTrailingZeros(capacity)));
+    }
+}
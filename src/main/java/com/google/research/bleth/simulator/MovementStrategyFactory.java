@@ -14,6 +14,8 @@
 
 package com.google.research.bleth.simulator;
 
+import java.util.Random;
+
 /**
  * A class for generating movement strategies based on strategy type provided.
  * The factory gets as an argument the specific type of strategy to generate.
@@ -49,10 +51,19 @@ public class MovementStrategyFactory {
      * @return a movement strategy (if no proper type was set, return random by default).
      */
     public IMovementStrategy createStrategy() {
+        return createStrategy(new Random());
+    }
+
+    /**
+     * Create a new strategy according to the factory's type attribute.
+     * @param random is the random number generator used by the strategy, if it moves randomly.
+     * @return a movement strategy (if no proper type was set, return random by default).
+     */
+    public IMovementStrategy createStrategy(Random random) {
         switch (this.type) {
             case STATIONARY: return createStationaryStrategy();
             case UP: return createUpStrategy();
-            default: return createRandomStrategy();
+            default: return createRandomStrategy(random);
         }
     }
 
@@ -64,7 +75,7 @@ public class MovementStrategyFactory {
         return new UpMovementStrategy();
     }
 
-    private IMovementStrategy createRandomStrategy() {
-        return new RandomMovementStrategy();
+    private IMovementStrategy createRandomStrategy(Random random) {
+        return new RandomMovementStrategy(random);
     }
 }
@@ -19,6 +19,11 @@ import com.google.auto.value.AutoValue;
 /** An interval of time which a beacon has or hasn't been observed. */
 @AutoValue
 public abstract class ObservedInterval {
+    /** Returns a new builder of an observed interval. */
+    public static Builder builder() {
+        return new AutoValue_ObservedInterval.Builder();
+    }
+
     public abstract int start();
     public abstract int end();
     public abstract boolean observed();
@@ -27,19 +27,20 @@ public class Observer extends AbstractAgent implements IObserver {
 
     /**
      * Create new observer with consecutive serial number.
-     * @param id is a unique ID.
-     * @param initialLocation is the location on board where the observer is placed.
+     * @param id is a unique ID, which is also the observer's index in the store.
+     * @param store is the store holding the observer's real location, in which the observer has already been added.
      * @param movementStrategy determines how the observer moves.
      * @param resolver is the resolver that the observer belongs to.
      * @param owner is the real board that represents the world in which the observer lives.
      * @param awakenessStrategy determines when the observer wakes up.
      */
-    Observer(int id, Location initialLocation, IMovementStrategy movementStrategy, IResolver resolver,
+    Observer(int id, AgentStore store, IMovementStrategy movementStrategy, IResolver resolver,
              IAgentOwner owner, IAwakenessStrategy awakenessStrategy) {
-        super(initialLocation, movementStrategy, owner);
+        super(store, id, movementStrategy, owner);
         this.id = id;
         this.resolver = resolver;
         this.awakenessStrategy = awakenessStrategy;
+        store.setAwake(id, awakenessStrategy.isAwake());
     }
 
     @Override
@@ -65,7 +66,7 @@ public class Observer extends AbstractAgent implements IObserver {
 
     @Override
     public boolean isAwake() {
-        return awakenessStrategy.isAwake();
+        return getStore().isAwake(id);
     }
 
     /**
@@ -76,5 +77,6 @@ public class Observer extends AbstractAgent implements IObserver {
      */
     public void updateAwakenessState(int currentRound) {
         awakenessStrategy.updateAwakenessState(currentRound);
+        getStore().setAwake(id, awakenessStrategy.isAwake());
     }
 }
\ No newline at end of file
@@ -19,7 +19,25 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /** A factory class to create new observers. */
 public class ObserverFactory {
-    private int observerId = 0; // used for generating unique id for each observer.
+    private final AgentStore store; // holds the locations of the created observers, and generates their unique ids.
+
+    /** Create a new observer factory, storing the created observers' locations in a new store. */
+    public ObserverFactory() {
+        this(new AgentStore());
+    }
+
+    /**
+     * Create a new observer factory.
+     * @param store is the store holding the created observers' locations. Must be used by this factory only.
+     */
+    public ObserverFactory(AgentStore store) {
+        this.store = checkNotNull(store);
+    }
+
+    /** Returns the store holding the created observers' locations, in which the observer with id i is stored at index i. */
+    public AgentStore getStore() {
+        return store;
+    }
 
     /**
      * Create new observer, according to the given parameters.
@@ -39,7 +57,8 @@ public class ObserverFactory {
         checkNotNull(awakenessStrategy);
         checkArgument(owner.isLocationValid(initialLocation));
 
-        Observer newObserver = new Observer(observerId++, initialLocation, movementStrategy, resolver, owner, awakenessStrategy);
+        int id = store.add(initialLocation.row(), initialLocation.col());
+        Observer newObserver = new Observer(id, store, movementStrategy, resolver, owner, awakenessStrategy);
         owner.updateAgentLocation(null, initialLocation, newObserver);
         return newObserver;
     }
@@ -0,0 +1,123 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A uniform grid of buckets over the awake observers, used for finding the observers within the transmission
+ * threshold radius of a location without scanning all observers.
+ * Each bucket is a square of cells whose side is at least the radius, so all observers within the radius of a location
+ * are stored either in the location's bucket or in one of its eight neighbouring buckets.
+ * Observers are referred to by their indices in an agent store, and the buckets are kept in flat primitive arrays,
+ * so rebuilding the index every round allocates nothing once the arrays are large enough.
+ */
+public class ObserversSpatialIndex {
+    private final double transmissionThresholdRadius;
+    private final int bucketSize;
+    private final int bucketRowNum;
+    private final int bucketColNum;
+    private final int[] bucketStarts; // the observers of bucket b are sortedObservers[bucketStarts[b]..bucketStarts[b + 1]).
+    private final int[] bucketEnds; // used while rebuilding, as the next free position of each bucket.
+    private int[] sortedObservers = new int[0]; // observers' indices, sorted by bucket and by index within each bucket.
+    private AgentStore store; // the store of the indexed observers, set on every rebuild.
+
+    /**
+     * Create a new empty spatial index.
+     * @param rowNum is the number of rows of the indexed board.
+     * @param colNum is the number of columns of the indexed board.
+     * @param observersNum is the number of observers on the board, used for bounding the number of buckets.
+     * @param transmissionThresholdRadius is the maximal distance between a beacon and an observer observing it.
+     */
+    public ObserversSpatialIndex(int rowNum, int colNum, int observersNum, double transmissionThresholdRadius) {
+        checkArgument(rowNum > 0 && colNum > 0, "Board dimensions must be positive.");
+        checkArgument(transmissionThresholdRadius >= 0, "Transmission threshold radius must not be negative.");
+        this.transmissionThresholdRadius = transmissionThresholdRadius;
+
+        // Agents' coordinates are integers, so a distance of at most radius along an axis is at most floor(radius).
+        // Buckets are enlarged on sparse boards so the number of buckets never exceeds the number of observers by much.
+        int radiusBucketSize = (int) Math.min(Math.floor(transmissionThresholdRadius), Math.max(rowNum, colNum));
+        int densityBucketSize = (int) Math.ceil(Math.sqrt((double) rowNum * colNum / Math.max(observersNum, 1)));
+        this.bucketSize = Math.max(1, Math.max(radiusBucketSize, densityBucketSize));
+        this.bucketRowNum = (rowNum - 1) / bucketSize + 1;
+        this.bucketColNum = (colNum - 1) / bucketSize + 1;
+
+        this.bucketStarts = new int[bucketRowNum * bucketColNum + 1];
+        this.bucketEnds = new int[bucketRowNum * bucketColNum];
+    }
+
+    /**
+     * Clear the index and insert all awake observers according to their current locations, using a counting sort.
+     * Must be called after the observers have moved and updated their awakeness states.
+     * @param store is the store of all simulation observers.
+     */
+    public void rebuild(AgentStore store) {
+        this.store = store;
+        if (sortedObservers.length < store.size()) {
+            sortedObservers = new int[store.size()];
+        }
+
+        Arrays.fill(bucketStarts, 0);
+        for (int observer = 0; observer < store.size(); observer++) {
+            if (store.isAwake(observer)) {
+                bucketStarts[bucketIndex(store.row(observer), store.col(observer)) + 1]++;
+            }
+        }
+        for (int bucket = 0; bucket < bucketEnds.length; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+
+        System.arraycopy(bucketStarts, 0, bucketEnds, 0, bucketEnds.length);
+        for (int observer = 0; observer < store.size(); observer++) {
+            if (store.isAwake(observer)) {
+                sortedObservers[bucketEnds[bucketIndex(store.row(observer), store.col(observer))]++] = observer;
+            }
+        }
+    }
+
+    /**
+     * Apply an action on the index of every indexed observer within the transmission threshold radius of a location.
+     * Observers are visited bucket by bucket, and by ascending index within each bucket.
+     * @param row is the row of the location of the transmitting beacon.
+     * @param col is the column of the location of the transmitting beacon.
+     * @param action is the action to apply on the index of each observer in range.
+     * @return true if at least one observer is within range, false otherwise.
+     */
+    public boolean forEachObserverInRange(int row, int col, IntConsumer action) {
+        boolean found = false;
+        int bucketRow = row / bucketSize;
+        int bucketCol = col / bucketSize;
+        for (int neighbourRow = Math.max(0, bucketRow - 1); neighbourRow <= Math.min(bucketRowNum - 1, bucketRow + 1); neighbourRow++) {
+            for (int neighbourCol = Math.max(0, bucketCol - 1); neighbourCol <= Math.min(bucketColNum - 1, bucketCol + 1); neighbourCol++) {
+                int bucket = neighbourRow * bucketColNum + neighbourCol;
+                for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++) {
+                    int observer = sortedObservers[i];
+                    if (AbstractSimulation.distance(row, col, store.row(observer), store.col(observer)) <= transmissionThresholdRadius) {
+                        action.accept(observer);
+                        found = true;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int bucketIndex(int row, int col) {
+        return (row / bucketSize) * bucketColNum + col / bucketSize;
+    }
+}
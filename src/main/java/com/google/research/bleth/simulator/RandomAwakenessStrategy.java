@@ -23,7 +23,7 @@ public class RandomAwakenessStrategy implements IAwakenessStrategy {
     private int nextAwakeningTime;
     private int nextAwakenessIntervalStart = 0;
     private boolean awake = false;
-    private Random random = new Random();
+    private final Random random;
 
     /**
      * Create a new random awakeness strategy.
@@ -32,6 +32,18 @@ public class RandomAwakenessStrategy implements IAwakenessStrategy {
      * @param firstAwakenessTime is the first time eht observer wakes up.
      */
     RandomAwakenessStrategy(int awakenessCycleDuration, int awakenessDuration, int firstAwakenessTime) {
+        this(awakenessCycleDuration, awakenessDuration, firstAwakenessTime, new Random());
+    }
+
+    /**
+     * Create a new random awakeness strategy.
+     * @param awakenessCycleDuration is the duration of each awakeness cycle. An observer can wake up once in a cycle.
+     * @param awakenessDuration is the number of rounds that the observer is awake each time it wakes up.
+     * @param firstAwakenessTime is the first time eht observer wakes up.
+     * @param random is the random number generator the following awakening times are drawn from.
+     */
+    RandomAwakenessStrategy(int awakenessCycleDuration, int awakenessDuration, int firstAwakenessTime, Random random) {
+        this.random = random;
         this.awakenessCycleDuration = awakenessCycleDuration;
         this.awakenessDuration = awakenessDuration;
         this.nextAwakeningTime = firstAwakenessTime;
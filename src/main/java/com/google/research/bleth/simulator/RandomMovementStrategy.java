@@ -14,10 +14,10 @@
 
 package com.google.research.bleth.simulator;
 
+import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /** A random movement strategy for an agent. */
 public class RandomMovementStrategy implements IMovementStrategy {
@@ -25,23 +25,41 @@ public class RandomMovementStrategy implements IMovementStrategy {
     private final static List<Direction> directions =
             ImmutableList.copyOf(Direction.values());
 
+    // All orderings of the directions, drawn from instead of shuffling a new list of directions on every move.
+    private final static List<List<Direction>> directionsPermutations =
+            ImmutableList.copyOf(Collections2.permutations(directions));
+
+    private final Random random;
+
+    /** Create a new random movement strategy, drawing directions from an unseeded random number generator. */
+    public RandomMovementStrategy() {
+        this(new Random());
+    }
+
+    /**
+     * Create a new random movement strategy.
+     * @param random is the random number generator the directions are drawn from.
+     */
+    public RandomMovementStrategy(Random random) {
+        this.random = random;
+    }
+
     /**
-     * Determine and return the new location of a randomly moving agent, which is walking a single step in one of the
-     * possible directions from its current location. If an agent can't move to any direction, return its current location.
+     * Determine the direction of the next step of a randomly moving agent, which is walking a single step in one of the
+     * possible directions from its current location. If an agent can't move to any direction, it stays in its current location.
      * @param owner is the board that the agent is placed on.
-     * @param currentLocation is the current location of the agent on the board.
-     * @return the location on the board that the agent is moving to.
+     * @param row is the row of the current location of the agent on the board.
+     * @param col is the column of the current location of the agent on the board.
+     * @return the direction the agent is moving to, or null if the agent stays in its current location.
      */
     @Override
-    public Location moveTo(IAgentOwner owner, Location currentLocation) {
-        List<Direction> shuffledDirections = new ArrayList<>(directions);
-        Collections.shuffle(shuffledDirections);
+    public Direction nextDirection(IAgentOwner owner, int row, int col) {
+        List<Direction> shuffledDirections = directionsPermutations.get(random.nextInt(directionsPermutations.size()));
         for (Direction direction : shuffledDirections) {
-            Location newLocation = currentLocation.moveInDirection(direction);
-            if (owner.isLocationValid(newLocation)) {
-                return newLocation;
+            if (owner.isLocationValid(row + direction.getRowDelta(), col + direction.getColDelta())) {
+                return direction;
             }
         }
-        return currentLocation;
+        return null;
     }
 }
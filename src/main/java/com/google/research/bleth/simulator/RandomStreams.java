@@ -0,0 +1,62 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import java.util.Random;
+
+/**
+ * A source of independent, deterministic random streams derived from a single simulation seed.
+ * Each stream is identified by its purpose and by the index of the agent using it, so an agent draws the same numbers
+ * regardless of the number of agents created before it or the order in which agents are processed in a round.
+ */
+final class RandomStreams {
+
+    /** An enum representing the purpose of a random stream. */
+    enum Purpose {
+        BEACON_INITIAL_LOCATION,
+        BEACON_MOVEMENT,
+        OBSERVER_INITIAL_LOCATION,
+        OBSERVER_MOVEMENT,
+        OBSERVER_AWAKENESS
+    }
+
+    private final long seed;
+
+    /**
+     * Create a new source of random streams.
+     * @param seed is the simulation seed all streams are derived from.
+     */
+    RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Create the random stream of an agent for a given purpose.
+     * @param purpose is the purpose of the stream.
+     * @param agentIndex is the index of the agent using the stream, among the agents of its kind.
+     * @return a new random number generator, which generates the same numbers on every call with the same arguments.
+     */
+    Random stream(Purpose purpose, int agentIndex) {
+        long streamSeed = mix(mix(seed ^ mix(purpose.ordinal() + 1)) + agentIndex);
+        return new Random(streamSeed);
+    }
+
+    /** Returns a well distributed 64-bit hash of a value, using the SplitMix64 finalizer. */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -26,6 +26,17 @@ public class RealBoard extends AbstractBoard implements IAgentOwner {
         super(rows, cols);
     }
 
+    /**
+     * Create an empty board for storing the real agents' locations in the simulation, whose storage is chosen
+     * by the ratio of agents to cells.
+     * @param rows is number of rows.
+     * @param cols is number of columns.
+     * @param agentsNum is the number of agents in the simulation.
+     */
+    public RealBoard(int rows, int cols, int agentsNum) {
+        super(rows, cols, agentsNum);
+    }
+
     @Override
     public String getType() {
         return "RealBoard";
@@ -39,4 +50,9 @@ public class RealBoard extends AbstractBoard implements IAgentOwner {
             moveAgent(oldLocation, newLocation, agent);
         }
     }
+
+    @Override
+    public void updateAgentLocation(int oldRow, int oldCol, int newRow, int newCol, IAgent agent) {
+        moveAgent(oldRow, oldCol, newRow, newCol, agent);
+    }
 }
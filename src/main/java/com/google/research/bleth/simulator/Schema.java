@@ -33,17 +33,32 @@ public class Schema {
         public static final String awakenessDuration = "awakenessDuration";
         public static final String observersDensity = "observersDensity";
         public static final String awakenessRatio = "awakenessRatio";
+        public static final String seed = "seed";
+        public static final String runMode = "runMode";
     }
 
-    /** A class providing a single access point for the RealBoardState / EstimatedBoardState entity schema. */
+    /**
+     * A class providing a single access point for the RealBoardState / EstimatedBoardState entity schema,
+     * where each entity stores a single agent of a board state, and for the PackedRealBoardState /
+     * PackedEstimatedBoardState entity schema, where a single entity stores all agents of a board state.
+     * A packed board state's key name is its simulation id and round. A keyframe encodes its agents in a blob, and
+     * other board states encode the moves since the previous round in a blob along with the round of their keyframe.
+     * A blob is split between additional parts entities if it is too large for a single entity.
+     */
     public static class BoardState {
         public static final String entityKindReal = "RealBoardState";
         public static final String entityKindEstimated = "EstimatedBoardState";
+        public static final String entityKindPackedReal = "PackedRealBoardState";
+        public static final String entityKindPackedEstimated = "PackedEstimatedBoardState";
         public static final String simulationId = "simulationId";
         public static final String round = "round";
         public static final String agentId = "agentId";
         public static final String rowNum = "rowNum";
         public static final String colNum = "colNum";
+        public static final String agents = "agents";
+        public static final String partsNum = "partsNum";
+        public static final String moves = "moves";
+        public static final String keyframeRound = "keyframeRound";
     }
 
     /** A class providing a single access point for the StatsState entity schema. */
@@ -65,14 +80,75 @@ public class Schema {
         public static final String intervalObserved = "intervalObserved";
     }
 
-    /** A class providing a single access point for the Experiment entity schema. */
+    /**
+     * A class providing a single access point for the Experiment entity schema. The number of simulations left to an
+     * experiment is set to zero once the experiment completes, and its progress is counted by its shards meanwhile.
+     * The number of simulations of an open experiment, such as an adaptive sweep, is null until the experiment is closed.
+     */
     public static class Experiment {
         public static final String entityKind = "Experiment";
         public static final String experimentTitle = "experimentTitle";
         public static final String simulationsLeft = "simulationsLeft";
+        public static final String simulationsNum = "simulationsNum";
+        public static final String simulationsFailed = "simulationsFailed";
+        public static final String shardsNum = "shardsNum";
     }
 
-    /** A class providing a single access point for the ExperimentsToSimulations entity schema. */
+    /**
+     * A class providing a single access point for the ExperimentProgressShard entity schema, where each entity counts
+     * a part of the completed simulations of an experiment. A shard's key name is its experiment id and shard index.
+     */
+    public static class ExperimentProgressShard {
+        public static final String entityKind = "ExperimentProgressShard";
+        public static final String simulationsCompleted = "simulationsCompleted";
+    }
+
+    /**
+     * A class providing a single access point for the SimulationRunTime entity schema, where each entity stores the
+     * run time of a simulation along with the simulation parameters its run time depends on.
+     */
+    public static class SimulationRunTime {
+        public static final String entityKind = "SimulationRunTime";
+        public static final String roundsNum = "roundsNum";
+        public static final String beaconsNum = "beaconsNum";
+        public static final String observersNum = "observersNum";
+        public static final String rowsNum = "rowsNum";
+        public static final String colsNum = "colsNum";
+        public static final String runTimeMillis = "runTimeMillis";
+        public static final String recordedAt = "recordedAt";
+    }
+
+    /**
+     * A class providing a single access point for the ConfigurationStatistics entity schema, where each entity stores
+     * the running aggregates of the statistics of some of the replicas of an experiment's configuration, which are
+     * merged with the configuration's other shards when read. The key name of an entity is its experiment id, a hash
+     * of its configuration and its shard index.
+     */
+    public static class ConfigurationStatistics {
+        public static final String entityKind = "ConfigurationStatistics";
+        public static final String experimentId = "experimentId";
+        public static final String configuration = "configuration";
+        public static final String replicasNum = "replicasNum";
+        public static final String statistics = "statistics";
+    }
+
+    /**
+     * A class providing a single access point for the ExperimentSummary entity schema, where each entity stores the
+     * gzip compressed JSON summary of a completed experiment. A summary's key name is its experiment id, and a summary
+     * is split between additional parts entities if it is too large for a single entity.
+     */
+    public static class ExperimentSummary {
+        public static final String entityKind = "ExperimentSummary";
+        public static final String summary = "summary";
+        public static final String partsNum = "partsNum";
+        public static final String etag = "etag";
+        public static final String lastModified = "lastModified";
+    }
+
+    /**
+     * A class providing a single access point for the ExperimentsToSimulations entity schema.
+     * The entity of an experiment's member is keyed by the experiment id and member id, so it is written at most once.
+     */
     public static class ExperimentsToSimulations {
         public static final String entityKind = "ExperimentsToSimulations";
         public static final String experimentId = "experimentId";
@@ -17,16 +17,32 @@ package com.google.research.bleth.simulator;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.research.bleth.utils.Queries;
+import java.io.Serializable;
 import java.util.Optional;
 
-/** A class for storing, reading and writing simulation metadata. */
-public class SimulationMetadata {
+/**
+ * A class for storing, reading and writing simulation metadata.
+ * Metadata never changes after it is written, so metadata read from the db is cached in a bounded in-process cache,
+ * backed by memcache which is shared between instances.
+ */
+public class SimulationMetadata implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int CACHE_MAXIMUM_SIZE = 1000;
+    private static final String MEMCACHE_NAMESPACE = "SimulationMetadata";
+    private static final Cache<String, SimulationMetadata> cache =
+            CacheBuilder.newBuilder().maximumSize(CACHE_MAXIMUM_SIZE).build(); // evicts the least recently used first.
+
     public final String description;
     public final int roundsNum;
     public final int beaconsNum;
@@ -41,6 +57,8 @@ public class SimulationMetadata {
     public final int awakenessDuration;
     public final double observersDensity;
     public final double awakenessRatio;
+    public final Long seed; // null for simulations written before seeds were recorded, which can't be replayed.
+    public final String runMode;
 
     /**
      * Create a new simulation metadata object based on a simulation builder.
@@ -61,6 +79,8 @@ public class SimulationMetadata {
         this.awakenessDuration = builder.getAwakenessDuration();
         this.observersDensity = (double) builder.getObserversNum() / (builder.getRowNum() * builder.getColNum());
         this.awakenessRatio = (double) builder.getAwakenessDuration() / builder.getAwakenessCycle();
+        this.seed = builder.getSeed();
+        this.runMode = builder.getRunMode().toString();
     }
 
     /**
@@ -86,10 +106,15 @@ public class SimulationMetadata {
         entity.setProperty(Schema.SimulationMetadata.awakenessDuration, this.awakenessDuration);
         entity.setProperty(Schema.SimulationMetadata.observersDensity, this.observersDensity);
         entity.setProperty(Schema.SimulationMetadata.awakenessRatio, this.awakenessRatio);
+        entity.setUnindexedProperty(Schema.SimulationMetadata.seed, this.seed);
+        entity.setUnindexedProperty(Schema.SimulationMetadata.runMode, this.runMode);
 
-        // Write to datastore and return key as string.
+        // Write to datastore, cache and return key as string.
         DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-        return KeyFactory.keyToString(datastore.put(entity));
+        String simulationId = KeyFactory.keyToString(datastore.put(entity));
+        cache.put(simulationId, this);
+        getMemcache().put(simulationId, this);
+        return simulationId;
     }
 
     /**
@@ -98,14 +123,35 @@ public class SimulationMetadata {
      * @return a SimulationMetadata object storing the simulation's metadata.
      */
     public static SimulationMetadata read(String simulationId) {
-        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-        Key simulationKey = KeyFactory.stringToKey(simulationId);
-        Query.Filter filterBySimulationId =
-                new Query.FilterPredicate(Entity.KEY_RESERVED_PROPERTY, Query.FilterOperator.EQUAL, simulationKey);
-        Query simulationIdQuery = new Query(Schema.SimulationMetadata.entityKind).setFilter(filterBySimulationId);
-        PreparedQuery simulationIdPreparedQuery = datastore.prepare(simulationIdQuery);
-        Entity simulationMetadataEntity = simulationIdPreparedQuery.asSingleEntity();
-        return new SimulationMetadata(simulationMetadataEntity);
+        SimulationMetadata simulationMetadata = cache.getIfPresent(simulationId);
+        if (simulationMetadata != null) {
+            return simulationMetadata;
+        }
+
+        MemcacheService memcache = getMemcache();
+        simulationMetadata = (SimulationMetadata) memcache.get(simulationId);
+        if (simulationMetadata == null) {
+            DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+            Key simulationKey = KeyFactory.stringToKey(simulationId);
+            try {
+                simulationMetadata = new SimulationMetadata(datastore.get(simulationKey));
+            } catch (EntityNotFoundException e) {
+                throw new IllegalArgumentException("Simulation " + simulationId + " does not exist.", e);
+            }
+            memcache.put(simulationId, simulationMetadata);
+        }
+        cache.put(simulationId, simulationMetadata);
+        return simulationMetadata;
+    }
+
+    /**
+     * Remove the metadata of a simulation from the caches, after the simulation is deleted from the db.
+     * Other instances may keep serving the metadata from their in-process caches until it is evicted.
+     * @param simulationId the id of the deleted simulation.
+     */
+    public static void invalidate(String simulationId) {
+        cache.invalidate(simulationId);
+        getMemcache().delete(simulationId);
     }
 
     /**
@@ -126,6 +172,11 @@ public class SimulationMetadata {
         return simulations.build();
     }
 
+    /** Return true if the board states of the simulation are written to the db, and false if only its statistics are. */
+    public boolean isBoardStatesWritten() {
+        return AbstractSimulation.RunMode.valueOf(runMode) == AbstractSimulation.RunMode.FULL;
+    }
+
     /** Return true if provided round exists in the simulation associated with the provided simulation id, and false otherwise. */
     static boolean isRoundExistsInSimulation(String simulationId, int round) {
         SimulationMetadata simulationMetadata = read(simulationId);
@@ -133,6 +184,15 @@ public class SimulationMetadata {
         return round < maxSimulationRound;
     }
 
+    /** Clear the in-process cache, so metadata is read from memcache or from the db. */
+    static void clearLocalCache() {
+        cache.invalidateAll();
+    }
+
+    private static MemcacheService getMemcache() {
+        return MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+    }
+
     private SimulationMetadata(Entity entity) {
         this.description = (String) entity.getProperty(Schema.SimulationMetadata.description);
         this.roundsNum = ((Long) entity.getProperty(Schema.SimulationMetadata.roundsNum)).intValue();
@@ -148,5 +208,9 @@ public class SimulationMetadata {
         this.awakenessDuration = ((Long) entity.getProperty(Schema.SimulationMetadata.awakenessDuration)).intValue();
         this.observersDensity = (double) this.observersNum / (this.rowsNum * this.colsNum);
         this.awakenessRatio = (double) this.awakenessDuration / this.awakenessCycle;
+        this.seed = (Long) entity.getProperty(Schema.SimulationMetadata.seed);
+        this.runMode = entity.hasProperty(Schema.SimulationMetadata.runMode) // simulations written before run modes were full.
+                ? (String) entity.getProperty(Schema.SimulationMetadata.runMode)
+                : AbstractSimulation.RunMode.FULL.toString();
     }
 }
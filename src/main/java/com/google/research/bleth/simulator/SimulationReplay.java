@@ -0,0 +1,130 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory replay of a seeded simulation, which regenerates the board states of any round by re-simulating
+ * from the simulation's metadata instead of reading them from the db.
+ * Replaying a round following the last replayed round continues the replay, and replaying an earlier round restarts it.
+ * Replays shared between requests are kept in a bounded cache by {@link #get}, so playing a simulation back round by
+ * round advances a single replay instead of re-simulating all rounds preceding each round.
+ */
+public final class SimulationReplay {
+    private static final int CACHE_MAXIMUM_SIZE = 8; // bounds the replayed simulations, each holding its boards.
+    private static final long CACHE_EXPIRY_MINUTES = 10;
+    private static final Cache<String, SimulationReplay> cache = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_MAXIMUM_SIZE)
+            .expireAfterAccess(CACHE_EXPIRY_MINUTES, TimeUnit.MINUTES)
+            .build(); // evicts the least recently used first.
+
+    private final String simulationId;
+    private final SimulationMetadata metadata;
+    private AbstractSimulation simulation;
+
+    /**
+     * Create a new replay of a simulation.
+     * @param simulationId is the id of the replayed simulation.
+     * @return a replay of the simulation, at its initial round.
+     */
+    public static SimulationReplay create(String simulationId) {
+        SimulationMetadata metadata = StateStores.get().readMetadata(simulationId);
+        checkState(metadata.seed != null, "Simulation %s has no seed and can't be replayed.", simulationId);
+        return new SimulationReplay(simulationId, metadata);
+    }
+
+    /**
+     * Get the shared replay of a simulation, which is created if the simulation isn't being replayed.
+     * The shared replay is at the round last replayed by any of its users, so reading rounds in order continues it.
+     * @param simulationId is the id of the replayed simulation.
+     * @return the shared replay of the simulation.
+     */
+    public static SimulationReplay get(String simulationId) {
+        SimulationReplay replay = cache.getIfPresent(simulationId);
+        if (replay == null) {
+            replay = create(simulationId);
+            cache.put(simulationId, replay); // a concurrently created replay is replaced, and is used only by its creator.
+        }
+        return replay;
+    }
+
+    /** Clear the cache of shared replays. */
+    static void clearCache() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Regenerate the real board state of a round.
+     * @param round is the round of the board state.
+     * @return the real board state of the replayed simulation at the given round.
+     */
+    public synchronized BoardState replayReal(int round) {
+        advanceTo(round);
+        return simulation.getRealBoardState();
+    }
+
+    /**
+     * Regenerate the estimated board state of a round.
+     * @param round is the round of the board state.
+     * @return the estimated board state of the replayed simulation at the given round.
+     */
+    public synchronized BoardState replayEstimated(int round) {
+        advanceTo(round);
+        return simulation.getEstimatedBoardState();
+    }
+
+    private SimulationReplay(String simulationId, SimulationMetadata metadata) {
+        this.simulationId = simulationId;
+        this.metadata = metadata;
+        this.simulation = buildSimulation();
+    }
+
+    private void advanceTo(int round) {
+        checkArgument(round >= 0);
+        if (round >= metadata.roundsNum) {
+            throw new ExceedingRoundException("Provided round " + round +
+                    " exceeds maximum number of rounds of simulation " + simulationId);
+        }
+        if (round < simulation.getCurrentRound()) {
+            simulation = buildSimulation();
+        }
+        simulation.advanceTo(round);
+    }
+
+    private AbstractSimulation buildSimulation() {
+        TracingSimulation.Builder builder = new TracingSimulation.Builder();
+        builder.setDescription(metadata.description)
+                .setMaxNumberOfRounds(metadata.roundsNum)
+                .setRowNum(metadata.rowsNum)
+                .setColNum(metadata.colsNum)
+                .setBeaconsNum(metadata.beaconsNum)
+                .setObserversNum(metadata.observersNum)
+                .setBeaconMovementStrategyType(MovementStrategyFactory.Type.valueOf(metadata.beaconMovementStrategy))
+                .setObserverMovementStrategyType(MovementStrategyFactory.Type.valueOf(metadata.observerMovementStrategy))
+                .setAwakenessStrategyType(AwakenessStrategyFactory.Type.valueOf(metadata.observerAwakenessStrategy))
+                .setAwakenessCycle(metadata.awakenessCycle)
+                .setAwakenessDuration(metadata.awakenessDuration)
+                .setTransmissionThresholdRadius(metadata.transmissionThresholdRadius)
+                .setSeed(metadata.seed);
+        return builder.buildReplay(simulationId);
+    }
+}
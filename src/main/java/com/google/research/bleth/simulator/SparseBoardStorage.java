@@ -0,0 +1,69 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimap;
+import java.util.ArrayList;
+
+/**
+ * A board storage holding lists of agents only for populated cells, in a hash map keyed by the cells' linear indices.
+ * Its memory is proportional to the number of agents rather than to the number of cells, suitable for large boards
+ * on which most cells are empty.
+ */
+final class SparseBoardStorage implements IBoardStorage {
+    private final int colNum;
+    private final LongObjectHashMap<ArrayList<IAgent>> cells = new LongObjectHashMap<>();
+
+    /**
+     * Create an empty sparse storage.
+     * @param cols is number of columns.
+     */
+    SparseBoardStorage(int cols) {
+        colNum = cols;
+    }
+
+    @Override
+    public void add(int row, int col, IAgent agent) {
+        long cell = cellIndex(row, col);
+        ArrayList<IAgent> agents = cells.get(cell);
+        if (agents == null) {
+            agents = new ArrayList<>(1);
+            cells.put(cell, agents);
+        }
+        agents.add(agent);
+    }
+
+    @Override
+    public void remove(int row, int col, IAgent agent) {
+        long cell = cellIndex(row, col);
+        ArrayList<IAgent> agents = cells.get(cell);
+        if (agents != null && agents.remove(agent) && agents.isEmpty()) {
+            cells.remove(cell); // keep only populated cells.
+        }
+    }
+
+    @Override
+    public Multimap<Location, IAgent> agentsOnBoard() {
+        ImmutableListMultimap.Builder<Location, IAgent> locationsToAgents = ImmutableListMultimap.builder();
+        cells.forEach((cell, agents) ->
+                locationsToAgents.putAll(Location.create((int) (cell / colNum), (int) (cell % colNum)), agents));
+        return locationsToAgents.build();
+    }
+
+    private long cellIndex(int row, int col) {
+        return (long) row * colNum + col;
+    }
+}
@@ -0,0 +1,167 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.appengine.api.datastore.Query;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.utils.Queries;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Provides the state store used by the running process. The store is chosen by the 'bleth.stateStore' system
+ * property: 'datastore' (the default) for the db, 'memory' for an in-memory store, or 'file:' followed by a directory
+ * for a local file store under that directory. Tools and tests may replace the store before it is used.
+ */
+public final class StateStores {
+    static final String STATE_STORE_PROPERTY = "bleth.stateStore";
+    private static final String FILE_STORE_PREFIX = "file:";
+
+    private static volatile IStateStore stateStore;
+
+    /** Returns the state store of the running process, creating it from the system property on first use. */
+    public static IStateStore get() {
+        IStateStore store = stateStore;
+        if (store == null) {
+            synchronized (StateStores.class) {
+                if (stateStore == null) {
+                    stateStore = create(System.getProperty(STATE_STORE_PROPERTY, "datastore"));
+                }
+                store = stateStore;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Returns true if the state store of the running process is the db, which also keeps the data derived from
+     * simulations and experiments: materialized experiments' summaries, running aggregates and recorded run times.
+     * Other stores derive that data from their simulations whenever it is read.
+     */
+    public static boolean isDatastore() {
+        return get() instanceof DatastoreStateStore;
+    }
+
+    /**
+     * Replace the state store of the running process.
+     * @param store is the new state store.
+     */
+    public static void set(IStateStore store) {
+        stateStore = checkNotNull(store);
+    }
+
+    /**
+     * Create a state store from its description.
+     * @param description is 'datastore', 'memory' or 'file:' followed by a directory.
+     * @return a new state store.
+     * @throws IllegalArgumentException if the description is not legal.
+     */
+    static IStateStore create(String description) {
+        if (description.equals("datastore")) {
+            return new DatastoreStateStore();
+        }
+        if (description.equals("memory")) {
+            return new InMemoryStateStore();
+        }
+        if (description.startsWith(FILE_STORE_PREFIX)) {
+            return new LocalFileStateStore(Paths.get(description.substring(FILE_STORE_PREFIX.length())));
+        }
+        throw new IllegalArgumentException("Unknown state store: " + description);
+    }
+
+    /**
+     * Order simulations as the db orders a query of their metadata, for stores which keep metadata as objects.
+     * Simulations missing the sorting property are ordered first.
+     * @param simulations maps simulations' ids to their metadata.
+     * @param sortingParameters is the name of the property to sort the simulations by and the sort direction (optional).
+     * @return an immutable map of the simulations, in the requested order.
+     */
+    static ImmutableMap<String, SimulationMetadata> sortSimulations(Map<String, SimulationMetadata> simulations,
+                                                                    Optional<Queries.SortingParameters> sortingParameters) {
+        if (!sortingParameters.isPresent()) {
+            return ImmutableMap.copyOf(simulations);
+        }
+        Gson gson = new Gson();
+        String property = sortingParameters.get().property;
+        Comparator<Map.Entry<String, SimulationMetadata>> comparator = Comparator.comparing(
+                simulation -> gson.toJsonTree(simulation.getValue()).getAsJsonObject().get(property),
+                Comparator.nullsFirst(StateStores::compareProperties));
+        if (sortingParameters.get().direction == Query.SortDirection.DESCENDING) {
+            comparator = comparator.reversed();
+        }
+        List<Map.Entry<String, SimulationMetadata>> sorted = new ArrayList<>(simulations.entrySet());
+        sorted.sort(comparator);
+        ImmutableMap.Builder<String, SimulationMetadata> sortedSimulations = new ImmutableMap.Builder<>();
+        sorted.forEach(sortedSimulations::put);
+        return sortedSimulations.build();
+    }
+
+    /**
+     * Check that a round exists in a simulation.
+     * @throws ExceedingRoundException if the round does not exist in the simulation.
+     */
+    static void checkRound(SimulationMetadata metadata, String simulationId, int round) throws ExceedingRoundException {
+        if (round >= metadata.roundsNum) {
+            throw new ExceedingRoundException("Provided round " + round +
+                    " exceeds maximum number of rounds of simulation " + simulationId);
+        }
+    }
+
+    /**
+     * Check that a range of rounds is a non-empty range of rounds of a simulation.
+     * @throws IllegalArgumentException if the range is empty or negative.
+     * @throws ExceedingRoundException if the range exceeds the rounds of the simulation.
+     */
+    static void checkRange(SimulationMetadata metadata, String simulationId, int fromRound, int toRound)
+            throws ExceedingRoundException {
+        checkArgument(fromRound >= 0 && fromRound < toRound, "Range of rounds [%s, %s) is empty.", fromRound, toRound);
+        checkRound(metadata, simulationId, toRound - 1);
+    }
+
+    /** Returns the intervals of a simulation's beacons, ordered by beacon id and by intervals' start. */
+    static ImmutableMultimap<Integer, ObservedInterval> sortIntervals(Multimap<Integer, ObservedInterval> intervals) {
+        return ImmutableListMultimap.<Integer, ObservedInterval>builder()
+                .orderKeysBy(Ordering.natural())
+                .orderValuesBy(Comparator.comparingInt(ObservedInterval::start))
+                .putAll(intervals)
+                .build();
+    }
+
+    private static int compareProperties(JsonElement first, JsonElement second) {
+        JsonPrimitive firstPrimitive = first.getAsJsonPrimitive();
+        JsonPrimitive secondPrimitive = second.getAsJsonPrimitive();
+        if (firstPrimitive.isNumber() && secondPrimitive.isNumber()) {
+            return Double.compare(firstPrimitive.getAsDouble(), secondPrimitive.getAsDouble());
+        }
+        return firstPrimitive.getAsString().compareTo(secondPrimitive.getAsString());
+    }
+
+    private StateStores() {}
+}
@@ -18,13 +18,14 @@ package com.google.research.bleth.simulator;
 public class StationaryMovementStrategy implements IMovementStrategy {
 
     /**
-     * Determine and return the new location of a static agent, which is its current location.
+     * Determine the direction of the next step of a static agent, which never moves.
      * @param owner is the board that the agent is placed on.
-     * @param currentLocation is the current location of the agent on the board.
-     * @return the location on the board that the agent is moving to.
+     * @param row is the row of the current location of the agent on the board.
+     * @param col is the column of the current location of the agent on the board.
+     * @return null, since the agent stays in its current location.
      */
     @Override
-    public Location moveTo(IAgentOwner owner, Location currentLocation) {
-        return currentLocation;
+    public Direction nextDirection(IAgentOwner owner, int row, int col) {
+        return null;
     }
 }
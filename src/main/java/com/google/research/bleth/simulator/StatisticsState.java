@@ -17,9 +17,11 @@ package com.google.research.bleth.simulator;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.common.collect.ImmutableListMultimap;
@@ -27,8 +29,12 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Table;
 import com.google.research.bleth.exceptions.StatisticsAlreadyExistException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /** A mediator between the statistics the simulation gathered and their storage on datastore. */
@@ -39,6 +45,9 @@ public class StatisticsState {
     private final LinkedListMultimap<Integer, ObservedInterval> beaconsObservedIntervals;
     private static final String OBSERVED = "OBSERVED";
     private static final String NOT_OBSERVED = "NOT_OBSERVED";
+    private static final int INTERVALS_BATCH_SIZE = 1000;
+    private static final FetchOptions INTERVALS_FETCH_OPTIONS =
+            FetchOptions.Builder.withChunkSize(INTERVALS_BATCH_SIZE).prefetchSize(INTERVALS_BATCH_SIZE);
 
     /**
      * Create a new StatisticsState.
@@ -115,31 +124,34 @@ public class StatisticsState {
     }
 
     /**
-     * Read from the db beacons' observed intervals.
+     * Read from the db beacons' observed intervals, using a single query.
      * @param simulationId is the simulation id.
-     * @return an immutable multimap storing all beacons' observed intervals.
+     * @return an immutable multimap storing all beacons' observed intervals, ordered by beacon id and by intervals' start.
      */
     public static ImmutableMultimap<Integer, ObservedInterval> readIntervalStats(String simulationId) {
         DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-        ImmutableListMultimap.Builder<Integer, ObservedInterval> beaconsObservedIntervals = ImmutableListMultimap.builder();
-        int beaconsNum = SimulationMetadata.read(simulationId).beaconsNum;
-
-        for (int beaconId = 0; beaconId < beaconsNum; beaconId++) {
-            Query intervalsQuery = new Query(Schema.StatisticsState.entityKindBeaconsObservedIntervals);
-            Query.Filter filterByBeaconId = new Query.FilterPredicate(Schema.StatisticsState.beaconId,
-                    Query.FilterOperator.EQUAL, beaconId);
-            Query.Filter filterBySimulationId = new Query.FilterPredicate(Schema.StatisticsState.simulationId,
-                    Query.FilterOperator.EQUAL, simulationId);
-            Query.CompositeFilter composedQueryFilter = Query.CompositeFilterOperator.and(filterByBeaconId, filterBySimulationId);
-            intervalsQuery.setFilter(composedQueryFilter);
-            intervalsQuery.addSort(Schema.StatisticsState.intervalStart, Query.SortDirection.ASCENDING);
-            PreparedQuery intervalsPreparedQuery = datastore.prepare(intervalsQuery);
-            for (Entity entity : intervalsPreparedQuery.asIterable()) {
-                ObservedInterval interval = extractObservedInterval(entity);
-                beaconsObservedIntervals.put(beaconId, interval);
-            }
+        return toIntervalStats(datastore.prepare(createIntervalsQuery(simulationId)).asIterator(INTERVALS_FETCH_OPTIONS));
+    }
+
+    /**
+     * Read from the db the beacons' observed intervals of multiple simulations, querying all simulations concurrently.
+     * @param simulationIds are the simulations ids.
+     * @return an immutable map which maps each simulation id to a multimap storing all beacons' observed intervals of
+     * the simulation, ordered by beacon id and by intervals' start.
+     */
+    public static ImmutableMap<String, ImmutableMultimap<Integer, ObservedInterval>> readIntervalStats(
+            Collection<String> simulationIds) {
+        AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+
+        // An iterator of an async datastore's query issues the query when it is created, so all queries are issued
+        // before the results of the first are consumed. An iterable would issue each query only once it is iterated.
+        Map<String, Iterator<Entity>> simulationsIntervals = new LinkedHashMap<>();
+        for (String simulationId : simulationIds) {
+            simulationsIntervals.put(simulationId,
+                    datastore.prepare(createIntervalsQuery(simulationId)).asIterator(INTERVALS_FETCH_OPTIONS));
         }
-        return beaconsObservedIntervals.build();
+        return simulationsIntervals.entrySet().stream()
+                .collect(toImmutableMap(Map.Entry::getKey, entry -> toIntervalStats(entry.getValue())));
     }
 
     /**
@@ -188,6 +200,26 @@ public class StatisticsState {
         return observedStatistics.build();
     }
 
+    /** Returns the simulation id associated with the statistical data. */
+    String getSimulationId() {
+        return simulationId;
+    }
+
+    /** Returns the statistics about the distance between the beacons' real locations and their estimated locations. */
+    Map<String, Double> getDistanceStats() {
+        return distanceStats;
+    }
+
+    /** Returns the statistics about the intervals each beacon has been observed, mapped by beacon id and statistic. */
+    Table<String, String, Double> getBeaconsObservedStats() {
+        return beaconsObservedStats;
+    }
+
+    /** Returns the beacons' observed and unobserved intervals, mapped by beacon id. */
+    LinkedListMultimap<Integer, ObservedInterval> getBeaconsObservedIntervals() {
+        return beaconsObservedIntervals;
+    }
+
     private StatisticsState(String simulationId, Map<String, Double> distanceStats,
                             Table<String, String, Double> beaconsObservedStats,
                             LinkedListMultimap<Integer, ObservedInterval> beaconsObservedIntervals) {
@@ -197,6 +229,25 @@ public class StatisticsState {
         this.beaconsObservedIntervals = beaconsObservedIntervals;
     }
 
+    private static Query createIntervalsQuery(String simulationId) {
+        Query.Filter filterBySimulationId = new Query.FilterPredicate(Schema.StatisticsState.simulationId,
+                Query.FilterOperator.EQUAL, simulationId);
+        return new Query(Schema.StatisticsState.entityKindBeaconsObservedIntervals)
+                .setFilter(filterBySimulationId)
+                .addSort(Schema.StatisticsState.intervalStart, Query.SortDirection.ASCENDING);
+    }
+
+    private static ImmutableMultimap<Integer, ObservedInterval> toIntervalStats(Iterator<Entity> intervals) {
+        ImmutableListMultimap.Builder<Integer, ObservedInterval> beaconsObservedIntervals =
+                ImmutableListMultimap.<Integer, ObservedInterval>builder().orderKeysBy(Ordering.natural());
+        while (intervals.hasNext()) {
+            Entity entity = intervals.next();
+            int beaconId = ((Long) entity.getProperty(Schema.StatisticsState.beaconId)).intValue();
+            beaconsObservedIntervals.put(beaconId, extractObservedInterval(entity));
+        }
+        return beaconsObservedIntervals.build();
+    }
+
     private static ObservedInterval extractObservedInterval(Entity entity) {
         int start = ((Long) entity.getProperty(Schema.StatisticsState.intervalStart)).intValue();
         int end = ((Long) entity.getProperty(Schema.StatisticsState.intervalEnd)).intValue();
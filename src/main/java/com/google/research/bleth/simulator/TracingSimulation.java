@@ -44,21 +44,29 @@ public class TracingSimulation extends AbstractSimulation {
                     "Transmission threshold radius must be positive.");
             checkArgument(maxNumberOfRounds > 0,
                     "Maximum number of rounds must be positive.");
+            checkArgument(parallelism > 0,
+                    "Parallelism must be positive.");
+            checkArgument(keyframeInterval > 0,
+                    "Keyframe interval must be positive.");
             checkNotNull(beaconMovementStrategyType, "No beacon movement strategy has been set.");
             checkNotNull(observerMovementStrategyType, "No observer movement strategy has been set.");
             checkNotNull(awakenessStrategyType, "No awakeness strategy type has been set.");
+            checkNotNull(runMode, "No run mode has been set.");
         }
 
         @Override
         void initializeObservers() {
-            Random rand = new Random();
-            ObserverFactory observerFactory = new ObserverFactory();
+            RandomStreams randomStreams = new RandomStreams(seed);
+            ObserverFactory observerFactory = new ObserverFactory(observersStore);
             MovementStrategyFactory movementStrategyFactory = new MovementStrategyFactory(observerMovementStrategyType);
             AwakenessStrategyFactory awakenessStrategyFactory = new AwakenessStrategyFactory(awakenessStrategyType);
             for (int i = 0; i < observersNum; i++) {
+                Random rand = randomStreams.stream(RandomStreams.Purpose.OBSERVER_INITIAL_LOCATION, i);
                 Location initialLocation = Location.create(rand.nextInt(rowNum), rand.nextInt(colNum));
-                IAwakenessStrategy awakenessStrategy = awakenessStrategyFactory.createStrategy(awakenessCycle, awakenessDuration);
-                IMovementStrategy movementStrategy = movementStrategyFactory.createStrategy();
+                IAwakenessStrategy awakenessStrategy = awakenessStrategyFactory.createStrategy(awakenessCycle, awakenessDuration,
+                        randomStreams.stream(RandomStreams.Purpose.OBSERVER_AWAKENESS, i));
+                IMovementStrategy movementStrategy = movementStrategyFactory.createStrategy(
+                        randomStreams.stream(RandomStreams.Purpose.OBSERVER_MOVEMENT, i));
                 Observer observer = observerFactory.createObserver(initialLocation, movementStrategy, resolver,
                 realBoard, awakenessStrategy);
                 observers.add(observer);
@@ -67,12 +75,14 @@ public class TracingSimulation extends AbstractSimulation {
 
         @Override
         void initializeBeacons() {
-            Random rand = new Random();
-            BeaconFactory beaconFactory = new BeaconFactory();
+            RandomStreams randomStreams = new RandomStreams(seed);
+            BeaconFactory beaconFactory = new BeaconFactory(beaconsStore);
             MovementStrategyFactory movementStrategyFactory = new MovementStrategyFactory(beaconMovementStrategyType);
             for (int i = 0; i < beaconsNum; i++) {
+                Random rand = randomStreams.stream(RandomStreams.Purpose.BEACON_INITIAL_LOCATION, i);
                 Location initialLocation = Location.create(rand.nextInt(rowNum), rand.nextInt(colNum));
-                IMovementStrategy movementStrategy = movementStrategyFactory.createStrategy();
+                IMovementStrategy movementStrategy = movementStrategyFactory.createStrategy(
+                        randomStreams.stream(RandomStreams.Purpose.BEACON_MOVEMENT, i));
                 Beacon beacon = beaconFactory.createBeacon(initialLocation, movementStrategy, realBoard);
                 beacons.add(beacon);
             }
@@ -80,13 +90,29 @@ public class TracingSimulation extends AbstractSimulation {
 
         @Override
         public AbstractSimulation build() {
+            initialize();
+            writeMetadata();
+            return new TracingSimulation(this);
+        }
+
+        /**
+         * Construct a simulation replaying an existing simulation, without writing its metadata to the db.
+         * The builder must be set with the parameters and seed of the replayed simulation.
+         * @param simulationId is the id of the replayed simulation.
+         * @return a new Simulation object at its initial round, identical to the replayed simulation's initial round.
+         */
+        AbstractSimulation buildReplay(String simulationId) {
+            initialize();
+            this.id = simulationId;
+            return new TracingSimulation(this);
+        }
+
+        private void initialize() {
             validateArguments();
-            this.realBoard = new RealBoard(this.rowNum, this.colNum);
+            this.realBoard = new RealBoard(this.rowNum, this.colNum, this.beaconsNum + this.observersNum);
             initializeBeacons();
             this.resolver = GlobalResolver.create(this.rowNum, this.colNum, this.beacons);
             initializeObservers();
-            writeMetadata();
-            return new TracingSimulation(this);
         }
     }
 
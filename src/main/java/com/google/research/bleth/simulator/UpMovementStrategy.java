@@ -21,11 +21,10 @@ package com.google.research.bleth.simulator;
 public class UpMovementStrategy implements IMovementStrategy {
 
     @Override
-    public Location moveTo(IAgentOwner owner, Location currentLocation) {
-        Location newLocation = currentLocation.moveInDirection(Direction.UP);
-        if (owner.isLocationValid(newLocation)) {
-            return newLocation;
+    public Direction nextDirection(IAgentOwner owner, int row, int col) {
+        if (owner.isLocationValid(row + Direction.UP.getRowDelta(), col + Direction.UP.getColDelta())) {
+            return Direction.UP;
         }
-        return currentLocation;
+        return null;
     }
 }
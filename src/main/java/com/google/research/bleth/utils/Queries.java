@@ -26,6 +26,7 @@ import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.common.collect.Iterables;
 import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -154,9 +155,12 @@ public class Queries {
             delete(Schema.StatisticsState.entityKindDistance, Schema.StatisticsState.simulationId, simulationId);
             delete(Schema.BoardState.entityKindReal, Schema.BoardState.simulationId, simulationId);
             delete(Schema.BoardState.entityKindEstimated, Schema.BoardState.simulationId, simulationId);
+            delete(Schema.BoardState.entityKindPackedReal, Schema.BoardState.simulationId, simulationId);
+            delete(Schema.BoardState.entityKindPackedEstimated, Schema.BoardState.simulationId, simulationId);
             //TODO: add metadata and intervals stats to deletion txn.
             datastore.delete(KeyFactory.stringToKey(simulationId));
             deleteTransaction.commit();
+            SimulationMetadata.invalidate(simulationId);
         } finally {
             if (deleteTransaction.isActive()) {
                 deleteTransaction.rollback();
@@ -39,6 +39,19 @@ function retrieveExperimentStats(experimentId, experimentTitle) {
     });
 }
 
+/**
+ * Fetch url and retrieve a JSON object storing the aggregated statistics of the experiment's configurations.
+ * @param {String} experimentId is the experiment id.
+ * @param {String} experimentTitle is the experiment title.
+ */
+function retrieveExperimentAggregates(experimentId, experimentTitle) {
+    fetch(`/read-experiment-aggregates?experimentId=${experimentId}`)
+    .then(response => response.json())
+    .then(aggregates => {
+        downloadJson(aggregates, experimentTitle + '_aggregates');
+    });
+}
+
 /**
  * Download a JSON object as a .json file.
  * @param {Object} exportObj is the JSON object to download.
@@ -76,6 +89,7 @@ function displayExperimentsAsTable(experiments) {
         const cell = row.insertCell(0);
         const exportDataButton = createExportDataButton(id, title); 
         cell.appendChild(exportDataButton);
+        cell.appendChild(createExportAggregatesButton(id, title));
         row.insertCell(1).innerHTML = id;
         row.insertCell(2).innerHTML = title;
     }
@@ -93,4 +107,18 @@ function createExportDataButton(id, title) {
         retrieveExperimentStats(id, title);
     });
     return exportDataButton;
-}
\ No newline at end of file
+}
+
+/**
+ * Create a button for exporting the aggregated statistics of the experiment's configurations.
+ * @param {String} id is the experiment id to export.
+ * @param {String} title is the experiment title to export.
+ */
+function createExportAggregatesButton(id, title) {
+    var exportAggregatesButton = document.createElement('button');
+    exportAggregatesButton.innerText = 'Aggregates';
+    exportAggregatesButton.addEventListener('click', () => {
+        retrieveExperimentAggregates(id, title);
+    });
+    return exportAggregatesButton;
+}
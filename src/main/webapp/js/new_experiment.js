@@ -27,6 +27,9 @@ function createNewExperiment() {
         }
         params.append(input.id, input.value); 
     }
+    for (const select of form.getElementsByTagName('select')) {
+        params.append(select.id, select.value);
+    }
 
     // If confirmed, fetch url to create and run a new experiment.
     var confirmed = confirm("Create and run a new experiment?")
@@ -30,6 +30,19 @@ var state = {
     isFinished: false,
 }
 
+// The number of rounds requested in a single stream of board states.
+const ROUNDS_PER_STREAM = 100;
+
+// The time to wait for a round which hasn't been streamed yet, in milliseconds.
+const ROUND_WAIT_MS = 50;
+
+// Holds the streamed board states of upcoming rounds, and the stream reading them.
+var buffer = {
+    rounds: new Map(),
+    nextStreamedRound: 0,
+    source: null,
+}
+
 /**
  * Update simulation to holds simulation's metadata. 
  * Initialize the visualization of the first round.
@@ -56,19 +69,17 @@ async function nextRound() {
     var roundHeader = document.getElementById('current-round-header');
     roundHeader.innerText = 'Current Round: ' + state.currentRound;
 
-    var params = {
-        simulationId: simulation.id,
-        round: state.currentRound,
-    };
-
-    // Request real board state.
-    params['isReal'] = true;
-    await fetchReadBoardState(params, 'real-board-table');
+    // Wait for the round to be streamed, and visualize its board states.
+    streamRounds();
+    while (!buffer.rounds.has(state.currentRound)) {
+        await sleep(ROUND_WAIT_MS);
+        streamRounds();
+    }
+    var boardStates = buffer.rounds.get(state.currentRound);
+    buffer.rounds.delete(state.currentRound);
+    visualizeBoardState(toDenseBoard(boardStates.real), 'real-board-table');
+    visualizeBoardState(toDenseBoard(boardStates.estimated), 'estimated-board-table');
 
-    // Request estimated board state.
-    params['isReal'] = false;
-    await fetchReadBoardState(params, 'estimated-board-table');
-    
     // Update the simulation's state and the timeout.
     updateState();
     if (!state.isPaused && !state.isFinished) {
@@ -124,16 +135,60 @@ function pause() {
 }
 
 /**
- * Fetch board state from servlet by given parameters, and update an HTML table corresponding to given
- * board element id to visualize the board's state.
- * @param {Object} params is an object storing parameters for http request.
- * @param {String} boardElementId is the id of the html table element to be updated.
+ * Open a stream of the board states of the next range of rounds, unless a stream is already open, all rounds have
+ * been streamed, or enough rounds are already buffered. Streamed rounds are buffered until they are visualized.
  */
-async function fetchReadBoardState(params, boardElementId) {
-    const queryString = toQueryString(params);
-    fetch(`/read-board-state?${queryString}`)
-    .then(response => response.json())
-    .then(boardState => visualizeBoardState(boardState.array, boardElementId));
+function streamRounds() {
+    var isBufferFull = buffer.nextStreamedRound - state.currentRound >= ROUNDS_PER_STREAM;
+    if (buffer.source !== null || buffer.nextStreamedRound >= simulation.roundsNum || isBufferFull) {
+        return;
+    }
+
+    var params = {
+        simulationId: simulation.id,
+        from: buffer.nextStreamedRound,
+        to: Math.min(buffer.nextStreamedRound + ROUNDS_PER_STREAM, simulation.roundsNum),
+        format: 'sparse',
+    };
+    var source = new EventSource(`/read-board-states?${toQueryString(params)}`);
+    buffer.source = source;
+
+    source.addEventListener('round', event => {
+        var boardStates = JSON.parse(event.data);
+        buffer.rounds.set(boardStates.round, boardStates);
+        buffer.nextStreamedRound = boardStates.round + 1;
+    });
+    source.addEventListener('end', () => closeStream(source));
+
+    // Close the stream on failure, rather than letting it reconnect, so the rest of the range is requested again.
+    source.addEventListener('error', () => closeStream(source));
+}
+
+/**
+ * Close a stream of board states, if it is still the stream of the buffer.
+ * @param {EventSource} source is the stream to close.
+ */
+function closeStream(source) {
+    source.close();
+    if (buffer.source === source) {
+        buffer.source = null;
+    }
+}
+
+/**
+ * Expand a board state in its sparse form, which lists only the occupied cells, into a board of agents' ids.
+ * @param {Object} boardState is the sparse board state, whose cells are arrays of the cell's row, column and types mask
+ * followed by the type index and id of every agent in the cell.
+ * @returns {String[][][]} the board, holding a list of agents' ids for every cell.
+ */
+function toDenseBoard(boardState) {
+    var board = Array.from({length: boardState.rows}, () => Array.from({length: boardState.cols}, () => []));
+    boardState.cells.forEach(cell => {
+        for (var i = 3; i < cell.length; i += 2) {
+            board[cell[0]][cell[1]].push(boardState.types[cell[i]] + cell[i + 1]);
+        }
+    });
+    return board;
 }
 
 /**
@@ -322,6 +377,11 @@ function reset() {
     clearFlowButtons();
     state.isFinished = false;
     state.currentRound = 0;
+    if (buffer.source !== null) {
+        closeStream(buffer.source);
+    }
+    buffer.rounds.clear();
+    buffer.nextStreamedRound = 0;
     nextRound();
 }
 
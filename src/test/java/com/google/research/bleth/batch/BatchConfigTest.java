@@ -0,0 +1,74 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.batch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.research.bleth.simulator.AbstractSimulation;
+import com.google.research.bleth.simulator.AwakenessStrategyFactory;
+import com.google.research.bleth.simulator.MovementStrategyFactory;
+import java.time.Duration;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchConfigTest {
+
+    private static final String SIMULATION = "{\"roundsNum\": 5, \"rowsNum\": 4, \"colsNum\": 6, \"beaconsNum\": 2, " +
+            "\"observersNum\": 3, \"awakenessCycle\": 3, \"awakenessDuration\": 1, \"transmissionThresholdRadius\": 2, " +
+            "\"repetitions\": 2, \"seed\": 10, \"observerMovementStrategy\": \"STATIONARY\"}";
+
+    @Test
+    public void parseConfig_shouldCreateBuildersSetWithParameters() {
+        BatchConfig config = BatchConfig.parse("{\"sink\": \"FILE\", \"simulations\": [" + SIMULATION + "]}");
+
+        assertThat(config.getSink()).isEqualTo(BatchConfig.SinkType.FILE);
+        assertThat(config.getSimulations()).hasSize(1);
+        assertThat(config.getSimulations().get(0).getRepetitions()).isEqualTo(2);
+        AbstractSimulation.Builder builder = config.getSimulations().get(0).toSimulationBuilder(/* repetition= */ 1);
+        assertThat(builder.getRowNum()).isEqualTo(4);
+        assertThat(builder.getColNum()).isEqualTo(6);
+        assertThat(builder.getTransmissionThresholdRadius()).isEqualTo(2.0);
+        assertThat(builder.getSeed()).isEqualTo(11);
+        assertThat(builder.getBeaconMovementStrategyType()).isEqualTo(MovementStrategyFactory.Type.RANDOM);
+        assertThat(builder.getObserverMovementStrategyType()).isEqualTo(MovementStrategyFactory.Type.STATIONARY);
+        assertThat(builder.getAwakenessStrategyType()).isEqualTo(AwakenessStrategyFactory.Type.FIXED);
+        assertThat(builder.getRunMode()).isEqualTo(AbstractSimulation.RunMode.FULL);
+    }
+
+    @Test
+    public void parseConfigWithoutSimulations_shouldThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> BatchConfig.parse("{\"sink\": \"MEMORY\"}"));
+    }
+
+    @Test
+    public void parseConfigWithIllegalSimulation_shouldThrowException() {
+        String illegalSimulation = SIMULATION.replace("\"rowsNum\": 4", "\"rowsNum\": 0");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchConfig.parse("{\"simulations\": [" + illegalSimulation + "]}"));
+    }
+
+    @Test
+    public void runBatchInMemory_shouldSumPhasesDurationsOfAllSimulations() {
+        Map<AbstractSimulation.Phase, Duration> durations =
+                BatchRunner.run(BatchConfig.parse("{\"simulations\": [" + SIMULATION + "]}"));
+
+        assertThat(durations.keySet()).containsExactlyElementsIn(AbstractSimulation.Phase.values());
+    }
+}
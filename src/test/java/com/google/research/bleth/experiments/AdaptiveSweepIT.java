@@ -0,0 +1,99 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.dev.LocalDatastoreService;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdaptiveSweepIT {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAutoIdAllocationPolicy(LocalDatastoreService.AutoIdAllocationPolicy.SCATTERED));
+
+    private static final String EXPERIMENT_TITLE = "experiment";
+    private static final int BEACONS_NUM = 3;
+    private static final int THREADS_NUM = 2;
+    private static final int MAX_REPLICAS_NUM = 4;
+    private static final Map<String, String> PARAMETERS = ImmutableMap.<String, String>builder()
+            .put("lowerRoundsNum", "5").put("upperRoundsNum", "25").put("stepRoundsNum", "5")
+            .put("lowerRowsNum", "3").put("upperRowsNum", "3").put("stepRowsNum", "1")
+            .put("lowerColsNum", "3").put("upperColsNum", "3").put("stepColsNum", "1")
+            .put("lowerObserversNum", "1").put("upperObserversNum", "5").put("stepObserversNum", "1")
+            .put("lowerAwakenessCycle", "2").put("upperAwakenessCycle", "2").put("stepAwakenessCycle", "1")
+            .put("lowerAwakenessDuration", "1").put("upperAwakenessDuration", "1").put("stepAwakenessDuration", "1")
+            .put("lowerTransmissionThresholdRadius", "1").put("upperTransmissionThresholdRadius", "1")
+            .put("stepTransmissionThresholdRadius", "1")
+            .put("maxReplicasNum", String.valueOf(MAX_REPLICAS_NUM))
+            .build();
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+    }
+
+    @Test
+    public void executeAdaptiveSweep_shouldRunCoarseGridAndCompleteExperiment() throws EntityNotFoundException {
+        List<List<PropertyWrapper>> parametersValues = ExperimentConfigurations.createParametersValues(PARAMETERS::get);
+        int[] lastSimulationsNum = new int[1];
+
+        String experimentId = AdaptiveSweep.create(new ExperimentExecutor(THREADS_NUM), PARAMETERS::get)
+                .execute(EXPERIMENT_TITLE, BEACONS_NUM, parametersValues,
+                        (succeededNum, failedNum, simulationsNum) -> lastSimulationsNum[0] = simulationsNum);
+
+        // 3 rounds numbers * 3 observers numbers of the coarse grid, out of the 25 configurations of the full grid.
+        List<ConfigurationStatistics> aggregates = ConfigurationStatistics.read(experimentId);
+        assertThat(aggregates.size()).isAtLeast(9);
+        assertThat(aggregates.size()).isAtMost(ExperimentConfigurations.create(PARAMETERS::get).size());
+        for (ConfigurationStatistics configurationStatistics : aggregates) {
+            assertThat(configurationStatistics.getReplicasNum()).isAtLeast(2);
+            assertThat(configurationStatistics.getReplicasNum()).isAtMost(MAX_REPLICAS_NUM);
+        }
+        assertThat(Experiment.isCompleted(experimentId)).isTrue();
+        assertThat(Experiment.readSimulationsCompleted(experimentId)).isEqualTo(lastSimulationsNum[0]);
+        assertThat(ExperimentSummary.read(experimentId).isPresent()).isTrue();
+    }
+
+    @Test
+    public void executeAdaptiveSweepWithBudget_shouldRunAtMostBudget() throws EntityNotFoundException {
+        Map<String, String> parameters = ImmutableMap.<String, String>builder()
+                .putAll(PARAMETERS).put("maxSimulationsNum", "5").build();
+
+        String experimentId = AdaptiveSweep.create(new ExperimentExecutor(THREADS_NUM), parameters::get)
+                .execute(EXPERIMENT_TITLE, BEACONS_NUM, ExperimentConfigurations.createParametersValues(parameters::get),
+                        (succeededNum, failedNum, simulationsNum) -> assertThat(simulationsNum).isAtMost(5));
+
+        assertThat(Experiment.readSimulationsCompleted(experimentId)).isEqualTo(5);
+        assertThat(Experiment.isCompleted(experimentId)).isTrue();
+    }
+
+    @After
+    public void tearDown() {
+        helper.tearDown();
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.research.bleth.simulator.DatastoreStateStore;
+import com.google.research.bleth.simulator.InMemoryStateStore;
+import com.google.research.bleth.simulator.StateStores;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdaptiveSweepTest {
+
+    private static final int MIN_REPLICAS_NUM = 2;
+    private static final Map<String, String> PARAMETERS = ImmutableMap.<String, String>builder()
+            .put("lowerRoundsNum", "5").put("upperRoundsNum", "25").put("stepRoundsNum", "5")
+            .put("lowerRowsNum", "3").put("upperRowsNum", "3").put("stepRowsNum", "1")
+            .put("lowerColsNum", "3").put("upperColsNum", "3").put("stepColsNum", "1")
+            .put("lowerObserversNum", "1").put("upperObserversNum", "5").put("stepObserversNum", "1")
+            .put("lowerAwakenessCycle", "2").put("upperAwakenessCycle", "2").put("stepAwakenessCycle", "1")
+            .put("lowerAwakenessDuration", "1").put("upperAwakenessDuration", "1").put("stepAwakenessDuration", "1")
+            .put("lowerTransmissionThresholdRadius", "1").put("upperTransmissionThresholdRadius", "1")
+            .put("stepTransmissionThresholdRadius", "1")
+            .put("minReplicasNum", String.valueOf(MIN_REPLICAS_NUM))
+            .put("maxReplicasNum", "8")
+            .put("tolerance", "1000000")
+            .put("refinementThreshold", "1")
+            .build();
+
+    @Test
+    public void createCoarseGrid_shouldGetEndpointsAndMiddleOfEveryParameter() {
+        assertThat(AdaptiveSweep.coarseGrid(ImmutableList.of(9, 2, 1))).containsExactly(
+                ImmutableList.of(0, 0, 0), ImmutableList.of(0, 1, 0),
+                ImmutableList.of(4, 0, 0), ImmutableList.of(4, 1, 0),
+                ImmutableList.of(8, 0, 0), ImmutableList.of(8, 1, 0));
+    }
+
+    @Test
+    public void refineGrid_shouldGetMiddleOfNeighboursWhoseMeansDifferByMuch() {
+        Map<List<Integer>, Double> means = ImmutableMap.<List<Integer>, Double>builder()
+                .put(ImmutableList.of(0, 0), 0.0)
+                .put(ImmutableList.of(4, 0), 1.0)
+                .put(ImmutableList.of(8, 0), 50.0)
+                .put(ImmutableList.of(0, 4), 2.0)
+                .put(ImmutableList.of(4, 4), 100.0)
+                .build();
+
+        // Only neighbours along a single parameter are refined, and (0, 0)-(4, 0) differ by less than the threshold.
+        assertThat(AdaptiveSweep.refine(means, /* refinementThreshold= */ 0.1)).containsExactly(
+                ImmutableList.of(6, 0), ImmutableList.of(2, 4), ImmutableList.of(4, 2));
+    }
+
+    @Test
+    public void executeAdaptiveSweepOnInMemoryStore_shouldStopConvergedConfigurationsAtMinimalReplicas() {
+        StateStores.set(new InMemoryStateStore());
+
+        String experimentId = AdaptiveSweep.create(new ExperimentExecutor(/* threadsNum= */ 2), PARAMETERS::get)
+                .execute("experiment", /* beaconsNum= */ 3,
+                        ExperimentConfigurations.createParametersValues(PARAMETERS::get),
+                        (succeededNum, failedNum, simulationsNum) -> {});
+
+        // Every configuration of the coarse grid converges within the tolerance once its statistics are read.
+        List<ConfigurationStatistics> aggregates = ConfigurationStatistics.read(experimentId);
+        assertThat(aggregates).hasSize(9);
+        for (ConfigurationStatistics configurationStatistics : aggregates) {
+            assertThat(configurationStatistics.getReplicasNum()).isEqualTo(MIN_REPLICAS_NUM);
+        }
+    }
+
+    @Test
+    public void refineGridOfAdjacentNeighbours_shouldGetNoPoints() {
+        Map<List<Integer>, Double> means = ImmutableMap.of(
+                ImmutableList.of(0), 0.0, ImmutableList.of(1), 10.0, ImmutableList.of(3), Double.NaN);
+
+        assertThat(AdaptiveSweep.refine(means, /* refinementThreshold= */ 0.1)).isEmpty();
+    }
+
+    @After
+    public void tearDown() {
+        StateStores.set(new DatastoreStateStore());
+    }
+}
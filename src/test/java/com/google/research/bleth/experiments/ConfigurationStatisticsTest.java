@@ -0,0 +1,118 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonObject;
+import com.google.research.bleth.simulator.ObservedInterval;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.SimulationMetadata;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConfigurationStatisticsTest {
+    private static final String STATISTIC = "statistic";
+    private static final ImmutableMap<String, Object> CONFIGURATION = ImmutableMap.of(Schema.SimulationMetadata.roundsNum, 10);
+    private static final List<PropertyWrapper> SIMULATION_CONFIGURATION = ImmutableList.of(
+            PropertyWrapper.create(Schema.SimulationMetadata.roundsNum, 10),
+            PropertyWrapper.create(Schema.SimulationMetadata.rowsNum, 3),
+            PropertyWrapper.create(Schema.SimulationMetadata.colsNum, 3),
+            PropertyWrapper.create(Schema.SimulationMetadata.observersNum, 2),
+            PropertyWrapper.create(Schema.SimulationMetadata.awakenessCycle, 2),
+            PropertyWrapper.create(Schema.SimulationMetadata.awakenessDuration, 1),
+            PropertyWrapper.create(Schema.SimulationMetadata.transmissionThresholdRadius, 1.0));
+
+    @Test
+    public void addReplicas_shouldGetMeanVarianceAndConfidenceInterval() {
+        ConfigurationStatistics statistics = ConfigurationStatistics.create(CONFIGURATION);
+
+        statistics.add(ImmutableMap.of(STATISTIC, 2.0));
+        statistics.add(ImmutableMap.of(STATISTIC, 4.0));
+        statistics.add(ImmutableMap.of(STATISTIC, 9.0));
+
+        assertThat(statistics.getReplicasNum()).isEqualTo(3);
+        assertThat(statistics.getMean(STATISTIC)).isWithin(1e-9).of(5.0);
+        assertThat(statistics.getVariance(STATISTIC)).isWithin(1e-9).of(13.0);
+        // t quantile of 2 degrees of freedom * sqrt(variance / replicas number).
+        assertThat(statistics.getConfidenceIntervalHalfWidth(STATISTIC)).isWithin(1e-9).of(4.303 * Math.sqrt(13.0 / 3));
+    }
+
+    @Test
+    public void addSingleReplica_shouldGetMeanWithoutVariance() {
+        ConfigurationStatistics statistics = ConfigurationStatistics.create(CONFIGURATION);
+
+        statistics.add(ImmutableMap.of(STATISTIC, 2.0));
+        JsonObject json = statistics.toJson().getAsJsonObject();
+
+        assertThat(statistics.getVariance(STATISTIC)).isNaN();
+        assertThat(statistics.getConfidenceIntervalHalfWidth(STATISTIC)).isNaN();
+        JsonObject statisticJson = json.getAsJsonObject("statistics").getAsJsonObject(STATISTIC);
+        assertThat(statisticJson.get("mean").getAsDouble()).isEqualTo(2.0);
+        assertThat(statisticJson.has("variance")).isFalse();
+        assertThat(json.getAsJsonObject("configuration").get(Schema.SimulationMetadata.roundsNum).getAsInt()).isEqualTo(10);
+    }
+
+    @Test
+    public void mergeShards_shouldGetAggregatesOfAllReplicas() {
+        ConfigurationStatistics shard = ConfigurationStatistics.create(CONFIGURATION);
+        ConfigurationStatistics otherShard = ConfigurationStatistics.create(CONFIGURATION);
+        shard.add(ImmutableMap.of(STATISTIC, 2.0));
+        otherShard.add(ImmutableMap.of(STATISTIC, 4.0));
+        otherShard.add(ImmutableMap.of(STATISTIC, 9.0));
+
+        ConfigurationStatistics statistics = shard.merge(otherShard);
+
+        assertThat(statistics.getReplicasNum()).isEqualTo(3);
+        assertThat(statistics.getMean(STATISTIC)).isWithin(1e-9).of(5.0);
+        assertThat(statistics.getVariance(STATISTIC)).isWithin(1e-9).of(13.0);
+    }
+
+    @Test
+    public void readMissingStatistic_shouldGetNaN() {
+        ConfigurationStatistics statistics = ConfigurationStatistics.create(CONFIGURATION);
+
+        assertThat(statistics.getMean(STATISTIC)).isNaN();
+    }
+
+    @Test
+    public void createReplica_shouldGetObservedPercentAndIntervalsLengths() {
+        SimulationMetadata metadata = new SimulationMetadata(ExperimentConfigurations.toSimulationBuilder(
+                SIMULATION_CONFIGURATION, /* beaconsNum= */ 2, /* description= */ null));
+        ImmutableListMultimap<Integer, ObservedInterval> observedIntervals = ImmutableListMultimap.of(
+                0, createInterval(0, 2, true), 0, createInterval(3, 9, false),
+                1, createInterval(0, 9, false));
+
+        ConfigurationStatistics.Replica replica = ConfigurationStatistics.createReplica(metadata,
+                ImmutableMap.of("avg", 1.5), observedIntervals);
+
+        assertThat(replica.getStatistics()).containsExactly(
+                Schema.StatisticsState.entityKindDistance + ".avg", 1.5,
+                Schema.StatisticsState.observedPercent, 15.0,
+                Schema.StatisticsState.averageLengthObservedInterval, 3.0,
+                Schema.StatisticsState.averageLengthUnobservedInterval, 8.5);
+        assertThat(replica.getConfiguration()).containsEntry(Schema.SimulationMetadata.beaconsNum, 2);
+    }
+
+    private static ObservedInterval createInterval(int start, int end, boolean observed) {
+        return ObservedInterval.builder().setStart(start).setEnd(end).setObserved(observed).build();
+    }
+}
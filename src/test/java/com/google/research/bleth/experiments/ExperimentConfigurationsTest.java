@@ -0,0 +1,135 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.research.bleth.simulator.AbstractSimulation;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExperimentConfigurationsTest {
+    private static final Map<String, String> PARAMETERS = ImmutableMap.<String, String>builder()
+            .put("lowerRoundsNum", "10").put("upperRoundsNum", "20").put("stepRoundsNum", "10")
+            .put("lowerRowsNum", "5").put("upperRowsNum", "5").put("stepRowsNum", "1")
+            .put("lowerColsNum", "5").put("upperColsNum", "5").put("stepColsNum", "1")
+            .put("lowerObserversNum", "1").put("upperObserversNum", "2").put("stepObserversNum", "1")
+            .put("lowerAwakenessCycle", "2").put("upperAwakenessCycle", "2").put("stepAwakenessCycle", "1")
+            .put("lowerAwakenessDuration", "1").put("upperAwakenessDuration", "3").put("stepAwakenessDuration", "1")
+            .put("lowerTransmissionThresholdRadius", "1").put("upperTransmissionThresholdRadius", "1.5")
+            .put("stepTransmissionThresholdRadius", "1")
+            .build();
+
+    @Test
+    public void createConfigurations_shouldGetCartesianProductOfLegalValues() {
+        Set<List<PropertyWrapper>> configurations = ExperimentConfigurations.create(PARAMETERS::get);
+
+        // 2 rounds numbers * 2 observers numbers * 2 awakeness durations not exceeding the awakeness cycle.
+        assertThat(configurations).hasSize(8);
+        for (List<PropertyWrapper> configuration : configurations) {
+            assertThat(configuration).hasSize(7);
+        }
+    }
+
+    @Test
+    public void createSimulationBuilderFromConfiguration_shouldGetBuilderWithConfigurationValues() {
+        List<PropertyWrapper> configuration = ExperimentConfigurations.create(PARAMETERS::get).iterator().next();
+
+        AbstractSimulation.Builder builder =
+                ExperimentConfigurations.toSimulationBuilder(configuration, /* beaconsNum= */ 3, "description");
+
+        assertThat(configuration).contains(PropertyWrapper.create("roundsNum", builder.getMaxNumberOfRounds()));
+        assertThat(configuration).contains(PropertyWrapper.create("observersNum", builder.getObserversNum()));
+        assertThat(configuration).contains(PropertyWrapper.create("awakenessDuration", builder.getAwakenessDuration()));
+        assertThat(builder.getRowNum()).isEqualTo(5);
+        assertThat(builder.getBeaconsNum()).isEqualTo(3);
+        assertThat(builder.getTransmissionThresholdRadius()).isEqualTo(1.0);
+        assertThat(builder.getBeaconMovementStrategyType()).isEqualTo(ExperimentConfigurations.defaultMovementStrategy);
+        assertThat(builder.getAwakenessStrategyType()).isEqualTo(ExperimentConfigurations.defaultAwakenessStrategy);
+    }
+
+    @Test
+    public void batchConfigurations_shouldBoundCostOfBatchesAndKeepAllConfigurations() {
+        Set<List<PropertyWrapper>> configurations = ExperimentConfigurations.create(PARAMETERS::get);
+        double maxBatchCost = 45;
+
+        List<List<List<PropertyWrapper>>> batches = ExperimentConfigurations.batch(configurations,
+                ExperimentConfigurationsTest::roundsNum, maxBatchCost, /* maxBatchSize= */ 3);
+
+        assertThat(batches.stream().flatMap(List::stream).collect(Collectors.toList()))
+                .containsExactlyElementsIn(configurations).inOrder();
+        for (List<List<PropertyWrapper>> batch : batches) {
+            assertThat(batch.size()).isAtMost(3);
+            assertThat(batch.stream().mapToDouble(ExperimentConfigurationsTest::roundsNum).sum()).isAtMost(maxBatchCost);
+        }
+    }
+
+    @Test
+    public void batchExpensiveConfiguration_shouldGetBatchOfSingleConfiguration() {
+        Set<List<PropertyWrapper>> configurations = ExperimentConfigurations.create(PARAMETERS::get);
+
+        List<List<List<PropertyWrapper>>> batches = ExperimentConfigurations.batch(configurations,
+                ExperimentConfigurationsTest::roundsNum, /* maxBatchCost= */ 1, /* maxBatchSize= */ 10);
+
+        assertThat(batches).hasSize(configurations.size());
+    }
+
+    @Test
+    public void orderConfigurationsByCost_shouldGetLargestFirst() {
+        Set<List<PropertyWrapper>> configurations = ExperimentConfigurations.create(PARAMETERS::get);
+
+        List<List<PropertyWrapper>> orderedConfigurations =
+                ExperimentConfigurations.orderByCost(configurations, ExperimentConfigurationsTest::roundsNum);
+
+        assertThat(orderedConfigurations).containsExactlyElementsIn(configurations);
+        assertThat(orderedConfigurations.stream().map(ExperimentConfigurationsTest::roundsNum).collect(Collectors.toList()))
+                .isInOrder(Comparator.reverseOrder());
+    }
+
+    @Test
+    public void serializeConfigurationsToJsonAndBack_shouldGetSameSimulationBuilders() {
+        List<List<PropertyWrapper>> configurations = new ArrayList<>(ExperimentConfigurations.create(PARAMETERS::get));
+
+        List<List<PropertyWrapper>> deserialized =
+                ExperimentConfigurations.fromJson(ExperimentConfigurations.toJson(configurations));
+
+        assertThat(deserialized).hasSize(configurations.size());
+        for (int i = 0; i < configurations.size(); i++) {
+            AbstractSimulation.Builder expected =
+                    ExperimentConfigurations.toSimulationBuilder(configurations.get(i), /* beaconsNum= */ 3, "description");
+            AbstractSimulation.Builder actual =
+                    ExperimentConfigurations.toSimulationBuilder(deserialized.get(i), /* beaconsNum= */ 3, "description");
+            assertThat(actual.getMaxNumberOfRounds()).isEqualTo(expected.getMaxNumberOfRounds());
+            assertThat(actual.getObserversNum()).isEqualTo(expected.getObserversNum());
+            assertThat(actual.getAwakenessDuration()).isEqualTo(expected.getAwakenessDuration());
+            assertThat(actual.getTransmissionThresholdRadius()).isEqualTo(expected.getTransmissionThresholdRadius());
+        }
+    }
+
+    private static double roundsNum(List<PropertyWrapper> configuration) {
+        return configuration.stream()
+                .filter(propertyWrapper -> propertyWrapper.property().equals("roundsNum"))
+                .findAny().get().value().doubleValue();
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.dev.LocalDatastoreService;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.research.bleth.simulator.Schema;
+import com.google.research.bleth.simulator.StatisticsState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExperimentExecutorIT {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAutoIdAllocationPolicy(LocalDatastoreService.AutoIdAllocationPolicy.SCATTERED));
+
+    private static final String EXPERIMENT_TITLE = "experiment";
+    private static final int BEACONS_NUM = 5;
+    private static final int THREADS_NUM = 2;
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+    }
+
+    @Test
+    public void executeExperiment_shouldRunAllSimulationsAndUpdateExperiment() throws EntityNotFoundException {
+        Set<List<PropertyWrapper>> configurations = ImmutableSet.of(
+                createConfiguration(/* roundsNum= */ 5, /* observersNum= */ 1),
+                createConfiguration(/* roundsNum= */ 5, /* observersNum= */ 2),
+                createConfiguration(/* roundsNum= */ 10, /* observersNum= */ 1),
+                createConfiguration(/* roundsNum= */ 10, /* observersNum= */ 2));
+        List<Integer> progress = new ArrayList<>();
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+        String experimentId = new ExperimentExecutor(THREADS_NUM).execute(EXPERIMENT_TITLE, BEACONS_NUM, configurations,
+                /* repetitions= */ 1,
+                (succeededNum, failedNum, simulationsNum) -> {
+                    assertThat(failedNum).isEqualTo(0);
+                    assertThat(simulationsNum).isEqualTo(configurations.size());
+                    progress.add(succeededNum);
+                });
+
+        assertThat(progress).containsExactly(1, 2, 3, 4).inOrder();
+        long simulationsLeft = (Long) datastore.get(KeyFactory.stringToKey(experimentId))
+                .getProperty(Schema.Experiment.simulationsLeft);
+        assertThat(simulationsLeft).isEqualTo(0);
+        Query.Filter filterByExperimentId = new Query.FilterPredicate(Schema.ExperimentsToSimulations.experimentId,
+                Query.FilterOperator.EQUAL, experimentId);
+        List<String> simulationIds = new ArrayList<>();
+        datastore.prepare(new Query(Schema.ExperimentsToSimulations.entityKind).setFilter(filterByExperimentId))
+                .asIterable()
+                .forEach(entity -> simulationIds.add((String) entity.getProperty(Schema.ExperimentsToSimulations.simulationId)));
+        assertThat(simulationIds).hasSize(configurations.size());
+        for (String simulationId : simulationIds) {
+            assertThat(StatisticsState.readIntervalStats(simulationId)).isNotEmpty();
+        }
+        assertThat(datastore.prepare(new Query(Schema.BoardState.entityKindPackedReal))
+                .countEntities(FetchOptions.Builder.withDefaults())).isEqualTo(0);
+    }
+
+    @Test
+    public void executeExperimentWithRepetitions_shouldAggregateStatisticsOfEachConfiguration() {
+        Set<List<PropertyWrapper>> configurations = ImmutableSet.of(
+                createConfiguration(/* roundsNum= */ 5, /* observersNum= */ 1),
+                createConfiguration(/* roundsNum= */ 10, /* observersNum= */ 2));
+        int repetitions = 3;
+
+        String experimentId = new ExperimentExecutor(THREADS_NUM).execute(EXPERIMENT_TITLE, BEACONS_NUM, configurations,
+                repetitions, (succeededNum, failedNum, simulationsNum) ->
+                        assertThat(simulationsNum).isEqualTo(configurations.size() * repetitions));
+
+        List<ConfigurationStatistics> aggregates = ConfigurationStatistics.read(experimentId);
+        assertThat(aggregates).hasSize(configurations.size());
+        for (ConfigurationStatistics configurationStatistics : aggregates) {
+            assertThat(configurationStatistics.getReplicasNum()).isEqualTo(repetitions);
+            assertThat(configurationStatistics.getMean(Schema.StatisticsState.observedPercent)).isAtLeast(0.0);
+            assertThat(configurationStatistics.getVariance(Schema.StatisticsState.observedPercent)).isAtLeast(0.0);
+        }
+    }
+
+    @Test
+    public void executeExperimentWithFailingSimulation_shouldCloseExperimentWithSucceededSimulations()
+            throws EntityNotFoundException {
+        Set<List<PropertyWrapper>> configurations = ImmutableSet.of(
+                createConfiguration(/* roundsNum= */ 5, /* observersNum= */ 1),
+                createConfiguration(/* roundsNum= */ 5, /* observersNum= */ 0)); // fails on every attempt.
+        List<Integer> failures = new ArrayList<>();
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+        String experimentId = new ExperimentExecutor(THREADS_NUM).execute(EXPERIMENT_TITLE, BEACONS_NUM, configurations,
+                /* repetitions= */ 1, (succeededNum, failedNum, simulationsNum) -> failures.add(failedNum));
+
+        assertThat(failures).hasSize(configurations.size());
+        assertThat(failures.get(failures.size() - 1)).isEqualTo(1);
+        assertThat(Experiment.isCompleted(experimentId)).isTrue();
+        Entity experiment = datastore.get(KeyFactory.stringToKey(experimentId));
+        assertThat(experiment.getProperty(Schema.Experiment.simulationsNum)).isEqualTo(1L);
+        assertThat(experiment.getProperty(Schema.Experiment.simulationsFailed)).isEqualTo(1L);
+    }
+
+    @After
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    private static List<PropertyWrapper> createConfiguration(int roundsNum, int observersNum) {
+        return ImmutableList.of(
+                PropertyWrapper.create(Schema.SimulationMetadata.roundsNum, roundsNum),
+                PropertyWrapper.create(Schema.SimulationMetadata.rowsNum, 3),
+                PropertyWrapper.create(Schema.SimulationMetadata.colsNum, 3),
+                PropertyWrapper.create(Schema.SimulationMetadata.observersNum, observersNum),
+                PropertyWrapper.create(Schema.SimulationMetadata.awakenessCycle, 2),
+                PropertyWrapper.create(Schema.SimulationMetadata.awakenessDuration, 1),
+                PropertyWrapper.create(Schema.SimulationMetadata.transmissionThresholdRadius, 1.0));
+    }
+}
@@ -0,0 +1,92 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.dev.LocalDatastoreService;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.research.bleth.simulator.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExperimentIT {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAutoIdAllocationPolicy(LocalDatastoreService.AutoIdAllocationPolicy.SCATTERED));
+
+    private static final String EXPERIMENT_TITLE = "experiment";
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+    }
+
+    @Test
+    public void addAllSimulations_shouldCountSimulationsInShardsAndCompleteExperiment() throws EntityNotFoundException {
+        int simulationsNum = 50;
+        String experimentId = Experiment.create(EXPERIMENT_TITLE, simulationsNum);
+
+        for (int simulation = 0; simulation < simulationsNum - 1; simulation++) {
+            Experiment.addSimulation(experimentId, "simulation" + simulation);
+        }
+        assertThat(Experiment.readSimulationsCompleted(experimentId)).isEqualTo(simulationsNum - 1);
+        assertThat(Experiment.isCompleted(experimentId)).isFalse();
+        Experiment.addSimulation(experimentId, "simulation" + (simulationsNum - 1));
+
+        assertThat(Experiment.readSimulationsCompleted(experimentId)).isEqualTo(simulationsNum);
+        assertThat(Experiment.isCompleted(experimentId)).isTrue();
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        assertThat(datastore.prepare(new Query(Schema.ExperimentProgressShard.entityKind))
+                .countEntities(FetchOptions.Builder.withDefaults())).isGreaterThan(1);
+        assertThat(datastore.prepare(new Query(Schema.ExperimentsToSimulations.entityKind))
+                .countEntities(FetchOptions.Builder.withDefaults())).isEqualTo(simulationsNum);
+    }
+
+    @Test
+    public void addAllSimulationsToUnshardedExperiment_shouldDecreaseSimulationsLeftAndCompleteExperiment()
+            throws EntityNotFoundException {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity unshardedExperiment = new Entity(Schema.Experiment.entityKind);
+        unshardedExperiment.setProperty(Schema.Experiment.experimentTitle, EXPERIMENT_TITLE);
+        unshardedExperiment.setProperty(Schema.Experiment.simulationsLeft, 2);
+        String experimentId = KeyFactory.keyToString(datastore.put(unshardedExperiment));
+
+        Experiment.addSimulation(experimentId, "first");
+        assertThat(Experiment.isCompleted(experimentId)).isFalse();
+        Experiment.addSimulation(experimentId, "second");
+
+        assertThat(Experiment.readSimulationsCompleted(experimentId)).isEqualTo(2);
+        assertThat(Experiment.isCompleted(experimentId)).isTrue();
+    }
+
+    @After
+    public void tearDown() {
+        helper.tearDown();
+    }
+}
@@ -0,0 +1,109 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.dev.LocalDatastoreService;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.research.bleth.simulator.AbstractSimulation;
+import com.google.research.bleth.simulator.Schema;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExperimentSummaryIT {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAutoIdAllocationPolicy(LocalDatastoreService.AutoIdAllocationPolicy.SCATTERED));
+
+    private static final String EXPERIMENT_TITLE = "experiment";
+    private static final int BEACONS_NUM = 5;
+    private static final List<PropertyWrapper> CONFIGURATION = ImmutableList.of(
+            PropertyWrapper.create(Schema.SimulationMetadata.roundsNum, 10),
+            PropertyWrapper.create(Schema.SimulationMetadata.rowsNum, 3),
+            PropertyWrapper.create(Schema.SimulationMetadata.colsNum, 3),
+            PropertyWrapper.create(Schema.SimulationMetadata.observersNum, 2),
+            PropertyWrapper.create(Schema.SimulationMetadata.awakenessCycle, 2),
+            PropertyWrapper.create(Schema.SimulationMetadata.awakenessDuration, 1),
+            PropertyWrapper.create(Schema.SimulationMetadata.transmissionThresholdRadius, 1.0));
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+    }
+
+    @Test
+    public void completeExperiment_shouldMaterializeSummaryWithConfigurationAggregates() throws EntityNotFoundException {
+        String experimentId = Experiment.create(EXPERIMENT_TITLE, /* simulationsNum= */ 2);
+
+        Experiment.addSimulation(experimentId, runSimulation(/* seed= */ 1));
+        assertThat(ExperimentSummary.read(experimentId).isPresent()).isFalse();
+        assertThat(Experiment.isCompleted(experimentId)).isFalse();
+        Experiment.addSimulation(experimentId, runSimulation(/* seed= */ 2));
+
+        assertThat(Experiment.isCompleted(experimentId)).isTrue();
+        ExperimentSummary summary = ExperimentSummary.read(experimentId).get();
+        JsonObject json = JsonParser.parseString(summary.toJson()).getAsJsonObject();
+        assertThat(json.getAsJsonObject("simulations").size()).isEqualTo(2);
+        assertThat(json.getAsJsonArray("configurations").size()).isEqualTo(1);
+        JsonObject aggregates = json.getAsJsonArray("configurations").get(0).getAsJsonObject();
+        assertThat(aggregates.get("replicasNum").getAsInt()).isEqualTo(2);
+        assertThat(aggregates.getAsJsonObject("statistics").has(Schema.StatisticsState.observedPercent)).isTrue();
+        assertThat(summary.toJson()).isEqualTo(ExperimentSummary.compute(experimentId).toJson());
+        ConfigurationStatistics storedAggregates = ConfigurationStatistics.read(experimentId).get(0);
+        assertThat(storedAggregates.getReplicasNum()).isEqualTo(2);
+        assertThat(storedAggregates.getMean(Schema.StatisticsState.observedPercent)).isWithin(1e-9).of(aggregates
+                .getAsJsonObject("statistics").getAsJsonObject(Schema.StatisticsState.observedPercent).get("mean").getAsDouble());
+    }
+
+    @Test
+    public void readMaterializedSummary_shouldEqualWrittenSummary() {
+        String experimentId = Experiment.create(EXPERIMENT_TITLE, /* simulationsNum= */ 0);
+
+        ExperimentSummary written = ExperimentSummary.materialize(experimentId);
+        ExperimentSummary read = ExperimentSummary.read(experimentId).get();
+
+        assertThat(read.getEtag()).isEqualTo(written.getEtag());
+        assertThat(read.getLastModified()).isEqualTo(written.getLastModified());
+        assertThat(read.getCompressedJson()).isEqualTo(written.getCompressedJson());
+        assertThat(read.toJson()).isEqualTo("{\"configurations\":[],\"simulations\":{}}");
+    }
+
+    @After
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    private static String runSimulation(long seed) {
+        AbstractSimulation simulation = ExperimentConfigurations
+                .toSimulationBuilder(CONFIGURATION, BEACONS_NUM, Experiment.describeSimulation(EXPERIMENT_TITLE))
+                .setRunMode(AbstractSimulation.RunMode.STATISTICS_ONLY)
+                .setSeed(seed)
+                .build();
+        simulation.run();
+        return simulation.getId();
+    }
+}
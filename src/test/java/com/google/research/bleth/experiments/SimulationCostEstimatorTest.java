@@ -0,0 +1,95 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.experiments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.research.bleth.simulator.Schema;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SimulationCostEstimatorTest {
+    private static final int BEACONS_NUM = 10;
+
+    @Test
+    public void fitToExactRunTimes_shouldEstimateRunTimesOfOtherSimulations() {
+        // Run time = 20 + 0.01 * rows * cols + 0.001 * rounds * beacons * observers + 0.05 * rounds * agents.
+        List<double[]> samplesFeatures = new ArrayList<>();
+        List<Double> runTimesMillis = new ArrayList<>();
+        for (int roundsNum = 10; roundsNum <= 50; roundsNum += 10) {
+            for (int observersNum = 1; observersNum <= 5; observersNum++) {
+                int boardSize = roundsNum + 3 * observersNum;
+                samplesFeatures.add(SimulationCostEstimator.features(boardSize, boardSize, roundsNum, BEACONS_NUM, observersNum));
+                runTimesMillis.add(runTimeMillis(boardSize, roundsNum, observersNum));
+            }
+        }
+
+        SimulationCostEstimator estimator = SimulationCostEstimator.fit(samplesFeatures, runTimesMillis);
+
+        assertThat(estimator.estimate(createConfiguration(/* boardSize= */ 70, /* roundsNum= */ 100, /* observersNum= */ 8),
+                BEACONS_NUM)).isWithin(1e-6).of(runTimeMillis(70, 100, 8));
+    }
+
+    @Test
+    public void fitToFewRunTimes_shouldUseDefaultCoefficients() {
+        List<double[]> samplesFeatures = ImmutableList.of(SimulationCostEstimator.features(5, 5, 10, BEACONS_NUM, 1));
+        List<Double> runTimesMillis = ImmutableList.of(1000.0);
+        List<PropertyWrapper> configuration = createConfiguration(/* boardSize= */ 5, /* roundsNum= */ 10, /* observersNum= */ 1);
+
+        SimulationCostEstimator estimator = SimulationCostEstimator.fit(samplesFeatures, runTimesMillis);
+
+        assertThat(estimator.estimate(configuration, BEACONS_NUM))
+                .isEqualTo(SimulationCostEstimator.createDefault().estimate(configuration, BEACONS_NUM));
+    }
+
+    @Test
+    public void fitToRunTimesDecreasingWithFeature_shouldNotEstimateNegativeCosts() {
+        // Run times decrease with the board size, which would get a negative coefficient by least squares.
+        List<double[]> samplesFeatures = new ArrayList<>();
+        List<Double> runTimesMillis = new ArrayList<>();
+        for (int roundsNum = 10; roundsNum <= 50; roundsNum += 10) {
+            for (int boardSize = 5; boardSize <= 25; boardSize += 5) {
+                samplesFeatures.add(SimulationCostEstimator.features(boardSize, boardSize, roundsNum, BEACONS_NUM, 1));
+                runTimesMillis.add(1000.0 + roundsNum - boardSize * boardSize);
+            }
+        }
+
+        SimulationCostEstimator estimator = SimulationCostEstimator.fit(samplesFeatures, runTimesMillis);
+
+        assertThat(estimator.estimate(createConfiguration(/* boardSize= */ 1000, /* roundsNum= */ 10, /* observersNum= */ 1),
+                BEACONS_NUM)).isAtLeast(0.0);
+    }
+
+    private static double runTimeMillis(int boardSize, int roundsNum, int observersNum) {
+        return 20 + 0.01 * boardSize * boardSize + 0.001 * roundsNum * BEACONS_NUM * observersNum
+                + 0.05 * roundsNum * (BEACONS_NUM + observersNum);
+    }
+
+    private static List<PropertyWrapper> createConfiguration(int boardSize, int roundsNum, int observersNum) {
+        return ImmutableList.of(
+                PropertyWrapper.create(Schema.SimulationMetadata.roundsNum, roundsNum),
+                PropertyWrapper.create(Schema.SimulationMetadata.rowsNum, boardSize),
+                PropertyWrapper.create(Schema.SimulationMetadata.colsNum, boardSize),
+                PropertyWrapper.create(Schema.SimulationMetadata.observersNum, observersNum),
+                PropertyWrapper.create(Schema.SimulationMetadata.awakenessCycle, 2),
+                PropertyWrapper.create(Schema.SimulationMetadata.awakenessDuration, 1),
+                PropertyWrapper.create(Schema.SimulationMetadata.transmissionThresholdRadius, 1.0));
+    }
+}
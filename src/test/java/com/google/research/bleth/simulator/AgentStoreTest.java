@@ -0,0 +1,89 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AgentStoreTest {
+
+    @Test
+    public void addedAgentsAreAssignedConsecutiveIds() {
+        AgentStore store = new AgentStore();
+
+        int firstId = store.add(0, 1);
+        int secondId = store.add(2, 3);
+
+        assertThat(firstId).isEqualTo(0);
+        assertThat(secondId).isEqualTo(1);
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void addManyAgentsKeepsAllLocations() {
+        AgentStore store = new AgentStore();
+
+        for (int i = 0; i < 1000; i++) {
+            store.add(i, i + 1);
+        }
+
+        assertThat(store.size()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(store.row(i)).isEqualTo(i);
+            assertThat(store.col(i)).isEqualTo(i + 1);
+        }
+    }
+
+    @Test
+    public void setLocationUpdatesOnlyGivenAgent() {
+        AgentStore store = new AgentStore();
+        int firstId = store.add(0, 0);
+        int secondId = store.add(1, 1);
+
+        store.setLocation(firstId, 2, 3);
+
+        assertThat(store.row(firstId)).isEqualTo(2);
+        assertThat(store.col(firstId)).isEqualTo(3);
+        assertThat(store.row(secondId)).isEqualTo(1);
+        assertThat(store.col(secondId)).isEqualTo(1);
+    }
+
+    @Test
+    public void setAwakeUpdatesOnlyGivenAgent() {
+        AgentStore store = new AgentStore();
+        int firstId = store.add(0, 0);
+        int secondId = store.add(1, 1);
+
+        store.setAwake(firstId, true);
+
+        assertThat(store.isAwake(firstId)).isTrue();
+        assertThat(store.isAwake(secondId)).isFalse();
+    }
+
+    @Test
+    public void readMissingAgentShouldThrowException() {
+        AgentStore store = new AgentStore();
+        store.add(0, 0);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            store.row(1);
+        });
+    }
+}
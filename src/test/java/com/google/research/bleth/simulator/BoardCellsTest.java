@@ -0,0 +1,74 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BoardCellsTest {
+    private static final int ROWS = 2;
+    private static final int COLS = 3;
+
+    @Test
+    public void addAgents_shouldKeepOnlyPopulatedCellsInRowMajorOrder() {
+        BoardCells cells = new BoardCells(ROWS, COLS);
+
+        cells.add(1, 0, "Beacon1");
+        cells.add(0, 2, "Beacon0");
+        cells.add(0, 2, "Observer0");
+
+        assertThat(cells.size()).isEqualTo(2);
+        assertThat(cells.agentsNum()).isEqualTo(3);
+        assertThat(cells.get(0, 2)).containsExactly("Beacon0", "Observer0").inOrder();
+        assertThat(cells.get(1, 1)).isEmpty();
+        assertThat(cells.toString()).isEqualTo("{(0, 2)=[Beacon0, Observer0], (1, 0)=[Beacon1]}");
+    }
+
+    @Test
+    public void removeLastAgentOfCell_shouldEqualEmptyCells() {
+        BoardCells cells = new BoardCells(ROWS, COLS);
+        cells.add(1, 2, "Beacon0");
+
+        assertThat(cells.remove(1, 2, "Beacon1")).isFalse();
+        assertThat(cells.remove(1, 2, "Beacon0")).isTrue();
+        assertThat(cells.size()).isEqualTo(0);
+        assertThat(cells).isEqualTo(new BoardCells(ROWS, COLS));
+    }
+
+    @Test
+    public void modifyCopy_shouldNotModifyOriginal() {
+        BoardCells cells = new BoardCells(ROWS, COLS);
+        cells.add(0, 0, "Beacon0");
+
+        BoardCells copy = cells.copy();
+        copy.add(0, 0, "Beacon1");
+        copy.remove(0, 0, "Beacon0");
+
+        assertThat(cells.get(0, 0)).containsExactly("Beacon0");
+        assertThat(copy.get(0, 0)).containsExactly("Beacon1");
+    }
+
+    @Test
+    public void addAgentOutsideBoard_shouldThrowException() {
+        BoardCells cells = new BoardCells(ROWS, COLS);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> cells.add(ROWS, 0, "Beacon0"));
+    }
+}
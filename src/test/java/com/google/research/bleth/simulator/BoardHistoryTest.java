@@ -0,0 +1,152 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BoardHistoryTest {
+
+    private static final int ROWS = 3;
+    private static final int COLS = 4;
+    private static final int ROUNDS_NUM = 5;
+    private static final String SIMULATION_ID = "simulation";
+    private static final String ENTITY_KIND = Schema.BoardState.entityKindReal;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = temporaryFolder.newFile("board" + BoardHistoryWriter.FILE_EXTENSION).toPath();
+    }
+
+    @Test
+    public void writeRoundsOutOfOrder_shouldReadEachRound() throws IOException {
+        BoardState first = createBoardState(0, "Beacon0", "Observer3", "Observer1");
+        BoardState second = createBoardState(1, "Observer3", "Beacon0", "Observer1");
+        try (BoardHistoryWriter writer = new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM)) {
+            writer.write(second);
+            writer.write(first);
+        }
+
+        BoardHistoryReader reader = BoardHistoryReader.open(file);
+
+        assertThat(reader.read(SIMULATION_ID, 0, ENTITY_KIND)).isEqualTo(first);
+        assertThat(reader.read(SIMULATION_ID, 1, ENTITY_KIND)).isEqualTo(second);
+        assertThat(reader.readTypes()).containsExactly("Observer", "Beacon").inOrder();
+    }
+
+    @Test
+    public void readRound_shouldSliceAgentsColumns() throws IOException {
+        try (BoardHistoryWriter writer = new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM)) {
+            writer.write(createBoardState(2, "Beacon7", "Beacon8"));
+        }
+
+        BoardHistoryReader.Round round = BoardHistoryReader.open(file).readRound(2);
+
+        assertThat(round.size()).isEqualTo(2);
+        assertThat(round.agent(1) & BoardHistoryWriter.MAX_ID).isEqualTo(8);
+        assertThat(round.row(1)).isEqualTo(0);
+        assertThat(round.col(1)).isEqualTo(1);
+    }
+
+    @Test
+    public void readUnwrittenRound_shouldReturnEmptyBoardState() throws IOException {
+        try (BoardHistoryWriter writer = new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM)) {
+            writer.write(createBoardState(0, "Beacon0"));
+        }
+
+        BoardHistoryReader reader = BoardHistoryReader.open(file);
+
+        assertThat(reader.isWritten(3)).isFalse();
+        assertThat(reader.readRound(3)).isNull();
+        assertThat(reader.read(SIMULATION_ID, 3, ENTITY_KIND)).isEqualTo(createBoardState(3));
+    }
+
+    @Test
+    public void readRoundWrittenAfterOpening_shouldMapFileAgain() throws IOException {
+        try (BoardHistoryWriter writer = new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM)) {
+            BoardHistoryReader reader = BoardHistoryReader.open(file);
+            BoardState boardState = createBoardState(0, "Beacon0", "Beacon1");
+
+            writer.write(boardState);
+
+            assertThat(reader.read(SIMULATION_ID, 0, ENTITY_KIND)).isEqualTo(boardState);
+        }
+    }
+
+    @Test
+    public void readRoundsCrossingSegments_shouldReadEachRound() throws IOException {
+        List<BoardState> boardStates = new ArrayList<>();
+        try (BoardHistoryWriter writer = new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM)) {
+            // The smallest segments split the index and the rounds' columns between segments.
+            BoardHistoryReader reader = BoardHistoryReader.open(file, BoardHistoryWriter.HEADER_SIZE);
+            for (int round = 0; round < ROUNDS_NUM; round++) {
+                String[] agents = new String[ROWS * COLS];
+                for (int i = 0; i < agents.length; i++) {
+                    agents[i] = "Beacon" + (round + i);
+                }
+                boardStates.add(createBoardState(round, agents));
+                writer.write(boardStates.get(round));
+            }
+
+            for (int round = 0; round < ROUNDS_NUM; round++) {
+                assertThat(reader.read(SIMULATION_ID, round, ENTITY_KIND)).isEqualTo(boardStates.get(round));
+            }
+        }
+    }
+
+    @Test
+    public void writeRoundTwice_shouldThrowException() throws IOException {
+        try (BoardHistoryWriter writer = new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM)) {
+            writer.write(createBoardState(0, "Beacon0"));
+
+            assertThrows(IllegalArgumentException.class, () -> writer.write(createBoardState(0, "Beacon0")));
+        }
+    }
+
+    @Test
+    public void readRoundExceedingRoundsNum_shouldThrowException() throws IOException {
+        new BoardHistoryWriter(file, ROWS, COLS, ROUNDS_NUM).close();
+
+        BoardHistoryReader reader = BoardHistoryReader.open(file);
+
+        assertThrows(IllegalArgumentException.class, () -> reader.readRound(ROUNDS_NUM));
+    }
+
+    // Creates a board state whose i-th agent is in the i-th cell in row-major order.
+    private static BoardState createBoardState(int round, String... agents) {
+        BoardCells cells = new BoardCells(ROWS, COLS);
+        for (int i = 0; i < agents.length; i++) {
+            cells.add(i / COLS, i % COLS, agents[i]);
+        }
+        return new BoardState(ROWS, COLS, cells, SIMULATION_ID, round, ENTITY_KIND);
+    }
+}
@@ -0,0 +1,210 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BoardStateCodecTest {
+    private static final int BOARD_DIMENSION = 3;
+
+    @Test
+    public void encodeThenDecodeEmptyMatrix_shouldGetEmptyMatrix() {
+        BoardCells cells = createEmptyCells();
+        BoardCells decoded = createEmptyCells();
+
+        BoardStateCodec.decode(BoardStateCodec.encode(cells), decoded);
+
+        assertThat(decoded).isEqualTo(cells);
+    }
+
+    @Test
+    public void encodeThenDecodeMatrix_shouldKeepAgentsAndTheirOrderWithinCells() {
+        BoardCells cells = createEmptyCells();
+        cells.add(0, 0, "Observer300");
+        cells.add(0, 0, "Beacon0");
+        cells.add(0, 0, "Beacon1");
+        cells.add(2, 1, "Beacon2147483647");
+        cells.add(1, 2, "Observer0");
+        BoardCells decoded = createEmptyCells();
+
+        BoardStateCodec.decode(BoardStateCodec.encode(cells), decoded);
+
+        assertThat(decoded).isEqualTo(cells);
+    }
+
+    @Test
+    public void encodeAgentWithoutId_shouldThrowException() {
+        BoardCells cells = createEmptyCells();
+        cells.add(0, 0, "Beacon");
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            BoardStateCodec.encode(cells);
+        });
+    }
+
+    @Test
+    public void decodeMalformedBytes_shouldThrowException() {
+        BoardCells cells = createEmptyCells();
+        cells.add(0, 0, "Beacon0");
+        byte[] encoded = BoardStateCodec.encode(cells);
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            BoardStateCodec.decode(truncated, createEmptyCells());
+        });
+    }
+
+    @Test
+    public void encodeMovesThenApplyMoves_shouldGetCurrentMatrix() {
+        BoardCells previous = createEmptyCells();
+        addAll(previous, 0, 0, "Beacon0", "Beacon1", "Beacon2", "Observer0");
+        previous.add(1, 1, "Beacon3");
+        addAll(previous, 2, 0, "Beacon5", "Beacon6", "Beacon7", "Beacon8", "Beacon9");
+        BoardCells current = createEmptyCells();
+        addAll(current, 0, 0, "Beacon0", "Beacon2", "Beacon3", "Beacon1"); // Beacon1 moved to the end.
+        addAll(current, 2, 0, "Beacon5", "Beacon6", "Beacon7", "Beacon8", "Beacon9");
+        current.add(0, 1, "Observer0");
+        current.add(2, 2, "Beacon4"); // Beacon4 is new.
+        BoardCells reconstructed = createEmptyCells();
+        BoardStateCodec.decode(BoardStateCodec.encode(previous), reconstructed);
+
+        BoardStateCodec.applyMoves(BoardStateCodec.encodeMoves(previous, current), reconstructed);
+
+        assertThat(reconstructed).isEqualTo(current);
+    }
+
+    @Test
+    public void encodeMovesOfRemovedAgentThenApplyMoves_shouldGetCurrentMatrix() {
+        BoardCells previous = createEmptyCells();
+        addAll(previous, 0, 0, "Beacon0", "Beacon1", "Beacon2");
+        BoardCells current = createEmptyCells();
+        addAll(current, 0, 0, "Beacon0", "Beacon2");
+        BoardCells reconstructed = createEmptyCells();
+        BoardStateCodec.decode(BoardStateCodec.encode(previous), reconstructed);
+
+        BoardStateCodec.applyMoves(BoardStateCodec.encodeMoves(previous, current), reconstructed);
+
+        assertThat(reconstructed).isEqualTo(current);
+    }
+
+    @Test
+    public void encodeMovesOfMostAgents_shouldReturnNull() {
+        BoardCells previous = createEmptyCells();
+        addAll(previous, 0, 0, "Beacon0", "Beacon1");
+        BoardCells current = createEmptyCells();
+        addAll(current, 1, 1, "Beacon0", "Beacon1");
+
+        assertThat(BoardStateCodec.encodeMoves(previous, current)).isNull();
+    }
+
+    @Test
+    public void encodeRandomMovesThenApplyMoves_shouldGetCurrentMatrices() {
+        Random rand = new Random(/* seed= */ 2021);
+        BoardCells previous = createEmptyCells();
+        for (int i = 0; i < 50; i++) {
+            previous.add(rand.nextInt(BOARD_DIMENSION), rand.nextInt(BOARD_DIMENSION), "Beacon" + i);
+        }
+        BoardCells reconstructed = createEmptyCells();
+        BoardStateCodec.decode(BoardStateCodec.encode(previous), reconstructed);
+
+        for (int round = 0; round < 100; round++) {
+            BoardCells current = previous.copy();
+            for (int i = 0; i < 5; i++) { // move a few random agents, possibly within their cell.
+                String agent = "Beacon" + rand.nextInt(50);
+                for (int row = 0; row < BOARD_DIMENSION; row++) {
+                    for (int col = 0; col < BOARD_DIMENSION; col++) {
+                        current.remove(row, col, agent);
+                    }
+                }
+                current.add(rand.nextInt(BOARD_DIMENSION), rand.nextInt(BOARD_DIMENSION), agent);
+            }
+
+            BoardStateCodec.applyMoves(BoardStateCodec.encodeMoves(previous, current), reconstructed);
+
+            assertThat(reconstructed).isEqualTo(current);
+            previous = current;
+        }
+    }
+
+    @Test
+    public void encodeSparseJson_shouldListOnlyOccupiedCellsWithTypesMasks() {
+        BoardCells cells = createEmptyCells();
+        cells.add(0, 1, "Observer17");
+        cells.add(0, 1, "Beacon3");
+        cells.add(2, 2, "Beacon4");
+
+        String encoded = BoardStateCodec.encodeSparseJson(cells);
+
+        assertThat(encoded).isEqualTo(
+                "{\"rows\":3,\"cols\":3,\"types\":[\"Observer\",\"Beacon\"],\"cells\":[[0,1,3,0,17,1,3],[2,2,2,1,4]]}");
+    }
+
+    @Test
+    public void encodeSparseJsonOfEmptyMatrix_shouldHaveNoCells() {
+        BoardCells cells = createEmptyCells();
+
+        String encoded = BoardStateCodec.encodeSparseJson(cells);
+
+        assertThat(encoded).isEqualTo("{\"rows\":3,\"cols\":3,\"types\":[],\"cells\":[]}");
+    }
+
+    @Test
+    public void encodeSparseThenDecodeSparse_shouldKeepAgentsAndTheirOrderWithinCells() throws IOException {
+        BoardCells cells = createEmptyCells();
+        cells.add(0, 0, "Observer300");
+        cells.add(0, 0, "Beacon0");
+        cells.add(2, 1, "Beacon2147483647");
+        cells.add(1, 2, "Observer0");
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+        BoardStateCodec.encodeSparse(cells, encoded);
+
+        assertThat(BoardStateCodec.decodeSparse(new ByteArrayInputStream(encoded.toByteArray()))).isEqualTo(cells);
+    }
+
+    @Test
+    public void decodeSparseMalformedBytes_shouldThrowException() throws IOException {
+        BoardCells cells = createEmptyCells();
+        cells.add(0, 0, "Beacon0");
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BoardStateCodec.encodeSparse(cells, encoded);
+        byte[] truncated = Arrays.copyOf(encoded.toByteArray(), encoded.size() - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            BoardStateCodec.decodeSparse(new ByteArrayInputStream(truncated));
+        });
+    }
+
+    private static void addAll(BoardCells cells, int row, int col, String... agents) {
+        for (String agent : agents) {
+            cells.add(row, col, agent);
+        }
+    }
+
+    private static BoardCells createEmptyCells() {
+        return new BoardCells(BOARD_DIMENSION, BOARD_DIMENSION);
+    }
+}
@@ -0,0 +1,194 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BoardStatePrefetcherTest {
+    private static final String SIMULATION_ID = "simulation";
+    private static final String ENTITY_KIND = Schema.BoardState.entityKindReal;
+    private static final int ROUNDS_NUM = 1000;
+    private static final long CACHE_CAPACITY = 100_000;
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final List<List<Integer>> prefetchedRanges = new ArrayList<>();
+
+    @Test
+    public void readFirstRound_shouldPrefetchMinimalWindow() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+
+        read(prefetcher, 0, ENTITY_KIND);
+
+        assertThat(prefetchedRanges).containsExactly(range(1, 1 + BoardStatePrefetcher.MIN_WINDOW));
+    }
+
+    @Test
+    public void readRoundsFast_shouldGrowWindowUpToMaximalWindow() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+
+        for (int round = 0; round < 5; round++) {
+            read(prefetcher, round, ENTITY_KIND);
+            ticker.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertThat(prefetchedRanges.get(prefetchedRanges.size() - 1))
+                .isEqualTo(range(prefetchedRanges.get(prefetchedRanges.size() - 2).get(1),
+                        5 + BoardStatePrefetcher.MAX_WINDOW));
+    }
+
+    @Test
+    public void readRoundsSlowly_shouldKeepMinimalWindowAndPrefetchEachRoundOnce() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+
+        for (int round = 0; round < 3; round++) {
+            read(prefetcher, round, ENTITY_KIND);
+            ticker.advance(TimeUnit.SECONDS.toNanos(10));
+        }
+
+        assertThat(prefetchedRanges).containsExactly(range(1, 3), range(3, 4), range(4, 5)).inOrder();
+    }
+
+    @Test
+    public void readLastRounds_shouldNotPrefetchBeyondLastRound() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+
+        read(prefetcher, ROUNDS_NUM - 2, ENTITY_KIND);
+        read(prefetcher, ROUNDS_NUM - 1, ENTITY_KIND);
+
+        assertThat(prefetchedRanges).containsExactly(range(ROUNDS_NUM - 1, ROUNDS_NUM));
+    }
+
+    @Test
+    public void seekAfterFastReads_shouldPrefetchMinimalWindowAfterSoughtRound() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+        for (int round = 0; round < 5; round++) {
+            read(prefetcher, round, ENTITY_KIND);
+            ticker.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        read(prefetcher, 500, ENTITY_KIND);
+
+        assertThat(prefetchedRanges.get(prefetchedRanges.size() - 1))
+                .isEqualTo(range(501, 501 + BoardStatePrefetcher.MIN_WINDOW));
+    }
+
+    @Test
+    public void readWhilePrefetching_shouldNotStartAnotherPrefetch() {
+        List<Runnable> pendingPrefetches = new ArrayList<>();
+        BoardStatePrefetcher prefetcher = createPrefetcher(pendingPrefetches::add);
+
+        read(prefetcher, 0, ENTITY_KIND);
+        read(prefetcher, 1, ENTITY_KIND);
+        pendingPrefetches.forEach(Runnable::run);
+        read(prefetcher, 2, ENTITY_KIND);
+
+        assertThat(pendingPrefetches).hasSize(2);
+    }
+
+    @Test
+    public void readConsecutiveRanges_shouldPrefetchRoundsFollowingLastRange() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+
+        prefetcher.onRead(SIMULATION_ID, 0, 10, ENTITY_KIND, ROUNDS_NUM, CACHE_CAPACITY);
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(10));
+        prefetcher.onRead(SIMULATION_ID, 10, 20, ENTITY_KIND, ROUNDS_NUM, CACHE_CAPACITY);
+
+        assertThat(prefetchedRanges)
+                .containsExactly(range(10, 10 + BoardStatePrefetcher.MIN_WINDOW),
+                        range(20, 20 + BoardStatePrefetcher.MAX_WINDOW))
+                .inOrder();
+    }
+
+    @Test
+    public void readRoundsFastOfLargeBoards_shouldLimitWindowToCacheShare() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+        long cacheCapacity = 40;
+
+        for (int round = 0; round < 5; round++) {
+            prefetcher.onRead(SIMULATION_ID, round, round + 1, ENTITY_KIND, ROUNDS_NUM, cacheCapacity);
+            ticker.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertThat(prefetchedRanges.get(prefetchedRanges.size() - 1).get(1))
+                .isEqualTo(5 + cacheCapacity / BoardStatePrefetcher.CACHE_SHARE_DIVISOR);
+    }
+
+    @Test
+    public void readBothKinds_shouldTrackEachKindAsPlayback() {
+        BoardStatePrefetcher prefetcher = createPrefetcher(MoreExecutors.directExecutor());
+
+        read(prefetcher, 0, ENTITY_KIND);
+        read(prefetcher, 0, Schema.BoardState.entityKindEstimated);
+
+        assertThat(prefetchedRanges).containsExactly(range(1, 3), range(1, 3));
+    }
+
+    @Test
+    public void window_shouldCoverRoundsReadWithinLookahead() {
+        assertThat(BoardStatePrefetcher.window(Double.NaN, CACHE_CAPACITY)).isEqualTo(BoardStatePrefetcher.MIN_WINDOW);
+        assertThat(BoardStatePrefetcher.window(BoardStatePrefetcher.LOOKAHEAD_NANOS / 10.0, CACHE_CAPACITY))
+                .isEqualTo(10);
+        assertThat(BoardStatePrefetcher.window(0, CACHE_CAPACITY)).isEqualTo(BoardStatePrefetcher.MAX_WINDOW);
+        assertThat(BoardStatePrefetcher.window(BoardStatePrefetcher.LOOKAHEAD_NANOS * 2.0, CACHE_CAPACITY))
+                .isEqualTo(BoardStatePrefetcher.MIN_WINDOW);
+    }
+
+    @Test
+    public void windowOfSmallCache_shouldNotExceedCacheShare() {
+        assertThat(BoardStatePrefetcher.window(0, 8)).isEqualTo(8 / BoardStatePrefetcher.CACHE_SHARE_DIVISOR);
+        assertThat(BoardStatePrefetcher.window(Double.NaN, 3)).isEqualTo(0);
+    }
+
+    private static void read(BoardStatePrefetcher prefetcher, int round, String entityKind) {
+        prefetcher.onRead(SIMULATION_ID, round, round + 1, entityKind, ROUNDS_NUM, CACHE_CAPACITY);
+    }
+
+    private BoardStatePrefetcher createPrefetcher(Executor executor) {
+        return new BoardStatePrefetcher(executor, ticker,
+                (simulationId, fromRound, toRound, entityKind) -> prefetchedRanges.add(range(fromRound, toRound)));
+    }
+
+    private static List<Integer> range(int fromRound, int toRound) {
+        List<Integer> range = new ArrayList<>();
+        range.add(fromRound);
+        range.add(toRound);
+        return range;
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long nanos) {
+            this.nanos += nanos;
+        }
+    }
+}
@@ -372,4 +372,54 @@ public final class BoardTest{
                 .containsExactly(ZERO_ON_ONE_COORDINATE, firstAgent,
                                  ONE_ON_ZERO_COORDINATE, secondAgent);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void boardWithFewAgentsPerCellIsSparse() {
+        AbstractBoard board = new RealBoard(100, 100, 10);
+
+        assertThat(board.isSparse()).isTrue();
+    }
+
+    @Test
+    public void boardWithManyAgentsPerCellIsDense() {
+        AbstractBoard board = new RealBoard(2, 2, 10);
+
+        assertThat(board.isSparse()).isFalse();
+    }
+
+    @Test
+    public void placeTwoAgentsOnSparseBoard() {
+        AbstractBoard board = new RealBoard(10000, 10000, 2);
+
+        board.placeAgent(ZERO_ON_ZERO_COORDINATE, firstAgent);
+        board.placeAgent(Location.create(9999, 9999), secondAgent);
+
+        assertThat(board.agentsOnBoard())
+                .containsExactly(ZERO_ON_ZERO_COORDINATE, firstAgent,
+                                 Location.create(9999, 9999), secondAgent);
+    }
+
+    @Test
+    public void moveAgentsOnSparseBoardFromSameLocationToSameLocation() {
+        AbstractBoard board = new RealBoard(100, 100, 2);
+        board.placeAgent(ZERO_ON_ZERO_COORDINATE, firstAgent);
+        board.placeAgent(ZERO_ON_ZERO_COORDINATE, secondAgent);
+
+        board.moveAgent(ZERO_ON_ZERO_COORDINATE, ONE_ON_ONE_COORDINATE, firstAgent);
+        board.moveAgent(0, 0, 1, 1, secondAgent);
+
+        assertThat(board.agentsOnBoard())
+                .containsExactly(ONE_ON_ONE_COORDINATE, firstAgent,
+                                 ONE_ON_ONE_COORDINATE, secondAgent);
+    }
+
+    @Test
+    public void moveAgentOnSparseBoardToInvalidLocationShouldThrowException() {
+        AbstractBoard board = new RealBoard(100, 100, 1);
+        board.placeAgent(ZERO_ON_ZERO_COORDINATE, firstAgent);
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            board.moveAgent(ZERO_ON_ZERO_COORDINATE, NEGATIVE_ROW_COORDINATE, firstAgent);
+        });
+    }
+}
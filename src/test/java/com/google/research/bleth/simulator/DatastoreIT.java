@@ -17,11 +17,22 @@ package com.google.research.bleth.simulator;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.dev.LocalDatastoreService;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.research.bleth.exceptions.BoardStateAlreadyExistsException;
+import com.google.common.collect.ImmutableList;
 import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.utils.Queries;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -35,7 +46,8 @@ public class DatastoreIT {
 
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
-                    .setAutoIdAllocationPolicy(LocalDatastoreService.AutoIdAllocationPolicy.SCATTERED));
+                    .setAutoIdAllocationPolicy(LocalDatastoreService.AutoIdAllocationPolicy.SCATTERED),
+                    new LocalMemcacheServiceTestConfig());
 
     private static final Location ZERO_ON_ZERO_COORDINATE = Location.create(0, 0);
     private static final Location ONE_ON_ONE_COORDINATE = Location.create(1, 1);
@@ -200,8 +212,260 @@ public class DatastoreIT {
         assertThrows(BoardStateAlreadyExistsException.class, () -> boardState.write());
     }
 
+    @Test
+    public void writeBoardStatesOfManyRoundsWithWriterThenReadBoardStates_shouldGetExpectedBoardStates() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        realBoard.placeAgent(ONE_ON_ONE_COORDINATE, observer);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardStateWriter writer = new BoardStateWriter(/* keyframeInterval= */ 1, /* maxBatchesInFlight= */ 2);
+
+        for (int round = 0; round < MAX_NUMBER_OF_ROUNDS; round++) {
+            writer.write(BoardStateFactory.create(realBoard, firstSimulationId, round));
+        }
+        writer.flush();
+
+        for (int round = 0; round < MAX_NUMBER_OF_ROUNDS; round++) {
+            assertThat(BoardState.readReal(firstSimulationId, round))
+                    .isEqualTo(BoardStateFactory.create(realBoard, firstSimulationId, round));
+        }
+    }
+
+    @Test
+    public void writeMovingBoardStatesWithKeyframesThenReadEveryRound_shouldGetExpectedBoardStates() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        realBoard.placeAgent(ONE_ON_ONE_COORDINATE, observer);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardStateWriter writer = new BoardStateWriter(/* keyframeInterval= */ 7);
+        List<BoardState> expectedBoardStates = new ArrayList<>();
+
+        for (int round = 0; round < MAX_NUMBER_OF_ROUNDS; round++) {
+            if (round % 3 == 0) { // the beacon moves every third round.
+                Location beaconLocation = round % 2 == 0 ? ZERO_ON_ZERO_COORDINATE : ONE_ON_ONE_COORDINATE;
+                realBoard.moveAgent(beaconLocation, round % 2 == 0 ? ONE_ON_ONE_COORDINATE : ZERO_ON_ZERO_COORDINATE, beacon);
+            }
+            BoardState boardState = BoardStateFactory.create(realBoard, firstSimulationId, round);
+            expectedBoardStates.add(boardState);
+            writer.write(boardState);
+        }
+        writer.flush();
+
+        for (int round = 0; round < MAX_NUMBER_OF_ROUNDS; round++) {
+            assertThat(BoardState.readReal(firstSimulationId, round)).isEqualTo(expectedBoardStates.get(round));
+        }
+    }
+
+    @Test
+    public void writeMovingBoardStatesWithKeyframesThenReadRange_shouldGetExpectedBoardStatesInOrder() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        realBoard.placeAgent(ONE_ON_ONE_COORDINATE, observer);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardStateWriter writer = new BoardStateWriter(/* keyframeInterval= */ 4);
+        List<BoardState> expectedBoardStates = new ArrayList<>();
+
+        for (int round = 0; round < MAX_NUMBER_OF_ROUNDS; round++) {
+            Location beaconLocation = round % 2 == 0 ? ZERO_ON_ZERO_COORDINATE : ONE_ON_ONE_COORDINATE;
+            realBoard.moveAgent(beaconLocation, round % 2 == 0 ? ONE_ON_ONE_COORDINATE : ZERO_ON_ZERO_COORDINATE, beacon);
+            BoardState boardState = BoardStateFactory.create(realBoard, firstSimulationId, round);
+            expectedBoardStates.add(boardState);
+            writer.write(boardState);
+        }
+        writer.flush();
+
+        assertThat(ImmutableList.copyOf(new DatastoreStateStore().readBoardStates(firstSimulationId, 1,
+                MAX_NUMBER_OF_ROUNDS, Schema.BoardState.entityKindReal)))
+                .containsExactlyElementsIn(expectedBoardStates.subList(1, MAX_NUMBER_OF_ROUNDS)).inOrder();
+    }
+
+    @Test
+    public void readRangeExceedingRounds_shouldThrowException() {
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+
+        assertThrows(ExceedingRoundException.class, () -> new DatastoreStateStore().readBoardStates(firstSimulationId,
+                0, MAX_NUMBER_OF_ROUNDS + 1, Schema.BoardState.entityKindReal));
+    }
+
+    @Test
+    public void writeMetadataThenDeleteEntityAndReadMetadata_shouldGetCachedMetadata() {
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        DatastoreServiceFactory.getDatastoreService().delete(KeyFactory.stringToKey(firstSimulationId));
+
+        SimulationMetadata metadata = SimulationMetadata.read(firstSimulationId);
+
+        assertThat(metadata.roundsNum).isEqualTo(MAX_NUMBER_OF_ROUNDS);
+        assertThat(metadata.rowsNum).isEqualTo(BOARD_DIMENSION);
+    }
+
+    @Test
+    public void writeMetadataThenClearLocalCacheAndDeleteEntityAndReadMetadata_shouldGetMetadataFromMemcache() {
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        SimulationMetadata.clearLocalCache();
+        DatastoreServiceFactory.getDatastoreService().delete(KeyFactory.stringToKey(firstSimulationId));
+
+        SimulationMetadata metadata = SimulationMetadata.read(firstSimulationId);
+
+        assertThat(metadata.roundsNum).isEqualTo(MAX_NUMBER_OF_ROUNDS);
+        assertThat(metadata.seed).isEqualTo(firstSimulationBuilder.getSeed());
+    }
+
+    @Test
+    public void writeMetadataThenClearCachesAndReadMetadata_shouldGetMetadataFromDb() {
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        SimulationMetadata.invalidate(firstSimulationId);
+
+        SimulationMetadata metadata = SimulationMetadata.read(firstSimulationId);
+
+        assertThat(metadata.roundsNum).isEqualTo(MAX_NUMBER_OF_ROUNDS);
+        assertThat(metadata.seed).isEqualTo(firstSimulationBuilder.getSeed());
+    }
+
+    @Test
+    public void deleteSimulationThenReadMetadata_shouldThrowException() {
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        SimulationMetadata.read(firstSimulationId);
+
+        Queries.delete(firstSimulationId);
+
+        assertThrows(IllegalArgumentException.class, () -> SimulationMetadata.read(firstSimulationId));
+    }
+
+    @Test
+    public void readBoardStateOfCompletedSimulationThenDeleteEntities_shouldGetCachedBoardState() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardState expectedBoardState = BoardStateFactory.create(realBoard, firstSimulationId, ZERO_ROUND);
+        expectedBoardState.write();
+        writeDistanceStats(firstSimulationId);
+        DatastoreStateStore stateStore = new DatastoreStateStore();
+
+        stateStore.readBoardState(firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal);
+        deleteEntities(Schema.BoardState.entityKindPackedReal);
+
+        assertThat(stateStore.readBoardState(firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal))
+                .isEqualTo(expectedBoardState);
+    }
+
+    @Test
+    public void readBoardStateOfCompletedSimulationThenClearLocalCacheAndDeleteEntities_shouldGetBoardStateFromMemcache() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        realBoard.placeAgent(ONE_ON_ONE_COORDINATE, observer);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardState expectedBoardState = BoardStateFactory.create(realBoard, firstSimulationId, ZERO_ROUND);
+        expectedBoardState.write();
+        writeDistanceStats(firstSimulationId);
+        DatastoreStateStore stateStore = new DatastoreStateStore();
+
+        stateStore.readBoardState(firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal);
+        BoardStateCache.clearLocalCache();
+        deleteEntities(Schema.BoardState.entityKindPackedReal);
+
+        assertThat(stateStore.readBoardState(firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal))
+                .isEqualTo(expectedBoardState);
+    }
+
+    @Test
+    public void readRangeOfCompletedSimulationThenDeleteEntities_shouldGetCachedBoardStates() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        List<BoardState> expectedBoardStates = new ArrayList<>();
+        for (int round = 0; round < MAX_NUMBER_OF_ROUNDS; round++) {
+            BoardState boardState = BoardStateFactory.create(realBoard, firstSimulationId, round);
+            boardState.write();
+            expectedBoardStates.add(boardState);
+        }
+        writeDistanceStats(firstSimulationId);
+        DatastoreStateStore stateStore = new DatastoreStateStore();
+
+        stateStore.readBoardStates(firstSimulationId, 0, MAX_NUMBER_OF_ROUNDS, Schema.BoardState.entityKindReal)
+                .forEachRemaining(boardState -> {});
+        deleteEntities(Schema.BoardState.entityKindPackedReal);
+
+        assertThat(ImmutableList.copyOf(stateStore.readBoardStates(firstSimulationId, 0, MAX_NUMBER_OF_ROUNDS,
+                Schema.BoardState.entityKindReal))).containsExactlyElementsIn(expectedBoardStates).inOrder();
+    }
+
+    @Test
+    public void readBoardStateOfRunningSimulationThenDeleteEntities_shouldNotGetCachedBoardState() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardStateFactory.create(realBoard, firstSimulationId, ZERO_ROUND).write();
+        DatastoreStateStore stateStore = new DatastoreStateStore();
+
+        stateStore.readBoardState(firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal);
+        deleteEntities(Schema.BoardState.entityKindPackedReal);
+
+        assertThat(stateStore.readBoardState(firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal))
+                .isEqualTo(BoardStateFactory.create(new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION),
+                        firstSimulationId, ZERO_ROUND));
+    }
+
+    @Test
+    public void writeBoardStateInFormerFormatThenReadRealBoard_shouldGetExpectedBoardState() {
+        RealBoard realBoard = new RealBoard(BOARD_DIMENSION, BOARD_DIMENSION);
+        realBoard.placeAgent(ZERO_ON_ZERO_COORDINATE, beacon);
+        realBoard.placeAgent(ONE_ON_ONE_COORDINATE, observer);
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardState expectedBoardState =
+                BoardStateFactory.create(realBoard, firstSimulationId, ZERO_ROUND);
+
+        writeAgentEntity(firstSimulationId, ZERO_ROUND, "Beacon0", ZERO_ON_ZERO_COORDINATE);
+        writeAgentEntity(firstSimulationId, ZERO_ROUND, "Observer0", ONE_ON_ONE_COORDINATE);
+        BoardState readBoardState = BoardState.readReal(firstSimulationId, ZERO_ROUND);
+
+        assertThat(readBoardState).isEqualTo(expectedBoardState);
+        assertThrows(BoardStateAlreadyExistsException.class, () -> expectedBoardState.write());
+    }
+
+    @Test
+    public void writeBoardStateLargerThanSingleEntityThenReadBoardState_shouldGetExpectedBoardState() {
+        String firstSimulationId = firstSimulationBuilder.writeMetadata();
+        BoardCells cells = new BoardCells(BOARD_DIMENSION, BOARD_DIMENSION);
+        Random rand = new Random(/* seed= */ 2021);
+        for (int i = 0; i < 300000; i++) { // random ids are incompressible, so the encoding spans multiple parts.
+            cells.add(rand.nextInt(BOARD_DIMENSION), rand.nextInt(BOARD_DIMENSION), "Beacon" + rand.nextInt(Integer.MAX_VALUE));
+        }
+        BoardState expectedBoardState = new BoardState(BOARD_DIMENSION, BOARD_DIMENSION, cells,
+                firstSimulationId, ZERO_ROUND, Schema.BoardState.entityKindReal);
+
+        expectedBoardState.write();
+        BoardState readBoardState = BoardState.readReal(firstSimulationId, ZERO_ROUND);
+
+        assertThat(expectedBoardState.toEntities().size()).isGreaterThan(1);
+        assertThat(readBoardState).isEqualTo(expectedBoardState);
+    }
+
+    private void writeDistanceStats(String simulationId) {
+        Entity entity = new Entity(Schema.StatisticsState.entityKindDistance);
+        entity.setProperty(Schema.StatisticsState.simulationId, simulationId);
+        entity.setProperty("mean", 1.0);
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+    }
+
+    private void deleteEntities(String entityKind) {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        datastore.prepare(new Query(entityKind).setKeysOnly()).asIterable()
+                .forEach(entity -> datastore.delete(entity.getKey()));
+    }
+
+    private void writeAgentEntity(String simulationId, int round, String agentId, Location location) {
+        Entity entity = new Entity(Schema.BoardState.entityKindReal);
+        entity.setProperty(Schema.BoardState.simulationId, simulationId);
+        entity.setProperty(Schema.BoardState.round, round);
+        entity.setProperty(Schema.BoardState.agentId, agentId);
+        entity.setProperty(Schema.BoardState.rowNum, location.row());
+        entity.setProperty(Schema.BoardState.colNum, location.col());
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+    }
+
     @After
     public void tearDown() {
+        DatastoreStateStore.clearLocalCaches();
         helper.tearDown();
     }
 
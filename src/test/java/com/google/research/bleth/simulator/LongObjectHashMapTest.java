@@ -0,0 +1,84 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LongObjectHashMapTest {
+
+    @Test
+    public void newMapIsEmpty() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        assertThat(map.size()).isEqualTo(0);
+        assertThat(map.get(0)).isNull();
+    }
+
+    @Test
+    public void putReplacesPreviousValue() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        map.put(7, "first");
+        map.put(7, "second");
+
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.get(7)).isEqualTo("second");
+    }
+
+    @Test
+    public void removeMissingKeyDoesNothing() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        map.put(1, "one");
+
+        map.remove(2);
+
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.get(1)).isEqualTo("one");
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random rand = new Random(/* seed= */ 2021);
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 100000; i++) {
+            long key = rand.nextInt(2000) * 10000019L; // spread keys like cells' indices on a large board.
+            if (rand.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, (long) i);
+                expected.put(key, (long) i);
+            }
+        }
+
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(map.size()).isEqualTo(expected.size());
+        assertThat(actual).isEqualTo(expected);
+        for (long key : expected.keySet()) {
+            assertThat(map.get(key)).isEqualTo(expected.get(key));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ObserversSpatialIndexTest {
+    private static final Location ZERO_ON_ZERO_COORDINATE = Location.create(0, 0);
+    private static final Location ONE_ON_ONE_COORDINATE = Location.create(1, 1);
+    private static final Location TWO_ON_TWO_COORDINATE = Location.create(2, 2);
+    private static final double TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE = 1.0;
+    private static final int AWAKENESS_CYCLE_EQUALS_TWO = 2;
+    private static final int AWAKENESS_DURATION_EQUALS_ONE = 1;
+
+    private final FakeResolver resolver = new FakeResolver();
+
+    @Test
+    public void emptyIndexFindsNoObservers() {
+        ObserversSpatialIndex index = new ObserversSpatialIndex(3, 3, 1, TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE);
+        List<Integer> found = new ArrayList<>();
+
+        boolean observed = index.forEachObserverInRange(ZERO_ON_ZERO_COORDINATE.row(), ZERO_ON_ZERO_COORDINATE.col(), found::add);
+
+        assertThat(observed).isFalse();
+        assertThat(found).isEmpty();
+    }
+
+    @Test
+    public void observerWithinRadiusIsFound() {
+        RealBoard realBoard = new RealBoard(3, 3);
+        ObserverFactory observerFactory = new ObserverFactory();
+        Observer observer = createObserver(observerFactory, ONE_ON_ONE_COORDINATE, realBoard, /* awake= */ true);
+        ObserversSpatialIndex index = new ObserversSpatialIndex(3, 3, 1, TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE);
+        List<Integer> found = new ArrayList<>();
+
+        index.rebuild(observerFactory.getStore());
+        boolean observed = index.forEachObserverInRange(0, 1, found::add);
+
+        assertThat(observed).isTrue();
+        assertThat(found).containsExactly(observer.getId());
+    }
+
+    @Test
+    public void observerOutsideRadiusIsNotFound() {
+        RealBoard realBoard = new RealBoard(3, 3);
+        ObserverFactory observerFactory = new ObserverFactory();
+        Observer observer = createObserver(observerFactory, TWO_ON_TWO_COORDINATE, realBoard, /* awake= */ true);
+        ObserversSpatialIndex index = new ObserversSpatialIndex(3, 3, 1, TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE);
+        List<Integer> found = new ArrayList<>();
+
+        index.rebuild(observerFactory.getStore());
+        boolean observed = index.forEachObserverInRange(ONE_ON_ONE_COORDINATE.row(), ONE_ON_ONE_COORDINATE.col(), found::add);
+
+        assertThat(observed).isFalse();
+        assertThat(found).isEmpty();
+    }
+
+    @Test
+    public void sleepingObserverIsNotFound() {
+        RealBoard realBoard = new RealBoard(3, 3);
+        ObserverFactory observerFactory = new ObserverFactory();
+        Observer observer = createObserver(observerFactory, ONE_ON_ONE_COORDINATE, realBoard, /* awake= */ false);
+        ObserversSpatialIndex index = new ObserversSpatialIndex(3, 3, 1, TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE);
+        List<Integer> found = new ArrayList<>();
+
+        index.rebuild(observerFactory.getStore());
+        index.forEachObserverInRange(ONE_ON_ONE_COORDINATE.row(), ONE_ON_ONE_COORDINATE.col(), found::add);
+
+        assertThat(found).isEmpty();
+    }
+
+    @Test
+    public void randomObserversFoundByIndexEqualObserversFoundByBruteForce() {
+        Random rand = new Random(/* seed= */ 2021);
+        for (double radius : new double[] {0.5, 1, 2.5, 7, 100}) {
+            int rowNum = 1 + rand.nextInt(40);
+            int colNum = 1 + rand.nextInt(40);
+            RealBoard realBoard = new RealBoard(rowNum, colNum);
+            ObserverFactory observerFactory = new ObserverFactory();
+            List<Observer> observers = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Location location = Location.create(rand.nextInt(rowNum), rand.nextInt(colNum));
+                observers.add(createObserver(observerFactory, location, realBoard, rand.nextBoolean()));
+            }
+            ObserversSpatialIndex index = new ObserversSpatialIndex(rowNum, colNum, observers.size(), radius);
+            index.rebuild(observerFactory.getStore());
+
+            for (int row = 0; row < rowNum; row++) {
+                for (int col = 0; col < colNum; col++) {
+                    Location location = Location.create(row, col);
+                    List<Integer> expected = new ArrayList<>();
+                    for (Observer observer : observers) {
+                        if (observer.isAwake() && AbstractSimulation.distance(location, observer.getLocation()) <= radius) {
+                            expected.add(observer.getId());
+                        }
+                    }
+                    List<Integer> actual = new ArrayList<>();
+
+                    boolean observed = index.forEachObserverInRange(row, col, actual::add);
+
+                    assertThat(actual).containsExactlyElementsIn(expected);
+                    assertThat(observed).isEqualTo(!expected.isEmpty());
+                }
+            }
+        }
+    }
+
+    private Observer createObserver(ObserverFactory observerFactory, Location location, RealBoard realBoard, boolean awake) {
+        int firstAwakenessTime = awake ? 0 : 1;
+        return observerFactory.createObserver(location, new StationaryMovementStrategy(), resolver, realBoard,
+                new FixedAwakenessStrategy(AWAKENESS_CYCLE_EQUALS_TWO, AWAKENESS_DURATION_EQUALS_ONE, firstAwakenessTime));
+    }
+}
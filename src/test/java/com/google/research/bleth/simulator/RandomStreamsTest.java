@@ -0,0 +1,60 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RandomStreamsTest {
+    private static final long SEED = 2021;
+    private static final int AGENT_INDEX = 7;
+
+    @Test
+    public void streamsWithSameSeedPurposeAndIndexGenerateSameNumbers() {
+        Random first = new RandomStreams(SEED).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX);
+        Random second = new RandomStreams(SEED).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX);
+
+        assertThat(first.ints(100).toArray()).isEqualTo(second.ints(100).toArray());
+    }
+
+    @Test
+    public void streamsWithDifferentSeedsGenerateDifferentNumbers() {
+        Random first = new RandomStreams(SEED).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX);
+        Random second = new RandomStreams(SEED + 1).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX);
+
+        assertThat(first.ints(100).toArray()).isNotEqualTo(second.ints(100).toArray());
+    }
+
+    @Test
+    public void streamsWithDifferentPurposesGenerateDifferentNumbers() {
+        Random first = new RandomStreams(SEED).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX);
+        Random second = new RandomStreams(SEED).stream(RandomStreams.Purpose.OBSERVER_MOVEMENT, AGENT_INDEX);
+
+        assertThat(first.ints(100).toArray()).isNotEqualTo(second.ints(100).toArray());
+    }
+
+    @Test
+    public void streamsOfDifferentAgentsGenerateDifferentNumbers() {
+        Random first = new RandomStreams(SEED).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX);
+        Random second = new RandomStreams(SEED).stream(RandomStreams.Purpose.BEACON_MOVEMENT, AGENT_INDEX + 1);
+
+        assertThat(first.ints(100).toArray()).isNotEqualTo(second.ints(100).toArray());
+    }
+}
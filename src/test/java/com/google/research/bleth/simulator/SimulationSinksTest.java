@@ -0,0 +1,127 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SimulationSinksTest {
+
+    private static final int ROUNDS_NUM = 10;
+    private static final long SEED = 7;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void runSimulationWithRetainingInMemorySink_shouldKeepAllRoundsAndStatisticsInMemory() {
+        InMemorySink sink = new InMemorySink(/* retainBoardStates= */ true);
+        AbstractSimulation simulation = createBuilder().setSink(sink).build();
+
+        simulation.run();
+
+        assertThat(simulation.getId()).isEqualTo(sink.getSimulationId());
+        assertThat(sink.getMetadata().seed).isEqualTo(SEED);
+        assertThat(sink.getBoardStates()).hasSize(2 * ROUNDS_NUM); // a real and an estimated board state per round.
+        assertThat(sink.getBoardStates().get(2 * ROUNDS_NUM - 2).getRound()).isEqualTo(ROUNDS_NUM - 1);
+        assertThat(sink.getStatisticsState().getSimulationId()).isEqualTo(simulation.getId());
+        assertThat(sink.getStatisticsState().getBeaconsObservedIntervals().isEmpty()).isFalse();
+    }
+
+    @Test
+    public void runSimulationWithInMemorySink_shouldKeepOnlyLastBoardState() {
+        InMemorySink sink = new InMemorySink();
+        AbstractSimulation simulation = createBuilder().setSink(sink).build();
+
+        simulation.run();
+
+        assertThat(sink.getBoardStatesNum()).isEqualTo(2 * ROUNDS_NUM);
+        assertThat(sink.getLastBoardState().getRound()).isEqualTo(ROUNDS_NUM - 1);
+        assertThrows(IllegalStateException.class, sink::getBoardStates);
+    }
+
+    @Test
+    public void runStatisticsOnlySimulationWithInMemorySink_shouldKeepNoBoardStates() {
+        InMemorySink sink = new InMemorySink();
+        AbstractSimulation simulation = createBuilder()
+                .setRunMode(AbstractSimulation.RunMode.STATISTICS_ONLY)
+                .setSink(sink)
+                .build();
+
+        simulation.run();
+
+        assertThat(sink.getBoardStatesNum()).isEqualTo(0);
+        assertThat(sink.getLastBoardState()).isNull();
+        assertThat(sink.getStatisticsState()).isNotNull();
+    }
+
+    @Test
+    public void runSimulation_shouldMeasureEveryPhase() {
+        AbstractSimulation simulation = createBuilder().setSink(new InMemorySink()).build();
+
+        simulation.run();
+
+        assertThat(simulation.getPhasesDurations().keySet()).containsExactlyElementsIn(AbstractSimulation.Phase.values());
+        assertThat(simulation.getPhasesDurations().values().stream().reduce(Duration.ZERO, Duration::plus))
+                .isGreaterThan(Duration.ZERO);
+    }
+
+    @Test
+    public void runSimulationWithLocalFileSink_shouldWriteEveryRoundToFiles() throws IOException {
+        Path directory = temporaryFolder.getRoot().toPath();
+        AbstractSimulation simulation = createBuilder().setSink(new LocalFileSink(directory)).build();
+
+        simulation.run();
+
+        Path simulationDirectory = directory.resolve(simulation.getId());
+        assertThat(Files.exists(simulationDirectory.resolve(LocalFileSink.METADATA_FILE_NAME))).isTrue();
+        assertThat(Files.exists(simulationDirectory.resolve(LocalFileSink.STATISTICS_FILE_NAME))).isTrue();
+        BoardHistoryReader realBoardStates = BoardHistoryReader.open(simulationDirectory.resolve(
+                Schema.BoardState.entityKindReal + BoardHistoryWriter.FILE_EXTENSION));
+        assertThat(realBoardStates.getRoundsNum()).isEqualTo(ROUNDS_NUM);
+        for (int round = 0; round < ROUNDS_NUM; round++) {
+            assertThat(realBoardStates.isWritten(round)).isTrue();
+        }
+        assertThat(realBoardStates.read(simulation.getId(), ROUNDS_NUM - 1, Schema.BoardState.entityKindReal))
+                .isEqualTo(simulation.getRealBoardState());
+    }
+
+    private static AbstractSimulation.Builder createBuilder() {
+        return new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(ROUNDS_NUM)
+                .setRowNum(5)
+                .setColNum(5)
+                .setBeaconsNum(3)
+                .setObserversNum(5)
+                .setTransmissionThresholdRadius(2)
+                .setBeaconMovementStrategyType(MovementStrategyFactory.Type.RANDOM)
+                .setObserverMovementStrategyType(MovementStrategyFactory.Type.RANDOM)
+                .setAwakenessCycle(2)
+                .setAwakenessDuration(1)
+                .setAwakenessStrategyType(AwakenessStrategyFactory.Type.FIXED)
+                .setSeed(SEED);
+    }
+}
@@ -0,0 +1,151 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.research.bleth.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.appengine.api.datastore.Query;
+import com.google.common.collect.ImmutableList;
+import com.google.research.bleth.exceptions.ExceedingRoundException;
+import com.google.research.bleth.utils.Queries;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StateStoresTest {
+
+    private static final int ROUNDS_NUM = 10;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void runSimulationOnInMemoryStore_shouldReadWrittenState() {
+        assertStoreReadsWrittenState(new InMemoryStateStore());
+    }
+
+    @Test
+    public void runSimulationOnLocalFileStore_shouldReadWrittenState() {
+        assertStoreReadsWrittenState(new LocalFileStateStore(temporaryFolder.getRoot().toPath()));
+    }
+
+    @Test
+    public void reopenLocalFileStore_shouldReadSimulationsAndExperiments() {
+        LocalFileStateStore store = new LocalFileStateStore(temporaryFolder.getRoot().toPath());
+        AbstractSimulation simulation = createBuilder(/* seed= */ 1).setSink(store.createSink(1)).build();
+        simulation.run();
+        String experimentId = store.createExperiment("experiment", 1);
+        store.addSimulationToExperiment(experimentId, simulation.getId());
+
+        LocalFileStateStore reopenedStore = new LocalFileStateStore(temporaryFolder.getRoot().toPath());
+
+        assertThat(reopenedStore.listSimulations(Optional.empty())).containsKey(simulation.getId());
+        assertThat(reopenedStore.readBoardState(simulation.getId(), ROUNDS_NUM - 1, Schema.BoardState.entityKindReal))
+                .isEqualTo(simulation.getRealBoardState());
+        assertThat(reopenedStore.listExperiments()).containsExactly(experimentId, "experiment");
+        assertThat(reopenedStore.isExperimentCompleted(experimentId)).isTrue();
+    }
+
+    @Test
+    public void listSimulationsSorted_shouldOrderByProperty() {
+        InMemoryStateStore store = new InMemoryStateStore();
+        for (long seed = 1; seed <= 3; seed++) {
+            createBuilder(seed).setDescription("simulation " + seed).setSink(store.createSink(1)).build();
+        }
+
+        Optional<Queries.SortingParameters> sortingParameters = Optional.of(new Queries.SortingParameters(
+                Schema.SimulationMetadata.seed, Query.SortDirection.DESCENDING));
+
+        assertThat(store.listSimulations(sortingParameters).values().stream().map(metadata -> metadata.seed).toArray())
+                .asList().containsExactly(3L, 2L, 1L).inOrder();
+    }
+
+    @Test
+    public void addMemberToExperimentTwice_shouldAssociateMemberOnce() {
+        assertStoreAssociatesMemberOnce(new InMemoryStateStore());
+        assertStoreAssociatesMemberOnce(new LocalFileStateStore(temporaryFolder.getRoot().toPath()));
+    }
+
+    @Test
+    public void closeOpenExperiment_shouldCompleteWithAddedSimulations() {
+        InMemoryStateStore store = new InMemoryStateStore();
+        String experimentId = store.createOpenExperiment("experiment");
+        store.addSimulationToExperiment(experimentId, "simulation");
+        assertThat(store.isExperimentCompleted(experimentId)).isFalse();
+
+        store.closeExperiment(experimentId, /* simulationsFailed= */ 0);
+
+        assertThat(store.isExperimentCompleted(experimentId)).isTrue();
+    }
+
+    private void assertStoreAssociatesMemberOnce(IStateStore store) {
+        String experimentId = store.createExperiment("experiment", 2);
+
+        assertThat(store.addMemberToExperiment(experimentId, "0", "simulation")).isTrue();
+        assertThat(store.addMemberToExperiment(experimentId, "0", "rerun simulation")).isFalse();
+
+        assertThat(store.readSimulationsCompleted(experimentId)).isEqualTo(1);
+        assertThat(store.readExperimentMembers(experimentId, ImmutableList.of("0", "1"))).containsExactly("0");
+    }
+
+    private void assertStoreReadsWrittenState(IStateStore store) {
+        AbstractSimulation simulation = createBuilder(/* seed= */ 1).setSink(store.createSink(1)).build();
+        simulation.run();
+        String simulationId = simulation.getId();
+
+        assertThat(store.readMetadata(simulationId).roundsNum).isEqualTo(ROUNDS_NUM);
+        assertThat(store.readBoardState(simulationId, ROUNDS_NUM - 1, Schema.BoardState.entityKindReal))
+                .isEqualTo(simulation.getRealBoardState());
+        assertThat(store.readBoardState(simulationId, ROUNDS_NUM - 1, Schema.BoardState.entityKindEstimated))
+                .isEqualTo(simulation.getEstimatedBoardState());
+        assertThrows(ExceedingRoundException.class,
+                () -> store.readBoardState(simulationId, ROUNDS_NUM, Schema.BoardState.entityKindReal));
+        assertThat(store.readDistancesStats(simulationId)).isNotEmpty();
+        assertThat(store.readBeaconsObservedStats(simulationId).rowKeySet()).hasSize(3);
+        assertThat(store.readIntervalStats(simulationId).keySet()).containsExactly(0, 1, 2).inOrder();
+
+        String experimentId = store.createExperiment("experiment", 2);
+        store.addSimulationToExperiment(experimentId, simulationId);
+        assertThat(store.readSimulationsCompleted(experimentId)).isEqualTo(1);
+        assertThat(store.listExperimentSimulations(experimentId)).containsExactly(simulationId);
+        assertThat(store.isExperimentCompleted(experimentId)).isFalse();
+        assertThrows(IllegalArgumentException.class, () -> store.addSimulationToExperiment("missing", simulationId));
+
+        store.deleteSimulation(simulationId);
+        assertThat(store.listSimulations(Optional.empty())).isEmpty();
+        assertThrows(IllegalArgumentException.class, () -> store.readMetadata(simulationId));
+    }
+
+    private static AbstractSimulation.Builder createBuilder(long seed) {
+        return new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(ROUNDS_NUM)
+                .setRowNum(5)
+                .setColNum(5)
+                .setBeaconsNum(3)
+                .setObserversNum(5)
+                .setTransmissionThresholdRadius(2)
+                .setBeaconMovementStrategyType(MovementStrategyFactory.Type.RANDOM)
+                .setObserverMovementStrategyType(MovementStrategyFactory.Type.RANDOM)
+                .setAwakenessStrategyType(AwakenessStrategyFactory.Type.FIXED)
+                .setAwakenessCycle(2)
+                .setAwakenessDuration(1)
+                .setSeed(seed);
+    }
+}
@@ -131,6 +131,46 @@ public class TracingSimulationBuilderTest {
         assertThrows(IllegalArgumentException.class, builder::build);
     }
 
+    @Test
+    public void setIllegalParallelismInBuilderShouldThrowException() {
+        final int illegalParallelism = 0;
+        AbstractSimulation.Builder builder = new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(MAX_ROUNDS_EQUALS_TWO)
+                .setRowNum(BOARD_DIMENSION_EQUALS_TWO)
+                .setColNum(BOARD_DIMENSION_EQUALS_TWO)
+                .setBeaconsNum(NUMBER_OF_BEACONS_EQUALS_TWO)
+                .setObserversNum(NUMBER_OF_OBSERVERS_EQUALS_TWO)
+                .setTransmissionThresholdRadius(TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE)
+                .setBeaconMovementStrategyType(MOVE_UP)
+                .setObserverMovementStrategyType(STATIONARY)
+                .setAwakenessCycle(AWAKENESS_CYCLE_EQUALS_TWO)
+                .setAwakenessDuration(AWAKENESS_DURATION_EQUALS_ONE)
+                .setAwakenessStrategyType(FIXES_AWAKENESS_STRATEGY_TYPE)
+                .setParallelism(illegalParallelism);
+
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    @Test
+    public void setIllegalKeyframeIntervalInBuilderShouldThrowException() {
+        final int illegalKeyframeInterval = 0;
+        AbstractSimulation.Builder builder = new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(MAX_ROUNDS_EQUALS_TWO)
+                .setRowNum(BOARD_DIMENSION_EQUALS_TWO)
+                .setColNum(BOARD_DIMENSION_EQUALS_TWO)
+                .setBeaconsNum(NUMBER_OF_BEACONS_EQUALS_TWO)
+                .setObserversNum(NUMBER_OF_OBSERVERS_EQUALS_TWO)
+                .setTransmissionThresholdRadius(TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE)
+                .setBeaconMovementStrategyType(MOVE_UP)
+                .setObserverMovementStrategyType(STATIONARY)
+                .setAwakenessCycle(AWAKENESS_CYCLE_EQUALS_TWO)
+                .setAwakenessDuration(AWAKENESS_DURATION_EQUALS_ONE)
+                .setAwakenessStrategyType(FIXES_AWAKENESS_STRATEGY_TYPE)
+                .setKeyframeInterval(illegalKeyframeInterval);
+
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
     @Test
     public void skipSettingBeaconMovementStrategyInBuilderShouldThrowException() {
         AbstractSimulation.Builder builder = new TracingSimulation.Builder()
@@ -182,6 +222,25 @@ public class TracingSimulationBuilderTest {
         assertThrows(NullPointerException.class, builder::build);
     }
 
+    @Test
+    public void setNullRunModeInBuilderShouldThrowException() {
+        AbstractSimulation.Builder builder = new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(MAX_ROUNDS_EQUALS_TWO)
+                .setRowNum(BOARD_DIMENSION_EQUALS_TWO)
+                .setColNum(BOARD_DIMENSION_EQUALS_TWO)
+                .setBeaconsNum(NUMBER_OF_BEACONS_EQUALS_TWO)
+                .setObserversNum(NUMBER_OF_OBSERVERS_EQUALS_TWO)
+                .setTransmissionThresholdRadius(TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE)
+                .setBeaconMovementStrategyType(MOVE_UP)
+                .setObserverMovementStrategyType(STATIONARY)
+                .setAwakenessCycle(AWAKENESS_CYCLE_EQUALS_TWO)
+                .setAwakenessDuration(AWAKENESS_DURATION_EQUALS_ONE)
+                .setAwakenessStrategyType(FIXES_AWAKENESS_STRATEGY_TYPE)
+                .setRunMode(null);
+
+        assertThrows(NullPointerException.class, builder::build);
+    }
+
     @Test
     public void skipSettingBoardDimensionInBuilderShouldThrowException() {
         AbstractSimulation.Builder builder = new TracingSimulation.Builder()
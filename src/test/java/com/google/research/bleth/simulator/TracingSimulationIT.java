@@ -18,6 +18,10 @@ import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.dev.LocalDatastoreService;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
@@ -27,7 +31,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Table;
 import com.google.research.bleth.exceptions.StatisticsAlreadyExistException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -50,6 +56,7 @@ public class TracingSimulationIT {
     private static final double TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE = 1.0;
     private static final int AWAKENESS_CYCLE_EQUALS_TWO = 2;
     private static final int AWAKENESS_DURATION_EQUALS_ONE = 1;
+    private static final int RANDOM_SIMULATION_ROUNDS_NUM = 30;
 
     @Before
     public void setUp() {
@@ -371,6 +378,49 @@ public class TracingSimulationIT {
         }
     }
 
+    @Test
+    public void runParallelSimulationWithOneObserverAwakeEveryOtherRoundVerifyObservedStats() {
+        int roundsNum = 10;
+        int rowsNum = 2;
+        int colsNum = 2;
+        int beaconsNum = 100;
+        int observersNum = 1;
+        int parallelism = 4;
+        double transmissionRadius = 2.0; // Includes the whole board
+
+        double observerAwakenessRatio = (double) AWAKENESS_DURATION_EQUALS_ONE / AWAKENESS_CYCLE_EQUALS_TWO;
+        double observerAwakenessInterval = 1;
+        double observerSleepingInterval = 1;
+
+        AbstractSimulation simulation = new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(roundsNum + 1) // The first round is the initialization
+                .setRowNum(rowsNum)
+                .setColNum(colsNum)
+                .setBeaconsNum(beaconsNum)
+                .setObserversNum(observersNum)
+                .setTransmissionThresholdRadius(transmissionRadius)
+                .setBeaconMovementStrategyType(MOVE_UP)
+                .setObserverMovementStrategyType(STATIONARY)
+                .setAwakenessCycle(AWAKENESS_CYCLE_EQUALS_TWO)
+                .setAwakenessDuration(AWAKENESS_DURATION_EQUALS_ONE)
+                .setAwakenessStrategyType(AwakenessStrategyFactory.Type.FIXED)
+                .setParallelism(parallelism)
+                .build();
+
+        simulation.run();
+        String simulationId = simulation.getId();
+
+        Map<String, Map<String, Double>> observedStats = StatisticsState.readBeaconsObservedStats(simulationId).rowMap();
+
+        assertThat(observedStats).hasSize(beaconsNum);
+        for (String beacon : observedStats.keySet()) {
+            Map<String, Double> stats = observedStats.get(beacon);
+            assertThat(stats.get(Schema.StatisticsState.observedPercent)).isEqualTo(observerAwakenessRatio);
+            assertThat(stats.get(Schema.StatisticsState.maximumLengthObservedInterval)).isEqualTo(observerAwakenessInterval);
+            assertThat(stats.get(Schema.StatisticsState.maximumLengthUnobservedInterval)).isEqualTo(observerSleepingInterval);
+        }
+    }
+
     @Test
     public void writeObservedStatisticsOfSameSimulationTwiceThrowsException() {
         Map<String, Double> fakeStats = new HashMap<>();
@@ -422,11 +472,113 @@ public class TracingSimulationIT {
         assertThat(actual).containsExactlyEntriesIn(expected);
     }
 
+    @Test
+    public void readIntervalStatsOfMultipleSimulations_shouldEqualIntervalStatsOfEachSimulation() {
+        AbstractSimulation firstSimulation = createRandomSimulationBuilder(/* seed= */ 1).build();
+        AbstractSimulation secondSimulation = createRandomSimulationBuilder(/* seed= */ 2).build();
+        firstSimulation.run();
+        secondSimulation.run();
+
+        Map<String, ImmutableMultimap<Integer, ObservedInterval>> intervalStats = StatisticsState.readIntervalStats(
+                Arrays.asList(firstSimulation.getId(), secondSimulation.getId(), "fake"));
+
+        assertThat(intervalStats.keySet()).containsExactly(firstSimulation.getId(), secondSimulation.getId(), "fake");
+        for (AbstractSimulation simulation : Arrays.asList(firstSimulation, secondSimulation)) {
+            ImmutableMultimap<Integer, ObservedInterval> simulationIntervalStats = intervalStats.get(simulation.getId());
+            assertThat(simulationIntervalStats)
+                    .containsExactlyEntriesIn(StatisticsState.readIntervalStats(simulation.getId())).inOrder();
+            assertThat(simulationIntervalStats).containsExactlyEntriesIn(simulation.getBeaconsObservedIntervals());
+            assertThat(simulationIntervalStats.keySet()).isInOrder();
+            for (Integer beaconId : simulationIntervalStats.keySet()) {
+                assertThat(simulationIntervalStats.get(beaconId))
+                        .isInOrder(Comparator.comparingInt(ObservedInterval::start));
+            }
+        }
+        assertThat(intervalStats.get("fake")).isEmpty();
+    }
+
+    @Test
+    public void buildTwoSimulationsWithSameSeed_shouldHaveSameInitialBoardStates() {
+        long seed = 2021;
+
+        AbstractSimulation firstSimulation = createRandomSimulationBuilder(seed).build();
+        AbstractSimulation secondSimulation = createRandomSimulationBuilder(seed).build();
+
+        assertThat(firstSimulation.getRealBoardState().agentsRepresentationsOnStateBoard())
+                .isEqualTo(secondSimulation.getRealBoardState().agentsRepresentationsOnStateBoard());
+    }
+
+    @Test
+    public void runParallelSeededSimulationThenReplayEveryRound_shouldGetWrittenBoardStates() {
+        int parallelism = 4;
+        AbstractSimulation simulation = createRandomSimulationBuilder(/* seed= */ 2021).setParallelism(parallelism).build();
+        simulation.run();
+        String simulationId = simulation.getId();
+        SimulationReplay replay = SimulationReplay.create(simulationId);
+
+        for (int round = 0; round < RANDOM_SIMULATION_ROUNDS_NUM; round++) {
+            assertThat(replay.replayReal(round)).isEqualTo(BoardState.readReal(simulationId, round));
+            assertThat(replay.replayEstimated(round)).isEqualTo(BoardState.readEstimated(simulationId, round));
+        }
+        assertThat(replay.replayReal(0)).isEqualTo(BoardState.readReal(simulationId, 0)); // restarts the replay.
+    }
+
+    @Test
+    public void getSharedReplayThenReplayFollowingRounds_shouldContinueSameReplay() {
+        AbstractSimulation simulation = createRandomSimulationBuilder(/* seed= */ 2021).build();
+        simulation.run();
+        String simulationId = simulation.getId();
+
+        SimulationReplay replay = SimulationReplay.get(simulationId);
+
+        assertThat(replay.replayReal(1)).isEqualTo(BoardState.readReal(simulationId, 1));
+        assertThat(SimulationReplay.get(simulationId)).isSameInstanceAs(replay);
+        assertThat(SimulationReplay.get(simulationId).replayReal(2)).isEqualTo(BoardState.readReal(simulationId, 2));
+    }
+
+    @Test
+    public void runStatisticsOnlySimulation_shouldWriteStatisticsWithoutBoardStates() {
+        AbstractSimulation simulation = createRandomSimulationBuilder(/* seed= */ 2021)
+                .setRunMode(AbstractSimulation.RunMode.STATISTICS_ONLY)
+                .build();
+
+        simulation.run();
+        String simulationId = simulation.getId();
+
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        for (String entityKind : new String[] {Schema.BoardState.entityKindPackedReal, Schema.BoardState.entityKindPackedEstimated,
+                Schema.BoardState.entityKindReal, Schema.BoardState.entityKindEstimated}) {
+            assertThat(datastore.prepare(new Query(entityKind)).countEntities(FetchOptions.Builder.withDefaults())).isEqualTo(0);
+        }
+        assertThat(StatisticsState.readDistancesStats(simulationId)).isNotEmpty();
+        assertThat(StatisticsState.readIntervalStats(simulationId)).containsExactlyEntriesIn(simulation.getBeaconsObservedIntervals());
+        assertThat(SimulationMetadata.read(simulationId).isBoardStatesWritten()).isFalse();
+        assertThat(SimulationReplay.create(simulationId).replayReal(RANDOM_SIMULATION_ROUNDS_NUM - 1))
+                .isEqualTo(simulation.getRealBoardState());
+    }
+
     @After
     public void tearDown() {
+        SimulationReplay.clearCache(); // simulation ids are reused once the local datastore is reset.
         helper.tearDown();
     }
 
+    private AbstractSimulation.Builder createRandomSimulationBuilder(long seed) {
+        return new TracingSimulation.Builder()
+                .setMaxNumberOfRounds(RANDOM_SIMULATION_ROUNDS_NUM)
+                .setRowNum(10)
+                .setColNum(10)
+                .setBeaconsNum(20)
+                .setObserversNum(20)
+                .setTransmissionThresholdRadius(TRANSMISSION_THRESHOLD_RADIUS_EQUALS_ONE)
+                .setBeaconMovementStrategyType(MovementStrategyFactory.Type.RANDOM)
+                .setObserverMovementStrategyType(MovementStrategyFactory.Type.RANDOM)
+                .setAwakenessCycle(AWAKENESS_CYCLE_EQUALS_TWO * 2)
+                .setAwakenessDuration(AWAKENESS_DURATION_EQUALS_ONE)
+                .setAwakenessStrategyType(AwakenessStrategyFactory.Type.RANDOM)
+                .setSeed(seed);
+    }
+
     private Location averageLocationOfObservers(Collection<Observer> observers) {
         int newRow = (int) Math.round((observers.stream().mapToDouble(observer -> observer.getLocation().row()).average().getAsDouble()));
         int newCol = (int) Math.round((observers.stream().mapToDouble(observer -> observer.getLocation().col()).average().getAsDouble()));
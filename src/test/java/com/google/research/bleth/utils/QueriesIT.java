@@ -608,6 +608,8 @@ public class QueriesIT {
         assertThat(retrieveEntities(Schema.StatisticsState.entityKindDistance)).isEmpty();
         assertThat(retrieveEntities(Schema.BoardState.entityKindReal)).isEmpty();
         assertThat(retrieveEntities(Schema.BoardState.entityKindEstimated)).isEmpty();
+        assertThat(retrieveEntities(Schema.BoardState.entityKindPackedReal)).isEmpty();
+        assertThat(retrieveEntities(Schema.BoardState.entityKindPackedEstimated)).isEmpty();
         assertThat(retrieveEntities(Schema.SimulationMetadata.entityKind)).isEmpty();
     }
 